@@ -63,6 +63,12 @@ sourceSets {
     test {
         java.srcDirs("test/junit")
     }
+    // Benchmarks are not part of the test run and must be executed manually
+    create("benchmark") {
+        java.srcDirs("test/benchmark")
+        compileClasspath += sourceSets["main"].output + configurations["testCompileClasspath"]
+        runtimeClasspath += output + compileClasspath + configurations["testRuntimeClasspath"]
+    }
 }
 
 tasks {
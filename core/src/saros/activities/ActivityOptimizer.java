@@ -1,13 +1,21 @@
 package saros.activities;
 
+import static saros.util.LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.apache.commons.lang3.tuple.Pair;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextPositionUtils;
 import saros.filesystem.IFile;
 
-/** Optimizer for activities. */
+/**
+ * Optimizer for activities. Superseded selection and viewport activities are dropped and
+ * consecutive text edits are merged.
+ */
 public class ActivityOptimizer {
 
   /**
@@ -68,8 +76,101 @@ public class ActivityOptimizer {
 
     activityIdx = 0;
 
-    for (IActivity activity : activities) if (!dropActivityIdx[activityIdx++]) result.add(activity);
+    /*
+     * merge consecutive text edits of the same user in the same file, e.g
+     * typed or deleted characters
+     */
+    for (IActivity activity : activities) {
+      if (dropActivityIdx[activityIdx++]) continue;
+
+      final int lastIdx = result.size() - 1;
+
+      if (lastIdx >= 0
+          && activity instanceof TextEditActivity
+          && result.get(lastIdx) instanceof TextEditActivity) {
+
+        final TextEditActivity merged =
+            merge((TextEditActivity) result.get(lastIdx), (TextEditActivity) activity);
+
+        if (merged != null) {
+          if (merged.getNewText().isEmpty() && merged.getReplacedText().isEmpty())
+            result.remove(lastIdx);
+          else result.set(lastIdx, merged);
+
+          continue;
+        }
+      }
+
+      result.add(activity);
+    }
 
     return result;
   }
+
+  /**
+   * Merges two text edits that were performed directly after each other by the same user in the
+   * same file into one text edit. This is only possible if the text affected by the second edit is
+   * adjacent to the text affected by the first one, e.g when typing, deleting with backspace or
+   * deleting forward.
+   *
+   * @param first the text edit that was performed first
+   * @param second the text edit that was performed directly after the first one
+   * @return a text edit with the same effect as applying both text edits or <code>null</code> if
+   *     the text edits cannot be merged
+   */
+  static TextEditActivity merge(TextEditActivity first, TextEditActivity second) {
+
+    if (!first.getSource().equals(second.getSource())
+        || !first.getResource().equals(second.getResource())) return null;
+
+    final TextPosition firstStart = first.getStartPosition();
+    final TextPosition secondStart = second.getStartPosition();
+
+    // second edit starts where the new text of the first edit ends
+    if (secondStart.equals(first.getNewEndPosition()))
+      return TextEditActivity.buildTextEditActivity(
+          first.getSource(),
+          firstStart,
+          first.getNewText() + second.getNewText(),
+          first.getReplacedText() + second.getReplacedText(),
+          first.getResource());
+
+    final TextPosition secondReplacedEnd = getEndPosition(secondStart, second.getReplacedText());
+
+    // second edit ends where the first edit starts
+    if (secondReplacedEnd.equals(firstStart))
+      return TextEditActivity.buildTextEditActivity(
+          first.getSource(),
+          secondStart,
+          second.getNewText() + first.getNewText(),
+          second.getReplacedText() + first.getReplacedText(),
+          first.getResource());
+
+    // second edit removes the end of the new text of the first edit
+    if (second.getNewText().isEmpty()
+        && secondReplacedEnd.equals(first.getNewEndPosition())
+        && first.getNewText().endsWith(second.getReplacedText())) {
+
+      final String newText = first.getNewText();
+
+      return TextEditActivity.buildTextEditActivity(
+          first.getSource(),
+          firstStart,
+          newText.substring(0, newText.length() - second.getReplacedText().length()),
+          first.getReplacedText(),
+          first.getResource());
+    }
+
+    return null;
+  }
+
+  private static TextPosition getEndPosition(TextPosition start, String text) {
+    final Pair<Integer, Integer> deltas =
+        TextPositionUtils.calculateDeltas(text, NORMALIZED_LINE_SEPARATOR);
+
+    if (deltas.getLeft() == 0)
+      return new TextPosition(start.getLineNumber(), start.getInLineOffset() + deltas.getRight());
+
+    return new TextPosition(start.getLineNumber() + deltas.getLeft(), deltas.getRight());
+  }
 }
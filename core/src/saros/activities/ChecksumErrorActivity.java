@@ -3,6 +3,8 @@ package saros.activities;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -15,6 +17,9 @@ import saros.session.User;
  *
  * <p>The host will reply with a ChecksumError of the same recoveryID after having sent the last
  * FileActivity (with {@link FileActivity#isRecovery()} being set related to this checksum recovery.
+ *
+ * <p>The user may add the {@link LineBlockChecksums} of its documents so that the host can replace
+ * only the inconsistent lines using a {@link RecoveryPatchActivity} instead of the whole file.
  */
 @XStreamAlias("checksumErrorActivity")
 public class ChecksumErrorActivity extends AbstractActivity implements ITargetedActivity {
@@ -25,10 +30,32 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
 
   @XStreamImplicit protected List<ResourceTransportWrapper<IFile>> files;
 
+  protected List<LineBlockChecksums> blockChecksums;
+
   public ChecksumErrorActivity(User source, User target, List<IFile> files, String recoveryID) {
+    this(source, target, files, null, recoveryID);
+  }
+
+  /**
+   * @param source the user who is the source (originator) of this activity
+   * @param target the target user to receive this activity
+   * @param files the inconsistent files or <code>null</code>
+   * @param blockChecksums the line block checksums of the inconsistent files in the same order, an
+   *     entry is <code>null</code> if not available; may be <code>null</code>
+   * @param recoveryID the id of the recovery
+   */
+  public ChecksumErrorActivity(
+      User source,
+      User target,
+      List<IFile> files,
+      List<LineBlockChecksums> blockChecksums,
+      String recoveryID) {
 
     super(source);
 
+    if (blockChecksums != null && (files == null || files.size() != blockChecksums.size()))
+      throw new IllegalArgumentException("block checksums do not match the files");
+
     if (target == null) throw new IllegalArgumentException("target must not be null");
 
     this.target = target;
@@ -36,6 +63,7 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
         files == null
             ? null
             : files.stream().map(ResourceTransportWrapper::new).collect(Collectors.toList());
+    this.blockChecksums = blockChecksums == null ? null : new ArrayList<>(blockChecksums);
     this.recoveryID = recoveryID;
   }
 
@@ -50,6 +78,16 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
         : files.stream().map(ResourceTransportWrapper::getResource).collect(Collectors.toList());
   }
 
+  /**
+   * Returns the line block checksums of the files in the same order as {@link #getFiles()}.
+   *
+   * @return the line block checksums, an entry is <code>null</code> if not available, or <code>null
+   *     </code> if no line block checksums are available at all
+   */
+  public List<LineBlockChecksums> getBlockChecksums() {
+    return blockChecksums == null ? null : Collections.unmodifiableList(blockChecksums);
+  }
+
   /** Each ChecksumError has a unique ID, which should be used to identify a recovery session */
   public String getRecoveryID() {
     return recoveryID;
@@ -65,6 +103,7 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
     final int prime = 31;
     int result = super.hashCode();
     result = prime * result + Objects.hashCode(files);
+    result = prime * result + Objects.hashCode(blockChecksums);
     result = prime * result + Objects.hashCode(recoveryID);
     result = prime * result + Objects.hashCode(target);
     return result;
@@ -80,6 +119,7 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
 
     if (!Objects.equals(this.recoveryID, other.recoveryID)) return false;
     if (!Objects.equals(this.files, other.files)) return false;
+    if (!Objects.equals(this.blockChecksums, other.blockChecksums)) return false;
     if (!Objects.equals(this.target, other.target)) return false;
 
     return true;
@@ -93,6 +133,8 @@ public class ChecksumErrorActivity extends AbstractActivity implements ITargeted
         + target
         + ", files: "
         + getFiles()
+        + ", blockChecksums: "
+        + blockChecksums
         + ", recoveryID: "
         + recoveryID
         + ")";
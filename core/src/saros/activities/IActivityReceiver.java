@@ -67,6 +67,10 @@ public interface IActivityReceiver {
     /*NOP*/
   }
 
+  default void receive(RecoveryPatchActivity recoveryPatchActivity) {
+    /*NOP*/
+  }
+
   default void receive(StartFollowingActivity startFollowingActivity) {
     /*NOP*/
   }
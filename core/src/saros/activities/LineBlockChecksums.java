@@ -0,0 +1,101 @@
+package saros.activities;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import java.util.Arrays;
+
+/**
+ * The checksums of the blocks of lines a document is divided into. Sent along with a {@link
+ * ChecksumErrorActivity} so that the host is able to narrow an inconsistency down to the lines that
+ * actually differ.
+ *
+ * <p>Besides the number of lines and the hash of every block, it contains the length and hash of
+ * the whole (normalized) document content the blocks were calculated from.
+ */
+@XStreamAlias("lineBlockChecksums")
+public class LineBlockChecksums {
+
+  @XStreamAsAttribute private final int length;
+
+  @XStreamAsAttribute private final int hash;
+
+  private final int[] lineCounts;
+
+  private final int[] hashes;
+
+  /**
+   * @param length the length of the document content
+   * @param hash the hash of the document content
+   * @param lineCounts the number of lines of every block
+   * @param hashes the hash of every block
+   */
+  public LineBlockChecksums(int length, int hash, int[] lineCounts, int[] hashes) {
+    if (lineCounts.length != hashes.length)
+      throw new IllegalArgumentException("number of line counts and hashes differ");
+
+    this.length = length;
+    this.hash = hash;
+    this.lineCounts = lineCounts;
+    this.hashes = hashes;
+  }
+
+  /** Returns the length of the document content. */
+  public int getLength() {
+    return length;
+  }
+
+  /** Returns the hash of the document content. */
+  public int getHash() {
+    return hash;
+  }
+
+  /** Returns the number of blocks. */
+  public int getBlockCount() {
+    return hashes.length;
+  }
+
+  /** Returns the number of lines of the given block. */
+  public int getLineCount(int block) {
+    return lineCounts[block];
+  }
+
+  /** Returns the hash of the given block. */
+  public int getHash(int block) {
+    return hashes[block];
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + length;
+    result = prime * result + hash;
+    result = prime * result + Arrays.hashCode(lineCounts);
+    result = prime * result + Arrays.hashCode(hashes);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof LineBlockChecksums)) return false;
+
+    LineBlockChecksums other = (LineBlockChecksums) obj;
+
+    return length == other.length
+        && hash == other.hash
+        && Arrays.equals(lineCounts, other.lineCounts)
+        && Arrays.equals(hashes, other.hashes);
+  }
+
+  @Override
+  public String toString() {
+    return "LineBlockChecksums [length="
+        + length
+        + ", hash="
+        + hash
+        + ", blocks="
+        + hashes.length
+        + "]";
+  }
+}
@@ -0,0 +1,190 @@
+package saros.activities;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+/**
+ * A RecoveryPatchActivity is sent by the host instead of a recovery {@link TargetedFileActivity} if
+ * only some lines of a file are inconsistent. It replaces ranges of lines of the target's document
+ * with the host's lines.
+ *
+ * <p>The patch can only be applied to the (normalized) document content the target reported in its
+ * {@link LineBlockChecksums}, whose length and hash are contained in the patch as well.
+ */
+@XStreamAlias("recoveryPatchActivity")
+public class RecoveryPatchActivity extends AbstractResourceActivity<IFile>
+    implements ITargetedActivity {
+
+  /** The replacement of a range of lines of the target's document. */
+  @XStreamAlias("replacement")
+  public static class Replacement {
+
+    @XStreamAsAttribute private final int startLine;
+
+    @XStreamAsAttribute private final int lineCount;
+
+    private final String text;
+
+    /**
+     * @param startLine the first line of the range in the target's document
+     * @param lineCount the number of lines of the range
+     * @param text the normalized text replacing the lines, including the line separators
+     */
+    public Replacement(int startLine, int lineCount, String text) {
+      this.startLine = startLine;
+      this.lineCount = lineCount;
+      this.text = text;
+    }
+
+    public int getStartLine() {
+      return startLine;
+    }
+
+    public int getLineCount() {
+      return lineCount;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startLine, lineCount, text);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Replacement)) return false;
+
+      Replacement other = (Replacement) obj;
+
+      return startLine == other.startLine
+          && lineCount == other.lineCount
+          && Objects.equals(text, other.text);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + startLine + "+" + lineCount + ": " + text.length() + " char(s)]";
+    }
+  }
+
+  @XStreamAsAttribute private final User target;
+
+  @XStreamAsAttribute private final int baseLength;
+
+  @XStreamAsAttribute private final int baseHash;
+
+  @XStreamImplicit private final List<Replacement> replacements;
+
+  /**
+   * @param source the user who is the source (originator) of this activity
+   * @param target the target user to receive this activity
+   * @param file the file to patch
+   * @param baseLength the length of the document content the patch applies to
+   * @param baseHash the hash of the document content the patch applies to
+   * @param replacements the replacements in ascending order of their lines
+   */
+  public RecoveryPatchActivity(
+      User source,
+      User target,
+      IFile file,
+      int baseLength,
+      int baseHash,
+      List<Replacement> replacements) {
+
+    super(source, file);
+
+    if (target == null) throw new IllegalArgumentException("target must not be null");
+
+    this.target = target;
+    this.baseLength = baseLength;
+    this.baseHash = baseHash;
+    this.replacements = new ArrayList<>(replacements);
+  }
+
+  @Override
+  public boolean isValid() {
+    return super.isValid() && (target != null) && (getResource() != null);
+  }
+
+  @Override
+  public User getTarget() {
+    return target;
+  }
+
+  /** Returns the length of the document content the patch applies to. */
+  public int getBaseLength() {
+    return baseLength;
+  }
+
+  /** Returns the hash of the document content the patch applies to. */
+  public int getBaseHash() {
+    return baseHash;
+  }
+
+  /** Returns the replacements in ascending order of their lines. */
+  public List<Replacement> getReplacements() {
+    return replacements == null
+        ? Collections.<Replacement>emptyList()
+        : Collections.unmodifiableList(replacements);
+  }
+
+  @Override
+  public void dispatch(IActivityReceiver receiver) {
+    receiver.receive(this);
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = super.hashCode();
+    result = prime * result + baseLength;
+    result = prime * result + baseHash;
+    result = prime * result + Objects.hashCode(replacements);
+    result = prime * result + Objects.hashCode(target);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!super.equals(obj)) return false;
+    if (!(obj instanceof RecoveryPatchActivity)) return false;
+
+    RecoveryPatchActivity other = (RecoveryPatchActivity) obj;
+
+    if (this.baseLength != other.baseLength) return false;
+    if (this.baseHash != other.baseHash) return false;
+    if (!Objects.equals(this.replacements, other.replacements)) return false;
+    if (!Objects.equals(this.target, other.target)) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "RecoveryPatchActivity(src: "
+        + getSource()
+        + ", target: "
+        + target
+        + ", file: "
+        + getResource()
+        + ", base: ["
+        + baseLength
+        + ","
+        + baseHash
+        + "], replacements: "
+        + replacements
+        + ")";
+  }
+}
@@ -15,9 +15,11 @@ import saros.activities.FolderCreatedActivity;
 import saros.activities.FolderDeletedActivity;
 import saros.activities.IActivity;
 import saros.activities.JupiterActivity;
+import saros.activities.LineBlockChecksums;
 import saros.activities.NOPActivity;
 import saros.activities.PermissionActivity;
 import saros.activities.ProgressActivity;
+import saros.activities.RecoveryPatchActivity;
 import saros.activities.ResourceTransportWrapper;
 import saros.activities.StartFollowingActivity;
 import saros.activities.StopActivity;
@@ -39,6 +41,12 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
 
   public static final Provider PROVIDER = new Provider();
 
+  /**
+   * Binary codec for this extension, used instead of XML when the remote side supports it. Must be
+   * initialized after the {@linkplain #PROVIDER provider}.
+   */
+  public static final ActivitiesExtensionCodec CODEC = new ActivitiesExtensionCodec();
+
   @XStreamImplicit private final List<IActivity> activities;
 
   @XStreamAlias("seq")
@@ -120,6 +128,10 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
           // Resource transport wrapper
           ResourceTransportWrapper.class,
 
+          // Recovery
+          LineBlockChecksums.class,
+          RecoveryPatchActivity.Replacement.class,
+
           // Activities
           ChangeColorActivity.class,
           ChecksumActivity.class,
@@ -133,6 +145,7 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
           NOPActivity.class,
           PermissionActivity.class,
           ProgressActivity.class,
+          RecoveryPatchActivity.class,
           TargetedFileActivity.class,
           StartFollowingActivity.class,
           StopActivity.class,
@@ -0,0 +1,1108 @@
+package saros.communication.extensions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.jivesoftware.smack.packet.PacketExtension;
+import saros.activities.ChangeColorActivity;
+import saros.activities.ChecksumActivity;
+import saros.activities.ChecksumErrorActivity;
+import saros.activities.DeletionAcknowledgmentActivity;
+import saros.activities.EditorActivity;
+import saros.activities.FileActivity;
+import saros.activities.FolderCreatedActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.IActivity;
+import saros.activities.IActivityReceiver;
+import saros.activities.JupiterActivity;
+import saros.activities.LineBlockChecksums;
+import saros.activities.NOPActivity;
+import saros.activities.PermissionActivity;
+import saros.activities.ProgressActivity;
+import saros.activities.RecoveryPatchActivity;
+import saros.activities.StartFollowingActivity;
+import saros.activities.StopActivity;
+import saros.activities.StopFollowingActivity;
+import saros.activities.TargetedFileActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.Timestamp;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.TimestampOperation;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextSelection;
+import saros.filesystem.IFile;
+import saros.filesystem.IFolder;
+import saros.filesystem.IReferencePoint;
+import saros.filesystem.IResource;
+import saros.net.IPacketExtensionCodec;
+import saros.net.PacketExtensionCodecManager;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+import saros.session.User.Permission;
+import saros.util.PathUtils;
+
+/**
+ * Compact binary codec for {@link ActivitiesExtension}s. It is used instead of the XStream XML
+ * representation if the remote side of a connection supports the {@linkplain #FORMAT format}.
+ *
+ * <p>Every activity and operation type registered at the {@linkplain ActivitiesExtension.Provider
+ * provider} is supported. Users, resources, enum constants and other repeating strings are written
+ * only once per extension and referenced by an index afterwards. All numbers are written as
+ * variable length (zigzag) integers.
+ *
+ * <p>Like the session-dependent XStream converters the codec is only able to encode and decode
+ * extensions while it is {@linkplain #bind(ISarosSession) bound} to a session.
+ *
+ * <p><b>Note:</b> Adding, removing or changing an activity or operation type requires to increase
+ * the {@linkplain #VERSION version} of this codec !
+ */
+public final class ActivitiesExtensionCodec implements IPacketExtensionCodec {
+
+  private static final Logger log = Logger.getLogger(ActivitiesExtensionCodec.class);
+
+  /** Version of the binary format. */
+  private static final int VERSION = 2;
+
+  /** Identifier of the binary format that is announced to the remote side. */
+  public static final String FORMAT = "ados-bin-" + VERSION;
+
+  private static class Tag {
+    /* never reuse or change a tag, add new tags and increase the version instead */
+
+    private static final int CHANGE_COLOR = 1;
+    private static final int CHECKSUM = 2;
+    private static final int CHECKSUM_ERROR = 3;
+    private static final int DELETION_ACKNOWLEDGMENT = 4;
+    private static final int EDITOR = 5;
+    private static final int FILE = 6;
+    private static final int FOLDER_CREATED = 7;
+    private static final int FOLDER_DELETED = 8;
+    private static final int JUPITER = 9;
+    private static final int NOP = 10;
+    private static final int PERMISSION = 11;
+    private static final int PROGRESS = 12;
+    private static final int START_FOLLOWING = 13;
+    private static final int STOP = 14;
+    private static final int STOP_FOLLOWING = 15;
+    private static final int TARGETED_FILE = 16;
+    private static final int TEXT_SELECTION = 17;
+    private static final int VIEWPORT = 18;
+    private static final int RECOVERY_PATCH = 19;
+
+    private static final int NULL = 0;
+
+    private static final int DELETE_OPERATION = 1;
+    private static final int INSERT_OPERATION = 2;
+    private static final int NO_OPERATION = 3;
+    private static final int SPLIT_OPERATION = 4;
+    private static final int TIMESTAMP_OPERATION = 5;
+
+    private static final int VECTOR_TIME = 1;
+  }
+
+  /** Thrown if an object cannot be represented in the binary format. */
+  private static class NotEncodableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private NotEncodableException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Placeholder for a received activity that refers to a user or resource that is not known in the
+   * current session. The placeholder is invalid and so discarded by the session, but it preserves
+   * the sequence numbers of the remaining activities of the extension.
+   */
+  private static final class UnresolvableActivity implements IActivity {
+
+    private final String reason;
+
+    private UnresolvableActivity(String reason) {
+      this.reason = reason;
+    }
+
+    @Override
+    public User getSource() {
+      return null;
+    }
+
+    @Override
+    public void dispatch(IActivityReceiver receiver) {
+      // NOP
+    }
+
+    @Override
+    public boolean isValid() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return "UnresolvableActivity(" + reason + ")";
+    }
+  }
+
+  private volatile ISarosSession session;
+
+  ActivitiesExtensionCodec() {
+    PacketExtensionCodecManager.getInstance().addCodec(this);
+  }
+
+  /**
+   * Binds this codec to the given session. Users and resources are resolved against this session.
+   *
+   * @param session the current session
+   */
+  public synchronized void bind(ISarosSession session) {
+    this.session = session;
+  }
+
+  /**
+   * Unbinds this codec from the given session. The call has no effect if the codec is currently
+   * bound to another session.
+   *
+   * @param session the session to unbind from
+   */
+  public synchronized void unbind(ISarosSession session) {
+    if (this.session == session) this.session = null;
+  }
+
+  @Override
+  public String getElementName() {
+    return ActivitiesExtension.PROVIDER.getElementName();
+  }
+
+  @Override
+  public String getNamespace() {
+    return ActivitiesExtension.PROVIDER.getNamespace();
+  }
+
+  @Override
+  public String getFormat() {
+    return FORMAT;
+  }
+
+  @Override
+  public byte[] encode(PacketExtension extension) {
+    return encode(extension, true, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The header consists of the session id and the sequence number of the extension.
+   */
+  @Override
+  public byte[] encodeHeader(PacketExtension extension) {
+    return encode(extension, true, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The content consists of the activities of the extension.
+   */
+  @Override
+  public byte[] encodeContent(PacketExtension extension) {
+    return encode(extension, false, true);
+  }
+
+  private byte[] encode(PacketExtension extension, boolean header, boolean content) {
+    final ActivitiesExtension payload = ActivitiesExtension.PROVIDER.getPayload(extension);
+
+    if (payload == null) return null;
+
+    final ISarosSession currentSession = session;
+
+    if (currentSession == null) return null;
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+
+    try {
+      final Writer writer = new Writer(new DataOutputStream(bytes), currentSession);
+
+      if (header) writer.writeHeader(payload);
+
+      if (content) writer.writeContent(payload);
+    } catch (NotEncodableException e) {
+      log.debug("extension cannot be encoded: " + e.getMessage());
+      return null;
+    } catch (IOException e) {
+      // cannot happen as we are writing into memory
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public PacketExtension decode(byte[] data) throws IOException {
+    final ISarosSession currentSession = session;
+
+    if (currentSession == null) throw new IOException("codec is not bound to a session");
+
+    final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+
+    final ActivitiesExtension extension =
+        new Reader(new DataInputStream(bytes), bytes, currentSession).readExtension();
+
+    if (bytes.available() != 0)
+      throw new IOException("malformed data, " + bytes.available() + " byte(s) left");
+
+    return ActivitiesExtension.PROVIDER.create(extension);
+  }
+
+  private static final class Writer {
+
+    private final DataOutputStream out;
+    private final ISarosSession session;
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+
+    private Writer(DataOutputStream out, ISarosSession session) {
+      this.out = out;
+      this.session = session;
+    }
+
+    /*
+     * the header must not add any symbols as it is encoded separately from
+     * the content when an extension is sent to multiple recipients
+     */
+    private void writeHeader(ActivitiesExtension extension) throws IOException {
+      out.writeByte(VERSION);
+      writeString(extension.getSessionID());
+      writeInt(extension.getSequenceNumber());
+    }
+
+    private void writeContent(ActivitiesExtension extension)
+        throws IOException, NotEncodableException {
+
+      final List<IActivity> activities = extension.getActivities();
+
+      writeInt(activities.size());
+
+      for (final IActivity activity : activities) writeActivity(activity);
+    }
+
+    private void writeActivity(IActivity activity) throws IOException, NotEncodableException {
+
+      final Class<?> clazz = activity.getClass();
+
+      if (clazz == ChangeColorActivity.class) {
+        final ChangeColorActivity a = (ChangeColorActivity) activity;
+        writeTag(Tag.CHANGE_COLOR, a);
+        writeUser(a.getTarget());
+        writeUser(a.getAffected());
+        writeInt(a.getColorID());
+
+      } else if (clazz == ChecksumActivity.class) {
+        final ChecksumActivity a = (ChecksumActivity) activity;
+        writeTag(Tag.CHECKSUM, a);
+        writeResource(a.getResource());
+        writeLong(a.getHash());
+        writeLong(a.getLength());
+        writeTimestamp(a.getTimestamp());
+
+      } else if (clazz == ChecksumErrorActivity.class) {
+        final ChecksumErrorActivity a = (ChecksumErrorActivity) activity;
+        writeTag(Tag.CHECKSUM_ERROR, a);
+        writeUser(a.getTarget());
+        writeString(a.getRecoveryID());
+
+        final List<IFile> files = a.getFiles();
+
+        writeInt(files == null ? -1 : files.size());
+
+        if (files != null) for (final IFile file : files) writeResource(file);
+
+        final List<LineBlockChecksums> blockChecksums = a.getBlockChecksums();
+
+        writeInt(blockChecksums == null ? -1 : blockChecksums.size());
+
+        if (blockChecksums != null)
+          for (final LineBlockChecksums checksums : blockChecksums) writeBlockChecksums(checksums);
+
+      } else if (clazz == DeletionAcknowledgmentActivity.class) {
+        final DeletionAcknowledgmentActivity a = (DeletionAcknowledgmentActivity) activity;
+        writeTag(Tag.DELETION_ACKNOWLEDGMENT, a);
+        writeResource(a.getResource());
+
+      } else if (clazz == EditorActivity.class) {
+        final EditorActivity a = (EditorActivity) activity;
+        writeTag(Tag.EDITOR, a);
+        writeEnum(a.getType());
+        writeResource(a.getResource());
+
+      } else if (clazz == FileActivity.class) {
+        final FileActivity a = (FileActivity) activity;
+        writeTag(Tag.FILE, a);
+        writeFileActivityFields(a);
+
+      } else if (clazz == FolderCreatedActivity.class) {
+        final FolderCreatedActivity a = (FolderCreatedActivity) activity;
+        writeTag(Tag.FOLDER_CREATED, a);
+        writeResource(a.getResource());
+
+      } else if (clazz == FolderDeletedActivity.class) {
+        final FolderDeletedActivity a = (FolderDeletedActivity) activity;
+        writeTag(Tag.FOLDER_DELETED, a);
+        writeResource(a.getResource());
+
+      } else if (clazz == JupiterActivity.class) {
+        final JupiterActivity a = (JupiterActivity) activity;
+        writeTag(Tag.JUPITER, a);
+        writeResource(a.getResource());
+        writeTimestamp(a.getTimestamp());
+        writeOperation(a.getOperation());
+
+      } else if (clazz == NOPActivity.class) {
+        final NOPActivity a = (NOPActivity) activity;
+        writeTag(Tag.NOP, a);
+        writeUser(a.getTarget());
+        writeInt(a.getID());
+
+      } else if (clazz == PermissionActivity.class) {
+        final PermissionActivity a = (PermissionActivity) activity;
+        writeTag(Tag.PERMISSION, a);
+        writeUser(a.getAffectedUser());
+        writeEnum(a.getPermission());
+
+      } else if (clazz == ProgressActivity.class) {
+        final ProgressActivity a = (ProgressActivity) activity;
+        writeTag(Tag.PROGRESS, a);
+        writeUser(a.getTarget());
+        writeString(a.getProgressID());
+        writeInt(a.getWorkCurrent());
+        writeInt(a.getWorkTotal());
+        writeString(a.getTaskName());
+        writeEnum(a.getAction());
+
+      } else if (clazz == StartFollowingActivity.class) {
+        final StartFollowingActivity a = (StartFollowingActivity) activity;
+        writeTag(Tag.START_FOLLOWING, a);
+        writeUser(a.getFollowedUser());
+
+      } else if (clazz == StopActivity.class) {
+        final StopActivity a = (StopActivity) activity;
+        writeTag(Tag.STOP, a);
+        writeUser(a.getInitiator());
+        writeUser(a.getAffected());
+        writeEnum(a.getType());
+        writeEnum(a.getState());
+        writeString(a.getActivityID());
+
+      } else if (clazz == RecoveryPatchActivity.class) {
+        final RecoveryPatchActivity a = (RecoveryPatchActivity) activity;
+        writeTag(Tag.RECOVERY_PATCH, a);
+        writeUser(a.getTarget());
+        writeResource(a.getResource());
+        writeInt(a.getBaseLength());
+        writeInt(a.getBaseHash());
+
+        final List<RecoveryPatchActivity.Replacement> replacements = a.getReplacements();
+
+        writeInt(replacements.size());
+
+        for (final RecoveryPatchActivity.Replacement replacement : replacements) {
+          writeInt(replacement.getStartLine());
+          writeInt(replacement.getLineCount());
+          writeString(replacement.getText());
+        }
+
+      } else if (clazz == StopFollowingActivity.class) {
+        writeTag(Tag.STOP_FOLLOWING, activity);
+
+      } else if (clazz == TargetedFileActivity.class) {
+        final TargetedFileActivity a = (TargetedFileActivity) activity;
+        writeTag(Tag.TARGETED_FILE, a);
+        writeUser(a.getTarget());
+        writeFileActivityFields(a);
+
+      } else if (clazz == TextSelectionActivity.class) {
+        final TextSelectionActivity a = (TextSelectionActivity) activity;
+        writeTag(Tag.TEXT_SELECTION, a);
+        writeResource(a.getResource());
+
+        final TextSelection selection = a.getSelection();
+
+        out.writeBoolean(selection.isEmpty());
+
+        if (!selection.isEmpty()) {
+          writePosition(selection.getStartPosition());
+          writePosition(selection.getEndPosition());
+          out.writeBoolean(selection.isBackwardsSelection());
+        }
+
+      } else if (clazz == ViewportActivity.class) {
+        final ViewportActivity a = (ViewportActivity) activity;
+        writeTag(Tag.VIEWPORT, a);
+        writeResource(a.getResource());
+        writeInt(a.getStartLine());
+        writeInt(a.getNumberOfLines());
+
+      } else {
+        throw new NotEncodableException("unsupported activity type: " + clazz.getName());
+      }
+    }
+
+    private void writeTag(int tag, IActivity activity) throws IOException {
+      out.writeByte(tag);
+      writeUser(activity.getSource());
+    }
+
+    private void writeFileActivityFields(FileActivity activity)
+        throws IOException, NotEncodableException {
+      writeEnum(activity.getType());
+      writeEnum(
+          activity.isRecovery() ? FileActivity.Purpose.RECOVERY : FileActivity.Purpose.ACTIVITY);
+      writeResource(activity.getResource());
+      writeResource(activity.getOldResource());
+      writeBytes(activity.getContent());
+      writeSymbol(activity.getEncoding());
+    }
+
+    private void writeBlockChecksums(LineBlockChecksums checksums) throws IOException {
+      if (checksums == null) {
+        writeInt(-1);
+        return;
+      }
+
+      writeInt(checksums.getBlockCount());
+      writeInt(checksums.getLength());
+      writeInt(checksums.getHash());
+
+      for (int i = 0; i < checksums.getBlockCount(); i++) {
+        writeInt(checksums.getLineCount(i));
+        writeInt(checksums.getHash(i));
+      }
+    }
+
+    private void writeOperation(Operation operation) throws IOException, NotEncodableException {
+
+      if (operation == null) {
+        out.writeByte(Tag.NULL);
+        return;
+      }
+
+      final Class<?> clazz = operation.getClass();
+
+      if (clazz == DeleteOperation.class) {
+        final DeleteOperation o = (DeleteOperation) operation;
+        out.writeByte(Tag.DELETE_OPERATION);
+        writePosition(o.getStartPosition());
+        writeInt(o.getLineDelta());
+        writeInt(o.getOffsetDelta());
+        writeString(o.getText());
+
+      } else if (clazz == InsertOperation.class) {
+        final InsertOperation o = (InsertOperation) operation;
+        out.writeByte(Tag.INSERT_OPERATION);
+        writePosition(o.getStartPosition());
+        writeInt(o.getLineDelta());
+        writeInt(o.getOffsetDelta());
+        writeString(o.getText());
+        writePosition(o.getOriginStartPosition());
+
+      } else if (clazz == NoOperation.class) {
+        out.writeByte(Tag.NO_OPERATION);
+
+      } else if (clazz == SplitOperation.class) {
+        final SplitOperation o = (SplitOperation) operation;
+        out.writeByte(Tag.SPLIT_OPERATION);
+        writeOperation(o.getFirst());
+        writeOperation(o.getSecond());
+
+      } else if (clazz == TimestampOperation.class) {
+        out.writeByte(Tag.TIMESTAMP_OPERATION);
+
+      } else {
+        throw new NotEncodableException("unsupported operation type: " + clazz.getName());
+      }
+    }
+
+    private void writeTimestamp(Timestamp timestamp) throws IOException, NotEncodableException {
+
+      if (timestamp == null) {
+        out.writeByte(Tag.NULL);
+        return;
+      }
+
+      if (timestamp.getClass() != JupiterVectorTime.class)
+        throw new NotEncodableException(
+            "unsupported timestamp type: " + timestamp.getClass().getName());
+
+      final JupiterVectorTime vectorTime = (JupiterVectorTime) timestamp;
+
+      out.writeByte(Tag.VECTOR_TIME);
+      writeInt(vectorTime.getLocalOperationCount());
+      writeInt(vectorTime.getRemoteOperationCount());
+    }
+
+    private void writePosition(TextPosition position) throws IOException {
+      writeInt(position.getLineNumber());
+      writeInt(position.getInLineOffset());
+    }
+
+    // the string representation of a user is its JID, see readUser
+    private void writeUser(User user) throws IOException {
+      writeSymbol(user == null ? null : user.toString());
+    }
+
+    private void writeResource(IResource resource) throws IOException, NotEncodableException {
+
+      if (resource == null) {
+        writeSymbol(null);
+        return;
+      }
+
+      final String referencePointId = session.getReferencePointId(resource.getReferencePoint());
+
+      if (referencePointId == null)
+        throw new NotEncodableException("resource is not shared: " + resource);
+
+      final IResource.Type type = resource.getType();
+
+      if (type != IResource.Type.FILE && type != IResource.Type.FOLDER)
+        throw new NotEncodableException("illegal resource type " + type + ": " + resource);
+
+      writeSymbol(referencePointId);
+      writeSymbol(PathUtils.toPortableString(resource.getReferencePointRelativePath()));
+      out.writeBoolean(type == IResource.Type.FILE);
+    }
+
+    private void writeEnum(Enum<?> value) throws IOException {
+      writeSymbol(value == null ? null : value.name());
+    }
+
+    /**
+     * Writes a string that is likely to occur multiple times. The first occurrence is written
+     * inline, every further occurrence only as a reference.
+     */
+    private void writeSymbol(String symbol) throws IOException {
+      if (symbol == null) {
+        writeInt(0);
+        return;
+      }
+
+      final Integer index = symbols.get(symbol);
+
+      if (index != null) {
+        writeInt(index);
+        return;
+      }
+
+      final int newIndex = symbols.size() + 1;
+      symbols.put(symbol, newIndex);
+
+      writeInt(newIndex);
+      writeString(symbol);
+    }
+
+    private void writeString(String value) throws IOException {
+      writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] value) throws IOException {
+      if (value == null) {
+        writeInt(-1);
+        return;
+      }
+
+      writeInt(value.length);
+      out.write(value);
+    }
+
+    private void writeInt(int value) throws IOException {
+      writeLong(value);
+    }
+
+    private void writeLong(long value) throws IOException {
+      long v = (value << 1) ^ (value >> 63);
+
+      while ((v & ~0x7FL) != 0) {
+        out.writeByte((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+
+      out.writeByte((int) v);
+    }
+  }
+
+  private static final class Reader {
+
+    private final DataInputStream in;
+    private final ByteArrayInputStream bytes;
+    private final ISarosSession session;
+
+    private final List<String> symbols = new ArrayList<>();
+
+    private Reader(DataInputStream in, ByteArrayInputStream bytes, ISarosSession session) {
+      this.in = in;
+      this.bytes = bytes;
+      this.session = session;
+    }
+
+    private ActivitiesExtension readExtension() throws IOException {
+
+      final int version = in.readUnsignedByte();
+
+      if (version != VERSION) throw new IOException("unsupported version: " + version);
+
+      final String sessionID = readString();
+      final int sequenceNumber = readInt();
+      final int count = readLength();
+
+      final List<IActivity> activities = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++) activities.add(readActivity());
+
+      return new ActivitiesExtension(sessionID, activities, sequenceNumber);
+    }
+
+    private IActivity readActivity() throws IOException {
+      final int tag = in.readUnsignedByte();
+
+      final User source = readUser();
+
+      /*
+       * read all fields first, the constructors may refuse unresolved
+       * users or resources but the stream must always be consumed completely
+       */
+      final IActivity activity;
+
+      try {
+        activity = readActivity(tag, source);
+      } catch (IllegalArgumentException | IllegalStateException | NullPointerException e) {
+        return new UnresolvableActivity("tag: " + tag + ", source: " + source + ", " + e);
+      }
+
+      return activity;
+    }
+
+    private IActivity readActivity(int tag, User source) throws IOException {
+      switch (tag) {
+        case Tag.CHANGE_COLOR:
+          {
+            final User target = readUser();
+            final User affected = readUser();
+            final int colorID = readInt();
+            return new ChangeColorActivity(source, target, affected, colorID);
+          }
+
+        case Tag.CHECKSUM:
+          {
+            final IFile file = readFile();
+            final long hash = readLong();
+            final long length = readLong();
+            final Timestamp timestamp = readTimestamp();
+            return new ChecksumActivity(source, file, hash, length, timestamp);
+          }
+
+        case Tag.CHECKSUM_ERROR:
+          {
+            final User target = readUser();
+            final String recoveryID = readString();
+            final int count = readInt();
+
+            List<IFile> files = null;
+
+            if (count >= 0) {
+              files = new ArrayList<>(Math.min(count, bytes.available()));
+              for (int i = 0; i < count; i++) files.add(readFile());
+            }
+
+            final int blockCount = readInt();
+
+            List<LineBlockChecksums> blockChecksums = null;
+
+            if (blockCount >= 0) {
+              blockChecksums = new ArrayList<>(Math.min(blockCount, bytes.available()));
+              for (int i = 0; i < blockCount; i++) blockChecksums.add(readBlockChecksums());
+            }
+
+            return new ChecksumErrorActivity(source, target, files, blockChecksums, recoveryID);
+          }
+
+        case Tag.DELETION_ACKNOWLEDGMENT:
+          return new DeletionAcknowledgmentActivity(source, readFile());
+
+        case Tag.EDITOR:
+          {
+            final EditorActivity.Type type = readEnum(EditorActivity.Type.class);
+            final IFile file = readFile();
+            return new EditorActivity(source, type, file);
+          }
+
+        case Tag.FILE:
+          {
+            final FileActivity.Type type = readEnum(FileActivity.Type.class);
+            final FileActivity.Purpose purpose = readEnum(FileActivity.Purpose.class);
+            final IFile newFile = readFile();
+            final IFile oldFile = readFile();
+            final byte[] content = readBytes();
+            final String encoding = readSymbol();
+            return new FileActivity(source, type, purpose, newFile, oldFile, content, encoding);
+          }
+
+        case Tag.FOLDER_CREATED:
+          return new FolderCreatedActivity(source, readFolder());
+
+        case Tag.FOLDER_DELETED:
+          return new FolderDeletedActivity(source, readFolder());
+
+        case Tag.JUPITER:
+          {
+            final IFile file = readFile();
+            final Timestamp timestamp = readTimestamp();
+            final Operation operation = readOperation();
+            return new JupiterActivity(timestamp, operation, source, file);
+          }
+
+        case Tag.NOP:
+          {
+            final User target = readUser();
+            final int id = readInt();
+            return new NOPActivity(source, target, id);
+          }
+
+        case Tag.PERMISSION:
+          {
+            final User affected = readUser();
+            final Permission permission = readEnum(Permission.class);
+            return new PermissionActivity(source, affected, permission);
+          }
+
+        case Tag.PROGRESS:
+          {
+            final User target = readUser();
+            final String progressID = readString();
+            final int workCurrent = readInt();
+            final int workTotal = readInt();
+            final String taskName = readString();
+            final ProgressActivity.ProgressAction action =
+                readEnum(ProgressActivity.ProgressAction.class);
+            return new ProgressActivity(
+                source, target, progressID, workCurrent, workTotal, taskName, action);
+          }
+
+        case Tag.START_FOLLOWING:
+          return new StartFollowingActivity(source, readUser());
+
+        case Tag.STOP:
+          {
+            final User initiator = readUser();
+            final User affected = readUser();
+            final StopActivity.Type type = readEnum(StopActivity.Type.class);
+            final StopActivity.State state = readEnum(StopActivity.State.class);
+            final String id = readString();
+            return new StopActivity(source, initiator, affected, type, state, id);
+          }
+
+        case Tag.RECOVERY_PATCH:
+          {
+            final User target = readUser();
+            final IFile file = readFile();
+            final int baseLength = readInt();
+            final int baseHash = readInt();
+            final int count = readLength();
+
+            final List<RecoveryPatchActivity.Replacement> replacements = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+              final int startLine = readInt();
+              final int lineCount = readInt();
+              final String text = readString();
+              replacements.add(new RecoveryPatchActivity.Replacement(startLine, lineCount, text));
+            }
+
+            return new RecoveryPatchActivity(
+                source, target, file, baseLength, baseHash, replacements);
+          }
+
+        case Tag.STOP_FOLLOWING:
+          return new StopFollowingActivity(source);
+
+        case Tag.TARGETED_FILE:
+          {
+            final User target = readUser();
+            final FileActivity.Type type = readEnum(FileActivity.Type.class);
+            final FileActivity.Purpose purpose = readEnum(FileActivity.Purpose.class);
+            final IFile newFile = readFile();
+            final IFile oldFile = readFile();
+            final byte[] content = readBytes();
+            final String encoding = readSymbol();
+            return new TargetedFileActivity(
+                source, target, type, newFile, oldFile, content, encoding, purpose);
+          }
+
+        case Tag.TEXT_SELECTION:
+          {
+            final IFile file = readFile();
+
+            final TextSelection selection;
+
+            if (in.readBoolean()) {
+              selection = TextSelection.EMPTY_SELECTION;
+            } else {
+              final TextPosition start = readPosition();
+              final TextPosition end = readPosition();
+              selection = new TextSelection(start, end, in.readBoolean());
+            }
+
+            return new TextSelectionActivity(source, selection, file);
+          }
+
+        case Tag.VIEWPORT:
+          {
+            final IFile file = readFile();
+            final int startLine = readInt();
+            final int numberOfLines = readInt();
+            return new ViewportActivity(source, startLine, numberOfLines, file);
+          }
+
+        default:
+          throw new IOException("unknown activity tag: " + tag);
+      }
+    }
+
+    private LineBlockChecksums readBlockChecksums() throws IOException {
+      final int count = readInt();
+
+      if (count == -1) return null;
+
+      if (count < 0 || count > bytes.available())
+        throw new IOException("malformed data, illegal block count: " + count);
+
+      final int length = readInt();
+      final int hash = readInt();
+
+      final int[] lineCounts = new int[count];
+      final int[] hashes = new int[count];
+
+      for (int i = 0; i < count; i++) {
+        lineCounts[i] = readInt();
+        hashes[i] = readInt();
+      }
+
+      return new LineBlockChecksums(length, hash, lineCounts, hashes);
+    }
+
+    private Operation readOperation() throws IOException {
+      final int tag = in.readUnsignedByte();
+
+      switch (tag) {
+        case Tag.NULL:
+          return null;
+
+        case Tag.DELETE_OPERATION:
+          {
+            final TextPosition start = readPosition();
+            final int lineDelta = readInt();
+            final int offsetDelta = readInt();
+            final String text = readString();
+            return new DeleteOperation(start, lineDelta, offsetDelta, text);
+          }
+
+        case Tag.INSERT_OPERATION:
+          {
+            final TextPosition start = readPosition();
+            final int lineDelta = readInt();
+            final int offsetDelta = readInt();
+            final String text = readString();
+            final TextPosition origin = readPosition();
+            return new InsertOperation(start, lineDelta, offsetDelta, text, origin);
+          }
+
+        case Tag.NO_OPERATION:
+          return new NoOperation();
+
+        case Tag.SPLIT_OPERATION:
+          {
+            final Operation first = readOperation();
+            final Operation second = readOperation();
+            return new SplitOperation(first, second);
+          }
+
+        case Tag.TIMESTAMP_OPERATION:
+          return new TimestampOperation();
+
+        default:
+          throw new IOException("unknown operation tag: " + tag);
+      }
+    }
+
+    private Timestamp readTimestamp() throws IOException {
+      final int tag = in.readUnsignedByte();
+
+      switch (tag) {
+        case Tag.NULL:
+          return null;
+
+        case Tag.VECTOR_TIME:
+          {
+            final int local = readInt();
+            final int remote = readInt();
+            return new JupiterVectorTime(local, remote);
+          }
+
+        default:
+          throw new IOException("unknown timestamp tag: " + tag);
+      }
+    }
+
+    private TextPosition readPosition() throws IOException {
+      final int lineNumber = readInt();
+      final int inLineOffset = readInt();
+      return new TextPosition(lineNumber, inLineOffset);
+    }
+
+    private User readUser() throws IOException {
+      final String jid = readSymbol();
+
+      return jid == null ? null : session.getUser(new JID(jid));
+    }
+
+    private IFile readFile() throws IOException {
+      final IResource resource = readResource();
+
+      if (resource != null && !(resource instanceof IFile))
+        throw new IOException("malformed data, expected a file but got: " + resource);
+
+      return (IFile) resource;
+    }
+
+    private IFolder readFolder() throws IOException {
+      final IResource resource = readResource();
+
+      if (resource != null && !(resource instanceof IFolder))
+        throw new IOException("malformed data, expected a folder but got: " + resource);
+
+      return (IFolder) resource;
+    }
+
+    private IResource readResource() throws IOException {
+      final String referencePointId = readSymbol();
+
+      if (referencePointId == null) return null;
+
+      final String path = readSymbol();
+      final boolean isFile = in.readBoolean();
+
+      if (path == null) throw new IOException("malformed data, resource path is missing");
+
+      final IReferencePoint referencePoint = session.getReferencePoint(referencePointId);
+
+      if (referencePoint == null) {
+        log.error(
+            "could not create resource because there is no shared reference point for id '"
+                + referencePointId
+                + "'");
+        return null;
+      }
+
+      return isFile
+          ? referencePoint.getFile(PathUtils.fromPortableString(path))
+          : referencePoint.getFolder(PathUtils.fromPortableString(path));
+    }
+
+    private <E extends Enum<E>> E readEnum(Class<E> clazz) throws IOException {
+      final String name = readSymbol();
+
+      if (name == null) return null;
+
+      try {
+        return Enum.valueOf(clazz, name);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("unknown constant " + name + " of " + clazz.getName(), e);
+      }
+    }
+
+    private String readSymbol() throws IOException {
+      final int index = readInt();
+
+      if (index == 0) return null;
+
+      if (index > 0 && index <= symbols.size()) return symbols.get(index - 1);
+
+      if (index != symbols.size() + 1)
+        throw new IOException("malformed data, illegal symbol reference: " + index);
+
+      final String symbol = readString();
+
+      if (symbol == null) throw new IOException("malformed data, symbol is null");
+
+      symbols.add(symbol);
+      return symbol;
+    }
+
+    private String readString() throws IOException {
+      final byte[] value = readBytes();
+      return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+      final int length = readInt();
+
+      if (length == -1) return null;
+
+      if (length < 0 || length > bytes.available())
+        throw new IOException("malformed data, illegal length: " + length);
+
+      final byte[] value = new byte[length];
+      in.readFully(value);
+      return value;
+    }
+
+    private int readLength() throws IOException {
+      final int length = readInt();
+
+      if (length < 0 || length > bytes.available())
+        throw new IOException("malformed data, illegal length: " + length);
+
+      return length;
+    }
+
+    private int readInt() throws IOException {
+      final long value = readLong();
+
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+        throw new IOException("malformed data, value exceeds integer range: " + value);
+
+      return (int) value;
+    }
+
+    private long readLong() throws IOException {
+      long v = 0;
+
+      for (int shift = 0; shift < 64; shift += 7) {
+        final int b = in.read();
+
+        if (b == -1) throw new EOFException("unexpected end of data");
+
+        v |= (long) (b & 0x7F) << shift;
+
+        if ((b & 0x80) == 0) return (v >>> 1) ^ -(v & 1);
+      }
+
+      throw new IOException("malformed data, variable length integer is too long");
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
+import java.util.Collections;
 import java.util.List;
 import saros.negotiation.FileList;
+import saros.negotiation.delta.FileSignature;
 
 @XStreamAlias(/* ResourceNegotiationMissingFiles */ "RNMF")
 public class ResourceNegotiationMissingFilesExtension extends ResourceNegotiationExtension {
@@ -11,21 +13,37 @@ public class ResourceNegotiationMissingFilesExtension extends ResourceNegotiatio
 
   private final List<FileList> fileLists;
 
+  /** signatures of the altered files, <code>null</code> if all files must be sent completely */
+  private final List<FileSignature> fileSignatures;
+
   public ResourceNegotiationMissingFilesExtension(
-      String sessionID, String negotiationID, List<FileList> fileLists) {
+      String sessionID,
+      String negotiationID,
+      List<FileList> fileLists,
+      List<FileSignature> fileSignatures) {
     super(sessionID, negotiationID);
     this.fileLists = fileLists;
+    this.fileSignatures =
+        fileSignatures == null || fileSignatures.isEmpty() ? null : fileSignatures;
   }
 
   public List<FileList> getFileLists() {
     return fileLists;
   }
 
+  public List<FileSignature> getFileSignatures() {
+    return fileSignatures == null ? Collections.<FileSignature>emptyList() : fileSignatures;
+  }
+
   public static class Provider
       extends ResourceNegotiationExtension.Provider<ResourceNegotiationMissingFilesExtension> {
 
     private Provider() {
-      super("rnmf", ResourceNegotiationMissingFilesExtension.class, FileList.class);
+      super(
+          "rnmf",
+          ResourceNegotiationMissingFilesExtension.class,
+          FileList.class,
+          FileSignature.class);
     }
   }
 }
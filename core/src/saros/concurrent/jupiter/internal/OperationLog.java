@@ -0,0 +1,148 @@
+package saros.concurrent.jupiter.internal;
+
+import java.util.Arrays;
+import saros.concurrent.jupiter.Operation;
+
+/**
+ * The outgoing queue of the Jupiter algorithm, containing the locally generated operations that are
+ * not yet acknowledged by the other site, together with the local operation count at the time they
+ * were generated.
+ *
+ * <p>The log is a ring buffer. As the local operation counts of consecutive entries are consecutive
+ * too, acknowledged operations are always a prefix of the log whose length is known without
+ * searching. They are discarded by moving the head, the remaining entries are never moved. Entries
+ * are transformed in place.
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+final class OperationLog {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Operation[] operations = new Operation[INITIAL_CAPACITY];
+
+  /** index of the oldest entry */
+  private int head;
+
+  private int size;
+
+  /** local operation count of the oldest entry */
+  private int firstOperationCount;
+
+  /**
+   * Appends an operation to the log.
+   *
+   * @param operation the operation
+   * @param localOperationCount the local operation count at the time the operation was generated,
+   *     must be the successor of the count of the last entry if the log is not empty
+   */
+  void add(final Operation operation, final int localOperationCount) {
+    if (size == 0) {
+      head = 0;
+      firstOperationCount = localOperationCount;
+    } else if (localOperationCount != firstOperationCount + size) {
+      throw new IllegalArgumentException(
+          "operation count "
+              + localOperationCount
+              + " does not follow "
+              + (firstOperationCount + size - 1));
+    }
+
+    if (size == operations.length) grow();
+
+    operations[index(size)] = operation;
+    size++;
+  }
+
+  /**
+   * Discards all operations whose local operation count is lower than the given count, i.e
+   * operations that were already processed by the other site.
+   *
+   * @param operationCount the number of local operations processed by the other site
+   */
+  void discardBefore(final int operationCount) {
+    final int count = Math.min(size, Math.max(0, operationCount - firstOperationCount));
+
+    for (int i = 0; i < count; i++) operations[index(i)] = null;
+
+    head = index(count);
+    size -= count;
+    firstOperationCount += count;
+  }
+
+  /**
+   * Returns the operation at the given position, <code>0</code> is the oldest operation.
+   *
+   * @param index the position of the operation
+   * @return the operation
+   */
+  Operation get(final int index) {
+    checkIndex(index);
+    return operations[index(index)];
+  }
+
+  /**
+   * Replaces the operation at the given position, e.g by its transformed version.
+   *
+   * @param index the position of the operation
+   * @param operation the new operation
+   */
+  void set(final int index, final Operation operation) {
+    checkIndex(index);
+    operations[index(index)] = operation;
+  }
+
+  /**
+   * Returns the local operation count of the oldest operation.
+   *
+   * @return the local operation count of the oldest operation
+   * @throws IllegalStateException if the log is empty
+   */
+  int getFirstOperationCount() {
+    if (size == 0) throw new IllegalStateException("log is empty");
+
+    return firstOperationCount;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("OperationLog[");
+
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+
+      builder.append(firstOperationCount + i).append('=').append(get(i));
+    }
+
+    return builder.append(']').toString();
+  }
+
+  private int index(final int position) {
+    return (head + position) & (operations.length - 1);
+  }
+
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+  }
+
+  private void grow() {
+    final Operation[] grown = Arrays.copyOf(operations, operations.length * 2);
+
+    // move the wrapped part behind the old end, the capacity is always a power of two
+    if (head > 0) {
+      System.arraycopy(operations, 0, grown, operations.length, head);
+      Arrays.fill(grown, 0, head, null);
+    }
+
+    operations = grown;
+  }
+}
@@ -53,7 +53,8 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
   @Override
   public Operation transform(Operation op1, Operation op2, Object param) {
 
-    log.trace("Transform " + op1 + " in the context of " + op2 + " (privileged==" + param + ")");
+    if (log.isTraceEnabled())
+      log.trace("Transform " + op1 + " in the context of " + op2 + " (privileged==" + param + ")");
 
     boolean privileged = (Boolean) param;
 
@@ -67,6 +68,24 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
       return op1;
     }
 
+    if (op1 instanceof OperationSequence) {
+      /*
+       * Same as for a split operation below, but done iteratively for all operations of the
+       * sequence: the i-th operation is transformed in the context of op2 transformed by all
+       * preceding operations of the sequence.
+       */
+      OperationSequence s = (OperationSequence) op1;
+
+      Operation[] transformed = new Operation[s.size()];
+      Operation context = op2;
+
+      for (int i = 0; i < s.size(); i++) {
+        transformed[i] = transform(s.get(i), context, param);
+        context = transform(context, s.get(i), !privileged);
+      }
+
+      return OperationSequence.of(transformed);
+    }
     if (op1 instanceof SplitOperation) {
       /*
        * Given two operations s1 and s2 to be transformed in the context of op2, we need to
@@ -85,6 +104,19 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
           transform(s.getFirst(), op2, param),
           transform(s.getSecond(), transform(op2, s.getFirst(), !privileged), param));
     }
+    if (op2 instanceof OperationSequence) {
+      /*
+       * Same as for a split operation below, but done iteratively: op1 is transformed in the
+       * context of each operation of the sequence after another.
+       */
+      OperationSequence s = (OperationSequence) op2;
+
+      Operation transformed = op1;
+
+      for (int i = 0; i < s.size(); i++) transformed = transform(transformed, s.get(i), param);
+
+      return transformed;
+    }
     if (op2 instanceof SplitOperation) {
       /*
        * Given an operation op1 to be transformed in the context of two operations s1 and s2, we
@@ -123,7 +155,17 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
 
   @Override
   public TextPosition transformIndex(TextPosition textPosition, Operation op, Object param) {
-    if (op instanceof SplitOperation) {
+    if (op instanceof OperationSequence) {
+      OperationSequence s = (OperationSequence) op;
+
+      TextPosition transformedPosition = textPosition;
+
+      for (int i = 0; i < s.size(); i++)
+        transformedPosition = transformIndex(transformedPosition, s.get(i), param);
+
+      return transformedPosition;
+
+    } else if (op instanceof SplitOperation) {
       /*
        * Given an operation op1 to be transformed in the context of two operations s1 and s2, we
        * need to calculate the result op1'' as t(op1', s2) where op1' is t(op1, s1).
@@ -0,0 +1,215 @@
+package saros.concurrent.jupiter.internal.text;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import saros.activities.TextEditActivity;
+import saros.concurrent.jupiter.Operation;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+/**
+ * The OperationSequence contains any number of operations to be performed after each other. It is
+ * equivalent to a chain of {@link SplitOperation}s but keeps the operations in a flat array, so
+ * long sequences can be transformed and inverted without recursing over their length.
+ *
+ * <p>Nested sequences and split operations are flattened, {@link NoOperation}s are omitted.
+ * Appending an operation is done in amortized constant time by sharing the array with the extended
+ * sequence.
+ *
+ * <p><b>NOTE:</b> This operation is only used locally, e.g. for undo purposes, and can therefore
+ * not be sent to other session participants.
+ *
+ * @see Operation
+ */
+public final class OperationSequence implements Operation {
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  /* shared with the sequences created by append, only the first size elements belong to this one */
+  private final Operation[] operations;
+
+  private final int size;
+
+  /* number of elements of the array that are used by any sequence sharing it */
+  private final AtomicInteger used;
+
+  private OperationSequence(Operation[] operations, int size, AtomicInteger used) {
+    this.operations = operations;
+    this.size = size;
+    this.used = used;
+  }
+
+  /**
+   * Returns an operation that performs the given operations after each other.
+   *
+   * @param operations the operations in the order they should be executed
+   * @return a {@link NoOperation} if none of the given operations changes the text, the only such
+   *     operation if there is one, or an operation sequence otherwise
+   */
+  public static Operation of(Operation... operations) {
+    return of(Arrays.asList(operations));
+  }
+
+  /**
+   * Returns an operation that performs the given operations after each other.
+   *
+   * @param operations the operations in the order they should be executed
+   * @return a {@link NoOperation} if none of the given operations changes the text, the only such
+   *     operation if there is one, or an operation sequence otherwise
+   */
+  public static Operation of(List<? extends Operation> operations) {
+    List<Operation> flattened = new ArrayList<Operation>(operations.size());
+
+    for (Operation operation : operations) flatten(operation, flattened);
+
+    return create(flattened.toArray(new Operation[0]), flattened.size());
+  }
+
+  /**
+   * Returns an operation that performs the given operations after each other. If the first
+   * operation is an operation sequence, the returned sequence shares its array if possible.
+   *
+   * @param operation the operation to perform first
+   * @param next the operation to perform afterwards
+   * @return an operation performing both operations, see {@link #of(Operation...)}
+   */
+  public static Operation append(Operation operation, Operation next) {
+    if (!(operation instanceof OperationSequence)) return of(operation, next);
+
+    OperationSequence sequence = (OperationSequence) operation;
+
+    List<Operation> flattened = new ArrayList<Operation>();
+    flatten(next, flattened);
+
+    if (flattened.isEmpty()) return sequence;
+
+    return sequence.append(flattened);
+  }
+
+  private OperationSequence append(List<Operation> next) {
+    int newSize = size + next.size();
+
+    if (newSize <= operations.length && used.compareAndSet(size, newSize)) {
+      for (int i = 0; i < next.size(); i++) operations[size + i] = next.get(i);
+
+      return new OperationSequence(operations, newSize, used);
+    }
+
+    Operation[] copy =
+        Arrays.copyOf(operations, Math.max(newSize, Math.max(INITIAL_CAPACITY, size * 2)));
+
+    for (int i = 0; i < next.size(); i++) copy[size + i] = next.get(i);
+
+    return new OperationSequence(copy, newSize, new AtomicInteger(newSize));
+  }
+
+  private static Operation create(Operation[] operations, int size) {
+    if (size == 0) return new NoOperation();
+
+    if (size == 1) return operations[0];
+
+    return new OperationSequence(operations, size, new AtomicInteger(size));
+  }
+
+  /*
+   * Split operations are resolved with an explicit stack instead of recursion as they may be
+   * nested arbitrarily deep.
+   */
+  private static void flatten(Operation operation, List<Operation> result) {
+    Deque<Operation> pending = new ArrayDeque<Operation>();
+    pending.push(operation);
+
+    while (!pending.isEmpty()) {
+      Operation current = pending.pop();
+
+      if (current instanceof NoOperation) continue;
+
+      if (current instanceof SplitOperation) {
+        SplitOperation split = (SplitOperation) current;
+        pending.push(split.getSecond());
+        pending.push(split.getFirst());
+
+      } else if (current instanceof OperationSequence) {
+        OperationSequence sequence = (OperationSequence) current;
+
+        for (int i = sequence.size - 1; i >= 0; i--) pending.push(sequence.operations[i]);
+
+      } else {
+        result.add(current);
+      }
+    }
+  }
+
+  /** Returns the number of operations of this sequence. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the operation at the given index. The operation is neither a sequence, a split
+   * operation, nor a {@link NoOperation}.
+   */
+  public Operation get(int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+
+    return operations[index];
+  }
+
+  @Override
+  public List<ITextOperation> getTextOperations() {
+    List<ITextOperation> result = new ArrayList<ITextOperation>(size);
+
+    for (int i = 0; i < size; i++) result.addAll(operations[i].getTextOperations());
+
+    return result;
+  }
+
+  @Override
+  public List<TextEditActivity> toTextEdit(IFile file, User source) {
+    return SplitOperation.toTextEdit(getTextOperations(), file, source);
+  }
+
+  @Override
+  public Operation invert() {
+    Operation[] inverted = new Operation[size];
+
+    for (int i = 0; i < size; i++) inverted[size - 1 - i] = operations[i].invert();
+
+    return of(inverted);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null) return false;
+    if (getClass() != obj.getClass()) return false;
+    OperationSequence other = (OperationSequence) obj;
+    if (size != other.size) return false;
+    for (int i = 0; i < size; i++) if (!operations[i].equals(other.operations[i])) return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = 1;
+    for (int i = 0; i < size; i++) result = 31 * result + operations[i].hashCode();
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("Sequence(");
+
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(operations[i]);
+    }
+
+    return builder.append(")").toString();
+  }
+}
@@ -100,6 +100,21 @@ public class SplitOperation implements Operation {
 
   @Override
   public List<TextEditActivity> toTextEdit(IFile file, User source) {
+    return toTextEdit(getTextOperations(), file, source);
+  }
+
+  /**
+   * Returns the text edit activities for the given text operations that are performed after each
+   * other. Adjacent operations are combined where possible, a delete followed by an insert at the
+   * same position is combined to a replace.
+   *
+   * @param operations the text operations in the order they should be executed
+   * @param file the file the operations belong to
+   * @param source the user that performed the operations
+   * @return the text edit activities representing the given operations
+   */
+  static List<TextEditActivity> toTextEdit(
+      List<ITextOperation> operations, IFile file, User source) {
 
     List<TextEditActivity> result = new ArrayList<TextEditActivity>();
 
@@ -111,7 +126,7 @@ public class SplitOperation implements Operation {
 
     List<ITextOperation> compressed = new ArrayList<ITextOperation>();
 
-    for (ITextOperation operation : this.getTextOperations()) {
+    for (ITextOperation operation : operations) {
 
       // the first operation in the list
       if (lastOp == null) {
@@ -184,7 +199,7 @@ public class SplitOperation implements Operation {
    *     cannot be combined
    */
   // TODO finish optimization; handle other cases that can be combined
-  protected ITextOperation combine(ITextOperation op1, ITextOperation op2) {
+  protected static ITextOperation combine(ITextOperation op1, ITextOperation op2) {
 
     if (op1 instanceof InsertOperation && op2 instanceof DeleteOperation) {
       InsertOperation insert = (InsertOperation) op1;
@@ -273,7 +288,8 @@ public class SplitOperation implements Operation {
    * @param op2 the second operation
    * @return an insert operation representing the concatenation of the two given insert operations
    */
-  private InsertOperation concatenateInsertOperations(InsertOperation op1, InsertOperation op2) {
+  private static InsertOperation concatenateInsertOperations(
+      InsertOperation op1, InsertOperation op2) {
     int newLineDelta;
     int newOffsetDelta;
 
@@ -305,7 +321,8 @@ public class SplitOperation implements Operation {
    * @param op2 the second operation
    * @return a delete operation representing the concatenation of the two given delete operations
    */
-  private DeleteOperation concatenateDeleteOperations(DeleteOperation op1, DeleteOperation op2) {
+  private static DeleteOperation concatenateDeleteOperations(
+      DeleteOperation op1, DeleteOperation op2) {
     int newLineDelta;
     int newOffsetDelta;
 
@@ -330,7 +347,7 @@ public class SplitOperation implements Operation {
    * @param op2
    * @return true if the combination of op1 and op2 describe a text replace
    */
-  protected boolean isReplace(Operation op1, Operation op2) {
+  protected static boolean isReplace(Operation op1, Operation op2) {
     if (op1 == null) return false;
     if (op2 == null) return false;
 
@@ -1,17 +1,26 @@
 package saros.concurrent.management;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
+import saros.activities.FileActivity.Purpose;
+import saros.activities.FileActivity.Type;
 import saros.activities.IActivity;
 import saros.activities.JupiterActivity;
+import saros.activities.RecoveryPatchActivity;
+import saros.activities.TargetedFileActivity;
 import saros.activities.TextEditActivity;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.TransformationException;
+import saros.concurrent.watchdog.LineBlocks;
+import saros.editor.IEditorManager;
+import saros.editor.text.TextPositionUtils;
 import saros.filesystem.IFile;
 import saros.repackaged.picocontainer.Startable;
 import saros.session.ISarosSession;
+import saros.util.LineSeparatorNormalizationUtil;
 
 /**
  * ConcurrentDocumentClient is responsible for managing the Jupiter interaction on the local side of
@@ -22,6 +31,10 @@ import saros.session.ISarosSession;
  *
  * <p>When JupiterActivities are received from the server they are transformed by the
  * ConcurrentDocumentClient to TextEditActivities which can then be executed locally.
+ *
+ * <p>Likewise, {@link RecoveryPatchActivity RecoveryPatchActivities} received from the host are
+ * applied to the local document content and turned into the recovery {@link TargetedFileActivity}
+ * the host would have sent otherwise.
  */
 public class ConcurrentDocumentClient implements Startable {
 
@@ -29,12 +42,15 @@ public class ConcurrentDocumentClient implements Startable {
 
   private final ISarosSession sarosSession;
 
+  private final IEditorManager editorManager;
+
   private final JupiterClient jupiterClient;
 
   private final ResourceActivityFilter resourceActivityFilter;
 
-  public ConcurrentDocumentClient(ISarosSession sarosSession) {
+  public ConcurrentDocumentClient(ISarosSession sarosSession, IEditorManager editorManager) {
     this.sarosSession = sarosSession;
+    this.editorManager = editorManager;
     this.jupiterClient = new JupiterClient(sarosSession);
 
     this.resourceActivityFilter = new ResourceActivityFilter(sarosSession, this::reset);
@@ -122,6 +138,10 @@ public class ConcurrentDocumentClient implements Startable {
 
       } else if (activity instanceof ChecksumActivity) {
         activities.add(receiveChecksum((ChecksumActivity) activity));
+      } else if (activity instanceof RecoveryPatchActivity) {
+        IActivity recovery = receiveRecoveryPatch((RecoveryPatchActivity) activity);
+
+        if (recovery != null) activities.add(recovery);
       } else {
         activities.add(activity);
       }
@@ -149,6 +169,71 @@ public class ConcurrentDocumentClient implements Startable {
     return activity;
   }
 
+  /**
+   * Applies the patch to the local document content and returns the resulting recovery activity.
+   * Returns <code>null</code> if the patch does not fit the document content anymore, e.g because
+   * it was changed since the inconsistency was reported. The file then stays inconsistent and has
+   * to be recovered again.
+   *
+   * @client
+   */
+  private IActivity receiveRecoveryPatch(RecoveryPatchActivity patch) {
+    final IFile file = patch.getResource();
+
+    final String normalizedContent = editorManager.getNormalizedContent(file);
+
+    if (normalizedContent == null
+        || normalizedContent.length() != patch.getBaseLength()
+        || normalizedContent.hashCode() != patch.getBaseHash()) {
+
+      log.warn("discarding recovery patch as the content of " + file + " changed: " + patch);
+
+      // the host already reset its Jupiter server for this document
+      reset(file);
+      return null;
+    }
+
+    String content;
+
+    try {
+      content = LineBlocks.apply(normalizedContent, patch.getReplacements());
+    } catch (IllegalArgumentException e) {
+      log.error("could not apply recovery patch: " + patch, e);
+      reset(file);
+      return null;
+    }
+
+    final String currentContent = editorManager.getContent(file);
+
+    final String lineSeparator =
+        currentContent == null ? "" : TextPositionUtils.guessLineSeparator(currentContent);
+
+    if (!lineSeparator.isEmpty())
+      content = LineSeparatorNormalizationUtil.revertNormalization(content, lineSeparator);
+
+    final String charset;
+    final byte[] bytes;
+
+    try {
+      charset = file.getCharset();
+      bytes = content.getBytes(charset);
+    } catch (IOException e) {
+      log.error("could not encode recovered content of " + file, e);
+      reset(file);
+      return null;
+    }
+
+    return new TargetedFileActivity(
+        patch.getSource(),
+        patch.getTarget(),
+        Type.CREATED,
+        file,
+        null,
+        bytes,
+        charset,
+        Purpose.RECOVERY);
+  }
+
   /**
    * Transforms the JupiterActivity back into textEditActivities.
    *
@@ -95,7 +95,8 @@ public class ConcurrentDocumentServer implements Startable {
    * ResourceActivityFilter#isFiltered(IActivity)}.
    *
    * @host
-   * @sarosThread Must be executed in the Saros dispatch thread.
+   * @sarosThread May be called concurrently for different files, the activities of one file must be
+   *     transformed in order.
    * @notGUI This method may not be called from SWT, otherwise a deadlock might occur!!
    * @param activity Activity to be transformed
    * @return A list of QueueItems containing the activities and receivers
@@ -1,9 +1,12 @@
 package saros.concurrent.management;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import saros.activities.ChecksumActivity;
 import saros.activities.JupiterActivity;
 import saros.concurrent.jupiter.TransformationException;
@@ -16,6 +19,12 @@ import saros.session.User;
  * A JupiterServer manages Jupiter server instances for a number of users AND number of files.
  *
  * <p>(in contrast to a JupiterDocumentServer which only handles a single file)
+ *
+ * <p>There is no global lock for the transformation of activities. Every JupiterDocumentServer is
+ * guarded by its own monitor, so activities of different files can be transformed in parallel while
+ * the activities of one file are still transformed one after another. The read-write lock only
+ * ensures that the proxy clients of a newly created document match the current clients, i.e that a
+ * user added or removed concurrently is never missed.
  */
 public class JupiterServer {
 
@@ -24,32 +33,53 @@ public class JupiterServer {
    *
    * @host
    */
-  private final HashMap<IFile, JupiterDocumentServer> concurrentDocuments = new HashMap<>();
+  private final ConcurrentMap<IFile, JupiterDocumentServer> concurrentDocuments =
+      new ConcurrentHashMap<>();
 
+  /** Guarded by {@link #clientsLock}. */
   private final Set<User> currentClients = new HashSet<User>();
 
+  /**
+   * Write lock must be held to change the current clients, read lock must be held to create a new
+   * JupiterDocumentServer.
+   */
+  private final ReadWriteLock clientsLock = new ReentrantReadWriteLock();
+
   private final ISarosSession sarosSession;
 
   public JupiterServer(final ISarosSession sarosSession) {
     this.sarosSession = sarosSession;
   }
 
-  public synchronized void removeFile(final IFile file) {
+  public void removeFile(final IFile file) {
     concurrentDocuments.remove(file);
   }
 
-  public synchronized void addUser(final User user) {
-    currentClients.add(user);
+  public void addUser(final User user) {
+    clientsLock.writeLock().lock();
 
-    for (final JupiterDocumentServer server : concurrentDocuments.values())
-      server.addProxyClient(user);
+    try {
+      currentClients.add(user);
+
+      for (final JupiterDocumentServer server : concurrentDocuments.values())
+        server.addProxyClient(user);
+
+    } finally {
+      clientsLock.writeLock().unlock();
+    }
   }
 
-  public synchronized void removeUser(final User user) {
-    currentClients.remove(user);
+  public void removeUser(final User user) {
+    clientsLock.writeLock().lock();
+
+    try {
+      currentClients.remove(user);
 
-    for (final JupiterDocumentServer server : concurrentDocuments.values()) {
-      server.removeProxyClient(user);
+      for (final JupiterDocumentServer server : concurrentDocuments.values()) {
+        server.removeProxyClient(user);
+      }
+    } finally {
+      clientsLock.writeLock().unlock();
     }
   }
 
@@ -59,37 +89,50 @@ public class JupiterServer {
    *
    * @host
    */
-  private synchronized JupiterDocumentServer getServer(final IFile file) {
+  private JupiterDocumentServer getServer(final IFile file) {
+
+    final JupiterDocumentServer docServer = concurrentDocuments.get(file);
 
-    JupiterDocumentServer docServer = concurrentDocuments.get(file);
+    if (docServer != null) return docServer;
 
-    if (docServer == null) {
+    clientsLock.readLock().lock();
 
-      docServer = new JupiterDocumentServer(file);
+    try {
+      return concurrentDocuments.computeIfAbsent(file, this::createServer);
+    } finally {
+      clientsLock.readLock().unlock();
+    }
+  }
 
-      for (final User client : currentClients) {
-        /*
-         * Make sure that we only add clients that already have the
-         * resources in question. Other clients that haven't accepted
-         * the reference point yet will be added later.
-         */
-        if (sarosSession.userHasReferencePoint(client, file.getReferencePoint())) {
-          docServer.addProxyClient(client);
-        }
+  /**
+   * Creates a JupiterDocumentServer for the given file with proxy clients for the host and all
+   * current clients having the file's reference point. Must be called with the read lock held.
+   */
+  private JupiterDocumentServer createServer(final IFile file) {
+
+    final JupiterDocumentServer docServer = new JupiterDocumentServer(file);
+
+    for (final User client : currentClients) {
+      /*
+       * Make sure that we only add clients that already have the
+       * resources in question. Other clients that haven't accepted
+       * the reference point yet will be added later.
+       */
+      if (sarosSession.userHasReferencePoint(client, file.getReferencePoint())) {
+        docServer.addProxyClient(client);
       }
+    }
 
-      docServer.addProxyClient(sarosSession.getHost());
+    docServer.addProxyClient(sarosSession.getHost());
 
-      concurrentDocuments.put(file, docServer);
-    }
     return docServer;
   }
 
-  public synchronized void reset(final IFile file, final User user) {
+  public void reset(final IFile file, final User user) {
     getServer(file).reset(user);
   }
 
-  public synchronized Map<User, JupiterActivity> transform(final JupiterActivity activity)
+  public Map<User, JupiterActivity> transform(final JupiterActivity activity)
       throws TransformationException {
 
     final JupiterDocumentServer docServer = getServer(activity.getResource());
@@ -97,7 +140,7 @@ public class JupiterServer {
     return docServer.transformJupiterActivity(activity);
   }
 
-  public synchronized Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
+  public Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
       throws TransformationException {
 
     final JupiterDocumentServer docServer = getServer(activity.getResource());
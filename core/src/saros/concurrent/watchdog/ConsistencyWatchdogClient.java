@@ -15,6 +15,7 @@ import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
 import saros.activities.ChecksumErrorActivity;
 import saros.activities.FileActivity;
+import saros.activities.LineBlockChecksums;
 import saros.annotations.Component;
 import saros.editor.IEditorManager;
 import saros.filesystem.IFile;
@@ -27,6 +28,7 @@ import saros.session.AbstractActivityProducer;
 import saros.session.IActivityConsumer;
 import saros.session.IActivityConsumer.Priority;
 import saros.session.ISarosSession;
+import saros.synchronize.UISynchronizer;
 import saros.util.CoreUtils;
 
 /**
@@ -37,7 +39,8 @@ import saros.util.CoreUtils;
  *       them. See {@link #performCheck(ChecksumActivity)} If an inconsistency is detected the
  *       inconsistency state is set via the {@link IsInconsistentObservable}.
  *   <li>Send a ChecksumError to the host, if the user wants to recover from an inconsistency. See
- *       {@link #runRecovery}
+ *       {@link #runRecovery}. The ChecksumError contains the {@link LineBlockChecksums} of the
+ *       inconsistent documents, so the host is able to recover only the inconsistent lines.
  * </ol>
  *
  * This class both produces and consumes activities.
@@ -77,15 +80,19 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer implemen
 
   private final ISarosSession session;
 
+  private final UISynchronizer synchronizer;
+
   public ConsistencyWatchdogClient(
       final ISarosSession session,
       final IsInconsistentObservable inconsistencyToResolve,
       final IEditorManager editorManager,
-      final RemoteProgressManager remoteProgressManager) {
+      final RemoteProgressManager remoteProgressManager,
+      final UISynchronizer synchronizer) {
     this.session = session;
     this.inconsistencyToResolve = inconsistencyToResolve;
     this.editorManager = editorManager;
     this.remoteProgressManager = remoteProgressManager;
+    this.synchronizer = synchronizer;
   }
 
   private final IActivityConsumer consumer =
@@ -209,9 +216,15 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer implemen
               + CoreUtils.determineUserDisplayName(currentSession.getLocalUser()),
           filesRemaining.get());
 
+      final List<LineBlockChecksums> blockChecksums = calculateBlockChecksums(handledFiles);
+
       fireActivity(
           new ChecksumErrorActivity(
-              currentSession.getLocalUser(), currentSession.getHost(), handledFiles, recoveryID));
+              currentSession.getLocalUser(),
+              currentSession.getHost(),
+              handledFiles,
+              blockChecksums,
+              recoveryID));
 
       try {
         // block until all inconsistencies are resolved
@@ -247,6 +260,27 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer implemen
     }
   }
 
+  /**
+   * Calculates the line block checksums of the given files, an entry is <code>null</code> if the
+   * file does not exist locally.
+   */
+  private List<LineBlockChecksums> calculateBlockChecksums(final List<IFile> files) {
+    final List<LineBlockChecksums> blockChecksums = new ArrayList<>(files.size());
+
+    synchronizer.syncExec(
+        () -> {
+          for (final IFile file : files) {
+            final String content = file.exists() ? editorManager.getNormalizedContent(file) : null;
+
+            blockChecksums.add(content == null ? null : LineBlocks.calculate(content));
+          }
+        });
+
+    if (blockChecksums.size() != files.size()) return null;
+
+    return blockChecksums;
+  }
+
   private String getNextRecoveryID() {
     return Long.toHexString(RANDOM.nextLong());
   }
@@ -9,6 +9,9 @@ import saros.activities.ChecksumActivity;
 import saros.activities.ChecksumErrorActivity;
 import saros.activities.FileActivity.Purpose;
 import saros.activities.FileActivity.Type;
+import saros.activities.LineBlockChecksums;
+import saros.activities.RecoveryPatchActivity;
+import saros.activities.RecoveryPatchActivity.Replacement;
 import saros.activities.TargetedFileActivity;
 import saros.annotations.Component;
 import saros.concurrent.management.ConcurrentDocumentServer;
@@ -142,9 +145,15 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
           @Override
           public void run() {
 
-            for (final IFile file : checksumError.getFiles()) {
+            final List<IFile> files = checksumError.getFiles();
+            final List<LineBlockChecksums> blockChecksums = checksumError.getBlockChecksums();
 
-              recoverFile(checksumError.getSource(), file);
+            for (int i = 0; i < files.size(); i++) {
+
+              recoverFile(
+                  checksumError.getSource(),
+                  files.get(i),
+                  blockChecksums == null ? null : blockChecksums.get(i));
 
               // Tell the user that we sent all files
               fireActivity(
@@ -160,9 +169,11 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
 
   /**
    * Recover a single file for the given user (that is either send the file or tell the user to
-   * remove it).
+   * remove it). If the line block checksums of the user's document are available and only a few
+   * lines are inconsistent, only these lines are sent.
    */
-  private void recoverFile(final User from, final IFile file) {
+  private void recoverFile(
+      final User from, final IFile file, final LineBlockChecksums blockChecksums) {
     // Reset jupiter
     concurrentDocumentServer.reset(from, file);
 
@@ -192,6 +203,8 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
       return;
     }
 
+    if (blockChecksums != null && recoverLines(from, file, blockChecksums)) return;
+
     byte[] content;
     String text;
 
@@ -213,17 +226,53 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
         new TargetedFileActivity(
             user, from, Type.CREATED, file, null, content, charset, Purpose.RECOVERY));
 
-    /*
-     * Immediately follow up with a new checksum activity so that the remote
-     * side can verify the recovered file.
-     */
+    fireChecksum(file, editorManager.getNormalizedContent(file));
+  }
+
+  /**
+   * Sends only the inconsistent lines of the given file to the given user.
+   *
+   * @return <code>false</code> if sending the whole file is cheaper
+   */
+  private boolean recoverLines(
+      final User from, final IFile file, final LineBlockChecksums blockChecksums) {
+
+    final String normalizedText = editorManager.getNormalizedContent(file);
 
-    DocumentChecksum checksum = new DocumentChecksum(file);
+    if (normalizedText == null) return false;
 
-    String normalizedText = editorManager.getNormalizedContent(file);
+    final List<Replacement> replacements =
+        LineBlocks.createReplacements(blockChecksums, normalizedText);
 
-    checksum.update(normalizedText);
+    if (replacements == null) return false;
+
+    log.debug(
+        "recovering " + replacements.size() + " range(s) of lines of " + file + " for " + from);
+
+    fireActivity(
+        new RecoveryPatchActivity(
+            session.getLocalUser(),
+            from,
+            file,
+            blockChecksums.getLength(),
+            blockChecksums.getHash(),
+            replacements));
+
+    fireChecksum(file, normalizedText);
+
+    return true;
+  }
+
+  /**
+   * Immediately follow up with a new checksum activity so that the remote side can verify the
+   * recovered file.
+   */
+  private void fireChecksum(final IFile file, final String normalizedText) {
+    final int hash =
+        normalizedText == null ? DocumentChecksum.NOT_AVAILABLE : normalizedText.hashCode();
+    final int length =
+        normalizedText == null ? DocumentChecksum.NOT_AVAILABLE : normalizedText.length();
 
-    fireActivity(new ChecksumActivity(user, file, checksum.getHash(), checksum.getLength(), null));
+    fireActivity(new ChecksumActivity(session.getLocalUser(), file, hash, length, null));
   }
 }
@@ -11,6 +11,7 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
+import saros.activities.ChecksumErrorActivity;
 import saros.activities.TextEditActivity;
 import saros.annotations.Component;
 import saros.editor.IEditorManager;
@@ -18,7 +19,10 @@ import saros.editor.ISharedEditorListener;
 import saros.editor.remote.UserEditorStateManager;
 import saros.filesystem.IFile;
 import saros.repackaged.picocontainer.Startable;
+import saros.session.AbstractActivityConsumer;
 import saros.session.AbstractActivityProducer;
+import saros.session.IActivityConsumer;
+import saros.session.IActivityConsumer.Priority;
 import saros.session.ISarosSession;
 import saros.synchronize.Blockable;
 import saros.synchronize.StopManager;
@@ -32,6 +36,13 @@ import saros.util.ThreadUtils;
  * session. It then sends these checksums to all watchdog clients, which can compare them with their
  * own checksum calculations to detect inconsistencies and request file recovery if needed.
  *
+ * <p>The checksums are calculated once from the document contents and afterwards updated from the
+ * {@linkplain ISharedEditorListener#textEdited text edits} of the documents, so a calculation cycle
+ * only rehashes the changed parts of the documents. Unchanged checksums are only broadcast every
+ * {@linkplain #UNCHANGED_BROADCAST_INTERVAL few seconds}. As a safety net against text edits that
+ * are not reported, the checksums of edited documents are recalculated from their contents every
+ * {@linkplain #FULL_CALCULATION_INTERVAL minute} and whenever a client reports an inconsistency.
+ *
  * <p>This component is only run on the session's host.
  */
 @Component(module = "consistency")
@@ -40,7 +51,20 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
   private static final Logger log = Logger.getLogger(ConsistencyWatchdogServer.class);
 
-  private static final long CHECKSUM_CALCULATION_INTERVAL = 10000;
+  private static final long CHECKSUM_CALCULATION_INTERVAL =
+      Long.getLong("saros.watchdog.CHECKSUM_CALCULATION_INTERVAL", 1000L).longValue();
+
+  /** Interval in milliseconds in which checksums are broadcast even if they did not change. */
+  private static final long UNCHANGED_BROADCAST_INTERVAL =
+      Long.getLong("saros.watchdog.UNCHANGED_BROADCAST_INTERVAL", 10000L).longValue();
+
+  /**
+   * Interval in milliseconds in which the checksums of edited documents are recalculated from the
+   * document contents.
+   */
+  private static final long FULL_CALCULATION_INTERVAL =
+      Long.getLong("saros.watchdog.FULL_CALCULATION_INTERVAL", 60000L).longValue();
+
   private static final long TERMINATION_TIMEOUT = 10000;
 
   private final ISarosSession session;
@@ -50,6 +74,16 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
   private final UISynchronizer synchronizer;
 
   private final Map<IFile, DocumentChecksum> documentChecksums = new HashMap<>();
+
+  /** the last broadcast checksum (hash and length) of every document */
+  private final Map<IFile, Long> broadcastChecksums = new HashMap<>();
+
+  /** documents edited since the last full calculation */
+  private final Set<IFile> editedDocuments = new HashSet<>();
+
+  private long lastUnchangedBroadcast;
+  private long lastFullCalculation;
+
   private ScheduledThreadPoolExecutor checksumCalculationExecutor;
   private Future<?> checksumCalculationFuture;
   private boolean blocked;
@@ -82,15 +116,38 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
   private ISharedEditorListener sharedEditorListener =
       new ISharedEditorListener() {
         /**
-         * Marks checksums as dirty as soon as their associated documents are modified. With this
-         * information, checksum calculation can be avoided when the document hasn't changed between
-         * checksum iterations.
+         * Applies text edits to the checksums of their documents. With this information, the
+         * checksum of an edited document can be updated without reading its whole content. If the
+         * edit cannot be applied, the checksum is marked as dirty and recalculated.
          */
         @Override
         public void textEdited(TextEditActivity textEdit) {
           DocumentChecksum checksum = documentChecksums.get(textEdit.getResource());
 
-          if (checksum != null) checksum.markDirty();
+          if (checksum == null) return;
+
+          if (!checksum.applyTextEdit(textEdit))
+            log.debug("text edit could not be applied to checksum, recalculating it: " + checksum);
+
+          editedDocuments.add(checksum.getFile());
+        }
+      };
+
+  private final IActivityConsumer consumer =
+      new AbstractActivityConsumer() {
+        /**
+         * Recalculates the checksums of files reported as inconsistent, in case the checksums
+         * diverged from the document contents.
+         */
+        @Override
+        public void receive(ChecksumErrorActivity checksumError) {
+          if (checksumError.getFiles() == null) return;
+
+          for (IFile file : checksumError.getFiles()) {
+            DocumentChecksum checksum = documentChecksums.get(file);
+
+            if (checksum != null) checksum.markDirty();
+          }
         }
       };
 
@@ -122,6 +179,7 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
       throw new IllegalStateException("Component can only be run on the session's host");
 
     session.addActivityProducer(this);
+    session.addActivityConsumer(consumer, Priority.PASSIVE);
     stopManager.addBlockable(this);
     editorManager.addSharedEditorListener(sharedEditorListener);
 
@@ -139,6 +197,7 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
   @Override
   public void stop() {
     session.removeActivityProducer(this);
+    session.removeActivityConsumer(consumer);
     stopManager.removeBlockable(this);
     editorManager.removeSharedEditorListener(sharedEditorListener);
 
@@ -167,6 +226,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
           @Override
           public void run() {
             documentChecksums.clear();
+            broadcastChecksums.clear();
+            editedDocuments.clear();
           }
         });
 
@@ -221,16 +282,31 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
       if (!allEditors.contains(entry.getKey())) {
         it.remove();
+        broadcastChecksums.remove(entry.getKey());
+        editedDocuments.remove(entry.getKey());
       }
     }
 
+    final long now = System.currentTimeMillis();
+
+    if (now - lastFullCalculation >= FULL_CALCULATION_INTERVAL) {
+      for (IFile file : editedDocuments) documentChecksums.get(file).markDirty();
+
+      editedDocuments.clear();
+      lastFullCalculation = now;
+    }
+
+    final boolean broadcastUnchanged = now - lastUnchangedBroadcast >= UNCHANGED_BROADCAST_INTERVAL;
+
+    if (broadcastUnchanged) lastUnchangedBroadcast = now;
+
     /*
      * Update or create checksums for all currently open documents.
      */
 
     for (IFile file : allEditors) {
       updateChecksum(file, localEditors, remoteEditors);
-      broadcastChecksum(file);
+      broadcastChecksum(file, broadcastUnchanged);
     }
   }
 
@@ -280,6 +356,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
          * open, they are right (and our EditorPool might be confused)
          */
         documentChecksums.remove(checksum.getFile());
+        broadcastChecksums.remove(checksum.getFile());
+        editedDocuments.remove(checksum.getFile());
         return;
       }
     }
@@ -287,11 +365,20 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
     checksum.update(normalizedEditorContent);
   }
 
-  private void broadcastChecksum(IFile file) {
+  private void broadcastChecksum(IFile file, boolean broadcastUnchanged) {
 
     DocumentChecksum checksum = documentChecksums.get(file);
     if (checksum == null) return;
 
+    Long value = ((long) checksum.getHash() << 32) | (checksum.getLength() & 0xFFFFFFFFL);
+
+    if (!value.equals(broadcastChecksums.put(file, value)) || broadcastUnchanged) {
+      fireChecksum(checksum);
+    }
+  }
+
+  private void fireChecksum(DocumentChecksum checksum) {
+
     ChecksumActivity checksumActivity =
         new ChecksumActivity(
             session.getLocalUser(),
@@ -1,10 +1,23 @@
 package saros.concurrent.watchdog;
 
+import java.util.ArrayList;
+import java.util.List;
+import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
 import saros.filesystem.IFile;
+import saros.util.LineSeparatorNormalizationUtil;
 
 /**
  * Represents a checksum of a document in the workspace. It consists of the document's file, the
  * content length, and the content's string hash code.
+ *
+ * <p>The checksum keeps a copy of the document's normalized content in segments of about {@link
+ * #SEGMENT_LENGTH} characters, each with its own string hash code. As the hash code of a
+ * concatenation can be computed from the hash codes and lengths of its parts, text edits can be
+ * {@linkplain #applyTextEdit(TextEditActivity) applied} to the checksum directly. Updating the hash
+ * code afterwards only rehashes the changed segments instead of the whole content.
+ *
+ * <p>This class is <b>not</b> thread safe.
  */
 public class DocumentChecksum {
 
@@ -14,12 +27,58 @@ public class DocumentChecksum {
    */
   public static final int NOT_AVAILABLE = -1;
 
+  /** The number of characters per segment the content is divided into. */
+  static final int SEGMENT_LENGTH = 4096;
+
+  private static final int MAX_SEGMENT_LENGTH = 2 * SEGMENT_LENGTH;
+
+  private static final char LINE_SEPARATOR =
+      LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR.charAt(0);
+
+  private static final class Segment {
+    private final StringBuilder text;
+
+    private int lineBreaks;
+
+    /** the string hash code of the text */
+    private int hash;
+
+    /** 31 to the power of the text length */
+    private int power;
+
+    private boolean changed = true;
+
+    private Segment(final CharSequence text) {
+      this.text = new StringBuilder(text);
+      this.lineBreaks = countLineBreaks(text);
+    }
+
+    private void rehash() {
+      int h = 0;
+      int p = 1;
+
+      for (int i = 0; i < text.length(); i++) {
+        h = 31 * h + text.charAt(i);
+        p *= 31;
+      }
+
+      hash = h;
+      power = p;
+      changed = false;
+    }
+  }
+
   private final IFile file;
 
+  private final List<Segment> segments = new ArrayList<>();
+
   private int length;
   private int hash;
   private boolean dirty;
 
+  /** whether segments changed since the hash code was combined the last time */
+  private boolean changed;
+
   /**
    * Creates a new DocumentChecksum.
    *
@@ -57,10 +116,13 @@ public class DocumentChecksum {
    * <p>If the document's content is not available ({@link #update} was not called yet or called
    * with <code>null</code> the last time), {@link #NOT_AVAILABLE} is returned.
    *
-   * @return document content hash, or {@link #NOT_AVAILABLE} if not available, or {@link
-   *     #NOT_AVAILABLE} if not available
+   * <p>If text edits were applied since the last call, only the changed segments are rehashed.
+   *
+   * @return document content hash, or {@link #NOT_AVAILABLE} if not available
    */
   public int getHash() {
+    if (changed) combine();
+
     return hash;
   }
 
@@ -71,7 +133,7 @@ public class DocumentChecksum {
    *
    * <p>Note that this determines whether {@link #update(String)} actually does any checksum
    * calculations, so make sure to call {@link #markDirty()} to notify the checksum whenever the
-   * document changes.
+   * document changes in a way that cannot be {@linkplain #applyTextEdit(TextEditActivity) applied}.
    *
    * <p>A DocumentChecksum is automatically marked as dirty when it created.
    *
@@ -102,18 +164,199 @@ public class DocumentChecksum {
   public void update(String documentContent) {
     if (!dirty) return;
 
+    segments.clear();
+
     if (documentContent == null) {
       length = hash = NOT_AVAILABLE;
+      changed = false;
     } else {
+      for (int start = 0; start < documentContent.length(); start += SEGMENT_LENGTH)
+        segments.add(
+            new Segment(
+                documentContent.substring(
+                    start, Math.min(start + SEGMENT_LENGTH, documentContent.length()))));
+
       length = documentContent.length();
-      hash = documentContent.hashCode();
+      combine();
     }
 
     dirty = false;
   }
 
+  /**
+   * Applies the given text edit to the checksum's copy of the document content. The hash code is
+   * updated lazily on the next call of {@link #getHash()}.
+   *
+   * <p>If the checksum is dirty or the edit does not match the copy of the document content, e.g
+   * because the replaced text differs, the checksum is {@linkplain #markDirty() marked as dirty}.
+   *
+   * @param edit the text edit, in normalized form
+   * @return <code>true</code> if the edit was applied, <code>false</code> if the checksum is dirty
+   */
+  public boolean applyTextEdit(TextEditActivity edit) {
+    if (dirty || length == NOT_AVAILABLE) {
+      dirty = true;
+      return false;
+    }
+
+    final int offset = getOffset(edit.getStartPosition());
+
+    if (offset == -1 || !replace(offset, edit.getReplacedText(), edit.getNewText())) {
+      dirty = true;
+      return false;
+    }
+
+    return true;
+  }
+
+  /** Returns the offset of the given position or <code>-1</code> if it is behind the content. */
+  private int getOffset(final TextPosition position) {
+    final int line = position.getLineNumber();
+
+    int lineStart = line == 0 ? 0 : -1;
+
+    for (int i = 0, lines = 0, start = 0; lineStart == -1 && i < segments.size(); i++) {
+      final Segment segment = segments.get(i);
+
+      if (lines + segment.lineBreaks < line) {
+        lines += segment.lineBreaks;
+        start += segment.text.length();
+        continue;
+      }
+
+      for (int j = 0; ; j++) {
+        if (segment.text.charAt(j) == LINE_SEPARATOR && ++lines == line) {
+          lineStart = start + j + 1;
+          break;
+        }
+      }
+    }
+
+    if (lineStart == -1) return -1;
+
+    final int offset = lineStart + position.getInLineOffset();
+
+    return offset <= length ? offset : -1;
+  }
+
+  /**
+   * Replaces the given text at the given offset.
+   *
+   * @return <code>false</code> if the content at the offset does not match the replaced text
+   */
+  private boolean replace(final int offset, final String replacedText, final String newText) {
+    if (segments.isEmpty()) segments.add(new Segment(""));
+
+    int index = 0;
+    int local = offset;
+
+    // the offset is placed in the last segment if it is at the end of the content
+    while (local >= segments.get(index).text.length() && index < segments.size() - 1)
+      local -= segments.get(index++).text.length();
+
+    if (!matches(index, local, replacedText)) return false;
+
+    for (int i = index, l = local, removed = 0; removed < replacedText.length(); i++, l = 0) {
+      final Segment segment = segments.get(i);
+
+      final int end = Math.min(segment.text.length(), l + replacedText.length() - removed);
+
+      segment.lineBreaks -= countLineBreaks(segment.text.subSequence(l, end));
+      segment.text.delete(l, end);
+      segment.changed = true;
+
+      removed += end - l;
+    }
+
+    final Segment segment = segments.get(index);
+
+    segment.text.insert(local, newText);
+    segment.lineBreaks += countLineBreaks(newText);
+    segment.changed = true;
+
+    length += newText.length() - replacedText.length();
+    changed = true;
+
+    rebalance(index);
+
+    return true;
+  }
+
+  private boolean matches(int index, int local, final String text) {
+    for (int i = 0; i < text.length(); i++, local++) {
+      while (local == segments.get(index).text.length()) {
+        if (++index == segments.size()) return false;
+
+        local = 0;
+      }
+
+      if (segments.get(index).text.charAt(local) != text.charAt(i)) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Removes the segments emptied by an edit starting in the given segment, merges it with its
+   * successor if both are small and splits it if it is too large.
+   */
+  private void rebalance(final int index) {
+    while (index + 1 < segments.size() && segments.get(index + 1).text.length() == 0)
+      segments.remove(index + 1);
+
+    final Segment segment = segments.get(index);
+
+    if (segment.text.length() == 0) {
+      segments.remove(index);
+      return;
+    }
+
+    if (index + 1 < segments.size()
+        && segment.text.length() + segments.get(index + 1).text.length() <= SEGMENT_LENGTH) {
+      final Segment next = segments.remove(index + 1);
+
+      segment.text.append(next.text);
+      segment.lineBreaks += next.lineBreaks;
+    }
+
+    if (segment.text.length() <= MAX_SEGMENT_LENGTH) return;
+
+    final List<Segment> split = new ArrayList<>();
+
+    for (int start = 0; start < segment.text.length(); start += SEGMENT_LENGTH)
+      split.add(
+          new Segment(
+              segment.text.subSequence(
+                  start, Math.min(start + SEGMENT_LENGTH, segment.text.length()))));
+
+    segments.remove(index);
+    segments.addAll(index, split);
+  }
+
+  /** Combines the hash codes of all segments, rehashing the changed ones. */
+  private void combine() {
+    int h = 0;
+
+    for (final Segment segment : segments) {
+      if (segment.changed) segment.rehash();
+
+      h = h * segment.power + segment.hash;
+    }
+
+    hash = h;
+    changed = false;
+  }
+
+  private static int countLineBreaks(final CharSequence text) {
+    int count = 0;
+
+    for (int i = 0; i < text.length(); i++) if (text.charAt(i) == LINE_SEPARATOR) count++;
+
+    return count;
+  }
+
   @Override
   public String toString() {
-    return file + " [" + this.length + "," + this.hash + "]";
+    return file + " [" + this.length + "," + getHash() + "]";
   }
 }
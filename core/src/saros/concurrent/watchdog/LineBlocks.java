@@ -0,0 +1,254 @@
+package saros.concurrent.watchdog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import saros.activities.LineBlockChecksums;
+import saros.activities.RecoveryPatchActivity;
+import saros.activities.RecoveryPatchActivity.Replacement;
+import saros.util.LineSeparatorNormalizationUtil;
+
+/**
+ * Divides normalized document contents into blocks of lines and uses their {@link
+ * LineBlockChecksums} to narrow an inconsistency down to the lines that actually differ, see {@link
+ * RecoveryPatchActivity}.
+ *
+ * <p>The block boundaries only depend on the content of the lines: a block ends behind every line
+ * whose hash is a multiple of {@link #AVERAGE_BLOCK_LINES}, but at the latest after {@link
+ * #MAX_BLOCK_LINES} lines. Inserting or removing lines therefore only changes the blocks around the
+ * change, the other blocks of two documents still match even if they are moved by the change.
+ */
+public final class LineBlocks {
+
+  /** The average number of lines of a block, must be a power of two. */
+  static final int AVERAGE_BLOCK_LINES = 32;
+
+  /** The maximum number of lines of a block. */
+  static final int MAX_BLOCK_LINES = 256;
+
+  /**
+   * Replacements covering more than this fraction of the content are not worth it, the whole
+   * content should be sent instead.
+   */
+  private static final double MAX_REPLACED_FRACTION = 0.5;
+
+  private static final char LINE_SEPARATOR =
+      LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR.charAt(0);
+
+  private static final class Blocks {
+    private int count;
+    private int[] lineCounts = new int[16];
+    private int[] hashes = new int[16];
+
+    /** the start offset of every block and the end offset of the last block */
+    private int[] offsets = new int[17];
+
+    private void add(final int lineCount, final int hash, final int end) {
+      if (count == hashes.length) {
+        lineCounts = Arrays.copyOf(lineCounts, count * 2);
+        hashes = Arrays.copyOf(hashes, count * 2);
+        offsets = Arrays.copyOf(offsets, count * 2 + 1);
+      }
+
+      lineCounts[count] = lineCount;
+      hashes[count] = hash;
+      offsets[++count] = end;
+    }
+  }
+
+  private LineBlocks() {
+    // NOP
+  }
+
+  /**
+   * Calculates the line block checksums of the given content.
+   *
+   * @param content the normalized document content
+   * @return the line block checksums
+   */
+  public static LineBlockChecksums calculate(final String content) {
+    final Blocks blocks = divide(content);
+
+    return new LineBlockChecksums(
+        content.length(),
+        content.hashCode(),
+        Arrays.copyOf(blocks.lineCounts, blocks.count),
+        Arrays.copyOf(blocks.hashes, blocks.count));
+  }
+
+  /**
+   * Creates the replacements of lines that turn the document described by the given checksums into
+   * the given content.
+   *
+   * @param checksums the line block checksums of the document to patch
+   * @param content the normalized content the document should have
+   * @return the replacements in ascending order of their lines, or <code>null</code> if replacing
+   *     the whole document is cheaper
+   */
+  public static List<Replacement> createReplacements(
+      final LineBlockChecksums checksums, final String content) {
+
+    final List<Replacement> replacements = new ArrayList<>();
+
+    if (checksums.getLength() == content.length() && checksums.getHash() == content.hashCode())
+      return replacements;
+
+    final Blocks blocks = divide(content);
+
+    final int remoteCount = checksums.getBlockCount();
+    final int localCount = blocks.count;
+
+    int prefix = 0;
+
+    while (prefix < remoteCount
+        && prefix < localCount
+        && matches(checksums, prefix, blocks, prefix)) prefix++;
+
+    int suffix = 0;
+
+    while (suffix < remoteCount - prefix
+        && suffix < localCount - prefix
+        && matches(checksums, remoteCount - 1 - suffix, blocks, localCount - 1 - suffix)) suffix++;
+
+    final int[] remoteLines = new int[remoteCount + 1];
+
+    for (int i = 0; i < remoteCount; i++)
+      remoteLines[i + 1] = remoteLines[i] + checksums.getLineCount(i);
+
+    long replacedLength = 0;
+
+    if (remoteCount == localCount) {
+      // same number of blocks, only replace the ones that actually differ
+      for (int i = prefix; i < remoteCount - suffix; ) {
+        if (matches(checksums, i, blocks, i)) {
+          i++;
+          continue;
+        }
+
+        final int start = i;
+
+        while (i < remoteCount - suffix && !matches(checksums, i, blocks, i)) i++;
+
+        replacements.add(createReplacement(content, blocks, remoteLines, start, i, start, i));
+        replacedLength += blocks.offsets[i] - blocks.offsets[start];
+      }
+    } else {
+      replacements.add(
+          createReplacement(
+              content,
+              blocks,
+              remoteLines,
+              prefix,
+              remoteCount - suffix,
+              prefix,
+              localCount - suffix));
+      replacedLength += blocks.offsets[localCount - suffix] - blocks.offsets[prefix];
+    }
+
+    // all blocks match although the contents differ (hash collision)
+    if (replacements.isEmpty()) return null;
+
+    if (replacedLength > content.length() * MAX_REPLACED_FRACTION) return null;
+
+    return replacements;
+  }
+
+  /**
+   * Applies the given replacements to the given content.
+   *
+   * @param content the normalized document content
+   * @param replacements the replacements in ascending order of their lines
+   * @return the patched content
+   * @throws IllegalArgumentException if the replacements overlap or exceed the content
+   */
+  public static String apply(final String content, final List<Replacement> replacements) {
+    final StringBuilder result = new StringBuilder(content.length());
+
+    int offset = 0;
+    int line = 0;
+
+    for (final Replacement replacement : replacements) {
+      if (replacement.getStartLine() < line || replacement.getLineCount() < 0)
+        throw new IllegalArgumentException("replacements overlap: " + replacements);
+
+      final int start = skipLines(content, offset, replacement.getStartLine() - line);
+      final int end = skipLines(content, start, replacement.getLineCount());
+
+      result.append(content, offset, start).append(replacement.getText());
+
+      offset = end;
+      line = replacement.getStartLine() + replacement.getLineCount();
+    }
+
+    return result.append(content, offset, content.length()).toString();
+  }
+
+  /** Returns the offset behind the given number of lines following the given offset. */
+  private static int skipLines(final String content, int offset, final int lines) {
+    for (int i = 0; i < lines; i++) {
+      if (offset >= content.length())
+        throw new IllegalArgumentException("replacement exceeds the content");
+
+      final int separator = content.indexOf(LINE_SEPARATOR, offset);
+
+      offset = separator == -1 ? content.length() : separator + 1;
+    }
+
+    return offset;
+  }
+
+  private static Replacement createReplacement(
+      final String content,
+      final Blocks blocks,
+      final int[] remoteLines,
+      final int remoteStart,
+      final int remoteEnd,
+      final int localStart,
+      final int localEnd) {
+
+    return new Replacement(
+        remoteLines[remoteStart],
+        remoteLines[remoteEnd] - remoteLines[remoteStart],
+        content.substring(blocks.offsets[localStart], blocks.offsets[localEnd]));
+  }
+
+  private static boolean matches(
+      final LineBlockChecksums checksums, final int remote, final Blocks blocks, final int local) {
+
+    return checksums.getHash(remote) == blocks.hashes[local]
+        && checksums.getLineCount(remote) == blocks.lineCounts[local];
+  }
+
+  private static Blocks divide(final String content) {
+    final Blocks blocks = new Blocks();
+
+    int blockHash = 0;
+    int lineHash = 0;
+    int lines = 0;
+
+    for (int i = 0; i < content.length(); i++) {
+      final char c = content.charAt(i);
+
+      blockHash = 31 * blockHash + c;
+      lineHash = 31 * lineHash + c;
+
+      if (c != LINE_SEPARATOR && i < content.length() - 1) continue;
+
+      lines++;
+
+      if ((lineHash & (AVERAGE_BLOCK_LINES - 1)) == 0
+          || lines == MAX_BLOCK_LINES
+          || i == content.length() - 1) {
+
+        blocks.add(lines, blockHash, i + 1);
+
+        blockHash = 0;
+        lines = 0;
+      }
+
+      lineHash = 0;
+    }
+
+    return blocks;
+  }
+}
@@ -27,7 +27,7 @@
  * <p>Important components are:
  *
  * <ul>
- *   <li>ConsistencyWatchdogServer --- Generates checksums every 10 seconds for all files which are
+ *   <li>ConsistencyWatchdogServer --- Generates checksums every second for all files which are
  *       opened anywhere (host and clients)
  *   <li>ConsistencyWatchdogClient --- Receives incoming checksums and checks whether the local
  *       files match the checksums
@@ -22,6 +22,7 @@ import saros.net.internal.XMPPTransmitter;
 import saros.net.stream.IBBStreamService;
 import saros.net.stream.IStreamService;
 import saros.net.stream.Socks5StreamService;
+import saros.net.stream.TCPTransport;
 import saros.net.stun.IStunService;
 import saros.net.stun.internal.StunServiceImpl;
 import saros.net.upnp.IUPnPAccess;
@@ -84,6 +85,9 @@ public class CoreContextFactory extends AbstractContextFactory {
       Component.create(
           BindKey.bindKey(IStreamService.class, IContextKeyBindings.Socks5StreamService.class),
           Socks5StreamService.class),
+      Component.create(
+          BindKey.bindKey(IStreamService.class, IContextKeyBindings.TCPStreamService.class),
+          TCPTransport.class),
       Component.create(XMPPConnectionService.class),
       Component.create(IStunService.class, StunServiceImpl.class),
       Component.create(SubscriptionHandler.class),
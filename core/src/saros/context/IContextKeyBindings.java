@@ -32,6 +32,13 @@ public interface IContextKeyBindings {
     // marker interface
   }
 
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.FIELD, ElementType.PARAMETER})
+  @Bind
+  public @interface TCPStreamService {
+    // marker interface
+  }
+
   @Retention(RetentionPolicy.RUNTIME)
   @Target({ElementType.FIELD, ElementType.PARAMETER})
   @Bind
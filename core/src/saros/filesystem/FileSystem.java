@@ -31,6 +31,19 @@ public class FileSystem {
    * @throws IOException if an I/O error occurred
    */
   public static long checksum(IFile file) throws IOException {
+    return checksum(file, new byte[BUFFER_SIZE]);
+  }
+
+  /**
+   * Calculate Adler32 checksum for given file, reading the file with the given buffer. Allows
+   * callers that calculate the checksums of many files to reuse the buffer.
+   *
+   * @param file the file
+   * @param buffer the buffer to read the file contents into
+   * @return checksum of file
+   * @throws IOException if an I/O error occurred
+   */
+  public static long checksum(IFile file, byte[] buffer) throws IOException {
 
     InputStream in;
 
@@ -40,8 +53,6 @@ public class FileSystem {
       throw new IOException("failed to calculate checksum", e);
     }
 
-    byte[] buffer = new byte[BUFFER_SIZE];
-
     Adler32 adler = new Adler32();
 
     int read;
@@ -1,13 +1,17 @@
 package saros.filesystem.checksum;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.log4j.Logger;
 import saros.filesystem.IFile;
+import saros.repackaged.picocontainer.Startable;
 
 /**
  * Default implementation of the checksum cache {@link IChecksumCache interface} .
@@ -16,33 +20,51 @@ import saros.filesystem.IFile;
  * identified by using two different hash functions based on the path it points to rather than
  * storing the concrete path.
  *
+ * <p>The cache can be accessed by multiple threads concurrently without locking.
+ *
  * <p>In order to use this implementation a concrete file change {@link IFileContentChangedNotifier
  * notifier} has to be provided that tracks file changes in the currently used file system.
  *
+ * <p>If a {@link PersistentChecksumStore} is provided, checksums are kept across IDE restarts as
+ * well. A checksum found in the store is only used if the file still has the size and modification
+ * time it had when the checksum was calculated.
+ *
  * <p><b>Note:</b> This implementation is <b>NOT</b> capable of handling hash collisions.
  */
 // TODO add probability of hash collisions, lower bound should be 1 / (2^32 *
 // 2^128)
-public final class FileSystemChecksumCache implements IChecksumCache {
+public final class FileSystemChecksumCache implements IChecksumCache, Startable {
 
   private static final Logger log = Logger.getLogger(FileSystemChecksumCache.class);
 
   private static final int SEED = 0xDEADBEEF;
 
+  /**
+   * Checksums of files modified less than this many milliseconds before the checksum calculation
+   * are not stored persistently as the file could be modified again without changing its
+   * modification time.
+   */
+  private static final long RACY_MODIFICATION_INTERVAL = 2000;
+
   private final IAbsolutePathResolver absolutePathResolver;
 
-  private static class Murmur3Hash<T> {
+  private final IFileContentChangedNotifier fileContentChangedNotifier;
+
+  private final PersistentChecksumStore store;
 
-    long h1;
-    long h2;
-    T object;
+  /** Marks the checksum of a file as invalid because the file changed. */
+  private static final Object INVALIDATED = new Object();
+
+  private static final class Murmur3Hash {
+
+    final long h1;
+    final long h2;
 
     public Murmur3Hash(long h1, long h2) {
       this.h1 = h1;
       this.h2 = h2;
     }
 
-    @SuppressWarnings("rawtypes")
     @Override
     public boolean equals(Object o) {
 
@@ -60,14 +82,6 @@ public final class FileSystemChecksumCache implements IChecksumCache {
     public int hashCode() {
       return (int) (h1 ^ h2);
     }
-
-    public void setObject(T object) {
-      this.object = object;
-    }
-
-    public T getObject() {
-      return object;
-    }
   }
 
   private final IFileContentChangedListener fileContentChangedListener =
@@ -75,48 +89,86 @@ public final class FileSystemChecksumCache implements IChecksumCache {
 
         @Override
         public void fileContentChanged(IFile file) {
-          synchronized (FileSystemChecksumCache.this) {
-            final String path = absolutePathResolver.getAbsolutePath(file);
-
-            if (path == null) {
-              logNoValidPath(file);
-              return;
-            }
-
-            Murmur3Hash<Long> hash = create128BitMurmur3Hash(path);
-            Murmur3Hash<Long> currentHash = getHash(path, hash);
-
-            if (currentHash != null) {
-              if (log.isTraceEnabled())
-                log.trace(
-                    "invalidating checksum for existing file: " + path + " [" + currentHash + "]");
-
-              currentHash.setObject(null);
-            } else {
-              if (log.isTraceEnabled())
-                log.trace("invalidating checksum for new file: " + path + " [" + hash + "]");
-
-              addChecksum(file, 0);
-              getHash(path, hash).setObject(null);
-            }
+          final String path = absolutePathResolver.getAbsolutePath(file);
+
+          if (path == null) {
+            logNoValidPath(file);
+            return;
+          }
+
+          final Murmur3Hash hash = create128BitMurmur3Hash(path);
+
+          if (store != null) {
+            fileAttributes.remove(hash);
+            store.remove(hash.h1, hash.h2);
           }
+
+          final Object previous = cache.put(hash, INVALIDATED);
+
+          if (log.isTraceEnabled())
+            log.trace(
+                "invalidating checksum for "
+                    + (previous == null ? "new" : "existing")
+                    + " file: "
+                    + path
+                    + " ["
+                    + hash
+                    + "]");
         }
       };
 
-  private Map<Integer, Object> cache = new HashMap<Integer, Object>();
+  /**
+   * the checksums ({@link Long}) of the files or {@link #INVALIDATED}, accessed concurrently by the
+   * threads calculating checksums without locking
+   */
+  private final ConcurrentMap<Murmur3Hash, Object> cache =
+      new ConcurrentHashMap<Murmur3Hash, Object>();
+
+  /**
+   * the size and modification time of files whose checksum was not found, read before the checksum
+   * is calculated
+   */
+  private final ConcurrentMap<Murmur3Hash, long[]> fileAttributes =
+      new ConcurrentHashMap<Murmur3Hash, long[]>();
 
   public FileSystemChecksumCache(
       IFileContentChangedNotifier fileContentChangedNotifier,
       IAbsolutePathResolver absolutePathResolver) {
 
+    this(fileContentChangedNotifier, absolutePathResolver, null);
+  }
+
+  /**
+   * @param fileContentChangedNotifier the notifier tracking file changes
+   * @param absolutePathResolver the resolver for the absolute paths of files
+   * @param store the store to keep checksums in across IDE restarts, may be <code>null</code>
+   */
+  public FileSystemChecksumCache(
+      IFileContentChangedNotifier fileContentChangedNotifier,
+      IAbsolutePathResolver absolutePathResolver,
+      PersistentChecksumStore store) {
+
     fileContentChangedNotifier.addFileContentChangedListener(fileContentChangedListener);
 
+    this.fileContentChangedNotifier = fileContentChangedNotifier;
     this.absolutePathResolver = absolutePathResolver;
+    this.store = store;
   }
 
   @Override
-  @SuppressWarnings({"unchecked"})
-  public synchronized Long getChecksum(IFile file) {
+  public void start() {
+    // NOP
+  }
+
+  @Override
+  public void stop() {
+    fileContentChangedNotifier.removeFileContentChangedListener(fileContentChangedListener);
+
+    if (store != null) store.flush();
+  }
+
+  @Override
+  public Long getChecksum(IFile file) {
 
     final String path = absolutePathResolver.getAbsolutePath(file);
 
@@ -125,107 +177,102 @@ public final class FileSystemChecksumCache implements IChecksumCache {
       return null;
     }
 
-    Object object = cache.get(path.hashCode());
+    final Murmur3Hash hash = create128BitMurmur3Hash(path);
+
+    final Object checksum = cache.get(hash);
 
-    if (object == null) {
+    if (checksum == INVALIDATED) {
       logNoValidChecksum(path);
       return null;
     }
 
-    Murmur3Hash<Long> hash = create128BitMurmur3Hash(path);
-
-    if (object instanceof Murmur3Hash) {
-      if (hash.equals(object)) {
-        Murmur3Hash<Long> currentHash = (Murmur3Hash<Long>) object;
-        logValidChecksum(path, currentHash);
-        return currentHash.getObject();
-      } else {
-        logNoValidChecksum(path);
-        return null;
-      }
-    }
+    if (checksum == null) return getStoredChecksum(file, path, hash);
 
-    List<Murmur3Hash<Long>> hashes = (List<Murmur3Hash<Long>>) object;
-    int index = hashes.indexOf(hash);
+    logValidChecksum(path, hash, checksum);
+    return (Long) checksum;
+  }
 
-    if (index == -1) {
+  /**
+   * Returns the checksum of a file that is not contained in the cache from the store and adds it to
+   * the cache. If it is not stored either, the current size and modification time of the file are
+   * remembered so that the checksum calculated afterwards can be stored.
+   */
+  private Long getStoredChecksum(IFile file, String path, Murmur3Hash hash) {
+    if (store == null) {
       logNoValidChecksum(path);
       return null;
     }
 
-    Murmur3Hash<Long> currentHash = hashes.get(index);
-    logValidChecksum(path, currentHash);
-    return currentHash.getObject();
-  }
+    final long[] attributes = readFileAttributes(path);
 
-  @Override
-  @SuppressWarnings("unchecked")
-  public synchronized boolean addChecksum(IFile file, long checksum) {
+    if (attributes == null) {
+      logNoValidChecksum(path);
+      return null;
+    }
 
-    final String path = absolutePathResolver.getAbsolutePath(file);
+    final Long checksum = store.get(hash.h1, hash.h2, attributes[0], attributes[1]);
 
-    if (path == null) {
-      logNoValidPath(file);
-      return false;
+    if (checksum == null) {
+      fileAttributes.put(hash, attributes);
+      logNoValidChecksum(path);
+      return null;
     }
 
-    Murmur3Hash<Long> hash = create128BitMurmur3Hash(path);
-    hash.setObject(checksum);
-
-    Object object = cache.get(path.hashCode());
+    cache.putIfAbsent(hash, checksum);
 
-    if (object == null) {
-      cache.put(path.hashCode(), hash);
-      return false;
-    }
+    if (log.isTraceEnabled())
+      log.trace("found stored checksum for file: " + path + " [" + checksum + "," + hash + "]");
 
-    Murmur3Hash<Long> currentHash = getHash(path, hash);
+    return checksum;
+  }
 
-    if (currentHash != null) {
-      if (currentHash.getObject() == null) {
-        currentHash.setObject(checksum);
-        return true;
-      }
+  /** Returns the size and modification time of the file or <code>null</code> if unavailable. */
+  private static long[] readFileAttributes(String path) {
+    try {
+      final BasicFileAttributes attributes =
+          Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
 
-      currentHash.setObject(checksum);
-      return false;
-    }
+      if (!attributes.isRegularFile()) return null;
 
-    List<Murmur3Hash<Long>> list;
+      return new long[] {attributes.size(), attributes.lastModifiedTime().toMillis()};
+    } catch (IOException | InvalidPathException e) {
+      if (log.isTraceEnabled()) log.trace("failed to read attributes of file: " + path, e);
 
-    if (object instanceof Murmur3Hash) {
-      currentHash = (Murmur3Hash<Long>) object;
-      list = new ArrayList<Murmur3Hash<Long>>(2);
-      list.add(currentHash);
-      cache.put(path.hashCode(), list);
-    } else {
-      list = (List<Murmur3Hash<Long>>) object;
+      return null;
     }
-
-    list.add(hash);
-    return false;
   }
 
-  @SuppressWarnings("unchecked")
-  private Murmur3Hash<Long> getHash(String path, Murmur3Hash<Long> hash) {
-    Object object = cache.get(path.hashCode());
+  @Override
+  public boolean addChecksum(IFile file, long checksum) {
+
+    final String path = absolutePathResolver.getAbsolutePath(file);
 
-    if (object == null) return null;
+    if (path == null) {
+      logNoValidPath(file);
+      return false;
+    }
 
-    if (hash.equals(object)) return (Murmur3Hash<Long>) object;
+    final Murmur3Hash hash = create128BitMurmur3Hash(path);
 
-    if (object instanceof Murmur3Hash) return null;
+    if (store != null) storeChecksum(hash, checksum);
 
-    List<Murmur3Hash<Long>> list = (List<Murmur3Hash<Long>>) object;
+    return cache.put(hash, checksum) == INVALIDATED;
+  }
 
-    int index = list.indexOf(hash);
+  /**
+   * Stores the checksum if the size and modification time of the file were read before it was
+   * calculated and the file was not modified shortly before.
+   */
+  private void storeChecksum(Murmur3Hash hash, long checksum) {
+    final long[] attributes = fileAttributes.remove(hash);
 
-    if (index == -1) return null;
+    if (attributes == null
+        || attributes[1] > System.currentTimeMillis() - RACY_MODIFICATION_INTERVAL) return;
 
-    return list.get(index);
+    store.put(hash.h1, hash.h2, attributes[0], attributes[1], checksum);
   }
 
-  private Murmur3Hash<Long> create128BitMurmur3Hash(String path) {
+  private Murmur3Hash create128BitMurmur3Hash(String path) {
     try {
       return create128BitMurmur3Hash(path.getBytes("UTF-8"), SEED);
     } catch (UnsupportedEncodingException e) {
@@ -244,7 +291,7 @@ public final class FileSystemChecksumCache implements IChecksumCache {
    * License: http://www.apache.org/licenses/LICENSE-2.0
    */
 
-  private Murmur3Hash<Long> create128BitMurmur3Hash(byte[] bytes, int seed) {
+  private Murmur3Hash create128BitMurmur3Hash(byte[] bytes, int seed) {
     long h1 = seed;
     long h2 = seed;
     long c1 = 0x87c37b91114253d5L;
@@ -358,7 +405,7 @@ public final class FileSystemChecksumCache implements IChecksumCache {
     h1 += h2;
     h2 += h1;
 
-    return new Murmur3Hash<Long>(h1, h2);
+    return new Murmur3Hash(h1, h2);
   }
 
   private int toInt(byte b) {
@@ -373,15 +420,9 @@ public final class FileSystemChecksumCache implements IChecksumCache {
     if (log.isTraceEnabled()) log.trace("no valid checksum found for file: " + path);
   }
 
-  private void logValidChecksum(String path, Murmur3Hash<Long> hash) {
+  private void logValidChecksum(String path, Murmur3Hash hash, Object checksum) {
     if (log.isTraceEnabled())
       log.trace(
-          "found valid checksum found for file: "
-              + path
-              + " ["
-              + hash.getObject()
-              + ","
-              + hash
-              + "]");
+          "found valid checksum found for file: " + path + " [" + checksum + "," + hash + "]");
   }
 }
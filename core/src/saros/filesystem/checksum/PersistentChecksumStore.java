@@ -0,0 +1,366 @@
+package saros.filesystem.checksum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+import saros.repackaged.picocontainer.Startable;
+
+/**
+ * Store that keeps file checksums across IDE restarts so that the first session after a restart
+ * does not have to read every shared file again.
+ *
+ * <p>A checksum is stored for a file identified by the 128 bit hash of its absolute path (see
+ * {@link FileSystemChecksumCache}) along with the size and the modification time the file had when
+ * the checksum was calculated. It is only returned as long as the file still has this size and
+ * modification time.
+ *
+ * <p>The checksums are kept in an append-only file. Every record is protected by a CRC, the file is
+ * read until the first damaged or incomplete record on load. The file is compacted on load if it
+ * contains too many outdated records. Appended records are buffered until the next {@link #flush()}
+ * , losing them only means that the affected checksums have to be calculated again.
+ *
+ * <p>This class is thread safe.
+ */
+public final class PersistentChecksumStore implements Startable {
+
+  private static final Logger log = Logger.getLogger(PersistentChecksumStore.class);
+
+  private static final int MAGIC = 0x53435331; // SCS1
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 8;
+
+  /** path hash (2 longs), size, modification time, checksum and the CRC of the former */
+  private static final int RECORD_LENGTH = 5 * 8 + 4;
+
+  /** size of a record removing the checksum of a file */
+  private static final long REMOVED = -1;
+
+  /** the file is compacted on load if it contains this many more records than entries */
+  private static final int MAX_OUTDATED_RECORDS =
+      Integer.getInteger("saros.checksum.MAX_OUTDATED_RECORDS", 100000);
+
+  private static final class Key {
+    private final long h1;
+    private final long h2;
+
+    private Key(long h1, long h2) {
+      this.h1 = h1;
+      this.h2 = h2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+
+      return h1 == ((Key) o).h1 && h2 == ((Key) o).h2;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (h1 ^ h2);
+    }
+  }
+
+  private static final class Entry {
+    private final long size;
+    private final long modified;
+    private final long checksum;
+
+    private Entry(long size, long modified, long checksum) {
+      this.size = size;
+      this.modified = modified;
+      this.checksum = checksum;
+    }
+  }
+
+  private final File file;
+
+  private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+
+  private final CRC32 crc = new CRC32();
+
+  private boolean loaded;
+
+  private DataOutputStream out;
+
+  /**
+   * Creates a new store, the file is read on first access.
+   *
+   * @param file the file to store the checksums in, created if it does not exist
+   */
+  public PersistentChecksumStore(File file) {
+    this.file = file;
+  }
+
+  @Override
+  public void start() {
+    // NOP, the file is loaded on first access
+  }
+
+  @Override
+  public synchronized void stop() {
+    flush();
+    closeQuietly();
+
+    loaded = false;
+    entries.clear();
+  }
+
+  /**
+   * Returns the checksum stored for the given file.
+   *
+   * @param h1 the first half of the file's path hash
+   * @param h2 the second half of the file's path hash
+   * @param size the current size of the file
+   * @param modified the current modification time of the file
+   * @return the checksum or <code>null</code> if there is no checksum stored for the file or the
+   *     file was modified since
+   */
+  public synchronized Long get(long h1, long h2, long size, long modified) {
+    load();
+
+    final Entry entry = entries.get(new Key(h1, h2));
+
+    if (entry == null || entry.size != size || entry.modified != modified) return null;
+
+    return entry.checksum;
+  }
+
+  /**
+   * Stores the checksum of the given file.
+   *
+   * @param h1 the first half of the file's path hash
+   * @param h2 the second half of the file's path hash
+   * @param size the size of the file the checksum was calculated for
+   * @param modified the modification time of the file the checksum was calculated for
+   * @param checksum the checksum
+   */
+  public synchronized void put(long h1, long h2, long size, long modified, long checksum) {
+    load();
+
+    final Key key = new Key(h1, h2);
+    final Entry entry = entries.get(key);
+
+    if (entry != null
+        && entry.size == size
+        && entry.modified == modified
+        && entry.checksum == checksum) return;
+
+    entries.put(key, new Entry(size, modified, checksum));
+    append(h1, h2, size, modified, checksum);
+  }
+
+  /**
+   * Removes the checksum of the given file.
+   *
+   * @param h1 the first half of the file's path hash
+   * @param h2 the second half of the file's path hash
+   */
+  public synchronized void remove(long h1, long h2) {
+    load();
+
+    if (entries.remove(new Key(h1, h2)) != null) append(h1, h2, REMOVED, 0, 0);
+  }
+
+  /** Writes the buffered records to the file. */
+  public synchronized void flush() {
+    if (out == null) return;
+
+    try {
+      out.flush();
+    } catch (IOException e) {
+      log.warn("failed to write checksum store " + file + ", disabling it", e);
+      closeQuietly();
+    }
+  }
+
+  /** Returns the number of stored checksums. */
+  synchronized int size() {
+    load();
+    return entries.size();
+  }
+
+  private void load() {
+    if (loaded) return;
+
+    loaded = true;
+
+    int records = 0;
+    boolean valid = false;
+
+    if (file.isFile()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+        valid = in.readInt() == MAGIC && in.readInt() == VERSION;
+
+        while (valid) {
+          if (!readRecord(in)) break;
+
+          records++;
+        }
+      } catch (EOFException e) {
+        // incomplete header
+      } catch (IOException e) {
+        log.warn("failed to read checksum store " + file, e);
+      }
+
+      if (!valid) {
+        log.warn("discarding invalid checksum store " + file);
+        entries.clear();
+        records = 0;
+      }
+    }
+
+    final long expectedLength = HEADER_LENGTH + (long) records * RECORD_LENGTH;
+
+    if (valid
+        && file.length() == expectedLength
+        && records - entries.size() <= MAX_OUTDATED_RECORDS) {
+
+      log.debug("loaded " + entries.size() + " checksums from " + file);
+      open();
+      return;
+    }
+
+    // the store is new, damaged or contains too many outdated records
+    if (compact()) open();
+
+    log.debug(
+        "compacted checksum store "
+            + file
+            + " from "
+            + records
+            + " to "
+            + entries.size()
+            + " records");
+  }
+
+  /** Reads the next record, returns <code>false</code> if it is missing or damaged. */
+  private boolean readRecord(final DataInputStream in) throws IOException {
+    record.clear();
+
+    final int read = in.read(record.array(), 0, RECORD_LENGTH);
+
+    if (read < RECORD_LENGTH) {
+      if (read <= 0) return false;
+
+      try {
+        in.readFully(record.array(), read, RECORD_LENGTH - read);
+      } catch (EOFException e) {
+        return false;
+      }
+    }
+
+    crc.reset();
+    crc.update(record.array(), 0, RECORD_LENGTH - 4);
+
+    final long h1 = record.getLong();
+    final long h2 = record.getLong();
+    final long size = record.getLong();
+    final long modified = record.getLong();
+    final long checksum = record.getLong();
+
+    if ((int) crc.getValue() != record.getInt()) return false;
+
+    final Key key = new Key(h1, h2);
+
+    if (size == REMOVED) entries.remove(key);
+    else entries.put(key, new Entry(size, modified, checksum));
+
+    return true;
+  }
+
+  /** Rewrites the file with the current entries only. */
+  private boolean compact() {
+    final File tmp = new File(file.getPath() + ".tmp");
+
+    try {
+      final File parent = file.getAbsoluteFile().getParentFile();
+
+      if (parent != null) parent.mkdirs();
+
+      try (DataOutputStream tmpOut =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+
+        tmpOut.writeInt(MAGIC);
+        tmpOut.writeInt(VERSION);
+
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+          final Key key = e.getKey();
+          final Entry entry = e.getValue();
+
+          encode(key.h1, key.h2, entry.size, entry.modified, entry.checksum);
+          tmpOut.write(record.array(), 0, RECORD_LENGTH);
+        }
+      }
+
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      log.warn("failed to write checksum store " + file + ", disabling it", e);
+      tmp.delete();
+      return false;
+    }
+  }
+
+  private void open() {
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    } catch (IOException e) {
+      log.warn("failed to open checksum store " + file + ", disabling it", e);
+    }
+  }
+
+  private void append(long h1, long h2, long size, long modified, long checksum) {
+    if (out == null) return;
+
+    encode(h1, h2, size, modified, checksum);
+
+    try {
+      out.write(record.array(), 0, RECORD_LENGTH);
+    } catch (IOException e) {
+      log.warn("failed to write checksum store " + file + ", disabling it", e);
+      closeQuietly();
+    }
+  }
+
+  private void encode(long h1, long h2, long size, long modified, long checksum) {
+    record.clear();
+    record.putLong(h1).putLong(h2).putLong(size).putLong(modified).putLong(checksum);
+
+    crc.reset();
+    crc.update(record.array(), 0, RECORD_LENGTH - 4);
+
+    record.putInt((int) crc.getValue());
+  }
+
+  private void closeQuietly() {
+    if (out == null) return;
+
+    try {
+      out.close();
+    } catch (IOException e) {
+      // ignore
+    }
+
+    out = null;
+  }
+}
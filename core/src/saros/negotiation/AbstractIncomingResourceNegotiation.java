@@ -24,6 +24,8 @@ import saros.filesystem.checksum.IChecksumCache;
 import saros.monitoring.IProgressMonitor;
 import saros.monitoring.SubProgressMonitor;
 import saros.negotiation.NegotiationTools.CancelOption;
+import saros.negotiation.delta.FileDelta;
+import saros.negotiation.delta.FileSignature;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.PacketCollector;
@@ -123,9 +125,14 @@ public abstract class AbstractIncomingResourceNegotiation extends ResourceNegoti
       checkCancellation(CancelOption.NOTIFY_PEER);
       setup(monitor);
 
+      final Map<String, FileListDiff> diffs =
+          computeLocalVsRemoteDiff(referencePointMapping, monitor);
+
+      final List<FileSignature> fileSignatures =
+          createFileSignatures(referencePointMapping, diffs, monitor);
+
       List<FileList> missingFiles =
-          synchronizeReferencePointStructures(
-              referencePointMapping, computeLocalVsRemoteDiff(referencePointMapping, monitor));
+          synchronizeReferencePointStructures(referencePointMapping, diffs);
 
       monitor.subTask("");
 
@@ -133,7 +140,8 @@ public abstract class AbstractIncomingResourceNegotiation extends ResourceNegoti
           ISarosSession.SESSION_CONNECTION_ID,
           getPeer(),
           ResourceNegotiationMissingFilesExtension.PROVIDER.create(
-              new ResourceNegotiationMissingFilesExtension(getSessionID(), getID(), missingFiles)));
+              new ResourceNegotiationMissingFilesExtension(
+                  getSessionID(), getID(), missingFiles, fileSignatures)));
 
       awaitActivityQueueingActivation(monitor);
 
@@ -231,6 +239,26 @@ public abstract class AbstractIncomingResourceNegotiation extends ResourceNegoti
       List<FileList> missingFiles)
       throws IOException, SarosCancellationException;
 
+  /**
+   * Creates the signatures of the local copies of altered files, allowing the remote side to only
+   * send the differences of these files, see {@link FileDelta}. The default implementation returns
+   * an empty list, i.e all missing files are sent completely.
+   *
+   * @param referencePointMapping mapping from remote reference point ids to the target local
+   *     reference points
+   * @param diffs the differences between the local and the remote side for each reference point
+   * @param monitor monitor to show progress to the user
+   * @return the signatures of the altered files that should be sent as delta
+   * @throws IOException if a file could not be read
+   */
+  protected List<FileSignature> createFileSignatures(
+      Map<String, IReferencePoint> referencePointMapping,
+      Map<String, FileListDiff> diffs,
+      IProgressMonitor monitor)
+      throws IOException {
+    return Collections.emptyList();
+  }
+
   /**
    * Cleanup ends the negotiation process, by disabling the reference point based queue and removes
    * acquired handlers during {@link #setup} and {@link #transfer}.
@@ -2,6 +2,7 @@ package saros.negotiation;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -21,6 +22,8 @@ import saros.filesystem.checksum.IChecksumCache;
 import saros.monitoring.IProgressMonitor;
 import saros.monitoring.SubProgressMonitor;
 import saros.negotiation.NegotiationTools.CancelOption;
+import saros.negotiation.delta.FileDelta;
+import saros.negotiation.delta.FileSignature;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.PacketCollector;
@@ -46,6 +49,10 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
 
   private static final Random NEGOTIATION_ID_GENERATOR = new Random();
 
+  /** Minimum amount of data per stripe for a transfer to be striped at all. */
+  private static final long MIN_STRIPE_SIZE =
+      Long.getLong("saros.negotiation.MIN_STRIPE_SIZE", 4L * 1024 * 1024);
+
   protected final IEditorManager editorManager;
 
   private PacketCollector remoteFileListResponseCollector;
@@ -54,6 +61,10 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
 
   private final AdditionalResourceDataFactory additionalResourceDataFactory;
 
+  private List<FileSignature> remoteFileSignatures = Collections.emptyList();
+
+  private final int maxTransferStripes;
+
   protected AbstractOutgoingResourceNegotiation( //
       final JID peer, //
       final ResourceSharingData resourceSharingData, //
@@ -65,7 +76,8 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
       final XMPPFileTransferManager fileTransferManager, //
       final ITransmitter transmitter, //
       final IReceiver receiver, //
-      final AdditionalResourceDataFactory additionalResourceDataFactory //
+      final AdditionalResourceDataFactory additionalResourceDataFactory, //
+      final int maxTransferStripes //
       ) {
     super(
         String.valueOf(NEGOTIATION_ID_GENERATOR.nextLong()),
@@ -82,6 +94,7 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
 
     this.editorManager = editorManager;
     this.additionalResourceDataFactory = additionalResourceDataFactory;
+    this.maxTransferStripes = Math.max(1, maxTransferStripes);
   }
 
   public Status run(IProgressMonitor monitor) {
@@ -235,8 +248,12 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
           "received no response from " + getPeer() + " while waiting for the file list",
           CancelOption.DO_NOT_NOTIFY_PEER);
 
-    List<FileList> remoteFileLists =
-        ResourceNegotiationMissingFilesExtension.PROVIDER.getPayload(packet).getFileLists();
+    final ResourceNegotiationMissingFilesExtension payload =
+        ResourceNegotiationMissingFilesExtension.PROVIDER.getPayload(packet);
+
+    List<FileList> remoteFileLists = payload.getFileLists();
+
+    remoteFileSignatures = payload.getFileSignatures();
 
     log.debug(this + " : remote file list has been received");
 
@@ -247,6 +264,17 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
     return remoteFileLists;
   }
 
+  /**
+   * Returns the signatures of the files the remote side already has a different version of and
+   * wants to receive as delta, see {@link FileDelta}. Only available after {@link
+   * #getRemoteFileList} was called.
+   *
+   * @return the signatures of the remote files, may be empty
+   */
+  protected List<FileSignature> getRemoteFileSignatures() {
+    return remoteFileSignatures;
+  }
+
   @Override
   protected void executeCancellation() {
     if (session.isHost() && session.getRemoteUsers().isEmpty())
@@ -344,6 +372,9 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
                     SubProgressMonitor.SUPPRESS_BEGINTASK
                         | SubProgressMonitor.SUPPRESS_SETTASKNAME));
 
+        if (monitor.isCanceled())
+          throw new LocalCancellationException(null, CancelOption.DO_NOT_NOTIFY_PEER);
+
         referencePointFileList.setReferencePointID(referencePointID);
 
         Map<String, String> additionalResourceData =
@@ -410,4 +441,16 @@ public abstract class AbstractOutgoingResourceNegotiation extends ResourceNegoti
   public String toString() {
     return "OPN [remote side: " + getPeer() + "]";
   }
+
+  /**
+   * Returns the number of parallel stripes to use for a stream transfer of the given size. Small
+   * transfers are not striped, larger ones use up to the number of stripes negotiated with the
+   * peer.
+   *
+   * @param size the expected number of bytes to transfer
+   * @return the number of stripes, at least 1
+   */
+  protected int getTransferStripes(long size) {
+    return (int) Math.max(1, Math.min(maxTransferStripes, size / MIN_STRIPE_SIZE));
+  }
 }
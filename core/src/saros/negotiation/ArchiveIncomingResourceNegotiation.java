@@ -2,21 +2,32 @@ package saros.negotiation;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.log4j.Logger;
 import saros.exceptions.LocalCancellationException;
 import saros.exceptions.SarosCancellationException;
+import saros.filesystem.IFile;
 import saros.filesystem.IReferencePoint;
 import saros.filesystem.IResource;
 import saros.filesystem.IWorkspace;
 import saros.filesystem.checksum.IChecksumCache;
 import saros.monitoring.IProgressMonitor;
 import saros.monitoring.SubProgressMonitor;
+import saros.negotiation.FileList.MetaData;
 import saros.negotiation.NegotiationTools.CancelOption;
+import saros.negotiation.delta.FileDelta;
+import saros.negotiation.delta.FileSignature;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -29,12 +40,23 @@ import saros.util.CoreUtils;
 
 /**
  * Implementation of {@link AbstractIncomingResourceNegotiation} utilizing a transferred zip archive
- * to exchange differences in the reference point files.
+ * to exchange differences in the reference point files. If the archive is streamed, it is unpacked
+ * while it is received.
+ *
+ * <p>If delta transfer is enabled, altered files that are small enough to be held in memory are
+ * requested as delta to their local copies, see {@link FileDelta}.
  */
 public class ArchiveIncomingResourceNegotiation extends AbstractIncomingResourceNegotiation {
 
   private static final Logger log = Logger.getLogger(ArchiveIncomingResourceNegotiation.class);
 
+  private final boolean streaming;
+
+  private final boolean deltaTransfer;
+
+  /** the entry names of the remote files that are received as delta */
+  private final Set<String> deltaEntries = new HashSet<String>();
+
   public ArchiveIncomingResourceNegotiation(
       final JID peer, //
       final String negotiationID, //
@@ -46,7 +68,9 @@ public class ArchiveIncomingResourceNegotiation extends AbstractIncomingResource
       final IChecksumCache checksumCache, //
       final XMPPFileTransferManager fileTransferManager, //
       final ITransmitter transmitter, //
-      final IReceiver receiver //
+      final IReceiver receiver, //
+      final boolean streaming, //
+      final boolean deltaTransfer //
       ) {
     super(
         peer,
@@ -60,6 +84,69 @@ public class ArchiveIncomingResourceNegotiation extends AbstractIncomingResource
         fileTransferManager,
         transmitter,
         receiver);
+
+    this.streaming = streaming;
+    this.deltaTransfer = deltaTransfer;
+  }
+
+  @Override
+  protected List<FileSignature> createFileSignatures(
+      final Map<String, IReferencePoint> referencePointMapping,
+      final Map<String, FileListDiff> diffs,
+      final IProgressMonitor monitor)
+      throws IOException {
+
+    if (!deltaTransfer) return Collections.emptyList();
+
+    monitor.subTask("Calculating signatures of altered files...");
+
+    final List<FileSignature> signatures = new ArrayList<FileSignature>();
+
+    long totalSize = 0;
+
+    for (final Entry<String, FileListDiff> entry : diffs.entrySet()) {
+      final String id = entry.getKey();
+      final IReferencePoint referencePoint = referencePointMapping.get(id);
+      final FileList remoteFileList = getResourceNegotiationData(id).getFileList();
+
+      for (final String path : entry.getValue().getAlteredFiles()) {
+        final MetaData metaData = remoteFileList.getMetaData(path);
+
+        if (metaData == null) continue;
+
+        final IFile file = referencePoint.getFile(path);
+
+        final long size = file.getSize();
+
+        if (size < FileDelta.MIN_FILE_SIZE || size > FileDelta.MAX_FILE_SIZE) continue;
+
+        final byte[] data;
+
+        InputStream in = null;
+
+        try {
+          in = file.getContents();
+          data = IOUtils.toByteArray(in);
+        } finally {
+          IOUtils.closeQuietly(in);
+        }
+
+        signatures.add(FileDelta.createSignature(id, path, data));
+        deltaEntries.add(id + PATH_DELIMITER + path);
+
+        totalSize += data.length;
+      }
+    }
+
+    log.debug(
+        this
+            + " : requesting "
+            + signatures.size()
+            + " altered file(s) of "
+            + CoreUtils.formatByte(totalSize)
+            + " as delta");
+
+    return signatures;
   }
 
   @Override
@@ -69,14 +156,50 @@ public class ArchiveIncomingResourceNegotiation extends AbstractIncomingResource
       List<FileList> missingFiles)
       throws IOException, SarosCancellationException {
 
-    boolean filesMissing = false;
+    int filesMissing = 0;
 
-    for (FileList list : missingFiles) filesMissing |= list.getPaths().size() > 0;
+    for (FileList list : missingFiles) filesMissing += list.getPaths().size();
 
     // the host do not send an archive if we do not need any files
-    if (filesMissing) {
-      receiveAndUnpackArchive(referencePointMapping, monitor);
+    if (filesMissing == 0) return;
+
+    if (streaming) receiveAndUnpackArchiveStream(referencePointMapping, filesMissing, monitor);
+    else receiveAndUnpackArchive(referencePointMapping, monitor);
+  }
+
+  /** Receives the archive with all missing files and unpacks it while it is received. */
+  private void receiveAndUnpackArchiveStream(
+      final Map<String, IReferencePoint> localReferencePointMapping,
+      final int fileCount,
+      final IProgressMonitor monitor)
+      throws IOException, SarosCancellationException {
+
+    monitor.beginTask("Receiving archive...", 100);
+    log.debug("waiting for incoming archive stream request");
+
+    monitor.subTask("Waiting for Host to start...");
+    monitor.waitForCompletion(expectedTransfer);
+    log.debug(this + " : receiving archive");
+
+    try (InputStream transmissionStream = expectedTransfer.get().acceptStream();
+        CountingInputStream countStream = new CountingInputStream(transmissionStream)) {
+
+      unpackArchive(
+          localReferencePointMapping,
+          new DecompressArchiveTask(
+              countStream,
+              fileCount,
+              getReferencePointMapping(localReferencePointMapping),
+              PATH_DELIMITER,
+              deltaEntries,
+              new SubProgressMonitor(monitor, 100)));
+
+      log.debug(this + " : archive stream received, size: " + countStream.getByteCount());
+    } catch (InterruptedException | ExecutionException e) {
+      throw new LocalCancellationException(e.getMessage(), CancelOption.NOTIFY_PEER);
     }
+
+    monitor.done();
   }
 
   /** Receives the archive with all missing files and unpacks it. */
@@ -111,14 +234,32 @@ public class ArchiveIncomingResourceNegotiation extends AbstractIncomingResource
       final IProgressMonitor monitor)
       throws LocalCancellationException, IOException {
 
+    unpackArchive(
+        localReferencePointMapping,
+        new DecompressArchiveTask(
+            archiveFile,
+            getReferencePointMapping(localReferencePointMapping),
+            PATH_DELIMITER,
+            deltaEntries,
+            monitor));
+  }
+
+  private Map<String, IReferencePoint> getReferencePointMapping(
+      final Map<String, IReferencePoint> localReferencePointMapping) {
+
     final Map<String, IReferencePoint> referencePointMapping =
         new HashMap<String, IReferencePoint>();
 
     for (Entry<String, IReferencePoint> entry : localReferencePointMapping.entrySet())
       referencePointMapping.put(entry.getKey(), entry.getValue());
 
-    final DecompressArchiveTask decompressTask =
-        new DecompressArchiveTask(archiveFile, referencePointMapping, PATH_DELIMITER, monitor);
+    return referencePointMapping;
+  }
+
+  private void unpackArchive(
+      final Map<String, IReferencePoint> referencePointMapping,
+      final DecompressArchiveTask decompressTask)
+      throws LocalCancellationException, IOException {
 
     long startTime = System.currentTimeMillis();
 
@@ -2,8 +2,13 @@ package saros.negotiation;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
@@ -18,6 +23,7 @@ import saros.filesystem.IWorkspace;
 import saros.filesystem.checksum.IChecksumCache;
 import saros.monitoring.IProgressMonitor;
 import saros.negotiation.NegotiationTools.CancelOption;
+import saros.negotiation.delta.FileSignature;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -31,12 +37,27 @@ import saros.synchronize.StartHandle;
 /**
  * Implementation of {@link AbstractOutgoingResourceNegotiation} utilizing a transferred zip archive
  * to exchange differences in the reference point files.
+ *
+ * <p>If the archive is streamed, it is created while it is sent and the client unpacks it while it
+ * is received. As the archive is no longer a snapshot of the files in this case, all users are
+ * stopped until the transfer is done.
  */
 public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResourceNegotiation {
 
   private static final Logger log = Logger.getLogger(ArchiveOutgoingResourceNegotiation.class);
+  /** size of the buffer between the archive creation and the transfer */
+  private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+  private final boolean streaming;
+
   private File zipArchive = null;
 
+  private List<Pair<IFile, String>> filesToCompress;
+  private List<IResource> resourcesToLock;
+  private Map<String, FileSignature> fileSignatures;
+
+  private List<StartHandle> stoppedUsers;
+
   public ArchiveOutgoingResourceNegotiation( //
       final JID peer, //
       final ResourceSharingData resourceSharingData, //
@@ -48,7 +69,9 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
       final XMPPFileTransferManager fileTransferManager, //
       final ITransmitter transmitter, //
       final IReceiver receiver, //
-      final AdditionalResourceDataFactory additionalResourceDataFactory //
+      final AdditionalResourceDataFactory additionalResourceDataFactory, //
+      final boolean streaming, //
+      final int maxTransferStripes //
       ) {
     super(
         peer,
@@ -61,7 +84,10 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
         fileTransferManager,
         transmitter,
         receiver,
-        additionalResourceDataFactory);
+        additionalResourceDataFactory,
+        maxTransferStripes);
+
+    this.streaming = streaming;
   }
 
   @Override
@@ -73,7 +99,6 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
   protected void prepareTransfer(IProgressMonitor monitor, List<FileList> fileLists)
       throws IOException, SarosCancellationException {
 
-    List<StartHandle> stoppedUsers = null;
     try {
       stoppedUsers = stopUsers(monitor);
       monitor.subTask("");
@@ -96,34 +121,48 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
        */
       session.userStartedQueuing(user);
 
-      zipArchive = createResourceArchive(fileLists, monitor);
+      if (!collectFilesToCompress(fileLists)) return;
+
+      /* the archive is created during the transfer, keep the users stopped until then */
+      if (streaming) return;
+
+      zipArchive = createResourceArchive(monitor);
       monitor.subTask("");
     } finally {
-      if (stoppedUsers != null) startUsers(stoppedUsers);
+      if (stoppedUsers != null && !streaming) {
+        startUsers(stoppedUsers);
+        stoppedUsers = null;
+      }
     }
   }
 
   @Override
   protected void transfer(IProgressMonitor monitor, List<FileList> fileLists)
       throws SarosCancellationException, IOException {
-    if (zipArchive != null)
+    if (streaming && filesToCompress != null)
+      streamArchive(getPeer(), TRANSFER_ID_PREFIX + getID(), monitor);
+    else if (zipArchive != null)
       sendArchive(zipArchive, getPeer(), TRANSFER_ID_PREFIX + getID(), monitor);
   }
 
   @Override
   protected void cleanup(IProgressMonitor monitor) {
+    if (stoppedUsers != null) startUsers(stoppedUsers);
+
     if (zipArchive != null && !zipArchive.delete())
       log.warn("could not delete archive file: " + zipArchive.getAbsolutePath());
     super.cleanup(monitor);
   }
 
   /**
+   * Collects the files to archive and the resources that must be locked during the archive
+   * creation.
+   *
    * @param fileLists a list of file lists containing the files to archive
-   * @return zip file containing all files denoted by the file lists or <code>null</code> if the
-   *     file lists do not contain any files
+   * @return <code>false</code> if the file lists do not contain any files
    */
-  private File createResourceArchive(final List<FileList> fileLists, final IProgressMonitor monitor)
-      throws IOException, SarosCancellationException {
+  private boolean collectFilesToCompress(final List<FileList> fileLists)
+      throws SarosCancellationException {
 
     boolean skip = true;
 
@@ -134,13 +173,19 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
       fileCount += list.getPaths().size();
     }
 
-    if (skip) return null;
+    if (skip) return false;
 
     checkCancellation(CancelOption.NOTIFY_PEER);
 
-    final List<Pair<IFile, String>> filesToCompress = new ArrayList<>(fileCount);
+    filesToCompress = new ArrayList<>(fileCount);
 
-    final List<IResource> resourcesToLock = new ArrayList<IResource>();
+    resourcesToLock = new ArrayList<IResource>();
+
+    fileSignatures = new HashMap<>();
+
+    for (final FileSignature signature : getRemoteFileSignatures())
+      fileSignatures.put(
+          signature.getReferencePointID() + PATH_DELIMITER + signature.getPath(), signature);
 
     for (final FileList list : fileLists) {
       final String referencePointID = list.getReferencePointID();
@@ -180,6 +225,13 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
       }
     }
 
+    return true;
+  }
+
+  /** @return zip file containing all files to compress */
+  private File createResourceArchive(final IProgressMonitor monitor)
+      throws IOException, SarosCancellationException {
+
     log.debug(this + " : creating archive");
 
     File tempArchive = null;
@@ -187,7 +239,7 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
     try {
       tempArchive = File.createTempFile("saros_" + getID(), ".zip");
       workspace.run(
-          new CreateArchiveTask(tempArchive, filesToCompress, monitor),
+          new CreateArchiveTask(tempArchive, filesToCompress, fileSignatures, monitor),
           resourcesToLock.toArray(new IResource[0]));
     } catch (OperationCanceledException e) {
       LocalCancellationException canceled = new LocalCancellationException();
@@ -215,4 +267,64 @@ public class ArchiveOutgoingResourceNegotiation extends AbstractOutgoingResource
 
     log.debug(this + " : archive send");
   }
+
+  /** Returns the uncompressed size of all files to archive. */
+  private long getSizeOfFilesToCompress() throws IOException {
+    long size = 0;
+
+    for (final Pair<IFile, String> file : filesToCompress) size += file.getLeft().getSize();
+
+    return size;
+  }
+
+  private void streamArchive(JID remoteContact, String transferID, IProgressMonitor monitor)
+      throws SarosCancellationException, IOException {
+
+    log.debug(this + " : streaming archive");
+    monitor.beginTask("Sending archive...", filesToCompress.size());
+
+    long writtenBytes = 0;
+
+    try (PipedInputStream in = new PipedInputStream(STREAM_BUFFER_SIZE);
+        CountingOutputStream out = new CountingOutputStream(new PipedOutputStream(in))) {
+
+      final int stripes = getTransferStripes(getSizeOfFilesToCompress());
+
+      log.debug(this + " : using " + stripes + " stripe(s) for the archive stream");
+
+      monitor.subTask("waiting for client to accept file transfer");
+      XMPPFileTransfer transfer =
+          fileTransferManager.streamSendStart(remoteContact, transferID, in, stripes);
+      transfer.waitForTransferStart(monitor::isCanceled);
+
+      checkCancellation(CancelOption.NOTIFY_PEER);
+
+      try {
+        workspace.run(
+            new CreateArchiveTask(out, filesToCompress, fileSignatures, monitor),
+            resourcesToLock.toArray(new IResource[0]));
+      } catch (OperationCanceledException e) {
+        LocalCancellationException canceled =
+            new LocalCancellationException(null, CancelOption.NOTIFY_PEER);
+        canceled.initCause(e);
+        throw canceled;
+      }
+
+      /* await sending is done before closing stream */
+      try {
+        while (!transfer.isDone() && transfer.getAmountWritten() != out.getByteCount()) {
+          Thread.sleep(100);
+        }
+      } catch (InterruptedException e) {
+        log.error(this + " : archive transfer interrupted at closing", e);
+        Thread.currentThread().interrupt();
+      }
+
+      writtenBytes = out.getByteCount();
+    }
+
+    monitor.done();
+
+    log.debug(this + " : archive streamed, " + writtenBytes + " bytes sent");
+  }
 }
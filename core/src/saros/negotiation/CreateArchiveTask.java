@@ -1,14 +1,28 @@
 package saros.negotiation;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.lang3.tuple.Pair;
@@ -18,26 +32,126 @@ import saros.filesystem.IFile;
 import saros.filesystem.IWorkspaceRunnable;
 import saros.monitoring.IProgressMonitor;
 import saros.monitoring.NullProgressMonitor;
+import saros.negotiation.delta.FileDelta;
+import saros.negotiation.delta.FileSignature;
 import saros.util.CoreUtils;
-
-// TODO java doc
+import saros.util.NamedThreadFactory;
+
+/**
+ * Creates a zip archive of the given files.
+ *
+ * <p>The files are compressed in parallel by up to {@link #THREADS} threads, each file into its own
+ * buffer, while the calling thread writes the compressed entries to the archive in the given order.
+ * Files larger than {@link #MAX_BUFFERED_FILE_SIZE} are compressed by the calling thread when it is
+ * their turn to avoid buffering them. Files of types that are already compressed, e.g. jar or png
+ * files, are not compressed again.
+ *
+ * <p>The archive is either written to a file or to a stream, e.g. directly to the receiver of the
+ * archive.
+ *
+ * <p>Files the receiver has a signature for are not added as they are but as delta to the
+ * receiver's copy, see {@link FileDelta}.
+ */
 public class CreateArchiveTask implements IWorkspaceRunnable {
 
   private static final int BUFFER_SIZE = 32 * 1024;
 
+  /** The maximum number of threads compressing files. */
+  private static final int THREADS =
+      Integer.getInteger(
+          "saros.negotiation.ARCHIVE_THREADS",
+          Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+  /**
+   * Files larger than this are not compressed in parallel but by the thread writing the archive.
+   */
+  private static final long MAX_BUFFERED_FILE_SIZE = 4 * 1024 * 1024;
+
+  /** The maximum total size of the files being compressed in parallel at once. */
+  private static final long MAX_PENDING_FILE_SIZE = 32 * 1024 * 1024;
+
+  private static final int COMPRESSION_LEVEL =
+      Integer.getInteger(
+          "saros.negotiation.ARCHIVE_COMPRESSION_LEVEL", Deflater.DEFAULT_COMPRESSION);
+
+  /** extensions of file types whose content is already compressed */
+  private static final Set<String> COMPRESSED_FILE_EXTENSIONS =
+      new HashSet<>(
+          Arrays.asList(
+              "7z", "bz2", "docx", "ear", "gif", "gz", "jar", "jpeg", "jpg", "mp3", "mp4", "odt",
+              "png", "pptx", "rar", "tgz", "war", "webp", "xlsx", "xz", "zip"));
+
   private static final Logger log = Logger.getLogger(CreateArchiveTask.class);
 
+  /** A compressed file, the data is <code>null</code> if it is too large to be buffered. */
+  private static final class CompressedFile {
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final byte[] data;
+    private final int length;
+
+    private CompressedFile(int method, long crc, long size, byte[] data, int length) {
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  private static final CompressedFile TOO_LARGE = new CompressedFile(0, 0, 0, null, 0);
+
   private final File archive;
+  private final OutputStream archiveStream;
   private final List<Pair<IFile, String>> filesToCompress;
+  private final Map<String, FileSignature> fileSignatures;
   private final IProgressMonitor monitor;
 
+  /**
+   * Creates a task writing the archive to the given file.
+   *
+   * @param archive the file to write the archive to
+   * @param filesToCompress the files and their qualified paths in the archive
+   * @param fileSignatures the signatures of the receiver's copies of the files by their qualified
+   *     paths, the files are added as delta to these copies
+   * @param monitor monitor that is used for progress report and cancellation or <code>null</code>
+   *     to use the monitor provided by the {@link #run(IProgressMonitor)} method
+   */
   public CreateArchiveTask(
       final File archive,
       final List<Pair<IFile, String>> filesToCompress,
+      final Map<String, FileSignature> fileSignatures,
       final IProgressMonitor monitor) {
 
     this.archive = archive;
+    this.archiveStream = null;
     this.filesToCompress = filesToCompress;
+    this.fileSignatures = fileSignatures;
+    this.monitor = monitor;
+  }
+
+  /**
+   * Creates a task writing the archive to the given stream. The stream is flushed but not closed
+   * after the archive is written.
+   *
+   * @param archiveStream the stream to write the archive to
+   * @param filesToCompress the files and their qualified paths in the archive
+   * @param fileSignatures the signatures of the receiver's copies of the files by their qualified
+   *     paths, the files are added as delta to these copies
+   * @param monitor monitor that is used for progress report and cancellation or <code>null</code>
+   *     to use the monitor provided by the {@link #run(IProgressMonitor)} method
+   */
+  public CreateArchiveTask(
+      final OutputStream archiveStream,
+      final List<Pair<IFile, String>> filesToCompress,
+      final Map<String, FileSignature> fileSignatures,
+      final IProgressMonitor monitor) {
+
+    this.archive = null;
+    this.archiveStream = archiveStream;
+    this.filesToCompress = filesToCompress;
+    this.fileSignatures = fileSignatures;
     this.monitor = monitor;
   }
 
@@ -47,38 +161,99 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
 
     if (monitor == null) monitor = new NullProgressMonitor();
 
-    long totalSize = getTotalFileSize(filesToCompress);
+    final long[] sizes = getFileSizes(filesToCompress);
+
+    long totalSize = 0L;
+
+    for (long size : sizes) totalSize += size;
 
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
 
-    final Iterator<Pair<IFile, String>> fileIt = filesToCompress.iterator();
-
     long totalRead = 0L;
 
+    long archiveSize = 0L;
+
     boolean cleanup = true;
 
-    byte[] buffer = new byte[BUFFER_SIZE];
+    final byte[] buffer = new byte[BUFFER_SIZE];
+
+    final int threads = Math.min(THREADS, filesToCompress.size());
 
-    ZipOutputStream zipStream = null;
+    final ExecutorService executor =
+        threads > 1
+            ? Executors.newFixedThreadPool(threads, new NamedThreadFactory("CreateArchive-"))
+            : null;
+
+    final Deque<Future<CompressedFile>> pending = new ArrayDeque<>();
+
+    OutputStream out = null;
 
     monitor.beginTask("Compressing files...", 100 /* percent */);
 
     try {
-      zipStream =
-          new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive), BUFFER_SIZE));
+      out =
+          new BufferedOutputStream(
+              archive != null ? new FileOutputStream(archive) : archiveStream, BUFFER_SIZE);
 
-      while (fileIt.hasNext()) {
-        Pair<IFile, String> fileToCompress = fileIt.next();
+      final ZipArchiveWriter zipWriter = new ZipArchiveWriter(out, COMPRESSION_LEVEL);
 
-        IFile file = fileToCompress.getLeft();
-        String qualifiedPath = fileToCompress.getRight();
+      int submitted = 0;
+      long pendingSize = 0L;
 
-        if (log.isTraceEnabled()) log.trace("compressing file: " + qualifiedPath);
+      for (int i = 0; i < filesToCompress.size(); i++) {
+
+        // compress the following files in parallel while this one is written
+        while (executor != null
+            && submitted < filesToCompress.size()
+            && (submitted <= i || pendingSize < MAX_PENDING_FILE_SIZE)) {
+
+          final IFile file = filesToCompress.get(submitted).getLeft();
+          final String qualifiedPath = filesToCompress.get(submitted).getRight();
+          final long size = sizes[submitted];
+          final FileSignature signature = fileSignatures.get(qualifiedPath);
+
+          pending.add(executor.submit(() -> compress(file, qualifiedPath, signature, size)));
+
+          if (size <= MAX_BUFFERED_FILE_SIZE) pendingSize += size;
+
+          submitted++;
+        }
+
+        if (monitor.isCanceled())
+          throw new OperationCanceledException("compressing of files was canceled");
+
+        final IFile file = filesToCompress.get(i).getLeft();
+        final String qualifiedPath = filesToCompress.get(i).getRight();
 
         monitor.subTask("compressing file: " + qualifiedPath);
 
-        zipStream.putNextEntry(new ZipEntry(qualifiedPath));
+        final CompressedFile compressed =
+            executor != null
+                ? getResult(pending.poll())
+                : compress(file, qualifiedPath, fileSignatures.get(qualifiedPath), sizes[i]);
+
+        if (executor != null && sizes[i] <= MAX_BUFFERED_FILE_SIZE) pendingSize -= sizes[i];
+
+        if (compressed != TOO_LARGE) {
+          zipWriter.writeEntry(
+              qualifiedPath,
+              compressed.method,
+              compressed.crc,
+              compressed.size,
+              compressed.data,
+              compressed.length);
+
+          totalRead += sizes[i];
+
+          updateMonitor(monitor, totalRead, totalSize);
+          continue;
+        }
+
+        if (log.isTraceEnabled()) log.trace("compressing file: " + qualifiedPath);
+
+        final OutputStream entryStream =
+            zipWriter.beginEntry(qualifiedPath, !isCompressedFileType(qualifiedPath));
 
         InputStream in = null;
 
@@ -88,28 +263,51 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
 
           in = file.getContents();
 
-          while ((read = in.read(buffer)) > 0) {
+          final FileSignature signature = fileSignatures.get(qualifiedPath);
 
-            if (monitor.isCanceled())
-              throw new OperationCanceledException(
-                  "compressing of file '" + qualifiedPath + "' was canceled");
+          if (signature != null && sizes[i] <= FileDelta.MAX_FILE_SIZE) {
+            final byte[] data = IOUtils.toByteArray(in);
 
-            zipStream.write(buffer, 0, read);
+            FileDelta.writeDelta(signature, data, data.length, entryStream);
 
-            totalRead += read;
+            totalRead += data.length;
 
             updateMonitor(monitor, totalRead, totalSize);
+          } else {
+            if (signature != null) FileDelta.writeFull(entryStream);
+
+            while ((read = in.read(buffer)) > 0) {
+
+              if (monitor.isCanceled())
+                throw new OperationCanceledException(
+                    "compressing of file '" + qualifiedPath + "' was canceled");
+
+              entryStream.write(buffer, 0, read);
+
+              totalRead += read;
+
+              updateMonitor(monitor, totalRead, totalSize);
+            }
           }
         } finally {
           IOUtils.closeQuietly(in);
         }
-        zipStream.closeEntry();
+
+        zipWriter.closeEntry();
       }
 
-      zipStream.finish();
+      zipWriter.finish();
+
+      if (archive != null) out.close();
+      else out.flush();
+
+      archiveSize = zipWriter.getWrittenBytes();
       cleanup = false;
     } finally {
-      IOUtils.closeQuietly(zipStream);
+      if (executor != null) executor.shutdownNow();
+
+      if (archive != null) IOUtils.closeQuietly(out);
+
       if (cleanup && archive != null && archive.exists() && !archive.delete())
         log.warn("could not delete archive file: " + archive);
 
@@ -121,8 +319,98 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
     log.debug(
         String.format(
             "created archive %s I/O: [%s]",
-            archive.getAbsolutePath(),
-            CoreUtils.throughput(archive.length(), stopWatch.getTime())));
+            archive != null ? archive.getAbsolutePath() : "stream",
+            CoreUtils.throughput(archiveSize, stopWatch.getTime())));
+  }
+
+  /**
+   * Reads and compresses the given file into a buffer.
+   *
+   * @param signature the signature of the receiver's copy of the file or <code>null</code>
+   * @param size the expected size of the file
+   * @return the compressed file or {@link #TOO_LARGE} if the file is too large to be buffered
+   */
+  private static CompressedFile compress(
+      final IFile file, final String qualifiedPath, final FileSignature signature, final long size)
+      throws IOException {
+
+    if (size > MAX_BUFFERED_FILE_SIZE) return TOO_LARGE;
+
+    if (log.isTraceEnabled()) log.trace("compressing file: " + qualifiedPath);
+
+    byte[] data;
+
+    InputStream in = null;
+
+    try {
+      in = file.getContents();
+      data = IOUtils.toByteArray(in);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+
+    if (signature != null) {
+      final ByteArrayOutputStream delta = new ByteArrayOutputStream(data.length / 8 + 64);
+
+      FileDelta.writeDelta(signature, data, data.length, delta);
+
+      data = delta.toByteArray();
+    }
+
+    final CRC32 crc = new CRC32();
+
+    crc.update(data, 0, data.length);
+
+    if (data.length == 0 || isCompressedFileType(qualifiedPath))
+      return new CompressedFile(ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+
+    final Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+
+      // store the file if it does not become smaller
+      byte[] compressed = new byte[data.length];
+      int length = 0;
+
+      while (!deflater.finished() && length < compressed.length)
+        length += deflater.deflate(compressed, length, compressed.length - length);
+
+      if (!deflater.finished())
+        return new CompressedFile(ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+
+      return new CompressedFile(ZipEntry.DEFLATED, crc.getValue(), data.length, compressed, length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static boolean isCompressedFileType(final String path) {
+    final int dot = path.lastIndexOf('.');
+
+    if (dot == -1 || dot < path.lastIndexOf('/')) return false;
+
+    return COMPRESSED_FILE_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  private static CompressedFile getResult(final Future<CompressedFile> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while compressing files");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) throw (IOException) cause;
+
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+
+      if (cause instanceof Error) throw (Error) cause;
+
+      throw new IllegalStateException(cause);
+    }
   }
 
   private int lastWorked = 0;
@@ -141,20 +429,20 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
     }
   }
 
-  private long getTotalFileSize(List<Pair<IFile, String>> filesToCompress) {
+  private long[] getFileSizes(List<Pair<IFile, String>> filesToCompress) {
 
-    long size = 0L;
+    final long[] sizes = new long[filesToCompress.size()];
 
-    for (Pair<IFile, String> fileToCompare : filesToCompress) {
-      IFile file = fileToCompare.getLeft();
+    for (int i = 0; i < sizes.length; i++) {
+      IFile file = filesToCompress.get(i).getLeft();
 
       try {
-        size += file.getSize();
+        sizes[i] = file.getSize();
       } catch (IOException e) {
         log.warn("unable to retrieve file size for file: " + file, e);
       }
     }
 
-    return size;
+    return sizes;
   }
 }
@@ -1,12 +1,17 @@
 package saros.negotiation;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 import saros.exceptions.OperationCanceledException;
 import saros.filesystem.FileSystem;
@@ -16,6 +21,7 @@ import saros.filesystem.IWorkspace;
 import saros.filesystem.IWorkspaceRunnable;
 import saros.monitoring.CancelableInputStream;
 import saros.monitoring.IProgressMonitor;
+import saros.negotiation.delta.FileDelta;
 import saros.session.ISarosSession;
 
 public class DecompressArchiveTask implements IWorkspaceRunnable {
@@ -23,9 +29,12 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
   private static final Logger log = Logger.getLogger(DecompressArchiveTask.class);
 
   private final File file;
+  private final InputStream stream;
+  private final int entryCount;
   private final IProgressMonitor monitor;
   private final Map<String, IReferencePoint> idToReferencePointMapping;
   private final String delimiter;
+  private final Set<String> deltaEntries;
 
   /**
    * Creates a decompress task for an archive file that can be executed by {@link IWorkspace#run}.
@@ -35,6 +44,8 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
    * @param file Zip file containing the compressed data
    * @param idToReferencePointMapping map containing the id to reference point mapping (see also
    *     {@link ISarosSession#getReferencePointId(IReferencePoint)}
+   * @param deltaEntries the entry names of the files that are contained as delta to the existing
+   *     files, see {@link FileDelta}
    * @param monitor monitor that is used for progress report and cancellation or <code>null</code>
    *     to use the monitor provided by the {@link #run(IProgressMonitor)} method
    */
@@ -42,10 +53,39 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
       final File file,
       final Map<String, IReferencePoint> idToReferencePointMapping,
       final String delimiter,
+      final Set<String> deltaEntries,
       final IProgressMonitor monitor) {
     this.file = file;
+    this.stream = null;
+    this.entryCount = -1;
     this.idToReferencePointMapping = idToReferencePointMapping;
     this.delimiter = delimiter;
+    this.deltaEntries = deltaEntries;
+    this.monitor = monitor;
+  }
+
+  /**
+   * Creates a decompress task for an archive that is read from the given stream, e.g. while it is
+   * still being received, see {@link #DecompressArchiveTask(File, Map, String, Set,
+   * IProgressMonitor)}. The stream is not closed.
+   *
+   * @param stream stream providing the zip archive
+   * @param entryCount the number of entries the archive is expected to contain, used for progress
+   *     reporting only
+   */
+  public DecompressArchiveTask(
+      final InputStream stream,
+      final int entryCount,
+      final Map<String, IReferencePoint> idToReferencePointMapping,
+      final String delimiter,
+      final Set<String> deltaEntries,
+      final IProgressMonitor monitor) {
+    this.file = null;
+    this.stream = stream;
+    this.entryCount = entryCount;
+    this.idToReferencePointMapping = idToReferencePointMapping;
+    this.delimiter = delimiter;
+    this.deltaEntries = deltaEntries;
     this.monitor = monitor;
   }
 
@@ -58,6 +98,11 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
   public void run(IProgressMonitor monitor) throws IOException, OperationCanceledException {
     if (this.monitor != null) monitor = this.monitor;
 
+    if (stream != null) {
+      runOnStream(monitor);
+      return;
+    }
+
     ZipFile zipFile = null;
 
     try {
@@ -71,67 +116,131 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
 
         final ZipEntry entry = entries.nextElement();
 
-        final String entryName = entry.getName();
+        if (monitor.isCanceled()) throw new OperationCanceledException();
+
+        decompressEntry(entry, zipFile.getInputStream(entry), monitor);
+      }
+    } finally {
+      if (monitor != null) monitor.done();
+
+      try {
+        if (zipFile != null) zipFile.close();
+      } catch (IOException e) {
+        log.warn("failed to close zip file " + zipFile.getName() + " : " + e.getMessage());
+      }
+    }
+  }
+
+  private void runOnStream(final IProgressMonitor monitor)
+      throws IOException, OperationCanceledException {
+
+    try {
+      monitor.beginTask("Unpacking archive to workspace", entryCount);
+
+      final ZipInputStream zipStream = new ZipInputStream(stream);
+
+      ZipEntry entry;
 
+      while ((entry = zipStream.getNextEntry()) != null) {
         if (monitor.isCanceled()) throw new OperationCanceledException();
 
-        final int delimiterIdx = entry.getName().indexOf(delimiter);
+        // the file implementations may close the stream they are given
+        decompressEntry(entry, new CloseShieldInputStream(zipStream), monitor);
+      }
 
-        if (delimiterIdx == -1) {
-          log.warn("skipping zip entry " + entryName + ", entry is not valid");
+      // read the central directory so that the sender can finish
+      IOUtils.skip(stream, Long.MAX_VALUE);
+    } finally {
+      monitor.done();
+    }
+  }
 
-          monitor.worked(1);
-          continue;
-        }
+  private void decompressEntry(
+      final ZipEntry entry, final InputStream inZip, final IProgressMonitor monitor)
+      throws IOException, OperationCanceledException {
 
-        final String id = entryName.substring(0, delimiterIdx);
+    final String entryName = entry.getName();
 
-        final String path = entryName.substring(delimiterIdx + 1, entryName.length());
+    final int delimiterIdx = entry.getName().indexOf(delimiter);
 
-        final IReferencePoint referencePoint = idToReferencePointMapping.get(id);
+    if (delimiterIdx == -1) {
+      log.warn("skipping zip entry " + entryName + ", entry is not valid");
 
-        if (referencePoint == null) {
-          log.warn("skipping zip entry " + entryName + ", unknown reference point id: " + id);
+      monitor.worked(1);
+      return;
+    }
 
-          monitor.worked(1);
-          continue;
-        }
+    final String id = entryName.substring(0, delimiterIdx);
 
-        final IFile decompressedFile = referencePoint.getFile(path);
+    final String path = entryName.substring(delimiterIdx + 1, entryName.length());
 
-        FileSystem.createFolder(decompressedFile);
+    final IReferencePoint referencePoint = idToReferencePointMapping.get(id);
 
-        monitor.subTask("decompressing: " + path);
+    if (referencePoint == null) {
+      log.warn("skipping zip entry " + entryName + ", unknown reference point id: " + id);
 
-        final InputStream inZip = zipFile.getInputStream(entry);
+      monitor.worked(1);
+      return;
+    }
 
-        CancelableInputStream in;
-        in = new CancelableInputStream(inZip, monitor);
+    final IFile decompressedFile = referencePoint.getFile(path);
 
-        try {
-          if (!decompressedFile.exists()) decompressedFile.create(in);
-          else decompressedFile.setContents(in);
-        } catch (IOException e) {
-          /* if triggered by check in CancelableInputStream */
-          if (monitor.isCanceled()) {
-            throw new OperationCanceledException();
-          } else {
-            throw e;
-          }
-        }
+    FileSystem.createFolder(decompressedFile);
 
-        monitor.worked(1);
+    monitor.subTask("decompressing: " + path);
 
-        if (log.isTraceEnabled()) log.trace("file written to disk: " + path);
-      }
-    } finally {
-      if (monitor != null) monitor.done();
+    InputStream content = inZip;
+
+    if (deltaEntries.contains(entryName)) {
+      final byte[] data;
 
       try {
-        if (zipFile != null) zipFile.close();
+        data = applyDelta(decompressedFile, inZip);
       } catch (IOException e) {
-        log.warn("failed to close zip file " + zipFile.getName() + " : " + e.getMessage());
+        throw new IOException("could not update file " + path + ": " + e.getMessage(), e);
       }
+
+      if (data != null) content = new ByteArrayInputStream(data);
     }
+
+    CancelableInputStream in;
+    in = new CancelableInputStream(content, monitor);
+
+    try {
+      if (!decompressedFile.exists()) decompressedFile.create(in);
+      else decompressedFile.setContents(in);
+    } catch (IOException e) {
+      /* if triggered by check in CancelableInputStream */
+      if (monitor.isCanceled()) {
+        throw new OperationCanceledException();
+      } else {
+        throw e;
+      }
+    }
+
+    monitor.worked(1);
+
+    if (log.isTraceEnabled()) log.trace("file written to disk: " + path);
+  }
+
+  /**
+   * Applies the delta read from the given stream to the content of the given file.
+   *
+   * @return the new content of the file or <code>null</code> if the stream contains the complete
+   *     content
+   */
+  private static byte[] applyDelta(final IFile file, final InputStream delta) throws IOException {
+    final byte[] base;
+
+    InputStream in = null;
+
+    try {
+      in = file.getContents();
+      base = IOUtils.toByteArray(in);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+
+    return FileDelta.apply(delta, base);
   }
 }
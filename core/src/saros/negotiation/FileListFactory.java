@@ -1,10 +1,21 @@
 package saros.negotiation;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.filesystem.FileSystem;
 import saros.filesystem.IFile;
@@ -15,6 +26,7 @@ import saros.filesystem.checksum.IChecksumCache;
 import saros.monitoring.IProgressMonitor;
 import saros.monitoring.NullProgressMonitor;
 import saros.negotiation.FileList.MetaData;
+import saros.util.NamedThreadFactory;
 import saros.util.PathUtils;
 
 /**
@@ -30,6 +42,21 @@ public class FileListFactory {
 
   private static final Logger log = Logger.getLogger(FileListFactory.class);
 
+  /**
+   * The maximum number of threads calculating the checksums of a file list. At least two as reading
+   * the files and calculating the checksums can overlap even on a single core.
+   */
+  private static final int CHECKSUM_THREADS =
+      Integer.getInteger(
+          "saros.negotiation.CHECKSUM_THREADS",
+          Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** read buffers of the checksum calculation threads */
+  private static final ThreadLocal<byte[]> buffers =
+      ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
   private FileListFactory() {
     // NOP
   }
@@ -60,14 +87,16 @@ public class FileListFactory {
    * Creates a file list for the given reference point.
    *
    * <p>Uses the given checksum cache for the checksum calculation. Reports progress to the passed
-   * progress monitor if present.
+   * progress monitor if present. If the monitor is canceled, the checksums of the remaining files
+   * are not calculated, the caller has to check the monitor before using the file list.
    *
    * @param referencePoint the reference point for which to create a file list
    * @param checksumCache the checksum cache to use during the checksum calculation
    * @param suggestedMonitor the progress monitor to report to or <code>null</code>
    * @return a file list for the given reference point
    * @throws IOException if the the members contained in the reference point or one of its folders
-   *     or the charset of a contained file could not be obtained
+   *     or the charset of a contained file could not be obtained or the calling thread was
+   *     interrupted
    */
   public static FileList createFileList(
       final IReferencePoint referencePoint,
@@ -138,44 +167,132 @@ public class FileListFactory {
   /**
    * Calculates the checksums of the given files and adds them to the given file list.
    *
+   * <p>The checksums are calculated by up to {@link #CHECKSUM_THREADS} threads in parallel while
+   * the calling thread adds them to the file list and reports the progress. Returns early if the
+   * monitor is canceled, leaving the remaining checksums uncalculated.
+   *
    * @param list the file list
    * @param files the files for which to calculate the checksum
    * @param checksumCache the checksum cache to use during the checksum calculation
    * @param monitor the progress monitor to report to
+   * @throws InterruptedIOException if the calling thread is interrupted
    */
   private static void calculateChecksums(
       final FileList list,
       final List<IFile> files,
       final IChecksumCache checksumCache,
-      final IProgressMonitor monitor) {
+      final IProgressMonitor monitor)
+      throws InterruptedIOException {
 
     monitor.beginTask("Calculating checksums...", files.size());
 
-    for (IFile file : files) {
-      try {
-        monitor.subTask(
-            file.getReferencePoint().getName() + ": " + file.getReferencePointRelativePath());
+    final int threads = Math.min(CHECKSUM_THREADS, files.size());
 
-        MetaData data =
-            list.getMetaData(PathUtils.toPortableString(file.getReferencePointRelativePath()));
+    if (threads <= 1) {
+      final byte[] buffer = new byte[BUFFER_SIZE];
+
+      for (IFile file : files) {
+        if (monitor.isCanceled()) return;
+
+        addChecksum(list, file, calculateChecksum(file, checksumCache, buffer), monitor);
+      }
+
+      return;
+    }
 
-        Long checksum = null;
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(threads, new NamedThreadFactory("FileListChecksum-"));
 
-        if (checksumCache != null) checksum = checksumCache.getChecksum(file);
+    final CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
 
-        data.checksum = checksum == null ? FileSystem.checksum(file) : checksum;
+    final Map<Future<Long>, IFile> pending = new HashMap<>();
 
-        if (checksumCache != null) {
-          boolean isInvalid = checksumCache.addChecksum(file, data.checksum);
+    final Iterator<IFile> it = files.iterator();
 
-          if (isInvalid && checksum != null) log.warn("calculated checksum on dirty data: " + file);
+    try {
+      while (it.hasNext() || !pending.isEmpty()) {
+
+        // bound the queued files, the files are read as the checksums are consumed
+        while (it.hasNext() && pending.size() < threads * 2) {
+          final IFile file = it.next();
+
+          pending.put(
+              completionService.submit(() -> calculateChecksum(file, checksumCache, buffers.get())),
+              file);
         }
 
-      } catch (IOException e) {
-        log.error(e);
+        final Future<Long> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+
+        if (monitor.isCanceled()) return;
+
+        if (future == null) continue;
+
+        addChecksum(list, pending.remove(future), getResult(future), monitor);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while calculating checksums");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the checksum of the given file, looking it up in or adding it to the given cache.
+   *
+   * @return the checksum or <code>null</code> if it could not be calculated
+   */
+  private static Long calculateChecksum(
+      final IFile file, final IChecksumCache checksumCache, final byte[] buffer) {
+
+    try {
+      Long checksum = null;
+
+      if (checksumCache != null) checksum = checksumCache.getChecksum(file);
+
+      final long result = checksum == null ? FileSystem.checksum(file, buffer) : checksum;
+
+      if (checksumCache != null) {
+        boolean isInvalid = checksumCache.addChecksum(file, result);
+
+        if (isInvalid && checksum != null) log.warn("calculated checksum on dirty data: " + file);
       }
 
-      monitor.worked(1);
+      return result;
+
+    } catch (IOException e) {
+      log.error(e);
+      return null;
+    }
+  }
+
+  private static void addChecksum(
+      final FileList list, final IFile file, final Long checksum, final IProgressMonitor monitor) {
+
+    monitor.subTask(
+        file.getReferencePoint().getName() + ": " + file.getReferencePointRelativePath());
+
+    if (checksum != null) {
+      MetaData data =
+          list.getMetaData(PathUtils.toPortableString(file.getReferencePointRelativePath()));
+
+      data.checksum = checksum;
+    }
+
+    monitor.worked(1);
+  }
+
+  private static Long getResult(final Future<Long> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+
+      if (cause instanceof Error) throw (Error) cause;
+
+      throw new IllegalStateException(cause);
     }
   }
 }
@@ -70,7 +70,8 @@ public class InstantOutgoingResourceNegotiation extends AbstractOutgoingResource
       final XMPPFileTransferManager fileTransferManager, //
       final ITransmitter transmitter, //
       final IReceiver receiver, //
-      final AdditionalResourceDataFactory additionalResourceDataFactory //
+      final AdditionalResourceDataFactory additionalResourceDataFactory, //
+      final int maxTransferStripes //
       ) {
     super(
         peer,
@@ -83,7 +84,8 @@ public class InstantOutgoingResourceNegotiation extends AbstractOutgoingResource
         fileTransferManager,
         transmitter,
         receiver,
-        additionalResourceDataFactory);
+        additionalResourceDataFactory,
+        maxTransferStripes);
   }
 
   @Override
@@ -144,9 +146,17 @@ public class InstantOutgoingResourceNegotiation extends AbstractOutgoingResource
     try (PipedInputStream in = new PipedInputStream();
         CountingOutputStream out = new CountingOutputStream(new PipedOutputStream(in)); ) {
 
+      long size = 0;
+
+      for (final IFile file : transferList) size += file.getSize();
+
+      final int stripes = getTransferStripes(size);
+
+      log.debug(this + ": using " + stripes + " stripe(s) for the file stream");
+
       monitor.subTask("waiting for client to accept file transfer");
       XMPPFileTransfer transfer =
-          fileTransferManager.streamSendStart(getPeer(), TRANSFER_ID_PREFIX + getID(), in);
+          fileTransferManager.streamSendStart(getPeer(), TRANSFER_ID_PREFIX + getID(), in, stripes);
       transfer.waitForTransferStart(monitor::isCanceled);
 
       checkCancellation(CancelOption.NOTIFY_PEER);
@@ -66,7 +66,9 @@ public class ResourceNegotiationFactory {
             fileTransferManager,
             transmitter,
             receiver,
-            additionalResourceDataFactory);
+            additionalResourceDataFactory,
+            isArchiveStreamed(session, remoteAddress),
+            getMaxTransferStripes(session, remoteAddress));
       case INSTANT:
         return new InstantOutgoingResourceNegotiation(
             remoteAddress,
@@ -79,7 +81,8 @@ public class ResourceNegotiationFactory {
             fileTransferManager,
             transmitter,
             receiver,
-            additionalResourceDataFactory);
+            additionalResourceDataFactory,
+            getMaxTransferStripes(session, remoteAddress));
       default:
         throw new UnsupportedOperationException("transferType not implemented");
     }
@@ -105,7 +108,9 @@ public class ResourceNegotiationFactory {
             checksumCache,
             fileTransferManager,
             transmitter,
-            receiver);
+            receiver,
+            isArchiveStreamed(session, remoteAddress),
+            isDeltaTransferEnabled(session, remoteAddress));
       case INSTANT:
         return new InstantIncomingResourceNegotiation(
             remoteAddress,
@@ -125,10 +130,7 @@ public class ResourceNegotiationFactory {
   }
 
   private TransferType getTransferType(ISarosSession session, JID remoteAddress) {
-    User user = session.getUser(remoteAddress);
-    if (user == null) {
-      throw new IllegalStateException("User <" + user + "> is not part of the session.");
-    }
+    User user = getUser(session, remoteAddress);
 
     String type = user.getPreferences().getString(ResourceNegotiationTypeHook.KEY_TYPE);
     if (type.isEmpty()) {
@@ -137,4 +139,33 @@ public class ResourceNegotiationFactory {
 
     return TransferType.valueOf(type);
   }
+
+  private boolean isArchiveStreamed(ISarosSession session, JID remoteAddress) {
+    return getUser(session, remoteAddress)
+        .getPreferences()
+        .getBoolean(ResourceNegotiationTypeHook.KEY_ARCHIVE_STREAMING);
+  }
+
+  private boolean isDeltaTransferEnabled(ISarosSession session, JID remoteAddress) {
+    return getUser(session, remoteAddress)
+        .getPreferences()
+        .getBoolean(ResourceNegotiationTypeHook.KEY_DELTA_TRANSFER);
+  }
+
+  private int getMaxTransferStripes(ISarosSession session, JID remoteAddress) {
+    return Math.max(
+        1,
+        getUser(session, remoteAddress)
+            .getPreferences()
+            .getInt(ResourceNegotiationTypeHook.KEY_TRANSFER_STRIPES));
+  }
+
+  private User getUser(ISarosSession session, JID remoteAddress) {
+    User user = session.getUser(remoteAddress);
+    if (user == null) {
+      throw new IllegalStateException("User <" + user + "> is not part of the session.");
+    }
+
+    return user;
+  }
 }
@@ -0,0 +1,431 @@
+package saros.negotiation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive whose entries may have been compressed beforehand, e.g. by multiple threads
+ * in parallel, which is not supported by {@link java.util.zip.ZipOutputStream}.
+ *
+ * <p>Entries are either {@linkplain #writeEntry(String, int, long, long, byte[], int) written} at
+ * once with their already stored or deflated data or {@linkplain #beginEntry(String, boolean)
+ * streamed}, in which case the CRC and sizes follow the entry data in a data descriptor. Streamed
+ * entries are always deflated, if only with {@link Deflater#NO_COMPRESSION}, so that the archive
+ * can be read by a {@link java.util.zip.ZipInputStream} as well. The archive uses the ZIP64
+ * extensions if it contains more than 65535 entries or more than 4 GB of data.
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+class ZipArchiveWriter {
+
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+  private static final int DATA_DESCRIPTOR = 0x08074b50;
+  private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+  private static final int ZIP64_EXTRA_FIELD = 0x0001;
+
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+
+  private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+  private static final int FLAG_UTF8 = 1 << 11;
+
+  private static final long MAX_32 = 0xFFFFFFFFL;
+  private static final int MAX_16 = 0xFFFF;
+
+  private static final class Entry {
+    private final byte[] name;
+    private final int method;
+    private final int flags;
+    private final long offset;
+
+    private long crc;
+    private long size;
+    private long compressedSize;
+
+    private Entry(byte[] name, int method, int flags, long offset) {
+      this.name = name;
+      this.method = method;
+      this.flags = flags;
+      this.offset = offset;
+    }
+  }
+
+  /** Deflates the data of a streamed entry. */
+  private final class EntryOutputStream extends OutputStream {
+    private final Entry entry;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    private long size;
+    private long compressedSize;
+
+    private EntryOutputStream(final Entry entry, final int level) {
+      this.entry = entry;
+      this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      crc.update(b, off, len);
+      size += len;
+
+      deflater.setInput(b, off, len);
+
+      while (!deflater.needsInput()) deflate();
+    }
+
+    private void deflate() throws IOException {
+      final int length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+
+      writeRaw(deflateBuffer, 0, length);
+      compressedSize += length;
+    }
+
+    private void finish() throws IOException {
+      try {
+        deflater.finish();
+
+        while (!deflater.finished()) deflate();
+      } finally {
+        deflater.end();
+      }
+
+      entry.crc = crc.getValue();
+      entry.size = size;
+      entry.compressedSize = compressedSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeEntry();
+    }
+  }
+
+  private final OutputStream out;
+
+  private final int level;
+
+  private final int dosTime;
+
+  private final byte[] header = new byte[64];
+
+  private final byte[] deflateBuffer = new byte[32 * 1024];
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  private EntryOutputStream current;
+
+  private long written;
+
+  private boolean finished;
+
+  /**
+   * @param out the stream to write the archive to
+   * @param level the compression level of streamed entries
+   */
+  ZipArchiveWriter(final OutputStream out, final int level) {
+    this.out = out;
+    this.level = level;
+    this.dosTime = toDosTime(System.currentTimeMillis());
+  }
+
+  /**
+   * Writes an entry whose data is already compressed.
+   *
+   * @param name the name of the entry
+   * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED} (raw deflate data without
+   *     zlib header)
+   * @param crc the CRC-32 of the uncompressed data
+   * @param size the size of the uncompressed data
+   * @param data the buffer containing the (compressed) data
+   * @param length the length of the (compressed) data
+   */
+  void writeEntry(
+      final String name,
+      final int method,
+      final long crc,
+      final long size,
+      final byte[] data,
+      final int length)
+      throws IOException {
+
+    checkNoCurrentEntry();
+
+    final Entry entry = new Entry(encode(name), method, FLAG_UTF8, written);
+
+    entry.crc = crc;
+    entry.size = size;
+    entry.compressedSize = length;
+
+    writeLocalFileHeader(entry);
+    writeRaw(data, 0, length);
+
+    entries.add(entry);
+  }
+
+  /**
+   * Begins an entry whose data is written to the returned stream. The entry is completed by closing
+   * the stream or calling {@link #closeEntry()}.
+   *
+   * @param name the name of the entry
+   * @param compress whether to compress the data or to only wrap it into deflate blocks
+   * @return the stream to write the uncompressed data of the entry to
+   */
+  OutputStream beginEntry(final String name, final boolean compress) throws IOException {
+    checkNoCurrentEntry();
+
+    final Entry entry =
+        new Entry(encode(name), ZipEntry.DEFLATED, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, written);
+
+    writeLocalFileHeader(entry);
+
+    entries.add(entry);
+
+    current = new EntryOutputStream(entry, compress ? level : Deflater.NO_COMPRESSION);
+
+    return current;
+  }
+
+  /** Completes the streamed entry, does nothing if there is none. */
+  void closeEntry() throws IOException {
+    if (current == null) return;
+
+    final EntryOutputStream stream = current;
+
+    current = null;
+
+    stream.finish();
+
+    final Entry entry = stream.entry;
+    final boolean zip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+
+    int pos = 0;
+
+    pos = putInt(pos, DATA_DESCRIPTOR);
+    pos = putInt(pos, entry.crc);
+
+    if (zip64) {
+      pos = putLong(pos, entry.compressedSize);
+      pos = putLong(pos, entry.size);
+    } else {
+      pos = putInt(pos, entry.compressedSize);
+      pos = putInt(pos, entry.size);
+    }
+
+    writeRaw(header, 0, pos);
+  }
+
+  /** Writes the central directory. The underlying stream is neither flushed nor closed. */
+  void finish() throws IOException {
+    if (finished) return;
+
+    closeEntry();
+
+    finished = true;
+
+    final long centralDirectoryOffset = written;
+
+    for (final Entry entry : entries) writeCentralFileHeader(entry);
+
+    final long centralDirectorySize = written - centralDirectoryOffset;
+
+    final boolean zip64 =
+        entries.size() >= MAX_16
+            || centralDirectoryOffset >= MAX_32
+            || centralDirectorySize >= MAX_32;
+
+    if (zip64) {
+      final long zip64EndOffset = written;
+
+      int pos = 0;
+
+      pos = putInt(pos, ZIP64_END_OF_CENTRAL_DIRECTORY);
+      pos = putLong(pos, 44);
+      pos = putShort(pos, VERSION_ZIP64);
+      pos = putShort(pos, VERSION_ZIP64);
+      pos = putInt(pos, 0);
+      pos = putInt(pos, 0);
+      pos = putLong(pos, entries.size());
+      pos = putLong(pos, entries.size());
+      pos = putLong(pos, centralDirectorySize);
+      pos = putLong(pos, centralDirectoryOffset);
+
+      writeRaw(header, 0, pos);
+
+      pos = 0;
+      pos = putInt(pos, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+      pos = putInt(pos, 0);
+      pos = putLong(pos, zip64EndOffset);
+      pos = putInt(pos, 1);
+
+      writeRaw(header, 0, pos);
+    }
+
+    int pos = 0;
+
+    pos = putInt(pos, END_OF_CENTRAL_DIRECTORY);
+    pos = putShort(pos, 0);
+    pos = putShort(pos, 0);
+    pos = putShort(pos, Math.min(entries.size(), MAX_16));
+    pos = putShort(pos, Math.min(entries.size(), MAX_16));
+    pos = putInt(pos, Math.min(centralDirectorySize, MAX_32));
+    pos = putInt(pos, Math.min(centralDirectoryOffset, MAX_32));
+    pos = putShort(pos, 0);
+
+    writeRaw(header, 0, pos);
+  }
+
+  /** Returns the number of bytes written so far. */
+  long getWrittenBytes() {
+    return written;
+  }
+
+  private void writeLocalFileHeader(final Entry entry) throws IOException {
+    final boolean streamed = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+    final boolean zip64 = !streamed && (entry.size >= MAX_32 || entry.compressedSize >= MAX_32);
+
+    int pos = 0;
+
+    pos = putInt(pos, LOCAL_FILE_HEADER);
+    pos = putShort(pos, zip64 ? VERSION_ZIP64 : VERSION);
+    pos = putShort(pos, entry.flags);
+    pos = putShort(pos, entry.method);
+    pos = putInt(pos, dosTime);
+    pos = putInt(pos, streamed ? 0 : entry.crc);
+    pos = putInt(pos, streamed ? 0 : zip64 ? MAX_32 : entry.compressedSize);
+    pos = putInt(pos, streamed ? 0 : zip64 ? MAX_32 : entry.size);
+    pos = putShort(pos, entry.name.length);
+    pos = putShort(pos, zip64 ? 20 : 0);
+
+    writeRaw(header, 0, pos);
+    writeRaw(entry.name, 0, entry.name.length);
+
+    if (!zip64) return;
+
+    pos = 0;
+    pos = putShort(pos, ZIP64_EXTRA_FIELD);
+    pos = putShort(pos, 16);
+    pos = putLong(pos, entry.size);
+    pos = putLong(pos, entry.compressedSize);
+
+    writeRaw(header, 0, pos);
+  }
+
+  private void writeCentralFileHeader(final Entry entry) throws IOException {
+    final boolean zip64Size = entry.size >= MAX_32;
+    final boolean zip64CompressedSize = entry.compressedSize >= MAX_32;
+    final boolean zip64Offset = entry.offset >= MAX_32;
+
+    final int extraLength =
+        (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+
+    final boolean zip64 = extraLength > 0;
+
+    int pos = 0;
+
+    pos = putInt(pos, CENTRAL_FILE_HEADER);
+    pos = putShort(pos, VERSION_ZIP64);
+    pos = putShort(pos, zip64 ? VERSION_ZIP64 : VERSION);
+    pos = putShort(pos, entry.flags);
+    pos = putShort(pos, entry.method);
+    pos = putInt(pos, dosTime);
+    pos = putInt(pos, entry.crc);
+    pos = putInt(pos, Math.min(entry.compressedSize, MAX_32));
+    pos = putInt(pos, Math.min(entry.size, MAX_32));
+    pos = putShort(pos, entry.name.length);
+    pos = putShort(pos, zip64 ? extraLength + 4 : 0);
+    pos = putShort(pos, 0); // comment
+    pos = putShort(pos, 0); // disk number
+    pos = putShort(pos, 0); // internal attributes
+    pos = putInt(pos, 0); // external attributes
+    pos = putInt(pos, Math.min(entry.offset, MAX_32));
+
+    writeRaw(header, 0, pos);
+    writeRaw(entry.name, 0, entry.name.length);
+
+    if (!zip64) return;
+
+    pos = 0;
+    pos = putShort(pos, ZIP64_EXTRA_FIELD);
+    pos = putShort(pos, extraLength);
+
+    if (zip64Size) pos = putLong(pos, entry.size);
+
+    if (zip64CompressedSize) pos = putLong(pos, entry.compressedSize);
+
+    if (zip64Offset) pos = putLong(pos, entry.offset);
+
+    writeRaw(header, 0, pos);
+  }
+
+  private void writeRaw(final byte[] b, final int off, final int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+
+  private void checkNoCurrentEntry() {
+    if (finished) throw new IllegalStateException("archive is already finished");
+
+    if (current != null) throw new IllegalStateException("streamed entry is not closed");
+  }
+
+  private int putShort(final int pos, final int value) {
+    header[pos] = (byte) value;
+    header[pos + 1] = (byte) (value >>> 8);
+    return pos + 2;
+  }
+
+  private int putInt(final int pos, final long value) {
+    putShort(pos, (int) value);
+    putShort(pos + 2, (int) (value >>> 16));
+    return pos + 4;
+  }
+
+  private int putLong(final int pos, final long value) {
+    putInt(pos, value);
+    putInt(pos + 4, value >>> 32);
+    return pos + 8;
+  }
+
+  private static byte[] encode(final String name) {
+    final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+
+    if (encoded.length > MAX_16) throw new IllegalArgumentException("entry name too long: " + name);
+
+    return encoded;
+  }
+
+  /** Returns the MS-DOS date (high 16 bits) and time (low 16 bits) of the given time. */
+  private static int toDosTime(final long time) {
+    final Calendar calendar = Calendar.getInstance();
+
+    calendar.setTimeInMillis(time);
+
+    final int year = calendar.get(Calendar.YEAR);
+
+    if (year < 1980) return (1 << 21) | (1 << 16);
+
+    return (year - 1980) << 25
+        | (calendar.get(Calendar.MONTH) + 1) << 21
+        | calendar.get(Calendar.DAY_OF_MONTH) << 16
+        | calendar.get(Calendar.HOUR_OF_DAY) << 11
+        | calendar.get(Calendar.MINUTE) << 5
+        | calendar.get(Calendar.SECOND) >> 1;
+  }
+}
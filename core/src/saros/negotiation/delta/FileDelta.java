@@ -0,0 +1,407 @@
+package saros.negotiation.delta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * rsync like delta encoding of files that are present in a different version on the receiving side
+ * of a resource negotiation.
+ *
+ * <p>The receiver creates a {@link FileSignature signature} of its copy of the file. The sender
+ * searches the blocks of this copy in its own version of the file at every byte offset using a weak
+ * rolling checksum, verifying every candidate with a strong checksum, and only sends the data that
+ * is not covered by the blocks along with references to the matching blocks. The receiver rebuilds
+ * the file from its copy and the delta. As the checksums may collide and the receiver's copy may
+ * have changed in the meantime, the delta contains the checksum of the sender's content the rebuilt
+ * file is verified against.
+ *
+ * <p>Delta encoding is only applied to files up to {@link #MAX_FILE_SIZE} as both sides hold the
+ * file contents in memory. A delta may also contain the complete file if the sender decides not to
+ * encode the file, see {@link #writeFull(OutputStream)}.
+ */
+public final class FileDelta {
+
+  /** Files larger than this are always transferred completely. */
+  public static final long MAX_FILE_SIZE =
+      Long.getLong("saros.negotiation.MAX_DELTA_FILE_SIZE", 32L * 1024 * 1024);
+
+  /** Files smaller than this are always transferred completely. */
+  public static final long MIN_FILE_SIZE = 4 * 1024;
+
+  static final int STRONG_CHECKSUM_LENGTH = 8;
+
+  static final int CHECKSUM_LENGTH = 4 + STRONG_CHECKSUM_LENGTH;
+
+  private static final int MIN_BLOCK_SIZE = 512;
+
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+  private static final int FORMAT_FULL = 0;
+  private static final int FORMAT_DELTA = 1;
+
+  private static final int OP_END = 0;
+  private static final int OP_COPY = 1;
+  private static final int OP_LITERAL = 2;
+
+  private FileDelta() {
+    // NOP
+  }
+
+  /**
+   * Creates the signature of the given file content.
+   *
+   * @param referencePointID the id of the reference point containing the file
+   * @param path the path of the file relative to the reference point
+   * @param data the content of the file
+   * @return the signature of the file
+   */
+  public static FileSignature createSignature(
+      final String referencePointID, final String path, final byte[] data) {
+
+    final int blockSize = getBlockSize(data.length);
+    final int blockCount = (data.length + blockSize - 1) / blockSize;
+
+    final byte[] checksums = new byte[blockCount * CHECKSUM_LENGTH];
+
+    final MessageDigest digest = createDigest();
+
+    for (int block = 0; block < blockCount; block++) {
+      final int offset = block * blockSize;
+      final int length = Math.min(blockSize, data.length - offset);
+
+      final int weak = weakChecksum(data, offset, length);
+
+      final int pos = block * CHECKSUM_LENGTH;
+
+      checksums[pos] = (byte) (weak >>> 24);
+      checksums[pos + 1] = (byte) (weak >>> 16);
+      checksums[pos + 2] = (byte) (weak >>> 8);
+      checksums[pos + 3] = (byte) weak;
+
+      digest.update(data, offset, length);
+
+      System.arraycopy(digest.digest(), 0, checksums, pos + 4, STRONG_CHECKSUM_LENGTH);
+    }
+
+    return new FileSignature(referencePointID, path, blockSize, data.length, checksums);
+  }
+
+  /**
+   * Writes a marker to the given stream that the file is not delta encoded. The complete content of
+   * the file must be written after the marker.
+   *
+   * @param out the stream to write the marker to
+   * @throws IOException if an I/O error occurs
+   */
+  public static void writeFull(final OutputStream out) throws IOException {
+    out.write(FORMAT_FULL);
+  }
+
+  /**
+   * Writes the delta between the file denoted by the signature and the given file content to the
+   * given stream. The stream is not closed.
+   *
+   * @param signature the signature of the receiver's copy of the file
+   * @param data buffer containing the content of the file
+   * @param length the length of the content in the buffer
+   * @param out the stream to write the delta to
+   * @throws IOException if an I/O error occurs
+   */
+  public static void writeDelta(
+      final FileSignature signature, final byte[] data, final int length, final OutputStream out)
+      throws IOException {
+
+    final DataOutputStream dataOut = new DataOutputStream(out);
+
+    final Adler32 checksum = new Adler32();
+    checksum.update(data, 0, length);
+
+    dataOut.writeByte(FORMAT_DELTA);
+    dataOut.writeInt(signature.getBlockSize());
+    dataOut.writeLong(length);
+    dataOut.writeLong(checksum.getValue());
+
+    new Encoder(signature, data, length, dataOut).encode();
+
+    dataOut.writeByte(OP_END);
+    dataOut.flush();
+  }
+
+  /**
+   * Reads a delta from the given stream and applies it to the given content of the receiver's copy
+   * of the file. The result is verified against the checksum of the sender's content.
+   *
+   * @param in the stream to read the delta from, it is not read beyond the delta
+   * @param base the content of the copy the signature was created from
+   * @return the new content of the file or <code>null</code> if the file is not delta encoded, the
+   *     complete content can then be read from the stream
+   * @throws IOException if an I/O error occurs, the delta is invalid or the result does not match
+   *     the sender's content
+   */
+  public static byte[] apply(final InputStream in, final byte[] base) throws IOException {
+    final DataInputStream dataIn = new DataInputStream(in);
+
+    final int format = dataIn.readUnsignedByte();
+
+    if (format == FORMAT_FULL) return null;
+
+    if (format != FORMAT_DELTA) throw new IOException("unknown delta format: " + format);
+
+    final int blockSize = dataIn.readInt();
+    final long length = dataIn.readLong();
+    final long expectedChecksum = dataIn.readLong();
+
+    if (blockSize <= 0 || length < 0 || length > Integer.MAX_VALUE - 8)
+      throw new IOException("invalid delta header, block size: " + blockSize + ", size " + length);
+
+    final byte[] result = new byte[(int) length];
+
+    int pos = 0;
+
+    for (int op = dataIn.readUnsignedByte(); op != OP_END; op = dataIn.readUnsignedByte()) {
+
+      final int count;
+
+      if (op == OP_COPY) {
+        final long offset = (long) dataIn.readInt() * blockSize;
+        final long end = Math.min(offset + (long) dataIn.readInt() * blockSize, base.length);
+
+        if (offset < 0 || offset >= end || end - offset > result.length - pos)
+          throw new IOException("invalid block reference in delta");
+
+        count = (int) (end - offset);
+
+        System.arraycopy(base, (int) offset, result, pos, count);
+      } else if (op == OP_LITERAL) {
+        count = dataIn.readInt();
+
+        if (count < 0 || count > result.length - pos)
+          throw new IOException("invalid literal length in delta: " + count);
+
+        dataIn.readFully(result, pos, count);
+      } else {
+        throw new IOException("unknown delta operation: " + op);
+      }
+
+      pos += count;
+    }
+
+    if (pos != result.length)
+      throw new IOException("incomplete delta, expected " + result.length + " bytes, got " + pos);
+
+    final Adler32 checksum = new Adler32();
+    checksum.update(result, 0, result.length);
+
+    if (checksum.getValue() != expectedChecksum)
+      throw new IOException("content rebuilt from delta does not match the sender's content");
+
+    return result;
+  }
+
+  static int getBlockSize(final long length) {
+    final int size = (int) Math.sqrt(length) & ~7;
+
+    return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+  }
+
+  /**
+   * Calculates the rsync rolling checksum, the low 16 bits contain the sum of all bytes, the high
+   * 16 bits the sum of the byte sums.
+   */
+  private static int weakChecksum(final byte[] data, final int offset, final int length) {
+    int a = 0;
+    int b = 0;
+
+    for (int i = 0; i < length; i++) {
+      a += data[offset + i] & 0xFF;
+      b += a;
+    }
+
+    return (a & 0xFFFF) | (b << 16);
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  private static final class Encoder {
+
+    private final FileSignature signature;
+    private final byte[] data;
+    private final int length;
+    private final DataOutputStream out;
+
+    private final int blockSize;
+    private final int fullBlocks;
+
+    private final MessageDigest digest = createDigest();
+
+    /** head of the block chain for every hash bucket */
+    private final int[] buckets;
+
+    /** next block in the chain of the same hash bucket */
+    private final int[] chain;
+
+    private int copyStart;
+    private int copyCount;
+
+    private Encoder(
+        final FileSignature signature,
+        final byte[] data,
+        final int length,
+        final DataOutputStream out) {
+
+      this.signature = signature;
+      this.data = data;
+      this.length = length;
+      this.out = out;
+
+      blockSize = signature.getBlockSize();
+      fullBlocks = (int) (signature.getLength() / blockSize);
+
+      buckets = new int[Integer.highestOneBit(Math.max(1, fullBlocks)) * 2];
+      chain = new int[fullBlocks];
+
+      Arrays.fill(buckets, -1);
+
+      // insert in reverse order so that the chains start with the first block
+      for (int block = fullBlocks - 1; block >= 0; block--) {
+        final int bucket = bucket(signature.getWeakChecksum(block));
+        chain[block] = buckets[bucket];
+        buckets[bucket] = block;
+      }
+    }
+
+    private void encode() throws IOException {
+      int pos = 0;
+      int literalStart = 0;
+
+      int a = 0;
+      int b = 0;
+      boolean rolled = false;
+
+      while (fullBlocks > 0 && pos + blockSize <= length) {
+
+        if (!rolled) {
+          final int weak = weakChecksum(data, pos, blockSize);
+          a = weak & 0xFFFF;
+          b = weak >>> 16;
+          rolled = true;
+        }
+
+        final int block = findBlock((a & 0xFFFF) | (b << 16), pos);
+
+        if (block != -1) {
+          literal(literalStart, pos - literalStart);
+          copy(block);
+
+          pos += blockSize;
+          literalStart = pos;
+          rolled = false;
+          continue;
+        }
+
+        if (pos + blockSize < length) {
+          final int removed = data[pos] & 0xFF;
+          a += (data[pos + blockSize] & 0xFF) - removed;
+          b += a - blockSize * removed;
+        }
+
+        pos++;
+      }
+
+      final int tail = (int) (signature.getLength() - (long) fullBlocks * blockSize);
+      final int tailStart = length - tail;
+
+      if (tail > 0 && tailStart >= literalStart && matches(fullBlocks, tailStart, tail)) {
+        literal(literalStart, tailStart - literalStart);
+        copy(fullBlocks);
+      } else {
+        literal(literalStart, length - literalStart);
+      }
+
+      flushCopy();
+    }
+
+    /** Returns the block matching the data at the given position or -1 if there is none. */
+    private int findBlock(final int weak, final int pos) {
+      byte[] strong = null;
+
+      // prefer the block following the last copied one to extend the copy
+      final int next = copyStart + copyCount;
+
+      if (copyCount > 0 && next < fullBlocks && signature.getWeakChecksum(next) == weak) {
+        strong = strongChecksum(pos, blockSize);
+
+        if (signature.hasStrongChecksum(next, strong)) return next;
+      }
+
+      for (int block = buckets[bucket(weak)]; block != -1; block = chain[block]) {
+        if (signature.getWeakChecksum(block) != weak) continue;
+
+        if (strong == null) strong = strongChecksum(pos, blockSize);
+
+        if (signature.hasStrongChecksum(block, strong)) return block;
+      }
+
+      return -1;
+    }
+
+    private boolean matches(final int block, final int pos, final int count) {
+      return signature.getWeakChecksum(block) == weakChecksum(data, pos, count)
+          && signature.hasStrongChecksum(block, strongChecksum(pos, count));
+    }
+
+    private byte[] strongChecksum(final int pos, final int count) {
+      digest.update(data, pos, count);
+      return digest.digest();
+    }
+
+    private int bucket(final int weak) {
+      return (weak ^ (weak >>> 16)) & (buckets.length - 1);
+    }
+
+    private void copy(final int block) throws IOException {
+      if (copyCount > 0 && copyStart + copyCount == block) {
+        copyCount++;
+        return;
+      }
+
+      flushCopy();
+
+      copyStart = block;
+      copyCount = 1;
+    }
+
+    private void flushCopy() throws IOException {
+      if (copyCount == 0) return;
+
+      out.writeByte(OP_COPY);
+      out.writeInt(copyStart);
+      out.writeInt(copyCount);
+
+      copyCount = 0;
+    }
+
+    private void literal(final int offset, final int count) throws IOException {
+      if (count == 0) return;
+
+      flushCopy();
+
+      out.writeByte(OP_LITERAL);
+      out.writeInt(count);
+      out.write(data, offset, count);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package saros.negotiation.delta;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+/**
+ * The block checksums of a file that is already present on the receiving side of a resource
+ * negotiation. Allows the sending side to only transfer the parts of the file that differ, see
+ * {@link FileDelta}.
+ *
+ * <p>For every block of the file the signature contains a weak rolling checksum and the first bytes
+ * of a strong checksum. The last block may be shorter than the others.
+ */
+@XStreamAlias("SIG")
+public class FileSignature {
+
+  @XStreamAlias("r")
+  @XStreamAsAttribute
+  private final String referencePointID;
+
+  @XStreamAlias("p")
+  @XStreamAsAttribute
+  private final String path;
+
+  @XStreamAlias("b")
+  @XStreamAsAttribute
+  private final int blockSize;
+
+  @XStreamAlias("l")
+  @XStreamAsAttribute
+  private final long length;
+
+  /** weak and strong checksum of each block, {@link FileDelta#CHECKSUM_LENGTH} bytes per block */
+  @XStreamAlias("c")
+  private final byte[] checksums;
+
+  FileSignature(
+      final String referencePointID,
+      final String path,
+      final int blockSize,
+      final long length,
+      final byte[] checksums) {
+    this.referencePointID = referencePointID;
+    this.path = path;
+    this.blockSize = blockSize;
+    this.length = length;
+    this.checksums = checksums;
+  }
+
+  /** Returns the id of the reference point containing the file. */
+  public String getReferencePointID() {
+    return referencePointID;
+  }
+
+  /** Returns the path of the file relative to its reference point. */
+  public String getPath() {
+    return path;
+  }
+
+  int getBlockSize() {
+    return blockSize;
+  }
+
+  long getLength() {
+    return length;
+  }
+
+  int getBlockCount() {
+    return checksums.length / FileDelta.CHECKSUM_LENGTH;
+  }
+
+  int getWeakChecksum(final int block) {
+    final int offset = block * FileDelta.CHECKSUM_LENGTH;
+
+    return (checksums[offset] & 0xFF) << 24
+        | (checksums[offset + 1] & 0xFF) << 16
+        | (checksums[offset + 2] & 0xFF) << 8
+        | (checksums[offset + 3] & 0xFF);
+  }
+
+  boolean hasStrongChecksum(final int block, final byte[] strongChecksum) {
+    final int offset = block * FileDelta.CHECKSUM_LENGTH + 4;
+
+    for (int i = 0; i < FileDelta.STRONG_CHECKSUM_LENGTH; i++)
+      if (checksums[offset + i] != strongChecksum[i]) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "FileSignature [referencePointID="
+        + referencePointID
+        + ", path="
+        + path
+        + ", blockSize="
+        + blockSize
+        + ", length="
+        + length
+        + "]";
+  }
+}
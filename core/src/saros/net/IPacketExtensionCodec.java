@@ -0,0 +1,88 @@
+package saros.net;
+
+import java.io.IOException;
+import org.jivesoftware.smack.packet.PacketExtension;
+
+/**
+ * A codec that converts packet extensions with a specific element name and namespace into a compact
+ * binary representation and vice versa. Codecs are an optional replacement for the XML
+ * representation of packet extensions that are send over a direct stream connection.
+ *
+ * <p>A codec is only used if the remote side of a connection has announced that it understands the
+ * {@linkplain #getFormat() format} of the codec. Otherwise the packet extension is send as XML.
+ *
+ * <p>Implementations <b>must</b> be thread safe.
+ *
+ * @see PacketExtensionCodecManager
+ */
+public interface IPacketExtensionCodec {
+
+  /**
+   * Returns the element name of the packet extensions this codec can handle.
+   *
+   * @return the element name
+   */
+  public String getElementName();
+
+  /**
+   * Returns the namespace of the packet extensions this codec can handle.
+   *
+   * @return the namespace
+   */
+  public String getNamespace();
+
+  /**
+   * Returns the identifier of the binary format produced by this codec. The identifier <b>must</b>
+   * change whenever the binary format changes in an incompatible way.
+   *
+   * @return the format identifier, must not contain any whitespace or <code>,</code> characters
+   */
+  public String getFormat();
+
+  /**
+   * Encodes the given packet extension.
+   *
+   * @param extension the packet extension to encode
+   * @return the binary representation of the packet extension or <code>null</code> if the packet
+   *     extension cannot be encoded by this codec and so must be send as XML instead
+   */
+  public byte[] encode(PacketExtension extension);
+
+  /**
+   * Encodes the header of the given packet extension, i.e the leading part of its binary
+   * representation that may differ between packet extensions carrying the same content (e.g a
+   * sequence number). Together with {@link #encodeContent} this allows to encode and compress the
+   * content only once if it is sent to multiple recipients.
+   *
+   * <p>If a codec supports this, the header followed by the {@linkplain #encodeContent content}
+   * <b>must</b> be equal to the result of {@link #encode}.
+   *
+   * @param extension the packet extension to encode
+   * @return the binary representation of the header or <code>null</code> if the packet extension
+   *     cannot be encoded in parts
+   */
+  public default byte[] encodeHeader(PacketExtension extension) {
+    return null;
+  }
+
+  /**
+   * Encodes the content of the given packet extension, i.e the remaining part of its binary
+   * representation after the {@linkplain #encodeHeader header}.
+   *
+   * @param extension the packet extension to encode
+   * @return the binary representation of the content or <code>null</code> if the packet extension
+   *     cannot be encoded in parts
+   */
+  public default byte[] encodeContent(PacketExtension extension) {
+    return null;
+  }
+
+  /**
+   * Decodes the given data back to its original packet extension.
+   *
+   * @param data the binary representation created by {@link #encode}
+   * @return the decoded packet extension
+   * @throws IOException if the data is malformed or cannot be decoded in the current context
+   */
+  public PacketExtension decode(byte[] data) throws IOException;
+}
@@ -4,6 +4,16 @@ import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
 
+/**
+ * Entry point for receiving packets from remote sides.
+ *
+ * <p><b>Threading:</b> Packet listeners are always notified in the Dispatch Thread. Packets of the
+ * same sender received over the same connection are passed to them in the order they were received,
+ * there is no ordering guarantee for packets of different senders or connections. Packet
+ * interceptors and transfer listeners are called on receive worker threads before a packet is
+ * dispatched. They may be called concurrently for different senders or connections and must
+ * therefore be thread safe, but are never called concurrently for the same sender and connection.
+ */
 public interface IReceiver {
 
   /**
@@ -51,6 +61,12 @@ public interface IReceiver {
    */
   public PacketCollector createCollector(PacketFilter filter);
 
+  /**
+   * Adds the given listener that is notified about the statistics of each received transfer. The
+   * listener is called on a receive worker thread.
+   *
+   * @param listener the listener to add
+   */
   public default void addTransferListener(ITransferListener listener) {
     // NOP
   }
@@ -59,6 +75,13 @@ public interface IReceiver {
     // NOP
   }
 
+  /**
+   * Adds the given interceptor that is called for each received packet before it is dispatched. The
+   * interceptor is called on a receive worker thread and <b>must not</b> block as this would stall
+   * all packets of the same sender.
+   *
+   * @param interceptor the interceptor to add
+   */
   public default void addPacketInterceptor(IPacketInterceptor interceptor) {
     // NOP
   }
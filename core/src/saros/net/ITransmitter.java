@@ -1,6 +1,9 @@
 package saros.net;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import saros.annotations.Component;
@@ -54,6 +57,35 @@ public interface ITransmitter {
   public void send(String connectionID, JID recipient, PacketExtension extension)
       throws IOException;
 
+  /**
+   * Sends the given {@link PacketExtension}s to their recipients using direct stream connections.
+   * The connections must be already established to the recipients with the given id.
+   *
+   * <p>The extensions are expected to carry the same content and to only differ in a small header
+   * (e.g a sequence number). Implementations may use this to encode and compress the content only
+   * once for all recipients.
+   *
+   * @param connectionID the id of the connections
+   * @param extensions the extensions to send, mapped by their recipient
+   * @return the recipients the extension could not be sent to mapped to the error that occurred,
+   *     the map is empty if the extensions were sent to all recipients
+   */
+  public default Map<JID, IOException> send(
+      String connectionID, Map<JID, PacketExtension> extensions) {
+
+    final Map<JID, IOException> failures = new HashMap<JID, IOException>();
+
+    for (final Entry<JID, PacketExtension> entry : extensions.entrySet()) {
+      try {
+        send(connectionID, entry.getKey(), entry.getValue());
+      } catch (IOException e) {
+        failures.put(entry.getKey(), e);
+      }
+    }
+
+    return failures;
+  }
+
   public default void addTransferListener(ITransferListener listener) {
     // NOP
   }
@@ -0,0 +1,86 @@
+package saros.net;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Registry for {@link IPacketExtensionCodec packet extension codecs}. Like the Smack <code>
+ * ProviderManager</code> this registry is global, codecs should therefore register themselves as
+ * soon as their packet extension is loaded.
+ *
+ * <p>The formats of all registered codecs are announced to the remote side of every direct stream
+ * connection that is established.
+ */
+public final class PacketExtensionCodecManager {
+
+  private static final Logger log = Logger.getLogger(PacketExtensionCodecManager.class);
+
+  private static final PacketExtensionCodecManager INSTANCE = new PacketExtensionCodecManager();
+
+  private final Map<String, IPacketExtensionCodec> codecs = new ConcurrentHashMap<>();
+
+  private PacketExtensionCodecManager() {
+    // NOP
+  }
+
+  public static PacketExtensionCodecManager getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Adds the given codec. An already registered codec for the same element name and namespace will
+   * be replaced.
+   *
+   * @param codec the codec to add
+   */
+  public void addCodec(final IPacketExtensionCodec codec) {
+    final IPacketExtensionCodec current =
+        codecs.put(toKey(codec.getElementName(), codec.getNamespace()), codec);
+
+    if (current != null && current != codec)
+      log.warn("replaced codec " + current.getFormat() + " with codec " + codec.getFormat());
+  }
+
+  /**
+   * Removes the given codec.
+   *
+   * @param codec the codec to remove
+   */
+  public void removeCodec(final IPacketExtensionCodec codec) {
+    codecs.remove(toKey(codec.getElementName(), codec.getNamespace()), codec);
+  }
+
+  /**
+   * Returns the codec for the given element name and namespace.
+   *
+   * @param elementName the element name of the packet extension
+   * @param namespace the namespace of the packet extension
+   * @return the codec or <code>null</code> if no codec is registered
+   */
+  public IPacketExtensionCodec getCodec(final String elementName, final String namespace) {
+    if (elementName == null || namespace == null) return null;
+
+    return codecs.get(toKey(elementName, namespace));
+  }
+
+  /**
+   * Returns the formats of all registered codecs.
+   *
+   * @return an unmodifiable sorted set of formats
+   */
+  public Set<String> getFormats() {
+    final Set<String> formats = new TreeSet<>();
+
+    for (final IPacketExtensionCodec codec : codecs.values()) formats.add(codec.getFormat());
+
+    return Collections.unmodifiableSet(formats);
+  }
+
+  private static String toKey(final String elementName, final String namespace) {
+    return namespace + ":" + elementName;
+  }
+}
@@ -2,7 +2,6 @@ package saros.net.internal;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -10,9 +9,23 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.log4j.Logger;
+import saros.net.PacketExtensionCodecManager;
 import saros.net.stream.ByteStream;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.JID;
@@ -25,6 +38,14 @@ import saros.net.xmpp.JID;
  *
  * <p>send() is a reentrant method for sending data. Any number of threads can call it in parallel.
  * <b>Note:</b> The maximum number of concurrent threads is 32 !
+ *
+ * <p>The chunks of concurrent sends are interleaved. Payloads that fit into a single chunk are
+ * written ahead of the chunks of larger (bulk) payloads, see {@link FragmentScheduler}.
+ *
+ * <p>A connection can be {@linkplain #migrateTo migrated} to another connection while it is in use.
+ * The endpoints exchange a <code>switch</code> control packet which marks the last data sent over
+ * the old connection in each direction. The new connection starts receiving only after the <code>
+ * switch</code> of the remote side has been read from the old connection, so no data is reordered.
  */
 public class BinaryChannelConnection implements IByteStreamConnection {
 
@@ -32,6 +53,9 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
   private static final long TERMINATE_TIMEOUT = 10000L;
 
+  /** Time in milliseconds to wait for pending sends or the new connection during a migration. */
+  private static final long MIGRATION_TIMEOUT = 30000L;
+
   private static class Opcode {
     /* these opcodes will be cropped to byte values, do not exceed 0xFF ! */
 
@@ -42,9 +66,51 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     private static final int ELEMENT_NAME_UPDATE = 0x65;
   }
 
+  private static class Flag {
+    /*
+     * older versions only check for the value 1, so BINARY_ENCODED must only be
+     * set if the remote side announced the format
+     */
+    private static final int COMPRESSED = 0x01;
+    private static final int BINARY_ENCODED = 0x02;
+  }
+
+  /**
+   * Namespace for packets that are exchanged between the connection endpoints only. Such packets
+   * are never passed to the {@link IBinaryXMPPExtensionReceiver}.
+   */
+  private static final String CONTROL_NAMESPACE = "saros:connection";
+
+  /** Element name of the control packet that announces the supported payload formats. */
+  private static final String FORMATS_ELEMENT_NAME = "formats";
+
+  private static final String FORMAT_DELIMITER = ",";
+
+  /** Element name of the control packet that announces the supported control features. */
+  private static final String FEATURES_ELEMENT_NAME = "features";
+
+  private static final String PING_ELEMENT_NAME = "ping";
+  private static final String PONG_ELEMENT_NAME = "pong";
+
+  /** Element names of the control packets of a migration, see {@link #migrateTo}. */
+  private static final String MIGRATE_ELEMENT_NAME = "migrate";
+
+  private static final String MIGRATE_READY_ELEMENT_NAME = "migrate-ready";
+  private static final String MIGRATE_ABORT_ELEMENT_NAME = "migrate-abort";
+  private static final String SWITCH_ELEMENT_NAME = "switch";
+
+  private static final String FEATURE_PING = "ping";
+  private static final String FEATURE_MIGRATION = "migration";
+
   /** Max size of data chunks */
   private static final int CHUNKSIZE = 32 * 1024 - 1;
 
+  /**
+   * Time in milliseconds after which a waiting bulk chunk is treated like a latency sensitive one,
+   * so bulk transfers cannot be starved.
+   */
+  private static final long MAX_BULK_CHUNK_WAIT = 250L;
+
   private IByteStreamConnectionListener listener;
   private ReceiverThread receiveThread;
 
@@ -55,13 +121,17 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
   private IDPool idPool = new IDPool();
 
+  private final FragmentScheduler scheduler = new FragmentScheduler(MAX_BULK_CHUNK_WAIT);
+
   private boolean connected;
   private boolean initialized;
 
-  private Map<Integer, ByteArrayOutputStream> pendingFragmentedPackets =
-      new HashMap<Integer, ByteArrayOutputStream>();
-  private Map<Integer, BinaryXMPPExtension> pendingXMPPExtensions =
-      new HashMap<Integer, BinaryXMPPExtension>();
+  /* only accessed by the receiver thread, indexed by the fragment id */
+  private final BinaryXMPPExtension[] pendingXMPPExtensions =
+      new BinaryXMPPExtension[IDPool.MAX_ID];
+
+  /* only accessed by the receiver thread */
+  private final ReceiveBufferPool receiveBuffers = new ReceiveBufferPool();
 
   private DataInputStream inputStream;
   private DataOutputStream outputStream;
@@ -78,6 +148,41 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   private int nextNamespaceId = 0;
   private int nextElementNameId = 0;
 
+  private volatile Set<String> remoteFormats = Collections.emptySet();
+
+  private volatile Set<String> remoteFeatures = Collections.emptySet();
+
+  private final AtomicLong sentBytes = new AtomicLong();
+  private final AtomicLong receivedBytes = new AtomicLong();
+
+  private volatile long roundTripTime = -1;
+
+  /**
+   * Sends hold the read lock, a migration acquires the write lock to wait for the completion of all
+   * pending sends.
+   */
+  private final ReentrantReadWriteLock sendLock = new ReentrantReadWriteLock();
+
+  /** The connection all sends are forwarded to after a migration. */
+  private volatile BinaryChannelConnection successor;
+
+  /* outgoing migration, guarded by this */
+  private boolean migrationReady;
+
+  /* incoming migration, guarded by this */
+  private boolean migrationAnnounced;
+  private BinaryChannelConnection pendingSuccessor;
+
+  /*
+   * successors of aborted migrations that were established but did not
+   * arrive before the abort, guarded by this
+   */
+  private int abortedSuccessors;
+  private long abortedSuccessorsDeadline;
+
+  /** Released as soon as the receiver thread is allowed to read from the stream. */
+  private final CountDownLatch receiving = new CountDownLatch(1);
+
   private class ReceiverThread extends Thread {
 
     @Override
@@ -86,9 +191,23 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
       log.debug(connection + " ReceiverThread started.");
       try {
+        receiving.await();
+
         while (!isInterrupted()) {
           final BinaryXMPPExtension extension = readNextXMPPExtension();
+
+          if (CONTROL_NAMESPACE.equals(extension.getTransferDescription().getNamespace())) {
+            try {
+              handleControlPacket(extension);
+            } finally {
+              extension.release();
+            }
+            continue;
+          }
+
+          /* the receiver is responsible to release the extension */
           if (receiver != null) receiver.receive(extension);
+          else extension.release();
         }
 
       } catch (SocketException e) {
@@ -97,9 +216,12 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         log.debug(connection + " connection closed remotely:" + e.getMessage());
       } catch (IOException e) {
         log.error(connection + " network error: " + e.getMessage(), e);
+      } catch (InterruptedException e) {
+        log.debug(connection + " interrupted while waiting to receive data");
       } catch (Exception e) {
         log.error(connection + " internal error: " + e.getMessage(), e);
       } finally {
+        releaseReceiveBuffers();
         close();
       }
     }
@@ -135,18 +257,39 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   }
 
   @Override
-  public synchronized void initialize() {
-    if (initialized) return;
+  public void initialize() {
+    initialize(true);
+  }
 
-    /*
-     * it is ok to start the receiver a bit later because the data will be
-     * already buffered by SMACK or the OS
-     */
-    receiveThread = new ReceiverThread();
-    receiveThread.setName("BinaryChannel-" + remoteAddress.getName());
-    receiveThread.start();
-    connected = true;
-    initialized = true;
+  /**
+   * Initializes this connection.
+   *
+   * @param receive <code>false</code> if the receiver thread must not read data until {@link
+   *     #resumeReceiving()} is called
+   */
+  private void initialize(boolean receive) {
+    synchronized (this) {
+      if (initialized) return;
+
+      /*
+       * it is ok to start the receiver a bit later because the data will be
+       * already buffered by SMACK or the OS
+       */
+      receiveThread = new ReceiverThread();
+      receiveThread.setName("BinaryChannel-" + remoteAddress.getName());
+      receiveThread.start();
+      connected = true;
+      initialized = true;
+    }
+
+    if (receive) resumeReceiving();
+
+    announceFormats();
+    announceFeatures();
+  }
+
+  private void resumeReceiving() {
+    receiving.countDown();
   }
 
   @Override
@@ -161,18 +304,32 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
   @Override
   public void close() {
+    final BinaryChannelConnection pending;
+
     synchronized (this) {
+      if (!initialized) {
+        // e.g a successor that was never used, there is no receiver thread to stop
+        initialized = true;
+        closeStream();
+        return;
+      }
+
       if (!isConnected()) return;
 
-      try {
-        stream.close();
-      } catch (Exception e) {
-        log.error("failed to gracefully close connection " + this, e);
-      } finally {
-        connected = false;
-      }
+      closeStream();
+
+      pending = pendingSuccessor;
+      pendingSuccessor = null;
+      notifyAll();
     }
 
+    // nothing more will be received, so the successor must not wait for the switch
+    final BinaryChannelConnection current = successor;
+
+    if (current != null) current.resumeReceiving();
+
+    resumeReceiving();
+
     assert receiveThread != null;
 
     if (Thread.currentThread() != receiveThread) {
@@ -189,6 +346,22 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     }
 
     listener.connectionClosed(connectionID, this);
+
+    /*
+     * the remote side already uses the new connection, so use it without
+     * the switch instead of losing it
+     */
+    if (pending != null) listener.connectionChanged(connectionID, pending, true);
+  }
+
+  private void closeStream() {
+    try {
+      stream.close();
+    } catch (Exception e) {
+      log.error("failed to gracefully close connection " + this, e);
+    } finally {
+      connected = false;
+    }
   }
 
   @Override
@@ -201,8 +374,278 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     return remoteAddress;
   }
 
+  @Override
+  public boolean isFormatSupported(String format) {
+    return remoteFormats.contains(format);
+  }
+
+  @Override
+  public long getSentBytes() {
+    return sentBytes.get();
+  }
+
+  @Override
+  public long getReceivedBytes() {
+    return receivedBytes.get();
+  }
+
+  @Override
+  public long getRoundTripTime() {
+    return roundTripTime;
+  }
+
+  @Override
+  public void measureRoundTripTime() {
+    if (!remoteFeatures.contains(FEATURE_PING)) return;
+
+    try {
+      sendControl(PING_ELEMENT_NAME, ByteBuffer.allocate(8).putLong(0, System.nanoTime()).array());
+    } catch (IOException e) {
+      log.debug(this + " failed to measure round trip time: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public boolean isMigrationSupported() {
+    return remoteFeatures.contains(FEATURE_MIGRATION);
+  }
+
+  @Override
+  public void announceMigration() throws IOException {
+    if (!isMigrationSupported()) throw new IOException("remote side does not support migration");
+
+    synchronized (this) {
+      migrationReady = false;
+    }
+
+    sendControl(MIGRATE_ELEMENT_NAME, new byte[1]);
+
+    /*
+     * the remote side must know about the migration before the new
+     * connection arrives, otherwise it would replace this connection
+     */
+    final long deadline = System.currentTimeMillis() + MIGRATION_TIMEOUT;
+
+    synchronized (this) {
+      try {
+        while (!migrationReady && connected) {
+          final long remaining = deadline - System.currentTimeMillis();
+
+          if (remaining <= 0) break;
+
+          wait(remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "interrupted while waiting for the migration confirmation");
+      }
+
+      if (!migrationReady) throw new IOException("remote side did not confirm the migration");
+    }
+  }
+
+  @Override
+  public void abortMigration(final boolean successorEstablished) {
+    try {
+      sendControl(MIGRATE_ABORT_ELEMENT_NAME, new byte[] {(byte) (successorEstablished ? 1 : 0)});
+    } catch (IOException e) {
+      log.debug(this + " failed to abort migration: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void migrateTo(IByteStreamConnection successor) throws IOException {
+    if (!(successor instanceof BinaryChannelConnection))
+      throw new IOException("cannot migrate to connection: " + successor);
+
+    final BinaryChannelConnection next = (BinaryChannelConnection) successor;
+
+    try {
+      if (!sendLock.writeLock().tryLock(MIGRATION_TIMEOUT, TimeUnit.MILLISECONDS))
+        throw new IOException("timeout while waiting for the completion of pending sends");
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for pending sends");
+    }
+
+    try {
+      if (this.successor != null) throw new IOException(this + " is already migrated");
+
+      // receive nothing until the remote side sent its last data over this connection
+      next.initialize(false);
+
+      sendControl(SWITCH_ELEMENT_NAME, new byte[1]);
+
+      this.successor = next;
+    } finally {
+      sendLock.writeLock().unlock();
+    }
+
+    log.debug(this + " migrated to " + next);
+  }
+
+  @Override
+  public boolean acceptSuccessor(IByteStreamConnection successor) {
+    if (!(successor instanceof BinaryChannelConnection)) return false;
+
+    final boolean aborted;
+
+    synchronized (this) {
+      if (!connected || this.successor != null) return false;
+
+      aborted = abortedSuccessors > 0 && System.currentTimeMillis() < abortedSuccessorsDeadline;
+
+      if (aborted) {
+        abortedSuccessors--;
+      } else {
+        abortedSuccessors = 0;
+
+        if (!migrationAnnounced || pendingSuccessor != null) return false;
+
+        pendingSuccessor = (BinaryChannelConnection) successor;
+        notifyAll();
+      }
+    }
+
+    if (aborted) {
+      log.debug(this + " discarded successor " + successor + " of an aborted migration");
+      successor.close();
+      return true;
+    }
+
+    log.debug(this + " accepted successor " + successor);
+    return true;
+  }
+
+  @Override
+  public IByteStreamConnection getSuccessor() {
+    return successor;
+  }
+
+  /** Writes the chunks of a payload. */
+  private interface ChunkWriter {
+    /**
+     * Writes the next chunk.
+     *
+     * @param fragmentId the fragment id to use
+     * @param priority the priority of the chunk
+     * @param length the length of the chunk
+     */
+    void writeChunk(int fragmentId, int priority, int length) throws IOException;
+  }
+
   @Override
   public void send(TransferDescription data, byte[] content) throws IOException {
+    send(data, ByteBuffer.wrap(content));
+  }
+
+  @Override
+  public void send(TransferDescription data, ByteBuffer content) throws IOException {
+    final BinaryChannelConnection current = acquireSend();
+
+    if (current != this) {
+      current.send(data, content);
+      return;
+    }
+
+    try {
+      sendBuffer(data, content);
+    } finally {
+      sendLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void send(TransferDescription data, ReadableByteChannel source, int length)
+      throws IOException {
+
+    final BinaryChannelConnection current = acquireSend();
+
+    if (current != this) {
+      current.send(data, source, length);
+      return;
+    }
+
+    try {
+      sendChannel(data, source, length);
+    } finally {
+      sendLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the connection the data must be sent over. If this connection is returned the read lock
+   * of the {@link #sendLock} is held and must be released after sending.
+   */
+  private BinaryChannelConnection acquireSend() {
+    sendLock.readLock().lock();
+
+    final BinaryChannelConnection current = successor;
+
+    if (current == null) return this;
+
+    sendLock.readLock().unlock();
+    return current;
+  }
+
+  private void sendBuffer(TransferDescription data, ByteBuffer content) throws IOException {
+    final ByteBuffer source = content.duplicate();
+
+    if (source.hasArray()) {
+      final byte[] array = source.array();
+
+      send(
+          data,
+          source.remaining(),
+          (fragmentId, priority, length) -> {
+            sendData(fragmentId, priority, array, source.arrayOffset() + source.position(), length);
+            source.position(source.position() + length);
+          });
+
+      return;
+    }
+
+    final byte[] chunk = new byte[Math.min(CHUNKSIZE, source.remaining())];
+
+    send(
+        data,
+        source.remaining(),
+        (fragmentId, priority, length) -> {
+          source.get(chunk, 0, length);
+          sendData(fragmentId, priority, chunk, 0, length);
+        });
+  }
+
+  private void sendChannel(TransferDescription data, ReadableByteChannel source, int length)
+      throws IOException {
+
+    final ByteBuffer chunk = ByteBuffer.allocate(Math.min(CHUNKSIZE, length));
+
+    send(
+        data,
+        length,
+        (fragmentId, priority, chunkLength) -> {
+          chunk.clear().limit(chunkLength);
+
+          while (chunk.hasRemaining()) {
+            if (source.read(chunk) < 0)
+              throw new EOFException(
+                  "source channel contains less data than announced: " + length + " bytes");
+          }
+
+          sendData(fragmentId, priority, chunk.array(), 0, chunkLength);
+        });
+  }
+
+  /**
+   * Sends the transfer description followed by the payload of the given length which is split into
+   * chunks of at most {@link #CHUNKSIZE} bytes. The data of each chunk is written by the given
+   * writer, so the payload never has to be copied as a whole.
+   */
+  private void send(TransferDescription data, int contentLength, ChunkWriter writer)
+      throws IOException {
 
     if (!isConnected()) throw new EOFException("connection is closed");
 
@@ -259,14 +702,37 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         }
       }
 
-      assert content.length > 0;
+      assert contentLength > 0;
+
+      int chunks = ((contentLength - 1) / CHUNKSIZE) + 1;
+
+      int flags = 0;
+
+      if (data.compressContent()) flags |= Flag.COMPRESSED;
+
+      if (data.binaryEncodedContent()) flags |= Flag.BINARY_ENCODED;
 
-      int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
+      /*
+       * payloads that fit into one chunk (e.g. activities caused by typing)
+       * are latency sensitive, larger payloads are bulk data whose chunks
+       * must not delay them
+       */
+      final int priority =
+          chunks == 1 || CONTROL_NAMESPACE.equals(data.getNamespace())
+              ? FragmentScheduler.PRIORITY_HIGH
+              : FragmentScheduler.PRIORITY_BULK;
 
-      sendTransferDescription(
-          fragmentId, chunks, namespaceId, elementNameId, data.compressContent());
+      sendTransferDescription(fragmentId, chunks, namespaceId, elementNameId, flags);
 
-      splitAndSend(content, chunks, fragmentId);
+      int remaining = contentLength;
+
+      while (chunks-- > 0) {
+        final int length = Math.min(remaining, CHUNKSIZE);
+
+        writer.writeChunk(fragmentId, priority, length);
+
+        remaining -= length;
+      }
     } catch (IOException e) {
       close();
       throw e;
@@ -297,7 +763,7 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
       switch (opcode) {
         case Opcode.TRANSFERDESCRIPTION:
-          fragmentId = inputStream.readShort();
+          fragmentId = readFragmentId();
           final int chunks = inputStream.readInt();
 
           if (log.isTraceEnabled()) {
@@ -312,7 +778,7 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
           final int namespaceId = inputStream.readUnsignedByte();
           final int elementNameId = inputStream.readUnsignedShort();
-          final int compressed = inputStream.readUnsignedByte();
+          final int flags = inputStream.readUnsignedByte();
 
           final String namespace = inNamespaceCache.get(Integer.valueOf(namespaceId));
 
@@ -324,18 +790,18 @@ public class BinaryChannelConnection implements IByteStreamConnection {
           transferDescription.setRecipient(localAddress);
           transferDescription.setNamespace(namespace);
           transferDescription.setElementName(elementName);
-          transferDescription.setCompressContent(compressed == 1);
-
-          BinaryXMPPExtension oldTransferObject =
-              pendingXMPPExtensions.put(
-                  fragmentId, new BinaryXMPPExtension(mode, transferDescription, chunks));
+          transferDescription.setCompressContent((flags & Flag.COMPRESSED) != 0);
+          transferDescription.setBinaryEncodedContent((flags & Flag.BINARY_ENCODED) != 0);
 
-          if (oldTransferObject != null)
+          if (pendingXMPPExtensions[fragmentId] != null)
             throw new IOException("replaced a XMPP extension that is still transmitted");
+
+          pendingXMPPExtensions[fragmentId] =
+              new BinaryXMPPExtension(mode, transferDescription, chunks);
           break;
 
         case Opcode.DATA:
-          fragmentId = inputStream.readShort();
+          fragmentId = readFragmentId();
           final int payloadLength = inputStream.readInt();
 
           if (log.isTraceEnabled()) {
@@ -356,32 +822,26 @@ public class BinaryChannelConnection implements IByteStreamConnection {
                     + " <= "
                     + CHUNKSIZE);
 
-          byte[] payload = new byte[payloadLength];
-          inputStream.readFully(payload);
-
-          ByteArrayOutputStream out = pendingFragmentedPackets.get(fragmentId);
-
-          if (out == null) {
-            out = new ByteArrayOutputStream(payloadLength * 2);
-            pendingFragmentedPackets.put(fragmentId, out);
-          }
-
-          out.write(payload);
-          out.flush();
+          final BinaryXMPPExtension pendingExtension = pendingXMPPExtensions[fragmentId];
 
-          if (!pendingXMPPExtensions.get(fragmentId).isLastChunk()) break;
+          if (pendingExtension == null)
+            throw new ProtocolException("received data for unknown fragment id: " + fragmentId);
 
-          pendingFragmentedPackets.remove(fragmentId);
+          /*
+           * the chunks are read into recycled buffers and kept as they are,
+           * the receiver can read the payload as a stream without copying it
+           */
+          final ReceiveBufferPool.Buffer payload = receiveBuffers.allocate(payloadLength);
+          pendingExtension.addChunk(payload);
 
-          BinaryXMPPExtension fullyReceivedTransferObject =
-              pendingXMPPExtensions.remove(fragmentId);
+          inputStream.readFully(payload.array(), payload.offset(), payloadLength);
 
-          payload = out.toByteArray();
-          out = null; // help GC
+          receivedBytes.addAndGet(payloadLength);
 
-          fullyReceivedTransferObject.setPayload(payload.length, payload);
+          if (!pendingExtension.isLastChunk()) break;
 
-          return fullyReceivedTransferObject;
+          pendingXMPPExtensions[fragmentId] = null;
+          return pendingExtension;
 
         case Opcode.ELEMENT_NAME_UPDATE:
           if (log.isTraceEnabled()) {
@@ -426,22 +886,63 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     throw new InterruptedIOException("interrupted while reading stream data");
   }
 
-  private synchronized void sendData(int fragmentId, byte[] data, int offset, int length)
+  private int readFragmentId() throws IOException {
+    final int fragmentId = inputStream.readShort();
+
+    if (fragmentId < 0 || fragmentId >= IDPool.MAX_ID)
+      throw new ProtocolException("fragment id field contains corrupted value: " + fragmentId);
+
+    return fragmentId;
+  }
+
+  /** Releases the buffers of all extensions that were not received completely. */
+  private void releaseReceiveBuffers() {
+    for (int i = 0; i < pendingXMPPExtensions.length; i++) {
+      if (pendingXMPPExtensions[i] == null) continue;
+
+      pendingXMPPExtensions[i].release();
+      pendingXMPPExtensions[i] = null;
+    }
+
+    receiveBuffers.dispose();
+  }
+
+  /**
+   * Writes a chunk of data as soon as the {@linkplain FragmentScheduler scheduler} grants the
+   * calling thread the next turn.
+   */
+  private void sendData(int fragmentId, int priority, byte[] data, int offset, int length)
       throws IOException {
 
-    if (log.isTraceEnabled()) {
-      log.trace("sending data: id=" + fragmentId + ", len=" + length + " bytes");
+    scheduler.acquire(priority);
+
+    try {
+      synchronized (this) {
+        if (log.isTraceEnabled()) {
+          log.trace(
+              "sending data: id="
+                  + fragmentId
+                  + ", len="
+                  + length
+                  + " bytes, priority="
+                  + priority);
+        }
+
+        outputStream.write(Opcode.DATA);
+        outputStream.writeShort(fragmentId);
+        outputStream.writeInt(length);
+        outputStream.write(data, offset, length);
+        outputStream.flush();
+      }
+    } finally {
+      scheduler.release();
     }
 
-    outputStream.write(Opcode.DATA);
-    outputStream.writeShort(fragmentId);
-    outputStream.writeInt(length);
-    outputStream.write(data, offset, length);
-    outputStream.flush();
+    sentBytes.addAndGet(length);
   }
 
   private synchronized void sendTransferDescription(
-      int fragmentId, int chunks, int namespaceId, int elementNameId, boolean compress)
+      int fragmentId, int chunks, int namespaceId, int elementNameId, int flags)
       throws IOException {
 
     if (log.isTraceEnabled()) {
@@ -453,33 +954,302 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     outputStream.writeInt(chunks);
     outputStream.write(namespaceId);
     outputStream.writeShort(elementNameId);
-    outputStream.write(compress ? 1 : 0);
+    outputStream.write(flags);
   }
 
-  /** Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets. */
-  private void splitAndSend(byte[] data, int chunks, int fragmentId) throws IOException {
+  /**
+   * Announces the formats of all currently registered {@linkplain saros.net.IPacketExtensionCodec
+   * codecs} to the remote side. Remote sides running an older version do not know the control
+   * namespace, hand the announcement to their XML parser and log a parse error for it. This is
+   * harmless as the packet is discarded afterwards and the remote side simply keeps receiving XML
+   * payloads.
+   */
+  private void announceFormats() {
+    final Set<String> formats = PacketExtensionCodecManager.getInstance().getFormats();
+
+    if (formats.isEmpty()) return;
+
+    try {
+      sendControl(
+          FORMATS_ELEMENT_NAME,
+          String.join(FORMAT_DELIMITER, formats).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      log.warn(this + " failed to announce supported formats: " + e.getMessage());
+    }
+  }
 
-    int offset = 0;
-    int length = 0;
+  /**
+   * Announces the supported control features to the remote side. Remote sides running an older
+   * version will ignore the announcement and so never receive control packets they do not know.
+   */
+  private void announceFeatures() {
+    try {
+      sendControl(
+          FEATURES_ELEMENT_NAME,
+          String.join(FORMAT_DELIMITER, FEATURE_PING, FEATURE_MIGRATION)
+              .getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      log.warn(this + " failed to announce supported features: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Sends a control packet over this connection. Control packets are never forwarded to the
+   * successor of a migrated connection.
+   */
+  private void sendControl(final String elementName, final byte[] payload) throws IOException {
+    final TransferDescription description =
+        TransferDescription.newDescription()
+            .setSender(localAddress)
+            .setRecipient(remoteAddress)
+            .setNamespace(CONTROL_NAMESPACE)
+            .setElementName(elementName);
+
+    sendBuffer(description, ByteBuffer.wrap(payload));
+  }
 
-    while (chunks-- > 0) {
+  private void handleControlPacket(final BinaryXMPPExtension extension) throws IOException {
+    final String elementName = extension.getTransferDescription().getElementName();
 
-      length = Math.min(data.length - offset, CHUNKSIZE);
+    switch (elementName) {
+      case FORMATS_ELEMENT_NAME:
+        remoteFormats = toSet(extension.getPayload());
+        log.debug(this + " remote side supports formats: " + remoteFormats);
+        break;
 
-      sendData(fragmentId, data, offset, length);
+      case FEATURES_ELEMENT_NAME:
+        remoteFeatures = toSet(extension.getPayload());
+        log.debug(this + " remote side supports features: " + remoteFeatures);
+        break;
 
-      offset += length;
+      case PING_ELEMENT_NAME:
+        sendControl(PONG_ELEMENT_NAME, extension.getPayload());
+        break;
+
+      case PONG_ELEMENT_NAME:
+        final long sendTime = ByteBuffer.wrap(extension.getPayload()).getLong();
+
+        roundTripTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sendTime);
+        break;
+
+      case MIGRATE_ELEMENT_NAME:
+        synchronized (this) {
+          migrationAnnounced = true;
+        }
+
+        sendControl(MIGRATE_READY_ELEMENT_NAME, new byte[1]);
+        break;
+
+      case MIGRATE_READY_ELEMENT_NAME:
+        synchronized (this) {
+          migrationReady = true;
+          notifyAll();
+        }
+        break;
+
+      case MIGRATE_ABORT_ELEMENT_NAME:
+        final BinaryChannelConnection discarded;
+
+        synchronized (this) {
+          migrationAnnounced = false;
+          discarded = pendingSuccessor;
+          pendingSuccessor = null;
+
+          /*
+           * the successor may still arrive after the abort, it must not
+           * replace this connection then
+           */
+          if (discarded == null && isSet(extension.getPayload())) {
+            abortedSuccessors++;
+            abortedSuccessorsDeadline = System.currentTimeMillis() + MIGRATION_TIMEOUT;
+          }
+        }
+
+        if (discarded != null) discarded.close();
+        break;
+
+      case SWITCH_ELEMENT_NAME:
+        handleSwitch();
+        break;
+
+      default:
+        log.warn(this + " received unknown control packet: " + elementName);
     }
   }
 
+  /**
+   * Handles the switch of the remote side. Either completes a migration started locally or switches
+   * to the pending successor and answers with the local switch.
+   */
+  private void handleSwitch() throws IOException {
+    final BinaryChannelConnection current = successor;
+
+    if (current != null) {
+      current.resumeReceiving();
+      close();
+      return;
+    }
+
+    final BinaryChannelConnection next = awaitPendingSuccessor();
+
+    if (next == null)
+      throw new ProtocolException("remote side switched to a connection that does not exist");
+
+    try {
+      migrateTo(next);
+    } catch (IOException e) {
+      next.close();
+      throw e;
+    }
+
+    listener.connectionChanged(connectionID, next, true);
+    next.resumeReceiving();
+    close();
+  }
+
+  /**
+   * Waits until the remote side delivered the successor that was announced by the migrate control
+   * packet.
+   */
+  private synchronized BinaryChannelConnection awaitPendingSuccessor()
+      throws InterruptedIOException {
+
+    final long deadline = System.currentTimeMillis() + MIGRATION_TIMEOUT;
+
+    try {
+      while (migrationAnnounced && pendingSuccessor == null && connected) {
+        final long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) break;
+
+        wait(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the successor");
+    }
+
+    final BinaryChannelConnection next = pendingSuccessor;
+
+    migrationAnnounced = false;
+    pendingSuccessor = null;
+
+    return next;
+  }
+
+  private static boolean isSet(final byte[] payload) {
+    return payload.length > 0 && payload[0] != 0;
+  }
+
+  private static Set<String> toSet(final byte[] payload) {
+    final String values = new String(payload, StandardCharsets.UTF_8);
+
+    return Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList(values.split(FORMAT_DELIMITER))));
+  }
+
   @Override
   public String toString() {
     return "[mode=" + getMode() + ", id=" + connectionID + "]" + " " + remoteAddress;
   }
 
+  /**
+   * Decides which of the threads that want to write a chunk is allowed to write next. Chunks of
+   * concurrent transfers are interleaved. Latency sensitive chunks are always written before bulk
+   * chunks, unless a bulk chunk is already waiting longer than the maximum bulk wait time. Chunks
+   * of the same priority are written in the order they were requested.
+   */
+  static class FragmentScheduler {
+
+    static final int PRIORITY_HIGH = 0;
+    static final int PRIORITY_BULK = 1;
+
+    private static final class Turn {
+      private final int priority;
+      private final long requestTime;
+      private boolean granted;
+
+      private Turn(int priority, long requestTime) {
+        this.priority = priority;
+        this.requestTime = requestTime;
+      }
+    }
+
+    private final long maxBulkWaitNanos;
+
+    /* ordered by request time */
+    private final List<Turn> waiting = new LinkedList<>();
+
+    private boolean busy;
+
+    FragmentScheduler(long maxBulkWaitMillis) {
+      this.maxBulkWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxBulkWaitMillis);
+    }
+
+    /**
+     * Blocks until the calling thread is allowed to write. Every successful call <b>must</b> be
+     * followed by a call to {@link #release()}.
+     *
+     * @param priority the priority of the chunk to write
+     * @throws InterruptedIOException if the calling thread was interrupted while waiting
+     */
+    synchronized void acquire(int priority) throws InterruptedIOException {
+      if (!busy) {
+        busy = true;
+        return;
+      }
+
+      final Turn turn = new Turn(priority, System.nanoTime());
+
+      waiting.add(turn);
+
+      try {
+        while (!turn.granted) wait();
+      } catch (InterruptedException e) {
+        if (turn.granted) release();
+        else waiting.remove(turn);
+
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for the next chunk turn");
+      }
+    }
+
+    /** Passes the turn to the next waiting thread. */
+    synchronized void release() {
+      final Turn next = selectNext();
+
+      if (next == null) {
+        busy = false;
+        return;
+      }
+
+      waiting.remove(next);
+      next.granted = true;
+      notifyAll();
+    }
+
+    /** Returns the number of threads that are waiting for their turn. */
+    synchronized int getWaitingCount() {
+      return waiting.size();
+    }
+
+    private Turn selectNext() {
+      if (waiting.isEmpty()) return null;
+
+      final long now = System.nanoTime();
+
+      for (final Turn turn : waiting) {
+        if (turn.priority == PRIORITY_HIGH || now - turn.requestTime >= maxBulkWaitNanos)
+          return turn;
+      }
+
+      return waiting.get(0);
+    }
+  }
+
   static class IDPool {
 
-    private final int MAX_ID = 32;
+    static final int MAX_ID = 32;
     private int pool = 0; // 32 ids
 
     // see
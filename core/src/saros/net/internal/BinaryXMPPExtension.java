@@ -1,5 +1,12 @@
 package saros.net.internal;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import saros.net.internal.ReceiveBufferPool.Buffer;
 import saros.net.stream.StreamMode;
 
 public final class BinaryXMPPExtension {
@@ -9,9 +16,11 @@ public final class BinaryXMPPExtension {
   private int chunkCount;
   private long transferredSize;
   private long uncompressedSize;
+  private final List<Buffer> chunks = new ArrayList<>(1);
   private byte[] payload;
   private long transferDuration;
   private StreamMode transferMode;
+  private boolean released;
 
   public BinaryXMPPExtension(
       StreamMode transferMode, TransferDescription transferDescription, int chunkCount) {
@@ -26,11 +35,65 @@ public final class BinaryXMPPExtension {
   /**
    * Returns the XMPP packet extension in binary form. <b>Note:</b>The returned byte array <b>must
    * not</b> be modified directly.
+   *
+   * <p>The payload is received in chunks of recycled buffers, calling this method copies all chunks
+   * into one array. Prefer {@link #getPayloadInputStream()} which does not copy the payload.
+   *
+   * @throws IllegalStateException if the payload was already {@linkplain #release() released}
    */
   byte[] getPayload() {
+    if (payload != null) return payload;
+
+    checkNotReleased();
+
+    final byte[] joined = new byte[(int) transferredSize];
+
+    int offset = 0;
+
+    for (final Buffer chunk : chunks) {
+      System.arraycopy(chunk.array(), chunk.offset(), joined, offset, chunk.length());
+      offset += chunk.length();
+    }
+
+    payload = joined;
     return payload;
   }
 
+  /**
+   * Returns the XMPP packet extension in binary form as a stream that reads the received chunks one
+   * after another, so the payload is neither copied nor has to be present in one contiguous array.
+   * Every call returns a new stream that starts at the beginning of the payload.
+   *
+   * @throws IllegalStateException if the payload was already {@linkplain #release() released}
+   */
+  InputStream getPayloadInputStream() {
+    if (payload != null) return new ByteArrayInputStream(payload);
+
+    checkNotReleased();
+
+    if (chunks.size() == 1) return chunks.get(0).asInputStream();
+
+    final Vector<InputStream> streams = new Vector<>(chunks.size());
+
+    for (final Buffer chunk : chunks) streams.add(chunk.asInputStream());
+
+    return new SequenceInputStream(streams.elements());
+  }
+
+  /**
+   * Releases the buffers containing the payload so they can be reused for other incoming data. The
+   * payload <b>must not</b> be accessed afterwards, this includes streams that were returned by
+   * {@link #getPayloadInputStream()} before. Extensions that are not released do not leak memory,
+   * their buffers are just not reused.
+   */
+  void release() {
+    for (final Buffer chunk : chunks) chunk.release();
+
+    chunks.clear();
+    payload = null;
+    released = true;
+  }
+
   /** Returns the transfer description of this transfer object. */
   // public for STF
   public TransferDescription getTransferDescription() {
@@ -58,28 +121,34 @@ public final class BinaryXMPPExtension {
   }
 
   /**
-   * Sets the data for this XMPP packet extension.
+   * Sets the size of the XMPP packet extension in bytes after decompression.
    *
-   * @param originalSize the original size of the received data
-   * @param data the binary form of the XMPP packet extension
-   * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
+   * @param size the uncompressed size
    */
-  void setPayload(long originalSize, byte[] data) {
+  void setUncompressedSize(long size) {
+    uncompressedSize = size;
+  }
 
-    if (chunkCount > 0)
-      throw new IllegalStateException("there are chunks missing: " + chunkCount + " > 0");
+  /**
+   * Adds the next chunk of the XMPP packet extension. The extension takes over the ownership of the
+   * given buffer and releases it when the extension is {@linkplain #release() released}.
+   *
+   * @param chunk the next chunk of data
+   * @throws IllegalStateException if all chunks were already received
+   */
+  void addChunk(Buffer chunk) {
+    if (chunkCount <= 0) throw new IllegalStateException("all chunks were already received");
 
-    payload = data;
-    transferredSize = originalSize;
-    uncompressedSize = data.length;
+    chunks.add(chunk);
+    transferredSize += chunk.length();
+    uncompressedSize = transferredSize;
   }
 
   /**
    * Checks if all outstanding chunks have arrived. This method <b>must</b> be called after a chunk
    * has been received.
    *
-   * @return <code>true</code> if {@link #setPayload} can now be called, <code>false</code>
-   *     otherwise
+   * @return <code>true</code> if the payload is complete, <code>false</code> otherwise
    */
   boolean isLastChunk() {
     boolean last = (--chunkCount <= 0);
@@ -88,4 +157,8 @@ public final class BinaryXMPPExtension {
 
     return last;
   }
+
+  private void checkNotReleased() {
+    if (released) throw new IllegalStateException("the payload was already released");
+  }
 }
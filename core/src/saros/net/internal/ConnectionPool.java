@@ -61,6 +61,15 @@ final class ConnectionPool {
     return pool.get(id);
   }
 
+  /**
+   * Returns a snapshot of all connections in the pool.
+   *
+   * @return the connections by their id, the map is empty if the pool is closed
+   */
+  public synchronized Map<String, IByteStreamConnection> getAll() {
+    return new HashMap<String, IByteStreamConnection>(pool);
+  }
+
   /**
    * Adds the connection with the given id to the pool.
    *
@@ -0,0 +1,58 @@
+package saros.net.internal;
+
+import saros.net.stream.StreamMode;
+
+/** An immutable snapshot of the measured quality of a {@link IByteStreamConnection}. */
+public final class ConnectionQuality {
+
+  private final StreamMode mode;
+  private final long roundTripTime;
+  private final long sendRate;
+  private final long receiveRate;
+
+  /**
+   * @param mode the stream mode of the connection
+   * @param roundTripTime the round trip time in milliseconds or -1 if it is unknown
+   * @param sendRate the number of bytes per second sent since the last measurement
+   * @param receiveRate the number of bytes per second received since the last measurement
+   */
+  public ConnectionQuality(StreamMode mode, long roundTripTime, long sendRate, long receiveRate) {
+    this.mode = mode;
+    this.roundTripTime = roundTripTime;
+    this.sendRate = sendRate;
+    this.receiveRate = receiveRate;
+  }
+
+  /** Returns the stream mode of the connection. */
+  public StreamMode getMode() {
+    return mode;
+  }
+
+  /** Returns the round trip time in milliseconds or -1 if it is unknown. */
+  public long getRoundTripTime() {
+    return roundTripTime;
+  }
+
+  /** Returns the number of bytes per second sent since the last measurement. */
+  public long getSendRate() {
+    return sendRate;
+  }
+
+  /** Returns the number of bytes per second received since the last measurement. */
+  public long getReceiveRate() {
+    return receiveRate;
+  }
+
+  @Override
+  public String toString() {
+    return "[mode="
+        + mode
+        + ", rtt="
+        + roundTripTime
+        + " ms, send="
+        + sendRate
+        + " B/s, receive="
+        + receiveRate
+        + " B/s]";
+  }
+}
@@ -0,0 +1,164 @@
+package saros.net.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import saros.util.NamedThreadFactory;
+
+/**
+ * Periodically measures the round trip time and the throughput of all connections of the {@link
+ * DataTransferManager} and reports them as {@linkplain
+ * IByteStreamConnectionListener#connectionQualityChanged quality changes}.
+ *
+ * <p>Connections that do not use the best available stream mode, e.g because a direct connection
+ * could not be established at first, are upgraded in the background. Failed upgrade attempts are
+ * retried with an exponentially increasing delay.
+ */
+final class ConnectionQualityMonitor {
+
+  private static final Logger log = Logger.getLogger(ConnectionQualityMonitor.class);
+
+  private static final long INTERVAL = Long.getLong("saros.net.quality.INTERVAL", 10000L);
+
+  private static final long UPGRADE_DELAY =
+      Long.getLong("saros.net.quality.UPGRADE_DELAY", 60L * 1000L);
+
+  private static final long MAX_UPGRADE_DELAY =
+      Long.getLong("saros.net.quality.MAX_UPGRADE_DELAY", 30L * 60L * 1000L);
+
+  private static final boolean UPGRADE =
+      Boolean.parseBoolean(System.getProperty("saros.net.quality.UPGRADE", "true"));
+
+  private static final class Sample {
+    private final IByteStreamConnection connection;
+
+    private long time;
+    private long sentBytes;
+    private long receivedBytes;
+
+    private long upgradeDelay;
+    private long nextUpgrade;
+
+    private Sample(final IByteStreamConnection connection, final long time, final long delay) {
+      this.connection = connection;
+      this.time = time;
+      this.sentBytes = connection.getSentBytes();
+      this.receivedBytes = connection.getReceivedBytes();
+      this.upgradeDelay = delay;
+      this.nextUpgrade = time + delay;
+    }
+  }
+
+  private final DataTransferManager manager;
+
+  private final long upgradeDelay;
+
+  private final long maxUpgradeDelay;
+
+  /* only accessed by the monitor thread */
+  private final Map<String, Sample> samples = new HashMap<String, Sample>();
+
+  private ScheduledExecutorService executor;
+
+  ConnectionQualityMonitor(final DataTransferManager manager) {
+    this(manager, UPGRADE_DELAY, MAX_UPGRADE_DELAY);
+  }
+
+  ConnectionQualityMonitor(
+      final DataTransferManager manager, final long upgradeDelay, final long maxUpgradeDelay) {
+    this.manager = manager;
+    this.upgradeDelay = upgradeDelay;
+    this.maxUpgradeDelay = maxUpgradeDelay;
+  }
+
+  /** Starts the periodic measurement. */
+  synchronized void start() {
+    if (executor != null) return;
+
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("ConnectionQualityMonitor-"));
+
+    executor.scheduleWithFixedDelay(this::run, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the periodic measurement and aborts a running upgrade. */
+  synchronized void stop() {
+    if (executor == null) return;
+
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /** Measures all connections once and upgrades them if their next attempt is due. */
+  void run() {
+    try {
+      measure();
+    } catch (RuntimeException e) {
+      log.error("internal error while measuring the connection quality", e);
+    }
+  }
+
+  private void measure() {
+    final Map<String, IByteStreamConnection> connections = manager.getPooledConnections();
+
+    samples.keySet().retainAll(connections.keySet());
+
+    for (final Entry<String, IByteStreamConnection> entry : connections.entrySet()) {
+      final String id = entry.getKey();
+      final IByteStreamConnection connection = entry.getValue();
+
+      if (!connection.isConnected()) continue;
+
+      final long now = System.currentTimeMillis();
+
+      Sample sample = samples.get(id);
+
+      if (sample == null || sample.connection != connection) {
+        samples.put(id, new Sample(connection, now, upgradeDelay));
+        connection.measureRoundTripTime();
+        continue;
+      }
+
+      report(id, sample, now);
+
+      connection.measureRoundTripTime();
+
+      if (!UPGRADE || now < sample.nextUpgrade || !manager.isUpgradeable(id, connection)) continue;
+
+      log.debug("trying to upgrade connection [pool id=" + id + "]: " + connection);
+
+      if (manager.upgradeConnection(id, connection)) continue;
+
+      sample.nextUpgrade = System.currentTimeMillis() + sample.upgradeDelay;
+      sample.upgradeDelay = Math.min(sample.upgradeDelay * 2, maxUpgradeDelay);
+    }
+  }
+
+  private void report(final String id, final Sample sample, final long now) {
+    final IByteStreamConnection connection = sample.connection;
+
+    final long elapsed = Math.max(1, now - sample.time);
+    final long sentBytes = connection.getSentBytes();
+    final long receivedBytes = connection.getReceivedBytes();
+
+    final ConnectionQuality quality =
+        new ConnectionQuality(
+            connection.getMode(),
+            connection.getRoundTripTime(),
+            (sentBytes - sample.sentBytes) * 1000L / elapsed,
+            (receivedBytes - sample.receivedBytes) * 1000L / elapsed);
+
+    sample.time = now;
+    sample.sentBytes = sentBytes;
+    sample.receivedBytes = receivedBytes;
+
+    if (log.isTraceEnabled()) log.trace("quality of connection [pool id=" + id + "]: " + quality);
+
+    manager.notifyConnectionQualityChanged(id, connection, quality);
+  }
+}
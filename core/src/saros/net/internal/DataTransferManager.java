@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
@@ -16,6 +17,7 @@ import org.jivesoftware.smack.Connection;
 import saros.annotations.Component;
 import saros.context.IContextKeyBindings.IBBStreamService;
 import saros.context.IContextKeyBindings.Socks5StreamService;
+import saros.context.IContextKeyBindings.TCPStreamService;
 import saros.net.ConnectionState;
 import saros.net.IConnectionManager;
 import saros.net.stream.IStreamService;
@@ -50,10 +52,14 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
 
   private final IStreamService fallbackService;
 
+  private final IStreamService directService;
+
   private final Lock connectLock = new ReentrantLock();
 
   private final ConnectionPool connectionPool = new ConnectionPool();
 
+  private final ConnectionQualityMonitor qualityMonitor = new ConnectionQualityMonitor(this);
+
   private final Set<String> currentOutgoingConnectionEstablishments = new HashSet<String>();
 
   private final List<IStreamService> streamServices = new CopyOnWriteArrayList<IStreamService>();
@@ -77,6 +83,26 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
               toConnectionIDToken(
                   connectionId, incomingRequest ? IN : OUT, connection.getRemoteAddress());
 
+          if (incomingRequest) {
+            final IByteStreamConnection existing = connectionPool.get(id);
+
+            /*
+             * the remote side migrates the existing connection to the new
+             * one or aborted the migration after the new one was established
+             */
+            if (existing != null && existing.acceptSuccessor(connection)) {
+              log.debug(
+                  "bytestream connection "
+                      + connection
+                      + " was taken over by "
+                      + existing
+                      + " [pool id="
+                      + id
+                      + "]");
+              return;
+            }
+          }
+
           /// TODO we currently have to announce not initialized connections otherwise the IReceiver
           // will miss updates
 
@@ -98,7 +124,8 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
           final IByteStreamConnection current = connectionPool.add(id, connection);
 
           if (current != null) {
-            current.close();
+            if (current.getSuccessor() != connection) current.close();
+
             if (current == connection) {
               log.warn(
                   "closed connection [pool id="
@@ -125,7 +152,10 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
         @Override
         public void connectionClosed(
             final String connectionId, final IByteStreamConnection connection) {
-          closeConnection(connectionId, connection.getRemoteAddress());
+          // a migrated connection was already replaced by its successor
+          if (connection.getSuccessor() == null)
+            closeConnection(connectionId, connection.getRemoteAddress());
+
           notfiyConnectionClosed(connectionId, connection);
         }
       };
@@ -133,10 +163,12 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
   public DataTransferManager(
       XMPPConnectionService connectionService,
       @Nullable @Socks5StreamService IStreamService mainService,
-      @Nullable @IBBStreamService IStreamService fallbackService) {
+      @Nullable @IBBStreamService IStreamService fallbackService,
+      @Nullable @TCPStreamService IStreamService directService) {
 
     this.fallbackService = fallbackService;
     this.mainService = mainService;
+    this.directService = directService;
     this.setStreamServices();
 
     connectionService.addListener(this);
@@ -230,6 +262,144 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
     connectionListeners.remove(listener);
   }
 
+  /** Returns a snapshot of all pooled connections by their pool id. */
+  Map<String, IByteStreamConnection> getPooledConnections() {
+    return connectionPool.getAll();
+  }
+
+  /**
+   * Returns whether the given pooled connection can be upgraded to a connection of a better stream
+   * mode. Only the side that established a connection upgrades it.
+   */
+  boolean isUpgradeable(final String id, final IByteStreamConnection connection) {
+    return id.equals(
+            toConnectionIDToken(connection.getConnectionID(), OUT, connection.getRemoteAddress()))
+        && connection.isMigrationSupported()
+        && !getUpgradeServices(connection.getMode()).isEmpty();
+  }
+
+  /**
+   * Tries to replace the given pooled connection by a connection of a better stream mode. The
+   * connection is migrated, so no data is lost or reordered.
+   *
+   * @param id the pool id of the connection
+   * @param connection the connection to upgrade
+   * @return <code>true</code> if the connection was upgraded, <code>false</code> otherwise
+   */
+  boolean upgradeConnection(final String id, final IByteStreamConnection connection) {
+    final String connectionID = connection.getConnectionID();
+    final JID peer = connection.getRemoteAddress();
+    final StreamMode mode = connection.getMode();
+
+    final List<IStreamService> services = getUpgradeServices(mode);
+
+    if (services.isEmpty()) return false;
+
+    try {
+      connection.announceMigration();
+    } catch (IOException e) {
+      log.debug("cannot upgrade connection " + connection + ": " + e.getMessage());
+      connection.abortMigration(false);
+      return false;
+    }
+
+    IByteStreamConnection upgraded = null;
+
+    for (final IStreamService streamService : services) {
+      try {
+        upgraded = streamService.connect(connectionID, peer);
+        break;
+      } catch (IOException e) {
+        log.debug(
+            "failed to upgrade connection "
+                + connection
+                + " using stream service "
+                + streamService
+                + ": "
+                + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) {
+        log.error(
+            "failed to upgrade connection "
+                + connection
+                + " due to an internal error in stream service: "
+                + streamService,
+            e);
+      }
+    }
+
+    final boolean established = upgraded != null;
+
+    // e.g SOCKS5 may still only be able to use a mediated connection
+    if (upgraded != null && !upgraded.getMode().isBetterThan(mode)) {
+      upgraded.close();
+      upgraded = null;
+    }
+
+    if (upgraded == null) {
+      connection.abortMigration(established);
+      return false;
+    }
+
+    // the receiver must be set before the new connection starts receiving
+    notfiyconnectionChanged(id, upgraded, false);
+
+    try {
+      connection.migrateTo(upgraded);
+    } catch (IOException e) {
+      log.warn("failed to migrate connection " + connection + " to " + upgraded, e);
+      upgraded.close();
+      connection.abortMigration(true);
+      return false;
+    }
+
+    final IByteStreamConnection current = connectionPool.add(id, upgraded);
+
+    if (current == upgraded) {
+      upgraded.close();
+      return false;
+    }
+
+    if (current != null && current != connection) current.close();
+
+    log.info("upgraded connection [pool id=" + id + "] from " + mode + " to " + upgraded.getMode());
+
+    return true;
+  }
+
+  void notifyConnectionQualityChanged(
+      final String id, final IByteStreamConnection connection, final ConnectionQuality quality) {
+
+    for (final IByteStreamConnectionListener listener : connectionListeners) {
+      try {
+        listener.connectionQualityChanged(id, connection, quality);
+      } catch (RuntimeException e) {
+        log.error("invoking connectionQualityChanged() on listener: " + listener + " failed", e);
+      }
+    }
+  }
+
+  /** Returns the stream services that may provide a better stream mode than the given one. */
+  private List<IStreamService> getUpgradeServices(final StreamMode mode) {
+    final List<IStreamService> services = new ArrayList<IStreamService>();
+
+    for (final IStreamService streamService : streamServices) {
+      if (getBestMode(streamService).isBetterThan(mode)) services.add(streamService);
+    }
+
+    return services;
+  }
+
+  private StreamMode getBestMode(final IStreamService streamService) {
+    if (streamService == directService) return StreamMode.TCP;
+
+    if (streamService == mainService) return StreamMode.SOCKS5_DIRECT;
+
+    return StreamMode.IBB;
+  }
+
   private IByteStreamConnection connectInternal(String connectionID, JID peer) throws IOException {
 
     IByteStreamConnection connection = null;
@@ -316,14 +486,18 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
   private void setStreamServices() {
     boolean useIBB;
     boolean useSocks5;
+    boolean useTCP;
 
     synchronized (this) {
       useIBB = (serviceMask & IBB_SERVICE) != 0;
       useSocks5 = (serviceMask & SOCKS5_SERVICE) != 0;
+      useTCP = (serviceMask & TCP_SERVICE) != 0;
     }
 
     streamServices.clear();
 
+    if (useTCP && directService != null) streamServices.add(directService);
+
     if (useSocks5 && mainService != null) streamServices.add(mainService);
 
     if (useIBB && fallbackService != null) streamServices.add(fallbackService);
@@ -344,12 +518,16 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
 
     for (IStreamService streamService : streamServices)
       streamService.initialize(xmppConnection, byteStreamConnectionListener);
+
+    qualityMonitor.start();
   }
 
   private void disposeConnection() {
 
     currentLocalJID = null;
 
+    qualityMonitor.stop();
+
     boolean acquired = false;
 
     try {
@@ -1,6 +1,9 @@
 package saros.net.internal;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.JID;
 
@@ -29,6 +32,45 @@ public interface IByteStreamConnection {
    */
   public void send(TransferDescription data, byte[] content) throws IOException;
 
+  /**
+   * Sends the remaining bytes of the given buffer. The position of the buffer is not modified.
+   * Implementations should write the data directly from the buffer without copying it as a whole.
+   *
+   * @param data the description of the data
+   * @param content the buffer containing the data to send
+   * @throws IOException if the send failed
+   * @blocking Send the given data as a blocking operation.
+   */
+  public default void send(TransferDescription data, ByteBuffer content) throws IOException {
+    final ByteBuffer source = content.duplicate();
+    final byte[] array = new byte[source.remaining()];
+    source.get(array);
+    send(data, array);
+  }
+
+  /**
+   * Sends exactly <code>length</code> bytes read from the given channel. Implementations should
+   * read and send the data piece by piece so that it never has to be present in memory as a whole.
+   *
+   * @param data the description of the data
+   * @param source the channel to read the data from
+   * @param length the number of bytes to send
+   * @throws IOException if the send failed or the channel contains less than <code>length</code>
+   *     bytes
+   * @blocking Send the given data as a blocking operation.
+   */
+  public default void send(TransferDescription data, ReadableByteChannel source, int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+    while (buffer.hasRemaining()) {
+      if (source.read(buffer) < 0)
+        throw new EOFException("source channel contains less data than announced: " + length);
+    }
+
+    send(data, buffer.array());
+  }
+
   /**
    * Returns the connection id of this connection.
    *
@@ -38,5 +80,123 @@ public interface IByteStreamConnection {
 
   public StreamMode getMode();
 
+  /**
+   * Returns whether the remote side of this connection has announced that it is able to decode
+   * payloads of the given {@linkplain saros.net.IPacketExtensionCodec#getFormat() format}.
+   *
+   * @param format the format identifier
+   * @return <code>true</code> if the format is supported by the remote side, <code>false</code>
+   *     otherwise
+   */
+  public default boolean isFormatSupported(String format) {
+    return false;
+  }
+
   public void setBinaryXMPPExtensionReceiver(IBinaryXMPPExtensionReceiver receiver);
+
+  /** Returns the total number of payload bytes sent over this connection. */
+  public default long getSentBytes() {
+    return 0;
+  }
+
+  /** Returns the total number of payload bytes received over this connection. */
+  public default long getReceivedBytes() {
+    return 0;
+  }
+
+  /**
+   * Returns the last measured round trip time.
+   *
+   * @return the round trip time in milliseconds or -1 if it was not measured yet
+   * @see #measureRoundTripTime()
+   */
+  public default long getRoundTripTime() {
+    return -1;
+  }
+
+  /**
+   * Starts a new measurement of the round trip time. The result is available by {@link
+   * #getRoundTripTime()} once the remote side answered. Does nothing if the remote side does not
+   * support the measurement.
+   */
+  public default void measureRoundTripTime() {
+    // NOP
+  }
+
+  /**
+   * Returns whether the remote side supports the migration of this connection to another connection
+   * with the same connection id.
+   *
+   * <p>A migration is performed by the side that established the connection:
+   *
+   * <ol>
+   *   <li>{@link #announceMigration()} is called on this connection
+   *   <li>a new connection with the same connection id is established, the remote side passes it to
+   *       {@link #acceptSuccessor} of its end of this connection
+   *   <li>{@link #migrateTo} is called with the new connection or {@link #abortMigration} if the
+   *       new connection could not be established or used
+   * </ol>
+   *
+   * Data that was sent before the migration is received before any data that is sent afterwards.
+   * Both ends of this connection are closed once the migration is complete, and the remote side
+   * announces the new connection as {@linkplain IByteStreamConnectionListener#connectionChanged
+   * changed}.
+   */
+  public default boolean isMigrationSupported() {
+    return false;
+  }
+
+  /**
+   * Announces to the remote side that a new connection with the same connection id will be
+   * established to replace this connection. Blocks until the remote side confirmed the
+   * announcement.
+   *
+   * @throws IOException if the announcement could not be sent or was not confirmed in time
+   */
+  public default void announceMigration() throws IOException {
+    throw new IOException("migration is not supported by " + this);
+  }
+
+  /**
+   * Informs the remote side that the announced migration will not take place.
+   *
+   * @param successorEstablished whether the new connection was established (and closed again), the
+   *     remote side then discards it if it only arrives after the abort
+   */
+  public default void abortMigration(boolean successorEstablished) {
+    // NOP
+  }
+
+  /**
+   * Migrates this connection to the given connection. Waits until all pending sends are completed,
+   * initializes the given connection and forwards all further sends to it.
+   *
+   * @param successor the new connection, must not be initialized yet
+   * @throws IOException if the migration failed, this connection is still used in this case
+   */
+  public default void migrateTo(IByteStreamConnection successor) throws IOException {
+    throw new IOException("migration is not supported by " + this);
+  }
+
+  /**
+   * Accepts the given incoming connection as the successor of this connection if the remote side
+   * announced a migration before. Closes the given connection instead if it is the late successor
+   * of an aborted migration.
+   *
+   * @param successor the new incoming connection, it must not be initialized
+   * @return <code>true</code> if the connection was accepted or discarded, <code>false</code> if it
+   *     is no successor of this connection
+   */
+  public default boolean acceptSuccessor(IByteStreamConnection successor) {
+    return false;
+  }
+
+  /**
+   * Returns the connection this connection was migrated to.
+   *
+   * @return the successor or <code>null</code> if this connection was not migrated
+   */
+  public default IByteStreamConnection getSuccessor() {
+    return null;
+  }
 }
@@ -24,4 +24,18 @@ public interface IByteStreamConnectionListener {
       String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
     // NOP;
   }
+
+  /**
+   * Gets called periodically with the current quality of an established connection. A connection
+   * whose stream was upgraded to a better {@linkplain saros.net.stream.StreamMode mode} is
+   * announced by {@link #connectionChanged} first.
+   *
+   * @param connectionID the id of the connection
+   * @param connection the connection that was measured
+   * @param quality the measured quality
+   */
+  public default void connectionQualityChanged(
+      String connectionID, IByteStreamConnection connection, ConnectionQuality quality) {
+    // NOP;
+  }
 }
@@ -0,0 +1,365 @@
+package saros.net.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of packet extension payloads that are send over a {@link IByteStreamConnection}.
+ *
+ * <p>{@link Deflater} and {@link Inflater} instances are pooled together with a scratch buffer and
+ * reset after each use. Instances that do not fit into the pool are {@linkplain Deflater#end()
+ * ended} immediately so no native memory is left for the finalizer.
+ *
+ * <p>This class is thread safe.
+ */
+final class PayloadCompression {
+
+  /** size in bytes that a payload must exceed to be considered for compression */
+  private static final int COMPRESS_THRESHOLD =
+      Integer.getInteger("saros.net.transmitter.PACKET_EXTENSION_COMPRESS_THRESHOLD", 32);
+
+  /**
+   * size in bytes that a binary encoded payload must exceed to be considered for compression, such
+   * payloads are already compact so compressing small ones is usually not worth the CPU time
+   */
+  private static final int BINARY_COMPRESS_THRESHOLD =
+      Integer.getInteger("saros.net.transmitter.BINARY_PACKET_EXTENSION_COMPRESS_THRESHOLD", 512);
+
+  /** payloads with a higher estimated entropy (bits per byte) are considered incompressible */
+  private static final double MAX_ENTROPY = 7.5D;
+
+  /** number of bytes that are sampled to estimate the entropy of a payload */
+  private static final int ENTROPY_SAMPLE_SIZE = 4096;
+
+  /** payloads smaller than this are always compressed if they exceed the threshold */
+  private static final int ENTROPY_CHECK_MIN_SIZE = 1024;
+
+  private static final int POOL_SIZE = 8;
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+  /** scratch buffers larger than this are not kept after use */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 512 * 1024;
+
+  private static final BlockingQueue<DeflaterEntry> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  private static final BlockingQueue<InflaterEntry> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  /** deflaters producing raw deflate data without the ZLIB header and checksum */
+  private static final BlockingQueue<DeflaterEntry> rawDeflaters =
+      new ArrayBlockingQueue<>(POOL_SIZE);
+
+  /** ZLIB header (deflate, 32K window, default compression) */
+  private static final byte[] ZLIB_HEADER = {(byte) 0x78, (byte) 0x9C};
+
+  /** largest length of a stored (uncompressed) deflate block */
+  private static final int MAX_STORED_BLOCK_SIZE = 0xFFFF;
+
+  /** modulus of the Adler-32 checksum */
+  private static final int ADLER_BASE = 65521;
+
+  private static final class DeflaterEntry {
+    private final Deflater deflater;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private DeflaterEntry(boolean raw) {
+      deflater = new Deflater(Deflater.DEFLATED, raw);
+    }
+  }
+
+  /**
+   * Compressed content that can be shared by multiple payloads which only differ in a small,
+   * uncompressed header.
+   *
+   * @see PayloadCompression#deflateContent(byte[])
+   * @see PayloadCompression#deflate(byte[], DeflatedContent)
+   */
+  static final class DeflatedContent {
+    private final byte[] data;
+    private final int length;
+    private final long adler;
+
+    private DeflatedContent(byte[] data, int length, long adler) {
+      this.data = data;
+      this.length = length;
+      this.adler = adler;
+    }
+  }
+
+  private static final class InflaterEntry {
+    private final Inflater inflater = new Inflater();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  }
+
+  private PayloadCompression() {
+    // NOP
+  }
+
+  /**
+   * Decides if the given payload should be compressed before it is sent. Payloads that are too
+   * small or look already compressed (e.g. archives or images) are not compressed.
+   *
+   * @param description the transfer description of the payload
+   * @param payload the payload
+   * @return <code>true</code> if the payload should be compressed, <code>false</code> otherwise
+   */
+  static boolean shouldCompress(final TransferDescription description, final byte[] payload) {
+    final int threshold =
+        description.binaryEncodedContent() ? BINARY_COMPRESS_THRESHOLD : COMPRESS_THRESHOLD;
+
+    if (payload.length <= threshold) return false;
+
+    if (payload.length < ENTROPY_CHECK_MIN_SIZE) return true;
+
+    return estimateEntropy(payload) <= MAX_ENTROPY;
+  }
+
+  /**
+   * Compresses the given data.
+   *
+   * @param input the data to compress
+   * @return the compressed data
+   */
+  static byte[] deflate(final byte[] input) {
+    return deflate(deflaters, false, input);
+  }
+
+  /**
+   * Compresses the given content so it can be combined with different headers by {@link
+   * #deflate(byte[], DeflatedContent)} without compressing the content again.
+   *
+   * @param content the content to compress
+   * @return the compressed content
+   */
+  static DeflatedContent deflateContent(final byte[] content) {
+    final Adler32 adler = new Adler32();
+    adler.update(content);
+
+    return new DeflatedContent(
+        deflate(rawDeflaters, true, content), content.length, adler.getValue());
+  }
+
+  /**
+   * Creates the compressed representation of the given header followed by the given content. The
+   * result is equal to <code>deflate(header + content)</code> in the sense that it inflates to the
+   * same data. The header is stored uncompressed, so the costs of this method do not depend on the
+   * size of the content.
+   *
+   * @param header the header, should be small
+   * @param content the compressed content
+   * @return the compressed data
+   */
+  static byte[] deflate(final byte[] header, final DeflatedContent content) {
+    final int storedBlocks = (header.length + MAX_STORED_BLOCK_SIZE - 1) / MAX_STORED_BLOCK_SIZE;
+
+    final byte[] result =
+        new byte[ZLIB_HEADER.length + storedBlocks * 5 + header.length + content.data.length + 4];
+
+    System.arraycopy(ZLIB_HEADER, 0, result, 0, ZLIB_HEADER.length);
+
+    int position = ZLIB_HEADER.length;
+
+    /*
+     * stored blocks are byte aligned and start with a zero byte (not final,
+     * no compression) followed by the length and its complement (little
+     * endian), the raw deflate data of the content provides the final block
+     */
+    for (int offset = 0; offset < header.length; offset += MAX_STORED_BLOCK_SIZE) {
+      final int length = Math.min(MAX_STORED_BLOCK_SIZE, header.length - offset);
+
+      result[position++] = 0;
+      result[position++] = (byte) length;
+      result[position++] = (byte) (length >>> 8);
+      result[position++] = (byte) ~length;
+      result[position++] = (byte) (~length >>> 8);
+
+      System.arraycopy(header, offset, result, position, length);
+      position += length;
+    }
+
+    System.arraycopy(content.data, 0, result, position, content.data.length);
+    position += content.data.length;
+
+    final Adler32 adler = new Adler32();
+    adler.update(header);
+
+    final long checksum = combineAdler(adler.getValue(), content.adler, content.length);
+
+    result[position++] = (byte) (checksum >>> 24);
+    result[position++] = (byte) (checksum >>> 16);
+    result[position++] = (byte) (checksum >>> 8);
+    result[position] = (byte) checksum;
+
+    return result;
+  }
+
+  private static byte[] deflate(
+      final BlockingQueue<DeflaterEntry> pool, final boolean raw, final byte[] input) {
+    DeflaterEntry entry = pool.poll();
+
+    if (entry == null) entry = new DeflaterEntry(raw);
+
+    try {
+      final Deflater deflater = entry.deflater;
+
+      deflater.setInput(input);
+      deflater.finish();
+
+      int length = 0;
+
+      while (!deflater.finished()) {
+        if (length == entry.buffer.length)
+          entry.buffer = Arrays.copyOf(entry.buffer, entry.buffer.length * 2);
+
+        length += deflater.deflate(entry.buffer, length, entry.buffer.length - length);
+      }
+
+      return Arrays.copyOf(entry.buffer, length);
+    } finally {
+      entry.deflater.reset();
+
+      if (entry.buffer.length > MAX_RETAINED_BUFFER_SIZE)
+        entry.buffer = new byte[INITIAL_BUFFER_SIZE];
+
+      if (!pool.offer(entry)) entry.deflater.end();
+    }
+  }
+
+  /**
+   * Decompresses the given data.
+   *
+   * @param input the data to decompress
+   * @return the decompressed data
+   * @throws IOException if the data is not in the deflate format
+   */
+  static byte[] inflate(final byte[] input) throws IOException {
+    InflaterEntry entry = inflaters.poll();
+
+    if (entry == null) entry = new InflaterEntry();
+
+    try {
+      final Inflater inflater = entry.inflater;
+
+      inflater.setInput(input);
+
+      int length = 0;
+
+      while (!inflater.finished()) {
+        if (length == entry.buffer.length)
+          entry.buffer = Arrays.copyOf(entry.buffer, entry.buffer.length * 2);
+
+        final int count = inflater.inflate(entry.buffer, length, entry.buffer.length - length);
+
+        if (count == 0
+            && !inflater.finished()
+            && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new IOException("failed to inflate data, input is truncated");
+
+        length += count;
+      }
+
+      return Arrays.copyOf(entry.buffer, length);
+    } catch (DataFormatException e) {
+      throw new IOException("failed to inflate data", e);
+    } finally {
+      release(entry);
+    }
+  }
+
+  /**
+   * Returns a stream that decompresses the data of the given stream while it is read. The stream
+   * <b>must</b> be closed after use.
+   *
+   * @param input the stream containing the compressed data
+   * @return a stream providing the decompressed data
+   */
+  static InputStream inflate(final InputStream input) {
+    final InflaterEntry polledEntry = inflaters.poll();
+
+    final InflaterEntry entry = polledEntry != null ? polledEntry : new InflaterEntry();
+
+    return new InflaterInputStream(input, entry.inflater, STREAM_BUFFER_SIZE) {
+
+      private boolean released;
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          if (!released) {
+            released = true;
+            release(entry);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Computes the Adler-32 checksum of two concatenated data blocks out of the checksums of the
+   * blocks, see <code>adler32_combine</code> of the ZLIB library.
+   */
+  private static long combineAdler(final long adler1, final long adler2, final long length2) {
+    final long remainder = length2 % ADLER_BASE;
+
+    long sum1 = adler1 & 0xFFFF;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+
+    sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+    sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+
+    if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+    if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+    if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+    if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+
+    return sum1 | (sum2 << 16);
+  }
+
+  private static void release(final InflaterEntry entry) {
+    entry.inflater.reset();
+
+    if (entry.buffer.length > MAX_RETAINED_BUFFER_SIZE)
+      entry.buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    if (!inflaters.offer(entry)) entry.inflater.end();
+  }
+
+  /**
+   * Estimates the Shannon entropy of the given data in bits per byte by sampling up to {@value
+   * #ENTROPY_SAMPLE_SIZE} bytes spread over the whole data.
+   */
+  static double estimateEntropy(final byte[] data) {
+    if (data.length == 0) return 0D;
+
+    final int[] counts = new int[256];
+
+    final int step = Math.max(1, data.length / ENTROPY_SAMPLE_SIZE);
+
+    int samples = 0;
+
+    for (int i = 0; i < data.length; i += step, samples++) counts[data[i] & 0xFF]++;
+
+    double entropy = 0D;
+
+    for (final int count : counts) {
+      if (count == 0) continue;
+
+      final double p = (double) count / samples;
+      entropy -= p * Math.log(p);
+    }
+
+    return entropy / Math.log(2);
+  }
+}
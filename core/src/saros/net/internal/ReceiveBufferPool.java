@@ -0,0 +1,153 @@
+package saros.net.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycled memory for the data chunks that are received by a {@link BinaryChannelConnection}.
+ *
+ * <p>Chunks are carved out of large slabs one after another, so many small payloads share one slab
+ * instead of allocating an array each. A slab counts the buffers that were carved out of it and
+ * returns to a pool that is shared by all connections once all of them are {@linkplain
+ * Buffer#release() released} and the slab is full. Buffers that are never released are simply
+ * reclaimed by the garbage collector together with their slab.
+ *
+ * <p>Buffers must be allocated by one thread only, e.g the receiver thread of a connection. They
+ * can be released by any thread.
+ */
+final class ReceiveBufferPool {
+
+  /** size of a slab, must be larger than the largest chunk */
+  static final int SLAB_SIZE = 64 * 1024;
+
+  /** maximum number of free slabs that are kept for reuse */
+  private static final int POOL_SIZE = Integer.getInteger("saros.net.receive.SLAB_POOL_SIZE", 32);
+
+  private static final BlockingQueue<Slab> SHARED_SLABS =
+      new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+
+  static final class Slab {
+    private final byte[] data = new byte[SLAB_SIZE];
+
+    private final BlockingQueue<Slab> pool;
+
+    /* the allocator holds one reference as long as it carves buffers out of the slab */
+    private final AtomicInteger references = new AtomicInteger();
+
+    private int position;
+
+    private Slab(final BlockingQueue<Slab> pool) {
+      this.pool = pool;
+    }
+
+    private void release() {
+      if (references.decrementAndGet() != 0) return;
+
+      position = 0;
+      pool.offer(this);
+    }
+  }
+
+  /** A part of a slab containing one chunk of received data. */
+  static final class Buffer {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Buffer(final Slab slab, final int offset, final int length) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** Returns the array backing this buffer, the data starts at {@link #offset()}. */
+    byte[] array() {
+      return slab.data;
+    }
+
+    int offset() {
+      return offset;
+    }
+
+    int length() {
+      return length;
+    }
+
+    /** Returns a stream reading the content of this buffer without copying it. */
+    InputStream asInputStream() {
+      return new ByteArrayInputStream(slab.data, offset, length);
+    }
+
+    /**
+     * Releases this buffer. Its content <b>must not</b> be accessed afterwards, as the memory may
+     * already be reused for other data. Releasing a buffer more than once has no effect, even if it
+     * is released by multiple threads concurrently.
+     */
+    void release() {
+      if (released.compareAndSet(false, true)) slab.release();
+    }
+  }
+
+  private final BlockingQueue<Slab> slabs;
+
+  private Slab current;
+
+  /** Creates an allocator that uses the slabs shared by all connections. */
+  ReceiveBufferPool() {
+    this(SHARED_SLABS);
+  }
+
+  /**
+   * Creates an allocator that uses the given pool of slabs.
+   *
+   * @param slabs the free slabs, released slabs are added if it has remaining capacity
+   */
+  ReceiveBufferPool(final BlockingQueue<Slab> slabs) {
+    this.slabs = slabs;
+  }
+
+  /**
+   * Returns a buffer of the given length. The content of the buffer is undefined.
+   *
+   * @param length the length of the buffer, must not exceed {@link #SLAB_SIZE}
+   * @return a buffer of the given length
+   */
+  Buffer allocate(final int length) {
+    if (length < 0 || length > SLAB_SIZE)
+      throw new IllegalArgumentException("invalid buffer length: " + length);
+
+    if (current == null || SLAB_SIZE - current.position < length) {
+      if (current != null) current.release();
+
+      current = slabs.poll();
+
+      if (current == null) current = new Slab(slabs);
+
+      current.references.set(1);
+    }
+
+    final Buffer buffer = new Buffer(current, current.position, length);
+
+    current.references.incrementAndGet();
+    current.position += length;
+
+    return buffer;
+  }
+
+  /**
+   * Stops using the current slab, it returns to the pool once all of its buffers were released.
+   * Further allocations will use another slab.
+   */
+  void dispose() {
+    if (current == null) return;
+
+    current.release();
+    current = null;
+  }
+}
@@ -25,6 +25,12 @@ public class TransferDescription {
   /** Field used to indicate that the payload may be compressed. */
   private boolean compress;
 
+  /**
+   * Field used to indicate that the payload was encoded by a {@link
+   * saros.net.IPacketExtensionCodec} instead of being serialized as XML.
+   */
+  private boolean binaryEncoded;
+
   public static TransferDescription newDescription() {
     return new TransferDescription();
   }
@@ -74,6 +80,15 @@ public class TransferDescription {
     return compress;
   }
 
+  TransferDescription setBinaryEncodedContent(boolean binaryEncoded) {
+    this.binaryEncoded = binaryEncoded;
+    return this;
+  }
+
+  public boolean binaryEncodedContent() {
+    return binaryEncoded;
+  }
+
   @Override
   public String toString() {
     return "TransferDescription [elementName="
@@ -86,6 +101,8 @@ public class TransferDescription {
         + sender
         + ", compress="
         + compress
+        + ", binaryEncoded="
+        + binaryEncoded
         + "]";
   }
 }
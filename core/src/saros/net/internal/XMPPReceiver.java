@@ -1,15 +1,15 @@
 package saros.net.internal;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.PacketListener;
@@ -21,27 +21,38 @@ import org.jivesoftware.smack.provider.PacketExtensionProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.xmlpull.mxp1.MXParser;
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
 import saros.net.DispatchThreadContext;
+import saros.net.IPacketExtensionCodec;
 import saros.net.IPacketInterceptor;
 import saros.net.IReceiver;
 import saros.net.ITransferListener;
 import saros.net.PacketCollector;
 import saros.net.PacketCollector.CancelHook;
+import saros.net.PacketExtensionCodecManager;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.IConnectionListener;
 import saros.net.xmpp.XMPPConnectionService;
+import saros.repackaged.picocontainer.Disposable;
+import saros.util.ReceiveDispatcher;
 
 @Component(module = "net")
-public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
+public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver, Disposable {
 
   private static final Logger log = Logger.getLogger(XMPPReceiver.class);
 
-  private static final int CHUNKSIZE = 16 * 1024;
+  private static final int DISPATCH_WORKER_COUNT =
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  /** Queue depth at which a (repeating) warning about the receive backlog is logged. */
+  private static final int BACKLOG_WARNING_THRESHOLD = 256;
 
   private final DispatchThreadContext dispatchThreadContext;
 
+  private final ReceiveDispatcher receiveDispatcher;
+
   private final Map<PacketListener, PacketFilter> listeners =
       Collections.synchronizedMap(new HashMap<PacketListener, PacketFilter>());
 
@@ -51,7 +62,7 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
   private final CopyOnWriteArrayList<IPacketInterceptor> packetInterceptors =
       new CopyOnWriteArrayList<>();
 
-  private XmlPullParser parser;
+  private final ThreadLocal<XmlPullParser> parser = ThreadLocal.withInitial(MXParser::new);
 
   private final PacketListener smackPacketListener =
       new PacketListener() {
@@ -86,7 +97,11 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       DataTransferManager dataTransferManager) {
 
     this.dispatchThreadContext = dispatchThreadContext;
-    this.parser = new MXParser();
+    this.receiveDispatcher =
+        new ReceiveDispatcher(
+            "XMPPReceiver-Dispatch",
+            DISPATCH_WORKER_COUNT,
+            dispatchThreadContext::executeAsDispatch);
 
     connectionService.addListener(connectionListener);
     dataTransferManager.addConnectionListener(
@@ -96,7 +111,8 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
               final String connectionId,
               final IByteStreamConnection connection,
               final boolean incomingRequest) {
-            connection.setBinaryXMPPExtensionReceiver(XMPPReceiver.this);
+            connection.setBinaryXMPPExtensionReceiver(
+                (extension) -> receive(connectionId, extension));
           }
         });
   }
@@ -160,17 +176,38 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   @Override
   public void receive(BinaryXMPPExtension extension) {
-    dispatchThreadContext.executeAsDispatch(
-        new Runnable() {
+    receive(null, extension);
+  }
 
-          @Override
-          public void run() {
+  @Override
+  public void dispose() {
+    receiveDispatcher.shutdown();
+  }
 
-            Packet packet = convertBinaryXMPPExtension(extension);
+  /**
+   * Returns the dispatcher that is used to process received {@link BinaryXMPPExtension}s. Only
+   * intended to monitor the receive backlog.
+   *
+   * @return the receive dispatcher
+   */
+  public ReceiveDispatcher getReceiveDispatcher() {
+    return receiveDispatcher;
+  }
 
-            if (packet != null) forwardPacket(packet);
-          }
-        });
+  /**
+   * Decompresses and deserializes the given extension on a worker thread and afterwards dispatches
+   * it in the Dispatch Thread. Extensions of the same sender received over the same connection are
+   * dispatched in the order they were received.
+   */
+  private void receive(final String connectionID, final BinaryXMPPExtension extension) {
+    final String key = extension.getTransferDescription().getSender() + "/" + connectionID;
+
+    receiveDispatcher.submit(key, () -> convertBinaryXMPPExtension(extension), this::forwardPacket);
+
+    final int queueDepth = receiveDispatcher.getQueueDepth();
+
+    if (queueDepth > 0 && queueDepth % BACKLOG_WARNING_THRESHOLD == 0)
+      log.warn("receive backlog is growing: " + receiveDispatcher);
   }
 
   /**
@@ -198,8 +235,8 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
    * Deserializes the payload of an {@link BinaryXMPPExtension} back to its original {@link
    * PacketExtension} and returns a new packet containing the deserialized packet extension.
    *
-   * <p>This method is <b>not</b> thread safe and <b>must not</b> accessed by multiple threads
-   * concurrently.
+   * <p>This method may be called by multiple threads concurrently but <b>must not</b> be called
+   * concurrently for the same sender.
    */
   private Packet convertBinaryXMPPExtension(BinaryXMPPExtension extension) {
 
@@ -208,6 +245,7 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
     for (IPacketInterceptor packetInterceptor : packetInterceptors)
       dispatchPacket &= packetInterceptor.receivedPacket(extension);
 
+    /* an interceptor may keep the extension to dispatch it later, so it must not be released */
     if (!dispatchPacket) return null;
 
     if (log.isTraceEnabled())
@@ -222,18 +260,35 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
               + extension.getTransferMode()
               + "]");
 
-    if (extension.getTransferDescription().compressContent()) {
-      byte[] payload = extension.getPayload();
-      long compressedPayloadLength = payload.length;
+    final TransferDescription description = extension.getTransferDescription();
 
-      try {
-        payload = inflate(payload);
-      } catch (IOException e) {
-        log.error("could not decompress extension payload", e);
-        return null;
-      }
+    /*
+     * the payload is read as a stream to avoid assembling large payloads in
+     * one contiguous array
+     */
+    final InputStream payloadStream =
+        description.compressContent()
+            ? PayloadCompression.inflate(extension.getPayloadInputStream())
+            : extension.getPayloadInputStream();
+
+    final PacketExtension packetExtension;
+
+    try (final CountingInputStream payload = new CountingInputStream(payloadStream)) {
 
-      extension.setPayload(compressedPayloadLength, payload);
+      if (description.binaryEncodedContent())
+        packetExtension = decodeExtension(description, IOUtils.toByteArray(payload));
+      else packetExtension = parseExtension(description, payload);
+
+      // consume the rest of the payload, the statistics need the uncompressed size
+      IOUtils.copyLarge(payload, new NullOutputStream());
+
+      extension.setUncompressedSize(payload.getByteCount());
+    } catch (IOException e) {
+      log.error("could not read extension payload", e);
+      return null;
+    } finally {
+      // the payload is consumed, its buffers can be reused for the next incoming data
+      extension.release();
     }
 
     notifyDataReceived(
@@ -242,7 +297,23 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
         extension.getUncompressedSize(),
         extension.getTransferDuration());
 
-    TransferDescription description = extension.getTransferDescription();
+    if (packetExtension == null) return null;
+
+    Packet packet = new Message();
+    packet.setPacketID(Packet.ID_NOT_AVAILABLE);
+    packet.setFrom(description.getSender().toString());
+    packet.setTo(description.getRecipient().toString());
+    packet.addExtension(packetExtension);
+
+    return packet;
+  }
+
+  /**
+   * Parses the XML payload of a packet extension using the installed Smack provider.
+   *
+   * @return the packet extension or <code>null</code> if the payload could not be parsed
+   */
+  private PacketExtension parseExtension(TransferDescription description, InputStream payload) {
 
     String name = description.getElementName();
     String namespace = description.getNamespace();
@@ -262,31 +333,61 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       return null;
     }
 
-    PacketExtension packetExtension = null;
+    final XmlPullParser xmlParser = parser.get();
 
     try {
-      parser.setInput(new ByteArrayInputStream(extension.getPayload()), "UTF-8");
+      xmlParser.setInput(payload, "UTF-8");
       /*
        * We have to skip the empty start tag because Smack expects a
        * parser that already has started parsing.
        */
-      parser.next();
-      packetExtension = provider.parseExtension(parser);
+      xmlParser.next();
+      return provider.parseExtension(xmlParser);
     } catch (Exception e) {
       log.error("could not deserialize transfer object payload: " + e.getMessage(), e);
 
       // just to be safe
-      parser = new MXParser();
+      parser.remove();
       return null;
+    } finally {
+      // do not keep a reference to the payload
+      try {
+        xmlParser.setInput(null);
+      } catch (XmlPullParserException e) {
+        parser.remove();
+      }
     }
+  }
 
-    Packet packet = new Message();
-    packet.setPacketID(Packet.ID_NOT_AVAILABLE);
-    packet.setFrom(description.getSender().toString());
-    packet.setTo(description.getRecipient().toString());
-    packet.addExtension(packetExtension);
+  /**
+   * Decodes the binary payload of a packet extension using the registered codec.
+   *
+   * @return the packet extension or <code>null</code> if the payload could not be decoded
+   */
+  private PacketExtension decodeExtension(TransferDescription description, byte[] payload) {
 
-    return packet;
+    String name = description.getElementName();
+    String namespace = description.getNamespace();
+
+    IPacketExtensionCodec codec =
+        PacketExtensionCodecManager.getInstance().getCodec(name, namespace);
+
+    if (codec == null) {
+      log.warn(
+          "could not decode transfer object because no codec with namespace '"
+              + namespace
+              + "' and element name '"
+              + name
+              + "' is registered");
+      return null;
+    }
+
+    try {
+      return codec.decode(payload);
+    } catch (IOException | RuntimeException e) {
+      log.error("could not decode transfer object payload: " + e.getMessage(), e);
+      return null;
+    }
   }
 
   private void notifyDataReceived(
@@ -303,25 +404,4 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       }
     }
   }
-
-  private static byte[] inflate(byte[] input) throws IOException {
-
-    ByteArrayOutputStream bos;
-    Inflater decompressor = new Inflater();
-
-    decompressor.setInput(input, 0, input.length);
-    bos = new ByteArrayOutputStream(input.length);
-
-    byte[] buf = new byte[CHUNKSIZE];
-
-    try {
-      while (!decompressor.finished()) {
-        int count = decompressor.inflate(buf);
-        bos.write(buf, 0, count);
-      }
-      return bos.toByteArray();
-    } catch (DataFormatException e) {
-      throw new IOException("failed to inflate data", e);
-    }
-  }
 }
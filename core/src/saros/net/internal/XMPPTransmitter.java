@@ -1,9 +1,10 @@
 package saros.net.internal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.zip.Deflater;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.packet.Message;
@@ -11,9 +12,11 @@ import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
+import saros.net.IPacketExtensionCodec;
 import saros.net.IPacketInterceptor;
 import saros.net.ITransferListener;
 import saros.net.ITransmitter;
+import saros.net.PacketExtensionCodecManager;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.IConnectionListener;
 import saros.net.xmpp.JID;
@@ -28,12 +31,6 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
   private static final Logger log = Logger.getLogger(XMPPTransmitter.class);
 
-  /** size in bytes that a packet extension must exceed to be compressed */
-  private static final int PACKET_EXTENSION_COMPRESS_THRESHOLD =
-      Integer.getInteger("saros.net.transmitter.PACKET_EXTENSION_COMPRESS_THRESHOLD", 32);
-
-  private static final int CHUNKSIZE = 16 * 1024;
-
   private final DataTransferManager dataManager;
 
   private Connection connection;
@@ -60,44 +57,92 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
   public void send(String connectionID, JID recipient, PacketExtension extension)
       throws IOException {
 
-    boolean sendPacket = true;
+    if (!interceptSend(connectionID, recipient, extension)) return;
 
-    for (IPacketInterceptor packetInterceptor : packetInterceptors)
-      sendPacket &= packetInterceptor.sendPacket(connectionID, recipient, extension);
+    sendExtension(getConnection(connectionID, recipient), recipient, extension);
+  }
 
-    if (!sendPacket) return;
+  /**
+   * Sends the extension to the recipient over the given connection. The packet interceptors are
+   * <b>not</b> called, this must be done by the caller.
+   */
+  private void sendExtension(
+      final IByteStreamConnection connection, final JID recipient, final PacketExtension extension)
+      throws IOException {
 
-    final JID currentLocalJid = localJid;
+    final TransferDescription transferDescription = createDescription(recipient, extension);
 
-    if (currentLocalJid == null) throw new IOException("not connected to a XMPP server");
+    byte[] data = encode(connection, extension);
 
-    IByteStreamConnection connection = dataManager.getConnection(connectionID, recipient);
+    if (data != null) transferDescription.setBinaryEncodedContent(true);
+    else data = extension.toXML().getBytes("UTF-8");
 
-    if (connectionID != null && connection == null)
-      throw new IOException(
-          "not connected to " + recipient + " [connection identifier=" + connectionID + "]");
+    if (PayloadCompression.shouldCompress(transferDescription, data))
+      transferDescription.setCompressContent(true);
 
-    if (connection == null) connection = dataManager.connect(recipient);
+    sendPacketExtension(connection, transferDescription, data);
+  }
 
-    /*
-     * The TransferDescription can be created out of the session, the name
-     * and namespace of the packet extension and standard values and thus
-     * transparent to users of this method.
-     */
-    final TransferDescription transferDescription =
-        TransferDescription.newDescription()
-            .setSender(currentLocalJid)
-            .setRecipient(recipient)
-            .setElementName(extension.getElementName())
-            .setNamespace(extension.getNamespace());
-
-    byte[] data = extension.toXML().getBytes("UTF-8");
-
-    if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD) {
-      transferDescription.setCompressContent(true);
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the extensions can be encoded in parts by their codec, the content is encoded and
+   * compressed only once for all recipients that support the format of the codec. Only the header
+   * is encoded for every recipient. Recipients that do not support the format receive the
+   * extensions as XML.
+   */
+  @Override
+  public Map<JID, IOException> send(String connectionID, Map<JID, PacketExtension> extensions) {
+
+    final Map<JID, IOException> failures = new HashMap<>();
+
+    SharedContent sharedContent = null;
+
+    for (final Entry<JID, PacketExtension> entry : extensions.entrySet()) {
+      final JID recipient = entry.getKey();
+      final PacketExtension extension = entry.getValue();
+
+      try {
+        if (!interceptSend(connectionID, recipient, extension)) continue;
+
+        final IByteStreamConnection connection = getConnection(connectionID, recipient);
+
+        final IPacketExtensionCodec codec = getCodec(connection, extension);
+
+        final byte[] header = codec == null ? null : encodeHeader(codec, extension);
+
+        if (header != null && sharedContent == null)
+          sharedContent = SharedContent.create(codec, extension);
+
+        if (header == null || sharedContent == null || !sharedContent.isEncoded()) {
+          sendExtension(connection, recipient, extension);
+          continue;
+        }
+
+        final TransferDescription transferDescription =
+            createDescription(recipient, extension).setBinaryEncodedContent(true);
+
+        final long sizeUncompressed = header.length + sharedContent.content.length;
+
+        final byte[] payload;
+
+        if (sharedContent.compressedContent != null) {
+          transferDescription.setCompressContent(true);
+          payload = PayloadCompression.deflate(header, sharedContent.compressedContent);
+        } else {
+          payload = new byte[header.length + sharedContent.content.length];
+          System.arraycopy(header, 0, payload, 0, header.length);
+          System.arraycopy(
+              sharedContent.content, 0, payload, header.length, sharedContent.content.length);
+        }
+
+        transmit(connection, transferDescription, payload, sizeUncompressed);
+      } catch (IOException e) {
+        failures.put(recipient, e);
+      }
     }
 
-    sendPacketExtension(connection, transferDescription, data);
+    return failures;
   }
 
   @Override
@@ -180,19 +225,29 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
       final IByteStreamConnection connection, final TransferDescription description, byte[] payload)
       throws IOException {
 
+    final long sizeUncompressed = payload.length;
+
+    if (description.compressContent()) payload = PayloadCompression.deflate(payload);
+
+    transmit(connection, description, payload, sizeUncompressed);
+  }
+
+  private void transmit(
+      final IByteStreamConnection connection,
+      final TransferDescription description,
+      final byte[] payload,
+      final long sizeUncompressed)
+      throws IOException {
+
     if (log.isTraceEnabled())
       log.trace(
           "send "
               + description
               + ", data len="
-              + payload.length
+              + sizeUncompressed
               + " byte(s), connection="
               + connection);
 
-    long sizeUncompressed = payload.length;
-
-    if (description.compressContent()) payload = deflate(payload);
-
     final long transferStartTime = System.currentTimeMillis();
 
     try {
@@ -210,6 +265,52 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
         System.currentTimeMillis() - transferStartTime);
   }
 
+  private boolean interceptSend(
+      final String connectionID, final JID recipient, final PacketExtension extension) {
+
+    boolean sendPacket = true;
+
+    for (IPacketInterceptor packetInterceptor : packetInterceptors)
+      sendPacket &= packetInterceptor.sendPacket(connectionID, recipient, extension);
+
+    return sendPacket;
+  }
+
+  private IByteStreamConnection getConnection(final String connectionID, final JID recipient)
+      throws IOException {
+
+    if (localJid == null) throw new IOException("not connected to a XMPP server");
+
+    IByteStreamConnection connection = dataManager.getConnection(connectionID, recipient);
+
+    if (connectionID != null && connection == null)
+      throw new IOException(
+          "not connected to " + recipient + " [connection identifier=" + connectionID + "]");
+
+    if (connection == null) connection = dataManager.connect(recipient);
+
+    return connection;
+  }
+
+  /*
+   * The TransferDescription can be created out of the session, the name and
+   * namespace of the packet extension and standard values and thus
+   * transparent to users of this class.
+   */
+  private TransferDescription createDescription(
+      final JID recipient, final PacketExtension extension) throws IOException {
+
+    final JID currentLocalJid = localJid;
+
+    if (currentLocalJid == null) throw new IOException("not connected to a XMPP server");
+
+    return TransferDescription.newDescription()
+        .setSender(currentLocalJid)
+        .setRecipient(recipient)
+        .setElementName(extension.getElementName())
+        .setNamespace(extension.getNamespace());
+  }
+
   private void notifyDataSent(
       final StreamMode mode,
       final long sizeCompressed,
@@ -225,21 +326,98 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
     }
   }
 
-  private static byte[] deflate(byte[] input) {
+  /**
+   * Returns the codec of the given packet extension if the remote side of the connection supports
+   * the format of that codec.
+   *
+   * @return the codec or <code>null</code> if the packet extension must be send as XML
+   */
+  private static IPacketExtensionCodec getCodec(
+      final IByteStreamConnection connection, final PacketExtension extension) {
+
+    final IPacketExtensionCodec codec =
+        PacketExtensionCodecManager.getInstance()
+            .getCodec(extension.getElementName(), extension.getNamespace());
+
+    if (codec == null || !connection.isFormatSupported(codec.getFormat())) return null;
+
+    return codec;
+  }
+
+  /**
+   * Encodes the given packet extension with its registered codec if the remote side of the
+   * connection supports the format of that codec.
+   *
+   * @return the encoded packet extension or <code>null</code> if the packet extension must be send
+   *     as XML
+   */
+  private static byte[] encode(
+      final IByteStreamConnection connection, final PacketExtension extension) {
+
+    final IPacketExtensionCodec codec = getCodec(connection, extension);
+
+    if (codec == null) return null;
+
+    try {
+      return codec.encode(extension);
+    } catch (RuntimeException e) {
+      log.error("codec " + codec.getFormat() + " failed to encode extension, using XML instead", e);
+      return null;
+    }
+  }
+
+  private static byte[] encodeHeader(
+      final IPacketExtensionCodec codec, final PacketExtension extension) {
+    try {
+      return codec.encodeHeader(extension);
+    } catch (RuntimeException e) {
+      log.error("codec " + codec.getFormat() + " failed to encode extension header", e);
+      return null;
+    }
+  }
+
+  /**
+   * Content of packet extensions that is encoded and, if worthwhile, compressed only once for all
+   * recipients.
+   */
+  private static final class SharedContent {
 
-    Deflater compressor = new Deflater(Deflater.DEFLATED);
-    compressor.setInput(input);
-    compressor.finish();
+    private static final SharedContent NOT_ENCODED = new SharedContent(null, null);
 
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
+    private final byte[] content;
 
-    byte[] buf = new byte[CHUNKSIZE];
+    private final PayloadCompression.DeflatedContent compressedContent;
 
-    while (!compressor.finished()) {
-      int count = compressor.deflate(buf);
-      bos.write(buf, 0, count);
+    private SharedContent(
+        final byte[] content, final PayloadCompression.DeflatedContent compressedContent) {
+      this.content = content;
+      this.compressedContent = compressedContent;
     }
 
-    return bos.toByteArray();
+    private boolean isEncoded() {
+      return content != null;
+    }
+
+    private static SharedContent create(
+        final IPacketExtensionCodec codec, final PacketExtension extension) {
+
+      final byte[] content;
+
+      try {
+        content = codec.encodeContent(extension);
+      } catch (RuntimeException e) {
+        log.error("codec " + codec.getFormat() + " failed to encode extension content", e);
+        return NOT_ENCODED;
+      }
+
+      if (content == null) return NOT_ENCODED;
+
+      final boolean compress =
+          PayloadCompression.shouldCompress(
+              TransferDescription.newDescription().setBinaryEncodedContent(true), content);
+
+      return new SharedContent(
+          content, compress ? PayloadCompression.deflateContent(content) : null);
+    }
   }
 }
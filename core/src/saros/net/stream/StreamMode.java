@@ -1,5 +1,6 @@
 package saros.net.stream;
 
+/** The stream modes a connection can use, ordered from the worst to the best mode. */
 public enum StreamMode {
   NONE("UNKNOWN"),
   IBB("IBB"),
@@ -13,6 +14,18 @@ public enum StreamMode {
     this.name = name;
   }
 
+  /**
+   * Returns whether this mode offers a better connection (lower latency or higher throughput) than
+   * the given mode.
+   *
+   * @param mode the mode to compare with
+   * @return <code>true</code> if this mode is better than the given one, <code>false</code>
+   *     otherwise
+   */
+  public boolean isBetterThan(StreamMode mode) {
+    return compareTo(mode) > 0;
+  }
+
   @Override
   public String toString() {
     return name;
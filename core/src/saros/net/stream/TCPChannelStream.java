@@ -0,0 +1,332 @@
+package saros.net.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Byte stream over a non-blocking socket channel that is served by a {@link TCPSelector}.
+ *
+ * <p>The selector thread reads incoming data into a receive buffer and writes outgoing data from a
+ * send buffer. If the receive buffer is full the selector stops reading from the channel until the
+ * buffer is drained, letting TCP flow control throttle the remote side. If the send buffer is full
+ * writing to the stream blocks until the selector could write data to the channel. Writes bypass
+ * the send buffer as long as the channel accepts the data.
+ */
+final class TCPChannelStream implements ByteStream {
+
+  private static final long CLOSE_TIMEOUT = 5000;
+
+  private final TCPSelector selector;
+
+  private final SocketChannel channel;
+
+  /** incoming data, kept in write mode */
+  private final ByteBuffer receiveBuffer;
+
+  /** outgoing data, kept in write mode */
+  private final ByteBuffer sendBuffer;
+
+  private final Object readLock = new Object();
+
+  private final Object writeLock = new Object();
+
+  private final InputStream in = new ChannelInputStream();
+
+  private final OutputStream out = new ChannelOutputStream();
+
+  /** guarded by readLock */
+  private boolean readSuspended;
+
+  /** guarded by readLock */
+  private boolean eof;
+
+  /** guarded by writeLock */
+  private boolean writePending;
+
+  private volatile boolean closed;
+
+  private volatile IOException failure;
+
+  private volatile int readTimeout;
+
+  TCPChannelStream(
+      final TCPSelector selector,
+      final SocketChannel channel,
+      final int receiveBufferSize,
+      final int sendBufferSize) {
+    this.selector = selector;
+    this.channel = channel;
+    this.receiveBuffer = ByteBuffer.allocate(receiveBufferSize);
+    this.sendBuffer = ByteBuffer.allocate(sendBufferSize);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return out;
+  }
+
+  /**
+   * Closes the stream. Data that is still in the send buffer is written to the channel before it is
+   * closed if this is possible in a reasonable time.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+
+    synchronized (writeLock) {
+      closed = true;
+
+      final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+
+      long remaining = CLOSE_TIMEOUT;
+
+      try {
+        while (sendBuffer.position() > 0 && failure == null && remaining > 0) {
+          writeLock.wait(remaining);
+          remaining = deadline - System.currentTimeMillis();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        writeLock.notifyAll();
+      }
+    }
+
+    synchronized (readLock) {
+      readLock.notifyAll();
+    }
+
+    selector.close(this);
+  }
+
+  @Override
+  public int getReadTimeout() throws IOException {
+    return readTimeout;
+  }
+
+  @Override
+  public void setReadTimeout(int timeout) throws IOException {
+    if (timeout < 0) throw new IllegalArgumentException("timeout must not be negative");
+
+    readTimeout = timeout;
+  }
+
+  @Override
+  public String toString() {
+    return "TCPChannelStream [channel=" + channel + "]";
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Reads data from the channel into the receive buffer. Called by the selector thread.
+   *
+   * @return <code>false</code> if the selector should stop reading from the channel
+   */
+  boolean readFromChannel() throws IOException {
+    synchronized (readLock) {
+      final int read = channel.read(receiveBuffer);
+
+      if (read < 0) eof = true;
+
+      if (read != 0) readLock.notifyAll();
+
+      if (!eof && !receiveBuffer.hasRemaining()) readSuspended = true;
+
+      return !eof && !readSuspended;
+    }
+  }
+
+  /**
+   * Writes data from the send buffer to the channel. Called by the selector thread.
+   *
+   * @return <code>false</code> if the send buffer is empty
+   */
+  boolean writeToChannel() throws IOException {
+    synchronized (writeLock) {
+      sendBuffer.flip();
+
+      try {
+        channel.write(sendBuffer);
+      } finally {
+        sendBuffer.compact();
+      }
+
+      writeLock.notifyAll();
+
+      if (sendBuffer.position() > 0) return true;
+
+      writePending = false;
+      return false;
+    }
+  }
+
+  /** Marks the stream as failed, called by the selector thread. */
+  void fail(final IOException e) {
+    failure = e;
+
+    synchronized (readLock) {
+      readLock.notifyAll();
+    }
+
+    synchronized (writeLock) {
+      writeLock.notifyAll();
+    }
+  }
+
+  private void checkState() throws IOException {
+    final IOException e = failure;
+
+    if (e != null) throw new IOException("stream failed: " + e.getMessage(), e);
+
+    if (closed) throw new IOException("stream is closed");
+  }
+
+  private int read(final byte[] b, final int off, final int len) throws IOException {
+    if (len == 0) return 0;
+
+    synchronized (readLock) {
+      final int timeout = readTimeout;
+      final long deadline = System.currentTimeMillis() + timeout;
+
+      while (receiveBuffer.position() == 0) {
+        if (eof) return -1;
+
+        checkState();
+
+        long remaining = 0;
+
+        if (timeout > 0) {
+          remaining = deadline - System.currentTimeMillis();
+
+          if (remaining <= 0) throw new SocketTimeoutException("read timed out");
+        }
+
+        try {
+          readLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while reading from the stream", e);
+        }
+      }
+
+      receiveBuffer.flip();
+
+      final int count = Math.min(len, receiveBuffer.remaining());
+
+      receiveBuffer.get(b, off, count);
+      receiveBuffer.compact();
+
+      // avoid waking up the selector for every small read
+      if (readSuspended && receiveBuffer.remaining() >= receiveBuffer.capacity() / 2) {
+        readSuspended = false;
+        selector.resumeRead(this);
+      }
+
+      return count;
+    }
+  }
+
+  private void write(final byte[] b, int off, int len) throws IOException {
+    synchronized (writeLock) {
+      while (len > 0) {
+        checkState();
+
+        if (!writePending) {
+          final int written = channel.write(ByteBuffer.wrap(b, off, len));
+
+          off += written;
+          len -= written;
+
+          if (len == 0) break;
+        }
+
+        if (!sendBuffer.hasRemaining()) {
+          try {
+            writeLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing to the stream", e);
+          }
+
+          continue;
+        }
+
+        final int count = Math.min(len, sendBuffer.remaining());
+
+        sendBuffer.put(b, off, count);
+
+        off += count;
+        len -= count;
+
+        if (!writePending) {
+          writePending = true;
+          selector.resumeWrite(this);
+        }
+      }
+    }
+  }
+
+  private class ChannelInputStream extends InputStream {
+
+    private final byte[] single = new byte[1];
+
+    @Override
+    public int read() throws IOException {
+      synchronized (single) {
+        final int read = TCPChannelStream.this.read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+
+      return TCPChannelStream.this.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      synchronized (readLock) {
+        return receiveBuffer.position();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      TCPChannelStream.this.close();
+    }
+  }
+
+  private class ChannelOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+
+      TCPChannelStream.this.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      TCPChannelStream.this.close();
+    }
+  }
+}
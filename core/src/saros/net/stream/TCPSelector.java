@@ -0,0 +1,383 @@
+package saros.net.stream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.log4j.Logger;
+import saros.util.NamedThreadFactory;
+
+/**
+ * Selector thread of the {@link TCPTransport}. Accepts incoming connections on a listening socket,
+ * reads their handshake and serves the data transfer of all established {@link TCPChannelStream
+ * streams}.
+ *
+ * <p>The handshake of an incoming connection consists of {@link #MAGIC} and a token that was handed
+ * out to the remote side beforehand. Accepted connections that do not deliver a handshake in time
+ * are closed.
+ */
+final class TCPSelector implements Runnable {
+
+  private static final Logger log = Logger.getLogger(TCPSelector.class);
+
+  static final int MAGIC = 0x53544350; // STCP
+
+  static final int HANDSHAKE_LENGTH = 4 + 8;
+
+  static final long HANDSHAKE_TIMEOUT = 10000;
+
+  private static final int MAX_PENDING_HANDSHAKES = 16;
+
+  private static final long SELECT_TIMEOUT = 1000;
+
+  /** Receives the handshake of incoming connections. */
+  interface HandshakeListener {
+
+    /**
+     * Called on the selector thread if an incoming connection delivered a handshake. The listener
+     * must either {@link TCPSelector#register register} or close the channel.
+     *
+     * @param channel the non-blocking channel of the connection
+     * @param token the token of the handshake
+     */
+    void handshakeReceived(SocketChannel channel, long token);
+  }
+
+  private static final class Handshake {
+    private final ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_LENGTH);
+    private final long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+  }
+
+  private final Selector selector;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final HandshakeListener listener;
+
+  private final int receiveBufferSize;
+
+  private final int sendBufferSize;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+  private final Thread thread;
+
+  private volatile boolean running = true;
+
+  private int pendingHandshakes;
+
+  /**
+   * Opens the listening socket and starts the selector thread.
+   *
+   * @param port the port to listen on, 0 for an ephemeral port
+   * @param receiveBufferSize the size of the socket and stream receive buffers
+   * @param sendBufferSize the size of the socket and stream send buffers
+   * @param listener the listener for the handshake of incoming connections
+   * @throws IOException if the listening socket could not be opened
+   */
+  TCPSelector(
+      final int port,
+      final int receiveBufferSize,
+      final int sendBufferSize,
+      final HandshakeListener listener)
+      throws IOException {
+
+    this.receiveBufferSize = receiveBufferSize;
+    this.sendBufferSize = sendBufferSize;
+    this.listener = listener;
+
+    selector = Selector.open();
+
+    try {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.configureBlocking(false);
+
+      // must be set before binding so it applies to the TCP window of accepted connections
+      serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+      serverChannel.bind(new InetSocketAddress(port));
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      selector.close();
+      throw e;
+    }
+
+    thread = new NamedThreadFactory("TCPTransport-Selector-").newThread(this);
+    thread.start();
+  }
+
+  /** Returns the port the selector is listening on. */
+  int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Applies the socket options for the data transfer to the given channel.
+   *
+   * @param channel the channel to configure
+   * @throws IOException if an option could not be set
+   */
+  void configure(final SocketChannel channel) throws IOException {
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+    channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+    channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+  }
+
+  /**
+   * Registers the given connected channel for data transfer. The channel is switched to
+   * non-blocking mode.
+   *
+   * @param channel the channel to register
+   * @return the stream for the data transfer over the channel
+   * @throws IOException if the channel could not be switched to non-blocking mode
+   */
+  TCPChannelStream register(final SocketChannel channel) throws IOException {
+    if (!running) throw new IOException("selector is closed");
+
+    channel.configureBlocking(false);
+
+    final TCPChannelStream stream =
+        new TCPChannelStream(this, channel, receiveBufferSize, sendBufferSize);
+
+    execute(
+        () -> {
+          try {
+            final SelectionKey key = channel.keyFor(selector);
+
+            if (key != null) {
+              key.attach(stream);
+              key.interestOps(SelectionKey.OP_READ);
+            } else {
+              channel.register(selector, SelectionKey.OP_READ, stream);
+            }
+          } catch (IOException | RuntimeException e) {
+            fail(stream, new IOException("failed to register channel: " + channel, e));
+          }
+        });
+
+    return stream;
+  }
+
+  /** Closes the listening socket, all registered channels and stops the selector thread. */
+  void close() {
+    running = false;
+    selector.wakeup();
+
+    if (Thread.currentThread() == thread) return;
+
+    try {
+      thread.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void resumeRead(final TCPChannelStream stream) {
+    execute(() -> addInterest(stream, SelectionKey.OP_READ));
+  }
+
+  void resumeWrite(final TCPChannelStream stream) {
+    execute(() -> addInterest(stream, SelectionKey.OP_WRITE));
+  }
+
+  void close(final TCPChannelStream stream) {
+    execute(() -> closeQuietly(stream.getChannel()));
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        runTasks();
+
+        selector.select(SELECT_TIMEOUT);
+
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+        while (it.hasNext()) {
+          final SelectionKey key = it.next();
+          it.remove();
+
+          if (!key.isValid()) continue;
+
+          if (key.isAcceptable()) accept();
+          else if (key.attachment() instanceof Handshake) readHandshake(key);
+          else if (key.attachment() instanceof TCPChannelStream) transfer(key);
+        }
+
+        expireHandshakes();
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      log.error("selector failed, closing all connections", e);
+    } finally {
+      running = false;
+      closeAll();
+    }
+  }
+
+  private void execute(final Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  private void runTasks() {
+    Runnable task;
+
+    while ((task = tasks.poll()) != null) task.run();
+  }
+
+  private void accept() {
+    final SocketChannel channel;
+
+    try {
+      channel = serverChannel.accept();
+    } catch (IOException e) {
+      log.warn("failed to accept connection", e);
+      return;
+    }
+
+    if (channel == null) return;
+
+    if (pendingHandshakes >= MAX_PENDING_HANDSHAKES) {
+      log.warn("too many pending handshakes, rejecting connection from " + remote(channel));
+      closeQuietly(channel);
+      return;
+    }
+
+    try {
+      channel.configureBlocking(false);
+      configure(channel);
+      channel.register(selector, SelectionKey.OP_READ, new Handshake());
+      pendingHandshakes++;
+    } catch (IOException e) {
+      log.warn("failed to accept connection from " + remote(channel), e);
+      closeQuietly(channel);
+    }
+  }
+
+  private void readHandshake(final SelectionKey key) {
+    final SocketChannel channel = (SocketChannel) key.channel();
+    final Handshake handshake = (Handshake) key.attachment();
+
+    try {
+      if (channel.read(handshake.buffer) < 0)
+        throw new IOException("connection closed during handshake");
+    } catch (IOException e) {
+      log.warn("handshake with " + remote(channel) + " failed", e);
+      closeHandshake(key);
+      return;
+    }
+
+    if (handshake.buffer.hasRemaining()) return;
+
+    pendingHandshakes--;
+
+    key.interestOps(0);
+    key.attach(null);
+
+    handshake.buffer.flip();
+
+    if (handshake.buffer.getInt() != MAGIC) {
+      log.warn("rejecting connection from " + remote(channel) + ", invalid handshake");
+      closeQuietly(channel);
+      return;
+    }
+
+    listener.handshakeReceived(channel, handshake.buffer.getLong());
+  }
+
+  private void expireHandshakes() {
+    if (pendingHandshakes == 0) return;
+
+    final long now = System.currentTimeMillis();
+
+    for (final SelectionKey key : selector.keys()) {
+      if (!key.isValid() || !(key.attachment() instanceof Handshake)) continue;
+
+      if (((Handshake) key.attachment()).deadline > now) continue;
+
+      log.warn("handshake with " + remote((SocketChannel) key.channel()) + " timed out");
+      closeHandshake(key);
+    }
+  }
+
+  private void closeHandshake(final SelectionKey key) {
+    pendingHandshakes--;
+    key.attach(null);
+    closeQuietly(key.channel());
+  }
+
+  private void transfer(final SelectionKey key) {
+    final TCPChannelStream stream = (TCPChannelStream) key.attachment();
+
+    try {
+      if (key.isReadable() && !stream.readFromChannel())
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+      if (key.isValid() && key.isWritable() && !stream.writeToChannel())
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+    } catch (IOException e) {
+      fail(stream, e);
+    }
+  }
+
+  private void addInterest(final TCPChannelStream stream, final int ops) {
+    final SelectionKey key = stream.getChannel().keyFor(selector);
+
+    if (key == null || !key.isValid()) return;
+
+    key.interestOps(key.interestOps() | ops);
+  }
+
+  private void fail(final TCPChannelStream stream, final IOException e) {
+    log.debug("data transfer on " + stream + " failed", e);
+    closeQuietly(stream.getChannel());
+    stream.fail(e);
+  }
+
+  private void closeAll() {
+    runTasks();
+
+    for (final SelectionKey key : selector.keys()) {
+      final Object attachment = key.attachment();
+
+      if (attachment instanceof TCPChannelStream)
+        fail((TCPChannelStream) attachment, new IOException("transport is closed"));
+      else closeQuietly(key.channel());
+    }
+
+    closeQuietly(serverChannel);
+
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.warn("failed to close selector", e);
+    }
+  }
+
+  private static String remote(final SocketChannel channel) {
+    try {
+      return String.valueOf(channel.getRemoteAddress());
+    } catch (IOException e) {
+      return "unknown";
+    }
+  }
+
+  private static void closeQuietly(final Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+}
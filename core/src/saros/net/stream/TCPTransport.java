@@ -1,63 +1,667 @@
 package saros.net.stream;
 
 import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Socket;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.XMPPError;
 import saros.net.internal.BinaryChannelConnection;
 import saros.net.internal.IByteStreamConnection;
 import saros.net.internal.IByteStreamConnectionListener;
+import saros.net.util.NetworkingUtils;
 import saros.net.xmpp.JID;
+import saros.util.NamedThreadFactory;
 
-// TODO rewrite IStreamService interface
-
+/**
+ * This stream service establishes direct TCP connections between the peers.
+ *
+ * <p>Every side listens on a TCP port that is served by a {@link TCPSelector}. To connect to a peer
+ * the connecting side requests the addresses and the port the peer is listening on over XMPP. The
+ * response contains a one-time token that the connecting side has to present in the handshake of
+ * the TCP connection. The connection can only be established if one of the addresses of the peer is
+ * reachable, i.e. both sides are in the same network or the port is forwarded. Addresses that are
+ * obviously not reachable, e.g. private addresses of a different network, are not tried at all.
+ */
 public class TCPTransport implements IStreamService {
 
-  private volatile IByteStreamConnectionListener currentListener;
+  private static final Logger log = Logger.getLogger(TCPTransport.class);
+
+  /** The port to listen on, the default of 0 selects an ephemeral port. */
+  private static final int PORT = Integer.getInteger("saros.net.tcp.PORT", 0);
+
+  /** Size of the socket and stream buffers for incoming data. */
+  private static final int RECEIVE_BUFFER_SIZE =
+      Integer.getInteger("saros.net.tcp.RECEIVE_BUFFER_SIZE", 256 * 1024);
+
+  /** Size of the socket and stream buffers for outgoing data. */
+  private static final int SEND_BUFFER_SIZE =
+      Integer.getInteger("saros.net.tcp.SEND_BUFFER_SIZE", 256 * 1024);
+
+  /**
+   * Timeout for connecting to the remote side including the handshake. The time is split across the
+   * addresses of the remote side that are tried one after another.
+   */
+  private static final int CONNECT_TIMEOUT =
+      Integer.getInteger("saros.net.tcp.CONNECT_TIMEOUT", 5000);
+
+  /** Timeout for the remote side to answer the address request. */
+  private static final int RESPONSE_TIMEOUT =
+      Integer.getInteger("saros.net.tcp.RESPONSE_TIMEOUT", 10000);
+
+  private static final int HANDSHAKE_ACK = 0x06;
+
+  /* the provider must be registered before the first request arrives */
+  private static final TCPTransportExtension.Provider PROVIDER = TCPTransportExtension.PROVIDER;
+
+  private static final Random TOKEN_GENERATOR = new SecureRandom();
+
+  /** A network the local host is directly connected to. */
+  static final class Subnet {
+    private final byte[] address;
+    private final int prefixLength;
+
+    Subnet(final InetAddress address, final int prefixLength) {
+      this.address = address.getAddress();
+      this.prefixLength = prefixLength;
+    }
+
+    boolean contains(final InetAddress other) {
+      final byte[] otherAddress = other.getAddress();
+
+      if (otherAddress.length != address.length) return false;
+
+      for (int bit = 0; bit < prefixLength && bit < address.length * 8; bit++) {
+        final int mask = 0x80 >>> (bit % 8);
+
+        if ((address[bit / 8] & mask) != (otherAddress[bit / 8] & mask)) return false;
+      }
+
+      return true;
+    }
+
+    boolean isIPv6() {
+      return address.length == 16;
+    }
+  }
+
+  private static final class PendingConnection {
+    private final JID remoteAddress;
+    private final String connectionID;
+    private final long deadline = System.currentTimeMillis() + TCPSelector.HANDSHAKE_TIMEOUT;
+
+    private PendingConnection(final JID remoteAddress, final String connectionID) {
+      this.remoteAddress = remoteAddress;
+      this.connectionID = connectionID;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() > deadline;
+    }
+  }
+
+  /** connections the remote side was told to connect to, by token */
+  private final Map<Long, PendingConnection> pendingConnections =
+      new ConcurrentHashMap<Long, PendingConnection>();
+
+  /** address requests waiting for a response, by packet id */
+  private final Map<String, CompletableFuture<IQ>> pendingRequests =
+      new ConcurrentHashMap<String, CompletableFuture<IQ>>();
+
+  private final PacketListener packetListener = this::processPacket;
+
+  private Connection connection;
+  private JID localAddress;
+  private IByteStreamConnectionListener connectionListener;
+  private TCPSelector selector;
+  private ExecutorService executorService;
 
   @Override
-  public IByteStreamConnection connect(String connectionID, JID peer)
+  public IByteStreamConnection connect(String connectionID, JID remoteAddress)
       throws IOException, InterruptedException {
 
-    if (true) throw new RuntimeException("NYI");
+    if (connectionID == null) throw new NullPointerException("connectionID is null");
 
-    // TODO this should be configurable;
+    if (remoteAddress == null) throw new NullPointerException("remoteAddress is null");
 
-    final Socket socket = new Socket(Proxy.NO_PROXY);
+    if (connectionID.isEmpty())
+      throw new IllegalArgumentException("connectionID must not be empty");
 
-    final InetSocketAddress address = new InetSocketAddress("localhost", 4711);
+    if (connectionID.contains(String.valueOf(IStreamService.SESSION_ID_DELIMITER)))
+      throw new IllegalArgumentException(
+          "connectionID must not contain '" + IStreamService.SESSION_ID_DELIMITER + "'");
 
-    socket.connect(address, 30000);
-    socket.setTcpNoDelay(true);
+    log.debug("establishing TCP connection to: " + remoteAddress);
 
-    final IByteStreamConnectionListener listener = currentListener;
+    final Connection currentConnection;
+    final JID currentLocalAddress;
+    final IByteStreamConnectionListener currentConnectionListener;
+    final TCPSelector currentSelector;
 
-    if (listener == null) {
-      socket.close();
-      throw new IOException(this + " transport is not initialized");
+    synchronized (this) {
+      currentConnection = connection;
+      currentLocalAddress = localAddress;
+      currentConnectionListener = connectionListener;
+      currentSelector = selector;
     }
 
-    final IByteStreamConnection connection =
-        new BinaryChannelConnection(
-            null, peer, connectionID, new TCPByteStream(socket), StreamMode.TCP, listener);
+    if (currentConnection == null || currentSelector == null)
+      throw new IOException(this + " is not initialized");
+
+    final TCPTransportExtension response =
+        requestAddresses(currentConnection, connectionID, remoteAddress);
+
+    final List<InetAddress> addresses =
+        selectReachableAddresses(response.getAddresses(), getLocalAddresses(), getLocalSubnets());
+
+    if (addresses.isEmpty())
+      throw new IOException(
+          "none of the addresses of "
+              + remoteAddress
+              + " is reachable: "
+              + response.getAddresses());
+
+    final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+
+    IOException lastError = null;
+
+    for (int i = 0; i < addresses.size(); i++) {
+      final long remaining = deadline - System.currentTimeMillis();
+
+      if (remaining <= 0) break;
+
+      final InetSocketAddress socketAddress =
+          new InetSocketAddress(addresses.get(i), response.getPort());
+
+      // addresses that fail fast leave more time for the remaining ones
+      final int timeout = (int) Math.max(1, remaining / (addresses.size() - i));
+
+      final TCPChannelStream stream;
+
+      try {
+        stream = connect(currentSelector, socketAddress, response.getToken(), timeout);
+      } catch (IOException e) {
+        log.debug("failed to connect to " + remoteAddress + " at " + socketAddress, e);
+        lastError = e;
+        continue;
+      }
+
+      log.debug("connected to " + remoteAddress + " at " + socketAddress);
+
+      try {
+        return new BinaryChannelConnection(
+            currentLocalAddress,
+            remoteAddress,
+            connectionID,
+            stream,
+            StreamMode.TCP,
+            currentConnectionListener);
+      } catch (IOException e) {
+        stream.close();
+        throw e;
+      }
+    }
 
-    return connection;
+    throw new IOException(
+        "could not connect to any address of "
+            + remoteAddress
+            + " within "
+            + CONNECT_TIMEOUT
+            + " ms: "
+            + addresses
+            + ", port: "
+            + response.getPort(),
+        lastError);
   }
 
   @Override
-  public void initialize(Connection connection, IByteStreamConnectionListener listener) {
+  public synchronized void initialize(
+      Connection connection, IByteStreamConnectionListener listener) {
 
-    currentListener = listener;
+    this.connection = connection;
+    localAddress = new JID(connection.getUser());
+    connectionListener = listener;
+    executorService = Executors.newCachedThreadPool(new NamedThreadFactory("TCPTransport-Accept-"));
+
+    try {
+      selector =
+          new TCPSelector(PORT, RECEIVE_BUFFER_SIZE, SEND_BUFFER_SIZE, this::handshakeReceived);
+
+      log.debug(this + " is listening on port " + selector.getPort());
+    } catch (IOException e) {
+      log.error(this + " failed to listen on port " + PORT + ", TCP connections are disabled", e);
+    }
+
+    connection.addPacketListener(packetListener, new PacketTypeFilter(IQ.class));
   }
 
   @Override
   public void uninitialize() {
-    currentListener = null;
+    final TCPSelector currentSelector;
+
+    synchronized (this) {
+      if (connection == null) return;
+
+      connection.removePacketListener(packetListener);
+      executorService.shutdownNow();
+
+      currentSelector = selector;
+
+      connection = null;
+      localAddress = null;
+      connectionListener = null;
+      selector = null;
+      executorService = null;
+    }
+
+    for (final CompletableFuture<IQ> request : pendingRequests.values()) request.cancel(false);
+
+    pendingRequests.clear();
+    pendingConnections.clear();
+
+    // the selector thread may be waiting for the lock of this transport
+    if (currentSelector != null) currentSelector.close();
+  }
+
+  /** Returns the port the transport is listening on or -1 if it is not listening. */
+  synchronized int getPort() {
+    return selector == null ? -1 : selector.getPort();
   }
 
   @Override
   public String toString() {
     return "TCP-Transport";
   }
+
+  private TCPTransportExtension requestAddresses(
+      final Connection connection, final String connectionID, final JID remoteAddress)
+      throws IOException, InterruptedException {
+
+    final IQ request = PROVIDER.createIQ(new TCPTransportExtension(connectionID));
+
+    request.setType(IQ.Type.GET);
+    request.setTo(remoteAddress.toString());
+
+    final String packetID = request.getPacketID();
+    final CompletableFuture<IQ> future = new CompletableFuture<IQ>();
+
+    pendingRequests.put(packetID, future);
+
+    final IQ response;
+
+    try {
+      connection.sendPacket(request);
+      response = future.get(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new IOException("no response from " + remoteAddress + " to the address request");
+    } catch (CancellationException | ExecutionException e) {
+      throw new IOException(this + " was closed while requesting the addresses");
+    } finally {
+      pendingRequests.remove(packetID);
+    }
+
+    if (response.getType() == IQ.Type.ERROR)
+      throw new IOException(
+          remoteAddress + " does not accept TCP connections: " + response.getError());
+
+    final TCPTransportExtension payload = PROVIDER.getPayload(response);
+
+    if (payload == null || payload.getAddresses().isEmpty())
+      throw new IOException("invalid response from " + remoteAddress + " to the address request");
+
+    return payload;
+  }
+
+  /**
+   * Connects to the given address and performs the handshake. The timeout applies to the connection
+   * establishment and the handshake separately.
+   */
+  private static TCPChannelStream connect(
+      final TCPSelector selector,
+      final InetSocketAddress address,
+      final long token,
+      final int timeout)
+      throws IOException {
+
+    final SocketChannel channel = SocketChannel.open();
+
+    try {
+      selector.configure(channel);
+      channel.socket().connect(address, timeout);
+
+      final ByteBuffer handshake = ByteBuffer.allocate(TCPSelector.HANDSHAKE_LENGTH);
+
+      handshake.putInt(TCPSelector.MAGIC).putLong(token).flip();
+
+      while (handshake.hasRemaining()) channel.write(handshake);
+
+      channel.socket().setSoTimeout(timeout);
+
+      // read through the socket as reads on the channel itself do not support timeouts
+      if (channel.socket().getInputStream().read() != HANDSHAKE_ACK)
+        throw new IOException("handshake was rejected by " + address);
+
+      channel.socket().setSoTimeout(0);
+
+      return selector.register(channel);
+    } catch (IOException e) {
+      try {
+        channel.close();
+      } catch (IOException ignore) {
+        // ignore
+      }
+
+      throw e;
+    }
+  }
+
+  /** Called by the selector thread if an incoming connection delivered its handshake. */
+  private void handshakeReceived(final SocketChannel channel, final long token) {
+
+    final PendingConnection pending = pendingConnections.remove(token);
+
+    final JID currentLocalAddress;
+    final IByteStreamConnectionListener currentConnectionListener;
+    final TCPSelector currentSelector;
+    final ExecutorService currentExecutorService;
+
+    synchronized (this) {
+      currentLocalAddress = localAddress;
+      currentConnectionListener = connectionListener;
+      currentSelector = selector;
+      currentExecutorService = executorService;
+    }
+
+    final TCPChannelStream stream;
+
+    try {
+      if (pending == null || pending.isExpired()) throw new IOException("unknown or expired token");
+
+      if (currentConnectionListener == null) throw new IOException(this + " is not initialized");
+
+      if (channel.write(ByteBuffer.wrap(new byte[] {HANDSHAKE_ACK})) != 1)
+        throw new IOException("failed to acknowledge the handshake");
+
+      stream = currentSelector.register(channel);
+    } catch (IOException e) {
+      log.warn("rejecting TCP connection from " + channel.socket().getRemoteSocketAddress(), e);
+
+      try {
+        channel.close();
+      } catch (IOException ignore) {
+        // ignore
+      }
+
+      return;
+    }
+
+    log.debug(
+        "accepted TCP connection from "
+            + pending.remoteAddress
+            + " at "
+            + channel.socket().getRemoteSocketAddress());
+
+    final Runnable notifyListener =
+        () -> {
+          final IByteStreamConnection connection;
+
+          try {
+            connection =
+                new BinaryChannelConnection(
+                    currentLocalAddress,
+                    pending.remoteAddress,
+                    pending.connectionID,
+                    stream,
+                    StreamMode.TCP,
+                    currentConnectionListener);
+          } catch (IOException e) {
+            log.error("failed to initialize connection for TCP stream", e);
+            closeQuietly(stream);
+            return;
+          }
+
+          currentConnectionListener.connectionChanged(pending.connectionID, connection, true);
+        };
+
+    try {
+      currentExecutorService.execute(notifyListener);
+    } catch (RejectedExecutionException e) {
+      log.warn(this + " is closed, rejecting TCP connection from " + pending.remoteAddress);
+      closeQuietly(stream);
+    }
+  }
+
+  private void processPacket(final Packet packet) {
+    final IQ iq = (IQ) packet;
+
+    if (iq.getType() == IQ.Type.RESULT || iq.getType() == IQ.Type.ERROR) {
+      final CompletableFuture<IQ> request = pendingRequests.remove(iq.getPacketID());
+
+      if (request != null) request.complete(iq);
+
+      return;
+    }
+
+    if (iq.getType() != IQ.Type.GET) return;
+
+    final TCPTransportExtension request = PROVIDER.getPayload(iq);
+
+    if (request == null) return;
+
+    final Connection currentConnection;
+    final TCPSelector currentSelector;
+
+    synchronized (this) {
+      currentConnection = connection;
+      currentSelector = selector;
+    }
+
+    if (currentConnection == null) return;
+
+    if (currentSelector == null) {
+      currentConnection.sendPacket(
+          IQ.createErrorResponse(iq, new XMPPError(XMPPError.Condition.service_unavailable)));
+      return;
+    }
+
+    removeExpiredConnections();
+
+    long token;
+
+    do {
+      token = TOKEN_GENERATOR.nextLong();
+    } while (token == 0 || pendingConnections.containsKey(token));
+
+    pendingConnections.put(
+        token, new PendingConnection(new JID(iq.getFrom()), request.getConnectionID()));
+
+    final IQ response =
+        PROVIDER.createIQ(
+            new TCPTransportExtension(
+                request.getConnectionID(), token, currentSelector.getPort(), getLocalAddresses()));
+
+    response.setType(IQ.Type.RESULT);
+    response.setTo(iq.getFrom());
+    response.setPacketID(iq.getPacketID());
+
+    log.debug(
+        "offering TCP connection to " + iq.getFrom() + " on port " + currentSelector.getPort());
+
+    currentConnection.sendPacket(response);
+  }
+
+  private void removeExpiredConnections() {
+    final Iterator<PendingConnection> it = pendingConnections.values().iterator();
+
+    while (it.hasNext()) if (it.next().isExpired()) it.remove();
+  }
+
+  /**
+   * Returns the addresses of the local host the remote side may connect to. The loopback address is
+   * offered last so that connections between two instances on the same host are possible.
+   */
+  private static List<String> getLocalAddresses() {
+    final List<String> addresses = new ArrayList<String>();
+
+    for (final InetAddress address : NetworkingUtils.getAllNonLoopbackLocalIPAddresses(true)) {
+      // link local addresses are only valid in combination with the interface of the remote side
+      if (address instanceof Inet6Address && address.isLinkLocalAddress()) continue;
+
+      addresses.add(address.getHostAddress());
+    }
+
+    addresses.add(InetAddress.getLoopbackAddress().getHostAddress());
+
+    return addresses;
+  }
+
+  /**
+   * Returns the addresses of the remote side that are plausibly reachable from the local host in
+   * the order they should be tried. Addresses in a local subnet are tried first. Private and link
+   * local addresses are only reachable if they are in a local subnet, loopback addresses only if
+   * the remote side runs on the local host, i.e. it offered the same addresses.
+   *
+   * @param remoteAddresses the addresses offered by the remote side
+   * @param localAddresses the addresses offered by the local side, see {@link #getLocalAddresses()}
+   * @param localSubnets the networks the local host is directly connected to
+   * @return the reachable addresses
+   */
+  static List<InetAddress> selectReachableAddresses(
+      final List<String> remoteAddresses,
+      final List<String> localAddresses,
+      final List<Subnet> localSubnets) {
+
+    final Set<InetAddress> remote = parseAddresses(remoteAddresses);
+    final Set<InetAddress> local = parseAddresses(localAddresses);
+
+    final boolean sameHost = remote.equals(local);
+
+    boolean hasIPv4 = false;
+    boolean hasIPv6 = false;
+
+    for (final Subnet subnet : localSubnets) {
+      if (subnet.isIPv6()) hasIPv6 = true;
+      else hasIPv4 = true;
+    }
+
+    final List<InetAddress> inSubnet = new ArrayList<InetAddress>();
+    final List<InetAddress> global = new ArrayList<InetAddress>();
+    final List<InetAddress> loopback = new ArrayList<InetAddress>();
+
+    for (final InetAddress address : remote) {
+      if (address.isLoopbackAddress()) {
+        if (sameHost) loopback.add(address);
+
+        continue;
+      }
+
+      if (address instanceof Inet6Address ? !hasIPv6 : !hasIPv4) continue;
+
+      if (isInSubnet(address, localSubnets)) inSubnet.add(address);
+      else if (!isPrivate(address)) global.add(address);
+    }
+
+    final List<InetAddress> result = new ArrayList<InetAddress>(inSubnet);
+
+    result.addAll(global);
+    result.addAll(loopback);
+
+    return result;
+  }
+
+  /** Returns the networks of all running, non-loopback network interfaces of the local host. */
+  private static List<Subnet> getLocalSubnets() {
+    final List<Subnet> subnets = new ArrayList<Subnet>();
+
+    final Enumeration<NetworkInterface> interfaces;
+
+    try {
+      interfaces = NetworkInterface.getNetworkInterfaces();
+    } catch (SocketException e) {
+      log.warn("failed to retrieve the network interfaces", e);
+      return subnets;
+    }
+
+    while (interfaces != null && interfaces.hasMoreElements()) {
+      final NetworkInterface networkInterface = interfaces.nextElement();
+
+      try {
+        if (networkInterface.isLoopback() || !networkInterface.isUp()) continue;
+      } catch (SocketException e) {
+        log.warn("skipping network interface: " + networkInterface, e);
+        continue;
+      }
+
+      for (final InterfaceAddress address : networkInterface.getInterfaceAddresses())
+        subnets.add(new Subnet(address.getAddress(), address.getNetworkPrefixLength()));
+    }
+
+    return subnets;
+  }
+
+  private static Set<InetAddress> parseAddresses(final List<String> addresses) {
+    final Set<InetAddress> result = new LinkedHashSet<InetAddress>();
+
+    for (final String address : addresses) {
+      try {
+        // the addresses are IP literals, so no name lookup is performed
+        result.add(InetAddress.getByName(address));
+      } catch (UnknownHostException e) {
+        log.debug("skipping invalid address: " + address);
+      }
+    }
+
+    return result;
+  }
+
+  private static boolean isInSubnet(final InetAddress address, final List<Subnet> subnets) {
+    for (final Subnet subnet : subnets) if (subnet.contains(address)) return true;
+
+    return false;
+  }
+
+  /** Returns whether the address is only valid within a local network. */
+  private static boolean isPrivate(final InetAddress address) {
+    if (address.isSiteLocalAddress() || address.isLinkLocalAddress()) return true;
+
+    // IPv6 unique local addresses, fc00::/7
+    return address instanceof Inet6Address && (address.getAddress()[0] & 0xFE) == 0xFC;
+  }
+
+  private static void closeQuietly(final TCPChannelStream stream) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
 }
@@ -0,0 +1,71 @@
+package saros.net.stream;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import java.util.Collections;
+import java.util.List;
+import saros.misc.xstream.XStreamExtensionProvider;
+
+/**
+ * Signalling packet of the {@link TCPTransport}. The connecting side requests the addresses of the
+ * remote side with an IQ of type GET containing the connection id. The remote side answers with an
+ * IQ of type RESULT containing the addresses and port it is listening on and the token the
+ * connecting side has to present in the handshake.
+ */
+@XStreamAlias(/* TCPTransportExtension */ "TCPT")
+final class TCPTransportExtension {
+
+  static final Provider PROVIDER = new Provider();
+
+  @XStreamAlias("id")
+  @XStreamAsAttribute
+  private final String connectionID;
+
+  @XStreamAlias("t")
+  @XStreamAsAttribute
+  private final long token;
+
+  @XStreamAlias("p")
+  @XStreamAsAttribute
+  private final int port;
+
+  @XStreamImplicit(itemFieldName = "a")
+  private final List<String> addresses;
+
+  /** Creates a request for the given connection id. */
+  TCPTransportExtension(final String connectionID) {
+    this(connectionID, 0, 0, null);
+  }
+
+  /** Creates a response for the given connection id. */
+  TCPTransportExtension(
+      final String connectionID, final long token, final int port, final List<String> addresses) {
+    this.connectionID = connectionID;
+    this.token = token;
+    this.port = port;
+    this.addresses = addresses;
+  }
+
+  String getConnectionID() {
+    return connectionID;
+  }
+
+  long getToken() {
+    return token;
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  List<String> getAddresses() {
+    return addresses == null ? Collections.<String>emptyList() : addresses;
+  }
+
+  static final class Provider extends XStreamExtensionProvider<TCPTransportExtension> {
+    private Provider() {
+      super("saros", "tcp", TCPTransportExtension.class);
+    }
+  }
+}
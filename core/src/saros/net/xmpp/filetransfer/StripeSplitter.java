@@ -0,0 +1,246 @@
+package saros.net.xmpp.filetransfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Splits the data of a source stream into blocks that are distributed round-robin over a number of
+ * stripe streams, so the data can be sent over several connections in parallel. Each block is
+ * prefixed with its length, a block of length 0 terminates every stripe. The data is reassembled by
+ * a {@link StripedInputStream}.
+ *
+ * <p>The stripes are read by independent threads. The source is read by whichever stripe needs the
+ * next block, blocks of other stripes are queued up to a small limit, so a slow stripe throttles
+ * the others instead of buffering the whole source.
+ */
+final class StripeSplitter {
+
+  private static final Logger log = Logger.getLogger(StripeSplitter.class);
+
+  static final int HEADER_LENGTH = 4;
+
+  /*
+   * The receiver consumes the blocks strictly in order, so a block must be considerably smaller
+   * than the window of a stream, otherwise the other stripes idle while a block is completed.
+   */
+  static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+  private static final int MAX_QUEUED_BLOCKS = 4;
+
+  private static final byte[] TERMINATOR = new byte[HEADER_LENGTH];
+
+  private final InputStream source;
+
+  private final int blockSize;
+
+  private final Stripe[] stripes;
+
+  private final AtomicLong payloadBytes = new AtomicLong();
+
+  /* guarded by this */
+  private int nextStripe;
+  private boolean reading;
+  private boolean eof;
+  private IOException failure;
+  private int openStripes;
+
+  /**
+   * @param source the stream to split
+   * @param stripeCount the number of stripes, must be at least 1
+   * @param blockSize the maximum number of payload bytes per block
+   */
+  StripeSplitter(final InputStream source, final int stripeCount, final int blockSize) {
+    if (stripeCount < 1) throw new IllegalArgumentException("stripe count must be at least 1");
+
+    this.source = source;
+    this.blockSize = blockSize;
+
+    stripes = new Stripe[stripeCount];
+
+    for (int i = 0; i < stripeCount; i++) stripes[i] = new Stripe();
+
+    openStripes = stripeCount;
+  }
+
+  /** Returns the stream of the stripe with the given index. */
+  InputStream getStripe(final int index) {
+    return stripes[index];
+  }
+
+  /** Returns the number of bytes of the source that were read from the stripes so far. */
+  long getPayloadBytes() {
+    return payloadBytes.get();
+  }
+
+  private final class Stripe extends InputStream {
+
+    private final Deque<byte[]> blocks = new ArrayDeque<byte[]>();
+
+    private byte[] block;
+    private int position;
+
+    private boolean finished;
+    private boolean closed;
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) return 0;
+
+      if (block == null || position == block.length) {
+        if (finished) return -1;
+
+        block = nextBlock(this);
+        position = 0;
+
+        if (block == TERMINATOR) finished = true;
+      }
+
+      final int count = Math.min(len, block.length - position);
+
+      System.arraycopy(block, position, b, off, count);
+
+      final int payload =
+          Math.min(position + count, block.length) - Math.max(position, HEADER_LENGTH);
+
+      if (payload > 0) payloadBytes.addAndGet(payload);
+
+      position += count;
+
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      stripeClosed(this);
+    }
+  }
+
+  private byte[] nextBlock(final Stripe stripe) throws IOException {
+    while (true) {
+      final Stripe owner;
+
+      synchronized (this) {
+        if (failure != null) throw new IOException("striped transfer failed", failure);
+
+        if (stripe.closed) throw new IOException("stripe is closed");
+
+        final byte[] queued = stripe.blocks.poll();
+
+        if (queued != null) {
+          notifyAll();
+          return queued;
+        }
+
+        owner = stripes[nextStripe];
+
+        if (reading || (owner != stripe && owner.blocks.size() >= MAX_QUEUED_BLOCKS)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the next block");
+          }
+
+          continue;
+        }
+
+        reading = true;
+      }
+
+      byte[] block = null;
+      IOException error = null;
+
+      try {
+        block = readBlock();
+      } catch (IOException e) {
+        error = e;
+      }
+
+      synchronized (this) {
+        reading = false;
+        notifyAll();
+
+        if (error != null) {
+          failure = error;
+          throw error;
+        }
+
+        if (block == null) {
+          eof = true;
+
+          for (final Stripe s : stripes) s.blocks.add(TERMINATOR);
+        } else {
+          owner.blocks.add(block);
+          nextStripe = (nextStripe + 1) % stripes.length;
+        }
+      }
+    }
+  }
+
+  /** Reads the next block or returns <code>null</code> if the source is exhausted. */
+  private byte[] readBlock() throws IOException {
+    final byte[] block = new byte[HEADER_LENGTH + blockSize];
+
+    int length = 0;
+
+    while (length < blockSize) {
+      final int read = source.read(block, HEADER_LENGTH + length, blockSize - length);
+
+      if (read < 0) break;
+
+      length += read;
+    }
+
+    if (length == 0) return null;
+
+    block[0] = (byte) (length >>> 24);
+    block[1] = (byte) (length >>> 16);
+    block[2] = (byte) (length >>> 8);
+    block[3] = (byte) length;
+
+    return length == blockSize ? block : Arrays.copyOf(block, HEADER_LENGTH + length);
+  }
+
+  private void stripeClosed(final Stripe stripe) {
+    final boolean closeSource;
+
+    synchronized (this) {
+      if (stripe.closed) return;
+
+      stripe.closed = true;
+
+      if (!stripe.finished && failure == null)
+        failure = new IOException("a stripe was closed before the transfer was completed");
+
+      closeSource = --openStripes == 0;
+
+      notifyAll();
+    }
+
+    if (!closeSource) return;
+
+    try {
+      source.close();
+    } catch (IOException e) {
+      log.warn("failed to close source stream", e);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "StripeSplitter [stripes=" + stripes.length + ", eof=" + eof + "]";
+  }
+}
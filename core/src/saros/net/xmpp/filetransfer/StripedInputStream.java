@@ -0,0 +1,100 @@
+package saros.net.xmpp.filetransfer;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+/**
+ * Reassembles the data that was split by a {@link StripeSplitter} by reading the blocks of the
+ * stripes in round-robin order.
+ */
+final class StripedInputStream extends InputStream {
+
+  private static final Logger log = Logger.getLogger(StripedInputStream.class);
+
+  private final DataInputStream[] stripes;
+
+  private int current = -1;
+  private int remaining;
+  private boolean finished;
+
+  /** @param stripes the streams of the stripes ordered by their index */
+  StripedInputStream(final List<InputStream> stripes) {
+    this.stripes = new DataInputStream[stripes.size()];
+
+    for (int i = 0; i < this.stripes.length; i++)
+      this.stripes[i] = new DataInputStream(stripes.get(i));
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextBlock()) return -1;
+
+    final int value = stripes[current].read();
+
+    if (value < 0) throw new EOFException("stripe " + current + " ended within a block");
+
+    remaining--;
+    return value;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if (len == 0) return 0;
+
+    if (!nextBlock()) return -1;
+
+    final int read = stripes[current].read(b, off, Math.min(len, remaining));
+
+    if (read < 0) throw new EOFException("stripe " + current + " ended within a block");
+
+    remaining -= read;
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (finished || remaining == 0) return 0;
+
+    return Math.min(remaining, stripes[current].available());
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+
+    for (final InputStream stripe : stripes) {
+      try {
+        stripe.close();
+      } catch (IOException e) {
+        log.warn("failed to close stripe", e);
+        failure = e;
+      }
+    }
+
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Advances to the next block if the current one was read completely.
+   *
+   * @return <code>false</code> if all blocks were read
+   */
+  private boolean nextBlock() throws IOException {
+    while (remaining == 0) {
+      if (finished) return false;
+
+      current = (current + 1) % stripes.length;
+      remaining = stripes[current].readInt();
+
+      if (remaining < 0) throw new IOException("stripe " + current + " is corrupted");
+
+      if (remaining == 0) finished = true;
+    }
+
+    return true;
+  }
+}
@@ -1,11 +1,17 @@
 package saros.net.xmpp.filetransfer;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 import org.jivesoftware.smackx.filetransfer.FileTransfer;
 
-/** This class provides information about a XMPP file transfer. */
+/**
+ * This class provides information about a XMPP file transfer. A striped transfer consists of
+ * several XMPP file transfers and is reported as one.
+ */
 public class XMPPFileTransfer {
 
   private static final int CHECK_SLEEP_MILLIS = 200;
@@ -19,10 +25,22 @@ public class XMPPFileTransfer {
     ERROR
   }
 
-  private final FileTransfer transfer;
+  private final List<FileTransfer> transfers;
+
+  private final LongSupplier amountWritten;
 
   XMPPFileTransfer(FileTransfer transfer) {
-    this.transfer = transfer;
+    this.transfers = Collections.singletonList(transfer);
+    this.amountWritten = transfer::getAmountWritten;
+  }
+
+  /**
+   * @param transfers the transfers of all stripes
+   * @param amountWritten supplies the amount of payload written over all stripes
+   */
+  XMPPFileTransfer(List<FileTransfer> transfers, LongSupplier amountWritten) {
+    this.transfers = transfers;
+    this.amountWritten = amountWritten;
   }
 
   /**
@@ -31,6 +49,38 @@ public class XMPPFileTransfer {
    * @return {@link Status} of current transfer
    */
   public Status getStatus() {
+    boolean negotiating = false;
+    boolean inProgress = false;
+    boolean canceled = false;
+
+    for (final FileTransfer transfer : transfers) {
+      switch (getStatus(transfer)) {
+        case ERROR:
+          return Status.ERROR;
+        case CANCELED:
+          canceled = true;
+          break;
+        case NEGOTIATING:
+          negotiating = true;
+          break;
+        case IN_PROGRESS:
+          inProgress = true;
+          break;
+        default:
+          break;
+      }
+    }
+
+    if (canceled) return Status.CANCELED;
+
+    if (negotiating) return Status.NEGOTIATING;
+
+    if (inProgress) return Status.IN_PROGRESS;
+
+    return Status.COMPLETED;
+  }
+
+  private static Status getStatus(FileTransfer transfer) {
     switch (transfer.getStatus()) {
       case initial:
       case negotiating_stream:
@@ -56,13 +106,17 @@ public class XMPPFileTransfer {
    * @return Optional with IOException if available
    */
   public Optional<IOException> getException() {
-    Exception transferException = transfer.getException();
-    if (transferException == null) return Optional.empty();
+    for (final FileTransfer transfer : transfers) {
+      Exception transferException = transfer.getException();
+      if (transferException == null) continue;
+
+      return Optional.of(
+          new IOException(
+              "File transfer failed. Maybe the remote side canceled the transfer.",
+              transferException));
+    }
 
-    return Optional.of(
-        new IOException(
-            "File transfer failed. Maybe the remote side canceled the transfer.",
-            transferException));
+    return Optional.empty();
   }
 
   /**
@@ -76,7 +130,7 @@ public class XMPPFileTransfer {
     try {
       while (getStatus() == Status.NEGOTIATING) {
         if (additionalCancelCheck != null && additionalCancelCheck.getAsBoolean()) {
-          transfer.cancel();
+          cancel();
           return;
         }
 
@@ -84,31 +138,43 @@ public class XMPPFileTransfer {
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      transfer.cancel();
+      cancel();
       return;
     }
   }
 
+  /**
+   * Returns whether the transfer is done. A striped transfer is done if all stripes are completed
+   * or one of them failed.
+   */
   public boolean isDone() {
-    return transfer.isDone();
+    final Status status = getStatus();
+
+    return status == Status.COMPLETED || status == Status.CANCELED || status == Status.ERROR;
   }
 
   public long getAmountWritten() {
-    return transfer.getAmountWritten();
+    return amountWritten.getAsLong();
   }
 
   public long getFileSize() {
-    return transfer.getFileSize();
+    long size = 0;
+
+    for (final FileTransfer transfer : transfers) size += transfer.getFileSize();
+
+    return size;
   }
 
   public void cancel() {
-    transfer.cancel();
+    for (final FileTransfer transfer : transfers) transfer.cancel();
   }
 
   @Override
   public String toString() {
+    final FileTransfer transfer = transfers.get(0);
+
     return String.format(
-        "XMPPFileTransfer [Peer=%s, FileName=%s, Status=%s]",
-        transfer.getPeer(), transfer.getFileName(), getStatus());
+        "XMPPFileTransfer [Peer=%s, FileName=%s, Stripes=%d, Status=%s]",
+        transfer.getPeer(), transfer.getFileName(), transfers.size(), getStatus());
   }
 }
@@ -3,15 +3,25 @@ package saros.net.xmpp.filetransfer;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smackx.filetransfer.FileTransfer;
 import org.jivesoftware.smackx.filetransfer.FileTransferListener;
 import org.jivesoftware.smackx.filetransfer.FileTransferManager;
 import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
@@ -22,6 +32,7 @@ import saros.net.xmpp.JID;
 import saros.net.xmpp.XMPPConnectionService;
 import saros.net.xmpp.contact.XMPPContact;
 import saros.net.xmpp.contact.XMPPContactsService;
+import saros.util.NamedThreadFactory;
 
 /**
  * This Component handles file transfers with other XMPP contacts.
@@ -39,12 +50,46 @@ import saros.net.xmpp.contact.XMPPContactsService;
  *
  * <p><b>Outgoing</b> file transfers are possible for Files using {@link #fileSendStart(JID, File,
  * String)} or InputStreams using {@link #streamSendStart(JID, String, InputStream)}.
+ *
+ * <p>Streams can be <b>striped</b> over several parallel transfers with {@link
+ * #streamSendStart(JID, String, InputStream, int)} to use more of the available bandwidth on links
+ * with a high latency. The stripes are announced with the identifier followed by {@link
+ * #STRIPE_DELIMITER}, their index and their count. The receiving side waits for all stripes and
+ * offers them as one {@link XMPPFileTransferRequest}, so striped transfers must only be sent to
+ * contacts which announced that they support them. If not all stripes arrive within the {@linkplain
+ * #STRIPE_TIMEOUT stripe timeout} or the expected transfer is canceled, the stripes that arrived
+ * are rejected.
  */
 public class XMPPFileTransferManager {
   private static final int GLOBAL_SMACK_RESPONSE_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(5);
 
   private static final Logger log = Logger.getLogger(FileTransferManager.class);
 
+  /** Separates the identifier of a striped transfer from the stripe index and count. */
+  static final String STRIPE_DELIMITER = "#stripe:";
+
+  private static final Pattern STRIPE_PATTERN =
+      Pattern.compile("(.*)" + Pattern.quote(STRIPE_DELIMITER) + "(\\d+)/(\\d+)");
+
+  /** Upper bound for the number of stripes of an incoming transfer. */
+  private static final int MAX_STRIPES = 16;
+
+  /** Time in milliseconds to wait for the remaining stripes after the first stripe arrived. */
+  private static final long STRIPE_TIMEOUT =
+      Long.getLong("saros.net.filetransfer.STRIPE_TIMEOUT", 60000L).longValue();
+
+  /** Stripes of an incoming striped transfer that did not arrive completely yet. */
+  private static final class PendingStripes {
+    private final String identifier;
+    private final FileTransferRequest[] stripes;
+    private ScheduledFuture<?> timeout;
+
+    private PendingStripes(String identifier, int count) {
+      this.identifier = identifier;
+      this.stripes = new FileTransferRequest[count];
+    }
+  }
+
   /** Mapping identifiers of expected transfers with consuming CompletableFuture. */
   private final ConcurrentMap<String, CompletableFuture<XMPPFileTransferRequest>>
       expectedTransfers = new ConcurrentHashMap<>();
@@ -52,6 +97,13 @@ public class XMPPFileTransferManager {
   private final AtomicReference<Consumer<XMPPFileTransferRequest>> defaultTransferHandler =
       new AtomicReference<>();
 
+  /** Stripes of incoming striped transfers that did not arrive completely yet. */
+  private final Map<String, PendingStripes> pendingStripes = new HashMap<>();
+
+  private final ScheduledThreadPoolExecutor stripeTimeoutExecutor;
+
+  private final long stripeTimeout;
+
   private final AtomicReference<FileTransferManager> smackTransferManager = new AtomicReference<>();
 
   private final FileTransferListener smackTransferListener =
@@ -73,21 +125,14 @@ public class XMPPFileTransferManager {
                   + " by "
                   + contact);
 
-          if (identifier != null) {
-            CompletableFuture<XMPPFileTransferRequest> future =
-                expectedTransfers.remove(identifier);
-            if (future != null) {
-              future.complete(new XMPPFileTransferRequest(contact, request));
-              return;
-            }
-          }
+          Matcher stripe = identifier == null ? null : STRIPE_PATTERN.matcher(identifier);
 
-          Consumer<XMPPFileTransferRequest> defaultListener = defaultTransferHandler.get();
-          if (defaultListener == null) {
-            request.reject();
-          } else {
-            defaultListener.accept(new XMPPFileTransferRequest(contact, request));
+          if (stripe != null && stripe.matches()) {
+            addStripe(contact, request, stripe.group(1), stripe.group(2), stripe.group(3));
+            return;
           }
+
+          dispatch(identifier, new XMPPFileTransferRequest(contact, request));
         }
       };
 
@@ -109,13 +154,147 @@ public class XMPPFileTransferManager {
 
   public XMPPFileTransferManager(
       XMPPConnectionService connectionService, XMPPContactsService contactsService) {
+    this(connectionService, contactsService, STRIPE_TIMEOUT);
+  }
+
+  XMPPFileTransferManager(
+      XMPPConnectionService connectionService,
+      XMPPContactsService contactsService,
+      long stripeTimeout) {
     connectionService.addListener(connectionListener);
     this.contactsService = contactsService;
+    this.stripeTimeout = stripeTimeout;
+
+    stripeTimeoutExecutor =
+        new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("FileTransfer-StripeTimeout"));
+
+    stripeTimeoutExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+    stripeTimeoutExecutor.allowCoreThreadTimeOut(true);
+    stripeTimeoutExecutor.setRemoveOnCancelPolicy(true);
 
     // smack only allows a global response timeout
     OutgoingFileTransfer.setResponseTimeout(GLOBAL_SMACK_RESPONSE_TIMEOUT);
   }
 
+  private void dispatch(String identifier, XMPPFileTransferRequest request) {
+    if (identifier != null) {
+      CompletableFuture<XMPPFileTransferRequest> future = expectedTransfers.remove(identifier);
+      if (future != null) {
+        future.complete(request);
+        return;
+      }
+    }
+
+    Consumer<XMPPFileTransferRequest> defaultListener = defaultTransferHandler.get();
+    if (defaultListener == null) {
+      request.reject();
+    } else {
+      defaultListener.accept(request);
+    }
+  }
+
+  /**
+   * Collects the stripes of a striped transfer and dispatches them as one request once all stripes
+   * arrived.
+   */
+  void addStripe(
+      XMPPContact contact,
+      FileTransferRequest request,
+      String identifier,
+      String stripeIndex,
+      String stripeCount) {
+
+    final int index;
+    final int count;
+
+    try {
+      index = Integer.parseInt(stripeIndex);
+      count = Integer.parseInt(stripeCount);
+    } catch (NumberFormatException e) {
+      log.warn("rejecting stripe with invalid index or count: " + request.getDescription());
+      request.reject();
+      return;
+    }
+
+    final String key = request.getRequestor() + "/" + identifier;
+    final PendingStripes current;
+
+    synchronized (pendingStripes) {
+      PendingStripes pending = pendingStripes.get(key);
+
+      if (pending == null && count > 0 && count <= MAX_STRIPES) {
+        final PendingStripes created = new PendingStripes(identifier, count);
+
+        created.timeout =
+            stripeTimeoutExecutor.schedule(
+                () -> discardStripes(key, created, "not all stripes arrived in time"),
+                stripeTimeout,
+                TimeUnit.MILLISECONDS);
+
+        pendingStripes.put(key, created);
+        pending = created;
+      }
+
+      if (pending == null
+          || pending.stripes.length != count
+          || index >= count
+          || pending.stripes[index] != null) {
+        log.warn("rejecting unexpected stripe: " + request.getDescription());
+        request.reject();
+        return;
+      }
+
+      pending.stripes[index] = request;
+
+      for (final FileTransferRequest stripe : pending.stripes) if (stripe == null) return;
+
+      pendingStripes.remove(key);
+      current = pending;
+    }
+
+    current.timeout.cancel(false);
+
+    dispatch(identifier, new XMPPFileTransferRequest(contact, Arrays.asList(current.stripes)));
+  }
+
+  /** Rejects the stripes of all incomplete striped transfers with the given identifier. */
+  private void discardStripes(String identifier, String reason) {
+    final Map<String, PendingStripes> discarded = new HashMap<>();
+
+    synchronized (pendingStripes) {
+      for (final Map.Entry<String, PendingStripes> entry : pendingStripes.entrySet()) {
+        if (entry.getValue().identifier.equals(identifier))
+          discarded.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    for (final Map.Entry<String, PendingStripes> entry : discarded.entrySet())
+      discardStripes(entry.getKey(), entry.getValue(), reason);
+  }
+
+  /**
+   * Rejects the stripes of an incomplete striped transfer and completes the matching expected
+   * transfer exceptionally.
+   */
+  private void discardStripes(String key, PendingStripes pending, String reason) {
+    synchronized (pendingStripes) {
+      if (!pendingStripes.remove(key, pending)) return;
+    }
+
+    pending.timeout.cancel(false);
+
+    log.warn("rejecting incomplete striped transfer " + key + ": " + reason);
+
+    for (final FileTransferRequest stripe : pending.stripes) if (stripe != null) stripe.reject();
+
+    final CompletableFuture<XMPPFileTransferRequest> future =
+        expectedTransfers.remove(pending.identifier);
+
+    if (future != null)
+      future.completeExceptionally(
+          new IOException("striped transfer " + pending.identifier + " failed: " + reason));
+  }
+
   /**
    * Set a default handler, which should be called if no expected transfer matches / available.
    *
@@ -130,7 +309,9 @@ public class XMPPFileTransferManager {
    * expected transfer when available.
    *
    * <p>Mappings are removed if a transfer was received, otherwise need to be canceled via {@link
-   * Future#cancel(boolean)}.
+   * Future#cancel(boolean)}. Canceling also rejects the stripes of a striped transfer that did not
+   * arrive completely yet. The future is completed exceptionally if not all stripes of a striped
+   * transfer arrived in time.
    *
    * @param identifier identifier to match a transfer
    * @return Future providing {@link XMPPFileTransferRequest}
@@ -139,7 +320,12 @@ public class XMPPFileTransferManager {
     CompletableFuture<XMPPFileTransferRequest> future = new CompletableFuture<>();
 
     // removes the transfer on cancel / complete
-    future.whenComplete((request, exception) -> expectedTransfers.remove(identifier));
+    future.whenComplete(
+        (request, exception) -> {
+          expectedTransfers.remove(identifier);
+
+          if (exception != null) discardStripes(identifier, "expected transfer was canceled");
+        });
 
     expectedTransfers.put(identifier, future);
     return future;
@@ -204,4 +390,53 @@ public class XMPPFileTransferManager {
 
     return new XMPPFileTransfer(transfer);
   }
+
+  /**
+   * Start a file stream with a contact that is striped over the given number of parallel transfers.
+   * The contact must support striped transfers if more than one stripe is used.
+   *
+   * <p>This method will return while the transfer negotiation is processing. Use {@link
+   * XMPPFileTransfer#waitForTransferStart(java.util.function.BooleanSupplier)} to wait till the
+   * negotiation is done.
+   *
+   * @param remoteJID fully qualified JID of remote
+   * @param streamName identifier of the stream
+   * @param inputStream InputStream to send data from
+   * @param stripes the number of parallel transfers to use
+   * @return {@link XMPPFileTransfer} providing information about all stripes of the transfer
+   * @throws IllegalArgumentException if provided JID is not fully qualified or the number of
+   *     stripes is invalid
+   * @throws IOException if no connection is available or XMPP related error
+   */
+  public XMPPFileTransfer streamSendStart(
+      JID remoteJID, String streamName, InputStream inputStream, int stripes)
+      throws IllegalArgumentException, IOException {
+
+    if (stripes < 1 || stripes > MAX_STRIPES)
+      throw new IllegalArgumentException("invalid number of stripes: " + stripes);
+
+    if (stripes == 1) return streamSendStart(remoteJID, streamName, inputStream);
+
+    if (remoteJID == null || remoteJID.isBareJID())
+      throw new IllegalArgumentException("No valid remoteJID provided: " + remoteJID);
+
+    FileTransferManager currentManager = smackTransferManager.get();
+    if (currentManager == null) throw new IOException("No XMPP connection.");
+
+    final StripeSplitter splitter =
+        new StripeSplitter(inputStream, stripes, StripeSplitter.DEFAULT_BLOCK_SIZE);
+
+    final List<FileTransfer> transfers = new ArrayList<>(stripes);
+
+    for (int i = 0; i < stripes; i++) {
+      OutgoingFileTransfer transfer = currentManager.createOutgoingFileTransfer(remoteJID.getRAW());
+
+      transfer.sendStream(
+          splitter.getStripe(i), streamName, 0, streamName + STRIPE_DELIMITER + i + "/" + stripes);
+
+      transfers.add(transfer);
+    }
+
+    return new XMPPFileTransfer(transfers, splitter::getPayloadBytes);
+  }
 }
@@ -3,6 +3,9 @@ package saros.net.xmpp.filetransfer;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
@@ -13,14 +16,27 @@ import saros.net.xmpp.contact.XMPPContact;
  *
  * <p>Use {@link #acceptFile(File)} or {@link #acceptStream()} to start transfer or {@link
  * #reject()} to cancel.
+ *
+ * <p>A striped transfer consists of several XMPP file transfer requests and can only be accepted as
+ * stream.
  */
 public class XMPPFileTransferRequest {
   private final XMPPContact contact;
   private final FileTransferRequest request;
+  private final List<FileTransferRequest> stripes;
 
   XMPPFileTransferRequest(XMPPContact contact, FileTransferRequest request) {
+    this(contact, Collections.singletonList(request));
+  }
+
+  /**
+   * @param contact the sender of the transfer
+   * @param stripes the requests of all stripes ordered by their index
+   */
+  XMPPFileTransferRequest(XMPPContact contact, List<FileTransferRequest> stripes) {
     this.contact = contact;
-    this.request = request;
+    this.request = stripes.get(0);
+    this.stripes = stripes;
   }
 
   /**
@@ -31,6 +47,9 @@ public class XMPPFileTransferRequest {
    * @throws IOException if transmission fails
    */
   public XMPPFileTransfer acceptFile(File file) throws IOException {
+    if (stripes.size() > 1)
+      throw new IOException("a striped transfer can only be received as stream: " + this);
+
     try {
       IncomingFileTransfer transfer = request.accept();
       transfer.recieveFile(file);
@@ -47,17 +66,24 @@ public class XMPPFileTransferRequest {
    * @throws IOException if transmission fails
    */
   public InputStream acceptStream() throws IOException {
+    final List<InputStream> streams = new ArrayList<InputStream>(stripes.size());
+
     try {
-      IncomingFileTransfer transfer = request.accept();
-      return transfer.recieveFile();
+      for (final FileTransferRequest stripe : stripes) streams.add(stripe.accept().recieveFile());
     } catch (XMPPException e) {
+      for (final InputStream stream : streams) stream.close();
+
+      for (int i = streams.size() + 1; i < stripes.size(); i++) stripes.get(i).reject();
+
       throw new IOException(e);
     }
+
+    return streams.size() == 1 ? streams.get(0) : new StripedInputStream(streams);
   }
 
   /** Reject the incoming transfer request. */
   public void reject() {
-    request.reject();
+    for (final FileTransferRequest stripe : stripes) stripe.reject();
   }
 
   public String getFileName() {
@@ -65,7 +91,11 @@ public class XMPPFileTransferRequest {
   }
 
   public long getFileSize() {
-    return request.getFileSize();
+    long size = 0;
+
+    for (final FileTransferRequest stripe : stripes) size += stripe.getFileSize();
+
+    return size;
   }
 
   public XMPPContact getContact() {
@@ -1,6 +1,6 @@
 package saros.session;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import org.apache.log4j.Logger;
 import saros.negotiation.TransferType;
@@ -17,6 +17,12 @@ import saros.preferences.Preferences;
  * <p>Host and Client tell a preference, the host decides if they are the same and use it. Otherwise
  * defaults to Archive. This approach is good enough and works best for two supported types, like
  * now {@link TransferType#ARCHIVE} and {@link TransferType#INSTANT}.
+ *
+ * <p>Additionally the client tells whether it is able to unpack an archive while it is still being
+ * received and whether it is able to receive altered files as delta. The host enables these
+ * features if both sides support them, see {@link #KEY_ARCHIVE_STREAMING} and {@link
+ * #KEY_DELTA_TRANSFER}. The maximum number of parallel stripes of a streamed transfer is the
+ * minimum of the numbers supported by both sides, see {@link #KEY_TRANSFER_STRIPES}.
  */
 public class ResourceNegotiationTypeHook implements ISessionNegotiationHook {
   private static final String HOOK_IDENTIFIER = "resourceNegotiationTypeHook";
@@ -24,6 +30,39 @@ public class ResourceNegotiationTypeHook implements ISessionNegotiationHook {
 
   public static final String KEY_TYPE = "resourceNegotiationType";
 
+  private static final String KEY_ARCHIVE_STREAMING_SUPPORTED = "archiveStreamingSupported";
+
+  /**
+   * Boolean preference that is set if the archive of a {@link TransferType#ARCHIVE} negotiation is
+   * streamed to the client instead of being transferred as a file.
+   */
+  public static final String KEY_ARCHIVE_STREAMING = "archiveStreaming";
+
+  private static final String KEY_DELTA_TRANSFER_SUPPORTED = "deltaTransferSupported";
+
+  /**
+   * Boolean preference that is set if altered files are transferred as delta to the receiver's copy
+   * during a {@link TransferType#ARCHIVE} negotiation.
+   */
+  public static final String KEY_DELTA_TRANSFER = "deltaTransfer";
+
+  private static final String KEY_TRANSFER_STRIPES_SUPPORTED = "transferStripesSupported";
+
+  /**
+   * Integer preference containing the maximum number of parallel stripes a streamed transfer
+   * between host and client may use.
+   */
+  public static final String KEY_TRANSFER_STRIPES = "transferStripes";
+
+  private static final int MAX_TRANSFER_STRIPES =
+      Integer.getInteger("saros.negotiation.MAX_TRANSFER_STRIPES", 4);
+
+  private static final boolean ARCHIVE_STREAMING =
+      Boolean.parseBoolean(System.getProperty("saros.negotiation.ARCHIVE_STREAMING", "true"));
+
+  private static final boolean DELTA_TRANSFER =
+      Boolean.parseBoolean(System.getProperty("saros.negotiation.DELTA_TRANSFER", "true"));
+
   private static final String TYPE_ARCHIVE = TransferType.ARCHIVE.name();
   private static final String TYPE_INSTANT = TransferType.INSTANT.name();
 
@@ -62,14 +101,34 @@ public class ResourceNegotiationTypeHook implements ISessionNegotiationHook {
       return null;
     }
 
+    final Map<String, String> result = new HashMap<String, String>();
+
     /* if both prefer the same type, set it */
     String inputType = input.get(KEY_PREFERRED_TYPE);
     if (inputType.equals(getLocalPreference().get(KEY_PREFERRED_TYPE))) {
-      return Collections.singletonMap(KEY_TYPE, inputType);
+      result.put(KEY_TYPE, inputType);
+    } else {
+      /* otherwise Archive should currently be the field-tested fallback */
+      result.put(KEY_TYPE, TYPE_ARCHIVE);
     }
 
-    /* otherwise Archive should currently be the field-tested fallback */
-    return Collections.singletonMap(KEY_TYPE, TYPE_ARCHIVE);
+    /* older clients do not tell anything and expect the archive as file */
+    final boolean streaming =
+        ARCHIVE_STREAMING && Boolean.parseBoolean(input.get(KEY_ARCHIVE_STREAMING_SUPPORTED));
+
+    result.put(KEY_ARCHIVE_STREAMING, Boolean.toString(streaming));
+
+    final boolean deltaTransfer =
+        DELTA_TRANSFER && Boolean.parseBoolean(input.get(KEY_DELTA_TRANSFER_SUPPORTED));
+
+    result.put(KEY_DELTA_TRANSFER, Boolean.toString(deltaTransfer));
+
+    final int stripes =
+        Math.min(MAX_TRANSFER_STRIPES, parseStripes(input.get(KEY_TRANSFER_STRIPES_SUPPORTED)));
+
+    result.put(KEY_TRANSFER_STRIPES, Integer.toString(stripes));
+
+    return result;
   }
 
   @Override
@@ -101,13 +160,51 @@ public class ResourceNegotiationTypeHook implements ISessionNegotiationHook {
     hostPreferences.setValue(KEY_TYPE, type.name());
 
     clientPreferences.setValue(KEY_TYPE, type.name());
+
+    final boolean streaming = Boolean.parseBoolean(input.get(KEY_ARCHIVE_STREAMING));
+
+    hostPreferences.setValue(KEY_ARCHIVE_STREAMING, streaming);
+
+    clientPreferences.setValue(KEY_ARCHIVE_STREAMING, streaming);
+
+    final boolean deltaTransfer = Boolean.parseBoolean(input.get(KEY_DELTA_TRANSFER));
+
+    hostPreferences.setValue(KEY_DELTA_TRANSFER, deltaTransfer);
+
+    clientPreferences.setValue(KEY_DELTA_TRANSFER, deltaTransfer);
+
+    final int stripes = parseStripes(input.get(KEY_TRANSFER_STRIPES));
+
+    hostPreferences.setValue(KEY_TRANSFER_STRIPES, stripes);
+
+    clientPreferences.setValue(KEY_TRANSFER_STRIPES, stripes);
+  }
+
+  /* older versions do not tell anything and can only receive one stripe */
+  private static int parseStripes(String value) {
+    if (value == null) return 1;
+
+    try {
+      return Math.max(1, Integer.parseInt(value));
+    } catch (NumberFormatException e) {
+      log.warn("invalid number of transfer stripes: " + value);
+      return 1;
+    }
   }
 
   private Map<String, String> getLocalPreference() {
+    final Map<String, String> preferences = new HashMap<String, String>();
+
     if (localPref != null && localPref.isInstantSessionStartPreferred()) {
-      return Collections.singletonMap(KEY_PREFERRED_TYPE, TYPE_INSTANT);
+      preferences.put(KEY_PREFERRED_TYPE, TYPE_INSTANT);
+    } else {
+      preferences.put(KEY_PREFERRED_TYPE, TYPE_ARCHIVE);
     }
 
-    return Collections.singletonMap(KEY_PREFERRED_TYPE, TYPE_ARCHIVE);
+    preferences.put(KEY_ARCHIVE_STREAMING_SUPPORTED, Boolean.toString(ARCHIVE_STREAMING));
+    preferences.put(KEY_DELTA_TRANSFER_SUPPORTED, Boolean.toString(DELTA_TRANSFER));
+    preferences.put(KEY_TRANSFER_STRIPES_SUPPORTED, Integer.toString(MAX_TRANSFER_STRIPES));
+
+    return preferences;
   }
 }
@@ -13,6 +13,7 @@ import saros.misc.xstream.ResourceTransportWrapperConverter;
 import saros.misc.xstream.UserConverter;
 import saros.negotiation.ResourceNegotiationFactory;
 import saros.repackaged.picocontainer.MutablePicoContainer;
+import saros.session.internal.ActivitiesExtensionCodecBinding;
 import saros.session.internal.ActivityHandler;
 import saros.session.internal.ActivitySequencer;
 import saros.session.internal.ChangeColorManager;
@@ -58,6 +59,7 @@ public class SarosCoreSessionContextFactory implements ISarosSessionContextFacto
     // Session-dependent XStream Converter
     container.addComponent(ResourceTransportWrapperConverter.class);
     container.addComponent(UserConverter.class);
+    container.addComponent(ActivitiesExtensionCodecBinding.class);
 
     // Other
     container.addComponent(ActivityHandler.class);
@@ -0,0 +1,30 @@
+package saros.session.internal;
+
+import saros.annotations.Component;
+import saros.communication.extensions.ActivitiesExtension;
+import saros.repackaged.picocontainer.Startable;
+import saros.session.ISarosSession;
+
+/**
+ * Binds the {@linkplain ActivitiesExtension#CODEC binary activities codec} to the current session
+ * so that users and resources can be resolved while encoding and decoding.
+ */
+@Component
+public class ActivitiesExtensionCodecBinding implements Startable {
+
+  private final ISarosSession session;
+
+  public ActivitiesExtensionCodecBinding(ISarosSession session) {
+    this.session = session;
+  }
+
+  @Override
+  public void start() {
+    ActivitiesExtension.CODEC.bind(session);
+  }
+
+  @Override
+  public void stop() {
+    ActivitiesExtension.CODEC.unbind(session);
+  }
+}
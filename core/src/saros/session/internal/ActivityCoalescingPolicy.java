@@ -0,0 +1,175 @@
+package saros.session.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long the {@link ActivitySequencer} buffers outgoing activities before they are sent,
+ * so that activities generated in quick succession (e.g by a fast typist) are sent in one message
+ * instead of one message per activity.
+ *
+ * <p>The delay adapts to the link: it follows the smoothed time the transmitter needs to send a
+ * batch of activities, which grows on slow or congested links, and is bounded by a latency budget.
+ * It shrinks with the number of pending activities and is zero once a batch is full. On a fast link
+ * the delay is therefore close to zero and activities are sent nearly immediately.
+ *
+ * <p>The policy also records statistics about the sent batches to allow tuning the parameters.
+ *
+ * <p>This class is thread safe.
+ */
+final class ActivityCoalescingPolicy {
+
+  /**
+   * Maximum time in milliseconds an activity is buffered before it is sent, <code>0</code> disables
+   * the coalescing.
+   */
+  static final long MAX_DELAY =
+      Long.getLong("saros.session.activity.MAX_COALESCING_DELAY", 5L).longValue();
+
+  /** Number of pending activities that are sent without any further delay. */
+  static final int MAX_ACTIVITIES =
+      Integer.getInteger("saros.session.activity.MAX_COALESCING_ACTIVITIES", 64).intValue();
+
+  /** Weight of a new sample in the smoothed send time, see TCP RTT estimation. */
+  private static final double SEND_TIME_WEIGHT = 0.125D;
+
+  private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+  private final long maxDelay;
+
+  private final int maxActivities;
+
+  private double smoothedSendTime;
+
+  private long batchCount;
+  private long activityCount;
+  private long messageCount;
+
+  private int maxBatchSize;
+
+  private long totalBufferedTime;
+  private long maxBufferedTime;
+
+  private long rateIntervalStart = System.nanoTime();
+  private long rateIntervalMessages;
+  private double messageRate;
+
+  /**
+   * Creates a policy using the configured {@linkplain #MAX_DELAY delay} and {@linkplain
+   * #MAX_ACTIVITIES activity} limits.
+   */
+  ActivityCoalescingPolicy() {
+    this(TimeUnit.MILLISECONDS.toNanos(MAX_DELAY), MAX_ACTIVITIES);
+  }
+
+  /**
+   * @param maxDelay the maximum delay in nanoseconds
+   * @param maxActivities the number of pending activities that are sent without delay
+   */
+  ActivityCoalescingPolicy(long maxDelay, int maxActivities) {
+    this.maxDelay = Math.max(0, maxDelay);
+    this.maxActivities = Math.max(1, maxActivities);
+  }
+
+  /**
+   * Returns the time that the given number of pending activities should be buffered, measured from
+   * the time the oldest of them was buffered.
+   *
+   * @param pendingActivities the number of pending activities
+   * @return the delay in nanoseconds
+   */
+  synchronized long getDelay(int pendingActivities) {
+    if (maxDelay == 0 || pendingActivities >= maxActivities) return 0;
+
+    final double delay = Math.min(maxDelay, smoothedSendTime);
+
+    return (long) (delay * (maxActivities - pendingActivities) / maxActivities);
+  }
+
+  /**
+   * Records a sent batch.
+   *
+   * @param activities the number of activities of the batch
+   * @param messages the number of messages that were sent for the batch
+   * @param bufferedTime the time in nanoseconds the oldest activity of the batch was buffered
+   * @param sendTime the time in nanoseconds needed to send the batch
+   */
+  synchronized void sent(int activities, int messages, long bufferedTime, long sendTime) {
+    if (batchCount == 0) smoothedSendTime = sendTime;
+    else smoothedSendTime += SEND_TIME_WEIGHT * (sendTime - smoothedSendTime);
+
+    batchCount++;
+    activityCount += activities;
+    messageCount += messages;
+
+    maxBatchSize = Math.max(maxBatchSize, activities);
+
+    totalBufferedTime += bufferedTime;
+    maxBufferedTime = Math.max(maxBufferedTime, bufferedTime);
+
+    final long now = System.nanoTime();
+
+    rateIntervalMessages += messages;
+
+    if (now - rateIntervalStart >= RATE_INTERVAL) {
+      messageRate = rateIntervalMessages * (double) RATE_INTERVAL / (now - rateIntervalStart);
+      rateIntervalStart = now;
+      rateIntervalMessages = 0;
+    }
+  }
+
+  /** Returns the number of sent batches. */
+  synchronized long getBatchCount() {
+    return batchCount;
+  }
+
+  /** Returns the number of sent messages. */
+  synchronized long getMessageCount() {
+    return messageCount;
+  }
+
+  /** Returns the average number of activities per batch. */
+  synchronized double getAverageBatchSize() {
+    return batchCount == 0 ? 0D : (double) activityCount / batchCount;
+  }
+
+  /** Returns the highest number of activities of a batch. */
+  synchronized int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /** Returns the average time in microseconds the oldest activity of a batch was buffered. */
+  synchronized long getAverageBufferedTime() {
+    return batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalBufferedTime / batchCount);
+  }
+
+  /** Returns the highest time in microseconds an activity was buffered. */
+  synchronized long getMaxBufferedTime() {
+    return TimeUnit.NANOSECONDS.toMicros(maxBufferedTime);
+  }
+
+  /** Returns the number of messages per second sent during the last completed interval. */
+  synchronized double getMessageRate() {
+    return messageRate;
+  }
+
+  /** Returns the smoothed time in microseconds needed to send a batch. */
+  synchronized long getSmoothedSendTime() {
+    return TimeUnit.NANOSECONDS.toMicros((long) smoothedSendTime);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "ActivityCoalescingPolicy [batches=%d, messages=%d, avgBatchSize=%.1f, maxBatchSize=%d,"
+            + " avgBufferedTime=%d us, maxBufferedTime=%d us, messageRate=%.1f/s,"
+            + " sendTime=%d us]",
+        batchCount,
+        messageCount,
+        getAverageBatchSize(),
+        maxBatchSize,
+        getAverageBufferedTime(),
+        getMaxBufferedTime(),
+        messageRate,
+        getSmoothedSendTime());
+  }
+}
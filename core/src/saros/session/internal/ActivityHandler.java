@@ -3,7 +3,10 @@ package saros.session.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ActivityOptimizer;
 import saros.activities.ChecksumActivity;
@@ -12,15 +15,21 @@ import saros.activities.IResourceActivity;
 import saros.activities.ITargetedActivity;
 import saros.activities.JupiterActivity;
 import saros.activities.QueueItem;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.concurrent.management.ConcurrentDocumentServer;
 import saros.concurrent.management.TransformationResult;
+import saros.filesystem.IFile;
 import saros.filesystem.IResource;
 import saros.repackaged.picocontainer.Startable;
 import saros.session.IActivityHandlerCallback;
 import saros.session.ISarosSession;
 import saros.session.User;
 import saros.synchronize.UISynchronizer;
+import saros.util.NamedThreadFactory;
+import saros.util.ReceiveDispatcher;
 import saros.util.ThreadUtils;
 
 /**
@@ -53,6 +62,18 @@ public final class ActivityHandler implements Startable {
     DISPATCH_MODE = dispatchModeToUse;
   }
 
+  /** number of threads the host uses to transform the activities of different documents */
+  private static final int TRANSFORM_WORKER_COUNT =
+      Integer.getInteger(
+          "saros.session.HOST_TRANSFORM_THREADS",
+          Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+  /**
+   * maximum time in milliseconds the host waits for the pending transformations of all documents
+   * before an activity that must be ordered with them is directed anyway
+   */
+  private static final long MAX_TRANSFORMATION_WAIT = 6 * TIMEOUT;
+
   private final LinkedBlockingQueue<List<IActivity>> dispatchQueue =
       new LinkedBlockingQueue<List<IActivity>>();
 
@@ -66,6 +87,35 @@ public final class ActivityHandler implements Startable {
 
   private final UISynchronizer synchronizer;
 
+  /**
+   * Transforms the incoming activities of the host per document in parallel. The results are sent
+   * by the single delivery thread in the order of the activities of each document. Both are <code>
+   * null</code> on the client.
+   */
+  private final ReceiveDispatcher transformDispatcher;
+
+  private final ExecutorService transformDelivery;
+
+  /**
+   * Outgoing activities that were generated during the current event of the UI thread. They are
+   * optimized (e.g consecutive text edits are merged) and transformed together once the event is
+   * processed. Must only be accessed by the UI thread.
+   */
+  private final List<IActivity> pendingOutgoingActivities = new ArrayList<IActivity>();
+
+  private boolean isOutgoingFlushScheduled;
+
+  private final Runnable outgoingFlushRunnable =
+      ThreadUtils.wrapSafe(
+          log,
+          new Runnable() {
+            @Override
+            public void run() {
+              isOutgoingFlushScheduled = false;
+              flushOutgoingActivities();
+            }
+          });
+
   /*
    * We must use a thread for synchronous execution otherwise we would block
    * the DispatchThreadContext which handles the dispatching of all network
@@ -134,6 +184,18 @@ public final class ActivityHandler implements Startable {
     this.documentServer = documentServer;
     this.documentClient = documentClient;
     this.synchronizer = synchronizer;
+
+    if (documentServer != null) {
+      transformDelivery =
+          Executors.newSingleThreadExecutor(
+              new NamedThreadFactory("activity-transform-delivery", false));
+
+      transformDispatcher =
+          new ReceiveDispatcher("activity-transform-", TRANSFORM_WORKER_COUNT, transformDelivery);
+    } else {
+      transformDelivery = null;
+      transformDispatcher = null;
+    }
   }
 
   /**
@@ -152,13 +214,8 @@ public final class ActivityHandler implements Startable {
        * may transform activities again if necessary and afterward sends them to the correct
        * clients. (Note that the callback.send() methods get an actual list of recipients.)
        */
-      TransformationResult result = directServerActivities(activities);
-      for (QueueItem item : result.getSendToPeers()) {
-        List<User> recipients = getRecipientsForQueueItem(item);
-        callback.send(recipients, item.activity);
-      }
-
-      activities = result.getLocalActivities();
+      directServerActivities(activities);
+      return;
     }
 
     /**
@@ -168,6 +225,10 @@ public final class ActivityHandler implements Startable {
      * queue of the activity dispatcher. This queue is consumed by the dispatchThread, which
      * transforms activities again if necessary, and then forwards it to the SarosSession.
      */
+    dispatchLocally(activities);
+  }
+
+  private void dispatchLocally(List<IActivity> activities) {
     if (activities.isEmpty()) return;
 
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) dispatchAndExecuteActivities(activities);
@@ -225,6 +286,16 @@ public final class ActivityHandler implements Startable {
    * words, the transformation would be applied to an out-dated state.
    */
   public void handleOutgoingActivities(final List<IActivity> activities) {
+    /*
+     * Activities generated on the UI thread are collected until the current
+     * event is processed so that text edits caused by one user action (e.g
+     * typing with auto indentation, formatting or code completion) are
+     * merged before they get a Jupiter timestamp. This is safe as incoming
+     * activities are transformed on the UI thread too and flush the pending
+     * activities first.
+     */
+    final boolean deferFlush = synchronizer.isUIThread();
+
     /**
      * @JTourBusStop 6, Activity sending, Transforming the IActivity (Client):
      *
@@ -244,16 +315,55 @@ public final class ActivityHandler implements Startable {
 
               @Override
               public void run() {
-                for (IActivity activity : activities) {
+                pendingOutgoingActivities.addAll(activities);
 
-                  IActivity transformationResult = documentClient.transformToJupiter(activity);
-
-                  callback.send(Collections.singletonList(session.getHost()), transformationResult);
+                if (!deferFlush || !isMergeable(activities)) {
+                  flushOutgoingActivities();
+                  return;
                 }
+
+                if (isOutgoingFlushScheduled) return;
+
+                isOutgoingFlushScheduled = true;
+                synchronizer.asyncExec(outgoingFlushRunnable);
               }
             }));
   }
 
+  /**
+   * Optimizes, transforms and sends the pending outgoing activities. Must be called on the UI
+   * thread.
+   */
+  private void flushOutgoingActivities() {
+    if (pendingOutgoingActivities.isEmpty()) return;
+
+    final List<IActivity> optimizedActivities =
+        ActivityOptimizer.optimize(pendingOutgoingActivities);
+
+    pendingOutgoingActivities.clear();
+
+    for (IActivity activity : optimizedActivities) {
+
+      IActivity transformationResult = documentClient.transformToJupiter(activity);
+
+      callback.send(Collections.singletonList(session.getHost()), transformationResult);
+    }
+  }
+
+  /**
+   * Checks if the given activities can be held back to be optimized together with the activities
+   * generated afterwards.
+   */
+  private static boolean isMergeable(final List<IActivity> activities) {
+    for (IActivity activity : activities) {
+      if (!(activity instanceof TextEditActivity
+          || activity instanceof TextSelectionActivity
+          || activity instanceof ViewportActivity)) return false;
+    }
+
+    return true;
+  }
+
   @Override
   public void start() {
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
@@ -263,6 +373,11 @@ public final class ActivityHandler implements Startable {
 
   @Override
   public void stop() {
+    if (transformDispatcher != null) {
+      transformDispatcher.shutdown();
+      transformDelivery.shutdown();
+    }
+
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
 
     dispatchQueue.add(POISON_PILL);
@@ -329,6 +444,9 @@ public final class ActivityHandler implements Startable {
           @Override
           public void run() {
 
+            // local text edits must be transformed before remote ones are applied
+            flushOutgoingActivities();
+
             for (IActivity activity : optimizedActivities) {
 
               User source = activity.getSource();
@@ -388,47 +506,135 @@ public final class ActivityHandler implements Startable {
    * This method is responsible for directing activities received at the server to the various
    * clients.
    *
+   * <p>Jupiter and checksum activities of a document are transformed by the {@linkplain
+   * #transformDispatcher transform dispatcher}, so the documents do not have to wait for each
+   * other. All other activities may depend on the state of any document (e.g a file deletion) or
+   * must stay in order with the activities of the same user for other documents (e.g text
+   * selections and viewports while the user switches between files). They are therefore only
+   * directed after the pending activities of all documents were sent.
+   *
    * @param activities A list of incoming activities
-   * @return A number of targeted activities.
    */
-  private TransformationResult directServerActivities(List<IActivity> activities) {
+  private void directServerActivities(List<IActivity> activities) {
 
     assert session.isHost() && documentServer != null;
 
-    TransformationResult result = new TransformationResult(session.getLocalUser());
+    for (final IActivity activity : activities) {
+      final IFile document = getDocument(activity);
+
+      if (document != null) {
+        transformDispatcher.submit(
+            document, () -> directServerActivity(activity), this::sendServerResult);
+        continue;
+      }
 
-    final List<User> remoteUsers = session.getRemoteUsers();
-    final List<User> allUsers = session.getUsers();
+      if (!awaitPendingTransformations() && transformDispatcher.isShutdown()) return;
 
-    for (IActivity activity : activities) {
-      documentServer.handleResourceChange(activity);
+      sendServerResult(directServerActivity(activity));
+    }
+  }
 
-      if (activity instanceof JupiterActivity || activity instanceof ChecksumActivity) {
+  /**
+   * Returns the document the given activity refers to if it only affects the state of that
+   * document.
+   *
+   * @return the document or <code>null</code> if the activity must be ordered with the activities
+   *     of all documents
+   */
+  private static IFile getDocument(final IActivity activity) {
+    if (!(activity instanceof JupiterActivity || activity instanceof ChecksumActivity)) return null;
 
-        result.addAll(documentServer.transformIncoming(activity));
-      } else if (activity instanceof ITargetedActivity) {
-        ITargetedActivity target = (ITargetedActivity) activity;
-        result.add(new QueueItem(target.getTarget(), activity));
+    final IResource resource = ((IResourceActivity<?>) activity).getResource();
 
-      } else if (remoteUsers.size() > 0) {
+    return resource instanceof IFile ? (IFile) resource : null;
+  }
 
-        // We must not send the activity back to the sender
-        List<User> receivers = new ArrayList<User>();
-        for (User user : allUsers) {
-          if (!user.equals(activity.getSource())) {
-            receivers.add(user);
-          }
+  /**
+   * Waits until the results of all pending transformations were sent. Gives up if the {@linkplain
+   * #transformDispatcher transform dispatcher} is shut down or the results were not sent within
+   * {@link #MAX_TRANSFORMATION_WAIT} milliseconds.
+   *
+   * @return <code>true</code> if all results were sent, <code>false</code> otherwise
+   */
+  private boolean awaitPendingTransformations() {
+    final long deadline = System.currentTimeMillis() + MAX_TRANSFORMATION_WAIT;
+
+    try {
+      while (true) {
+        if (transformDispatcher.isShutdown()) {
+          log.error(
+              "transformations are discarded because the session is stopped: "
+                  + transformDispatcher);
+          return false;
         }
-        result.add(new QueueItem(receivers, activity));
-
-        /*
-         * should we really execute an activity from a user that is
-         * about to or has left the session ?
-         */
-      } else if (!(session.getLocalUser().equals(activity.getSource()))) {
-        result.executeLocally.add(activity);
+
+        if (transformDispatcher.awaitIdle(TIMEOUT, TimeUnit.MILLISECONDS)) return true;
+
+        if (System.currentTimeMillis() >= deadline) {
+          log.error(
+              "gave up waiting for pending transformations after "
+                  + MAX_TRANSFORMATION_WAIT
+                  + " ms: "
+                  + transformDispatcher);
+          return false;
+        }
+
+        log.warn("still waiting for pending transformations: " + transformDispatcher);
       }
+    } catch (InterruptedException e) {
+      log.warn("interrupted while waiting for pending transformations");
+      Thread.currentThread().interrupt();
+      return false;
     }
+  }
+
+  private void sendServerResult(final TransformationResult result) {
+    for (QueueItem item : result.getSendToPeers()) {
+      List<User> recipients = getRecipientsForQueueItem(item);
+      callback.send(recipients, item.activity);
+    }
+
+    dispatchLocally(result.getLocalActivities());
+  }
+
+  /**
+   * Transforms and determines the recipients of a single activity received at the server.
+   *
+   * @param activity the incoming activity
+   * @return the activity for the various clients
+   */
+  private TransformationResult directServerActivity(final IActivity activity) {
+
+    final TransformationResult result = new TransformationResult(session.getLocalUser());
+
+    documentServer.handleResourceChange(activity);
+
+    if (activity instanceof JupiterActivity || activity instanceof ChecksumActivity) {
+
+      result.addAll(documentServer.transformIncoming(activity));
+    } else if (activity instanceof ITargetedActivity) {
+      ITargetedActivity target = (ITargetedActivity) activity;
+      result.add(new QueueItem(target.getTarget(), activity));
+
+    } else if (session.getRemoteUsers().size() > 0) {
+
+      // We must not send the activity back to the sender
+      List<User> receivers = new ArrayList<User>();
+      for (User user : session.getUsers()) {
+        if (!user.equals(activity.getSource())) {
+          receivers.add(user);
+        }
+      }
+      result.add(new QueueItem(receivers, activity));
+
+      /*
+       * should we really execute an activity from a user that is
+       * about to or has left the session ?
+       */
+    } else if (!(session.getLocalUser().equals(activity.getSource()))) {
+      result.executeLocally.add(activity);
+    }
+
     return result;
   }
 }
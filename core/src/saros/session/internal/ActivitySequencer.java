@@ -2,14 +2,17 @@ package saros.session.internal;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.packet.Packet;
@@ -41,13 +44,34 @@ public class ActivitySequencer implements Startable {
   /** Sequence numbers for outgoing and incoming activities start with this value. */
   private static final int FIRST_SEQUENCE_NUMBER = 0;
 
+  /**
+   * Activities that are sent to one or more recipients. The sequence number of the first activity
+   * differs per recipient.
+   */
   private static class SequencedActivities {
-    private final int sequenceNumber;
+    /** the buffered activities before they were optimized */
+    private final List<IActivity> bufferedActivities;
+
     private final List<IActivity> activites;
+    private final Map<JID, Integer> sequenceNumbers = new LinkedHashMap<JID, Integer>();
 
-    private SequencedActivities(List<IActivity> activites, int sequenceNumber) {
+    private SequencedActivities(List<IActivity> bufferedActivities, List<IActivity> activites) {
+      this.bufferedActivities = bufferedActivities;
       this.activites = activites;
-      this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Checks if the given activities are the same activity instances in the same order as the
+     * buffered activities of this object.
+     */
+    private boolean isBufferedFrom(Collection<IActivity> activities) {
+      if (activities.size() != bufferedActivities.size()) return false;
+
+      final Iterator<IActivity> it = bufferedActivities.iterator();
+
+      for (final IActivity activity : activities) if (activity != it.next()) return false;
+
+      return true;
     }
   }
 
@@ -61,6 +85,9 @@ public class ActivitySequencer implements Startable {
     private int nextSequenceNumber;
     private final Deque<T> activities = new LinkedList<T>();
 
+    /** the time the oldest activity of the buffer was added, see {@link System#nanoTime()} */
+    private long firstBufferedTime;
+
     private ActivityBuffer(int firstSequenceNumber) {
       nextSequenceNumber = firstSequenceNumber;
     }
@@ -81,15 +108,53 @@ public class ActivitySequencer implements Startable {
         @Override
         public void run() {
 
-          Map<JID, SequencedActivities> activitiesToSend = new HashMap<JID, SequencedActivities>();
+          final List<SequencedActivities> activitiesToSend = new ArrayList<SequencedActivities>();
 
           send:
           while (true) {
             activitiesToSend.clear();
 
+            final long bufferedTime;
+
             synchronized (bufferedOutgoingActivities) {
               if (stopSending) return;
 
+              int pendingActivities = 0;
+              long firstBufferedTime = 0;
+
+              for (ActivityBuffer<IActivity> buffer : bufferedOutgoingActivities.values()) {
+                if (buffer == null || buffer.activities.isEmpty()) continue;
+
+                if (pendingActivities == 0 || buffer.firstBufferedTime - firstBufferedTime < 0)
+                  firstBufferedTime = buffer.firstBufferedTime;
+
+                pendingActivities += buffer.activities.size();
+              }
+
+              try {
+                if (pendingActivities == 0) {
+                  bufferedOutgoingActivities.wait();
+                  continue send;
+                }
+
+                if (!flushRequested) {
+                  final long remainingDelay =
+                      firstBufferedTime
+                          + coalescingPolicy.getDelay(pendingActivities)
+                          - System.nanoTime();
+
+                  if (remainingDelay > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(bufferedOutgoingActivities, remainingDelay);
+                    continue send;
+                  }
+                }
+              } catch (InterruptedException e) {
+                return;
+              }
+
+              flushRequested = false;
+              bufferedTime = System.nanoTime() - firstBufferedTime;
+
               for (Entry<JID, ActivityBuffer<IActivity>> entry :
                   bufferedOutgoingActivities.entrySet()) {
 
@@ -97,33 +162,53 @@ public class ActivitySequencer implements Startable {
 
                 if (buffer == null || buffer.activities.isEmpty()) continue;
 
-                List<IActivity> optimizedActivities = ActivityOptimizer.optimize(buffer.activities);
+                /*
+                 * activities that are broadcasted are buffered for every
+                 * recipient, so optimize and marshal them only once
+                 */
+                SequencedActivities sequencedActivities = null;
+
+                for (final SequencedActivities candidate : activitiesToSend) {
+                  if (candidate.isBufferedFrom(buffer.activities)) {
+                    sequencedActivities = candidate;
+                    break;
+                  }
+                }
 
-                buffer.activities.clear();
-                buffer.isInTransmission = true;
+                if (sequencedActivities == null) {
+                  sequencedActivities =
+                      new SequencedActivities(
+                          new ArrayList<IActivity>(buffer.activities),
+                          ActivityOptimizer.optimize(buffer.activities));
 
-                int currentSequenceNumber = buffer.nextSequenceNumber;
-                buffer.nextSequenceNumber += optimizedActivities.size();
+                  activitiesToSend.add(sequencedActivities);
+                }
 
-                activitiesToSend.put(
-                    entry.getKey(),
-                    new SequencedActivities(optimizedActivities, currentSequenceNumber));
-              }
+                buffer.activities.clear();
+                buffer.isInTransmission = true;
 
-              if (activitiesToSend.isEmpty()) {
-                try {
-                  bufferedOutgoingActivities.wait();
-                  continue send;
-                } catch (InterruptedException e) {
-                  return;
-                }
+                sequencedActivities.sequenceNumbers.put(entry.getKey(), buffer.nextSequenceNumber);
+                buffer.nextSequenceNumber += sequencedActivities.activites.size();
               }
             }
 
-            for (Entry<JID, SequencedActivities> e : activitiesToSend.entrySet()) {
-              sendActivities(e.getKey(), e.getValue().activites, e.getValue().sequenceNumber);
+            final long sendStartTime = System.nanoTime();
+
+            int activityCount = 0;
+            int messageCount = 0;
+
+            for (final SequencedActivities sequencedActivities : activitiesToSend) {
+              activityCount += sequencedActivities.activites.size();
+              messageCount +=
+                  sendActivities(
+                      sequencedActivities.sequenceNumbers, sequencedActivities.activites);
             }
 
+            coalescingPolicy.sent(
+                activityCount, messageCount, bufferedTime, System.nanoTime() - sendStartTime);
+
+            if (log.isTraceEnabled()) log.trace(coalescingPolicy);
+
             synchronized (bufferedOutgoingActivities) {
               for (Entry<JID, ActivityBuffer<IActivity>> entry :
                   bufferedOutgoingActivities.entrySet()) {
@@ -148,6 +233,11 @@ public class ActivitySequencer implements Startable {
   private boolean stopped = false;
 
   private boolean stopSending = false;
+
+  /** set if buffered activities should be sent without any delay, guarded by the buffer map */
+  private boolean flushRequested = false;
+
+  private final ActivityCoalescingPolicy coalescingPolicy = new ActivityCoalescingPolicy();
   private final String currentSessionID;
 
   private Thread activitySendThread;
@@ -268,6 +358,8 @@ public class ActivitySequencer implements Startable {
     if (activitySendThread.isAlive())
       log.error(activitySendThread.getName() + " thread is still running");
 
+    log.debug("activity sender statistics: " + coalescingPolicy);
+
     synchronized (bufferedOutgoingActivities) {
       bufferedOutgoingActivities.clear();
       bufferedOutgoingActivities.notifyAll();
@@ -355,6 +447,9 @@ public class ActivitySequencer implements Startable {
                   + activity);
           continue;
         }
+
+        if (buffer.activities.isEmpty()) buffer.firstBufferedTime = System.nanoTime();
+
         buffer.activities.add(activity);
       }
 
@@ -403,6 +498,13 @@ public class ActivitySequencer implements Startable {
   public void flush(User user) {
 
     synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> pendingBuffer = bufferedOutgoingActivities.get(user.getJID());
+
+      if (pendingBuffer != null && !pendingBuffer.activities.isEmpty()) {
+        flushRequested = true;
+        bufferedOutgoingActivities.notifyAll();
+      }
+
       while (true) {
         ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
 
@@ -435,9 +537,21 @@ public class ActivitySequencer implements Startable {
     }
   }
 
-  private void sendActivities(JID recipient, List<IActivity> activities, int sequenceNumber) {
+  /**
+   * Sends the activities to the given recipients. All recipients receive the same activities, only
+   * the sequence numbers differ.
+   *
+   * @param recipients the recipients mapped to the sequence number of the first activity
+   * @param activities the activities to send
+   * @return the number of sent messages
+   */
+  private int sendActivities(Map<JID, Integer> recipients, List<IActivity> activities) {
+
+    if (activities.size() == 0) return 0;
+
+    int messageCount = 0;
 
-    if (activities.size() == 0) return;
+    final Map<JID, Integer> sequenceNumbers = new LinkedHashMap<JID, Integer>(recipients);
 
     /*
      * HACK the following logic tries to reduce the HEAP usage while
@@ -478,41 +592,77 @@ public class ActivitySequencer implements Startable {
 
       /* ensure to make a copy of the list otherwise the content will be removed later in the loop.
        * If the marshalling is delayed in the ITransmitter this would cause errors.
+       *
+       * All extensions share the same list so the transmitter is able to marshal the activities
+       * only once for all recipients.
        */
 
-      final PacketExtension activityPacketExtension =
-          ActivitiesExtension.PROVIDER.create(
-              new ActivitiesExtension(
-                  currentSessionID,
-                  new ArrayList<IActivity>(activitiesToMarshall),
-                  sequenceNumber));
+      final List<IActivity> activitiesToSend = new ArrayList<IActivity>(activitiesToMarshall);
+
+      final Map<JID, PacketExtension> activityPacketExtensions =
+          new LinkedHashMap<JID, PacketExtension>();
+
+      for (final Entry<JID, Integer> entry : sequenceNumbers.entrySet()) {
+        activityPacketExtensions.put(
+            entry.getKey(),
+            ActivitiesExtension.PROVIDER.create(
+                new ActivitiesExtension(currentSessionID, activitiesToSend, entry.getValue())));
+      }
 
       if (log.isTraceEnabled()) {
         log.trace(
             "send ("
                 + String.format("%03d", activities.size())
                 + ") "
-                + recipient
+                + sequenceNumbers.keySet()
                 + " -> "
                 + activities);
       } else if (log.isDebugEnabled()) {
-        log.debug("send (" + String.format("%03d", activities.size()) + ") " + recipient);
+        log.debug(
+            "send (" + String.format("%03d", activities.size()) + ") " + sequenceNumbers.keySet());
       }
 
-      try {
-        transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient, activityPacketExtension);
-      } catch (IOException e) {
-        log.error("failed to sent activities: " + activities, e);
+      final Map<JID, IOException> failures = send(activityPacketExtensions);
+
+      messageCount += activityPacketExtensions.size() - failures.size();
+
+      for (final Entry<JID, IOException> failure : failures.entrySet()) {
+        final JID recipient = failure.getKey();
 
+        log.error(
+            "failed to sent activities to " + recipient + ": " + activities, failure.getValue());
+
+        sequenceNumbers.remove(recipient);
         unregisterUser(recipient);
         notifyTransmissionError(recipient);
-        return;
-      } finally {
-        sequenceNumber += activitiesToMarshall.size();
-        activitiesToMarshall.clear();
-        currentFileActivitySize = 0;
       }
+
+      if (sequenceNumbers.isEmpty()) break;
+
+      for (final Entry<JID, Integer> entry : sequenceNumbers.entrySet())
+        entry.setValue(entry.getValue() + activitiesToMarshall.size());
+
+      activitiesToMarshall.clear();
+      currentFileActivitySize = 0;
     }
+
+    return messageCount;
+  }
+
+  private Map<JID, IOException> send(Map<JID, PacketExtension> activityPacketExtensions) {
+
+    if (activityPacketExtensions.size() > 1)
+      return transmitter.send(ISarosSession.SESSION_CONNECTION_ID, activityPacketExtensions);
+
+    final Entry<JID, PacketExtension> entry = activityPacketExtensions.entrySet().iterator().next();
+
+    try {
+      transmitter.send(ISarosSession.SESSION_CONNECTION_ID, entry.getKey(), entry.getValue());
+    } catch (IOException e) {
+      return Collections.singletonMap(entry.getKey(), e);
+    }
+
+    return Collections.emptyMap();
   }
 
   private void receiveActivities(Packet activityPacket) {
@@ -567,6 +717,16 @@ public class ActivitySequencer implements Startable {
     }
   }
 
+  /**
+   * Returns the policy that decides how long outgoing activities are buffered. The policy also
+   * provides statistics about the sent activities.
+   *
+   * @return the coalescing policy
+   */
+  ActivityCoalescingPolicy getCoalescingPolicy() {
+    return coalescingPolicy;
+  }
+
   private void notifyTransmissionError(final JID user) {
     IActivitySequencerCallback currentCallback = callback;
 
@@ -0,0 +1,389 @@
+package saros.util;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.log4j.Logger;
+
+/**
+ * Dispatcher that performs the expensive part of processing incoming data (e.g decompression and
+ * deserialization) on a pool of worker threads and hands the results over to a single delivery
+ * executor.
+ *
+ * <p>Tasks are grouped by a key (e.g the sender and the connection the data was received from).
+ * Tasks with the same key are processed strictly in submission order and their results are handed
+ * over to the delivery executor in exactly the same order. Tasks with different keys are processed
+ * concurrently, so a large or slow task of one key does not delay the tasks of other keys.
+ *
+ * <p>The dispatcher also records the number of pending tasks and the latency from submission to
+ * delivery to make a backlog visible.
+ */
+public final class ReceiveDispatcher {
+
+  private static final Logger log = Logger.getLogger(ReceiveDispatcher.class);
+
+  /** Maximum number of tasks of one key that are processed before the worker is yielded. */
+  private static final int MAX_TASKS_PER_RUN = 16;
+
+  private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+  private final Map<Object, KeyQueue> queues = new ConcurrentHashMap<>();
+
+  private final ThreadPoolExecutor workers;
+
+  private final Executor delivery;
+
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final Object idleLock = new Object();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+  private final AtomicLong deliveredCount = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+
+  private volatile boolean shutdown;
+
+  private static final class Task<T> {
+    private final Supplier<T> processor;
+    private final Consumer<T> consumer;
+    private final long submitTime;
+
+    private Task(Supplier<T> processor, Consumer<T> consumer) {
+      this.processor = processor;
+      this.consumer = consumer;
+      this.submitTime = System.nanoTime();
+    }
+  }
+
+  /** Pending tasks of a key. Access must be synchronized on the instance. */
+  private final class KeyQueue implements Runnable {
+
+    private final Object key;
+
+    private final Queue<Task<?>> tasks = new ArrayDeque<>();
+
+    private boolean scheduled;
+
+    private KeyQueue(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+        final Task<?> task;
+
+        if (shutdown) {
+          discard(this);
+          return;
+        }
+
+        synchronized (this) {
+          task = tasks.poll();
+
+          if (task == null) {
+            scheduled = false;
+            queues.remove(key, this);
+            return;
+          }
+        }
+
+        process(task);
+      }
+
+      synchronized (this) {
+        if (tasks.isEmpty()) {
+          scheduled = false;
+          queues.remove(key, this);
+          return;
+        }
+      }
+
+      // give other keys a chance
+      schedule(this);
+    }
+  }
+
+  /**
+   * Creates a new dispatcher.
+   *
+   * @param name the name used for the worker threads
+   * @param workerCount the maximum number of worker threads
+   * @param delivery the executor the results are handed over to, <b>must</b> execute tasks in
+   *     submission order
+   */
+  public ReceiveDispatcher(String name, int workerCount, Executor delivery) {
+    if (workerCount < 1) throw new IllegalArgumentException("workerCount must be positive");
+
+    this.delivery = delivery;
+
+    workers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            WORKER_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory(name));
+
+    workers.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Submits a task. The processor is invoked on a worker thread after all previously submitted
+   * processors of the same key have returned. Its result is then passed to the consumer which is
+   * invoked by the delivery executor after all consumers of the previously submitted tasks of the
+   * same key.
+   *
+   * @param key the key to group the task by
+   * @param processor the processor to invoke on a worker thread, may return <code>null</code>
+   * @param consumer the consumer of the result, only invoked if the result is not <code>null
+   *     </code>
+   * @return <code>false</code> if the task was discarded because the dispatcher is shut down,
+   *     <code>true</code> otherwise
+   */
+  public <T> boolean submit(Object key, Supplier<T> processor, Consumer<T> consumer) {
+    final Task<T> task = new Task<>(processor, consumer);
+
+    while (true) {
+      final KeyQueue queue = queues.computeIfAbsent(key, KeyQueue::new);
+
+      synchronized (queue) {
+        /*
+         * the queue may have been removed by a worker between the lookup and
+         * the lock, in that case it must not be used anymore
+         */
+        if (queues.get(key) != queue) continue;
+
+        /*
+         * checked under the lock of the queue, so either the task is added
+         * before the queue is drained on shutdown or it is never added
+         */
+        if (shutdown) {
+          queues.remove(key, queue);
+          log.warn("dispatcher is shut down, discarding task of: " + key);
+          return false;
+        }
+
+        updateMax(maxQueueDepth, queueDepth.incrementAndGet());
+
+        queue.tasks.add(task);
+
+        if (queue.scheduled) return true;
+
+        queue.scheduled = true;
+      }
+
+      schedule(queue);
+      return true;
+    }
+  }
+
+  /**
+   * Returns the number of submitted tasks whose results were not delivered yet.
+   *
+   * @return the current queue depth
+   */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * Returns the highest queue depth that was observed so far.
+   *
+   * @return the maximum queue depth
+   */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /**
+   * Returns the number of tasks that were completely processed so far.
+   *
+   * @return the number of processed tasks
+   */
+  public long getDeliveredCount() {
+    return deliveredCount.get();
+  }
+
+  /**
+   * Returns the average time in milliseconds from the submission of a task until it was completely
+   * processed.
+   *
+   * @return the average latency in milliseconds
+   */
+  public long getAverageLatency() {
+    final long count = deliveredCount.get();
+
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatency.get() / count);
+  }
+
+  /**
+   * Returns the highest time in milliseconds from the submission of a task until it was completely
+   * processed.
+   *
+   * @return the maximum latency in milliseconds
+   */
+  public long getMaxLatency() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+  }
+
+  /**
+   * Waits until the results of all tasks that were submitted so far are delivered. Returns
+   * immediately if the dispatcher is {@linkplain #shutdown() shut down} as the results of discarded
+   * tasks will never be delivered.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return <code>true</code> if all results are delivered, <code>false</code> if the timeout
+   *     elapsed before or the dispatcher is shut down
+   * @throws InterruptedException if the current thread is interrupted while waiting
+   */
+  public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    synchronized (idleLock) {
+      while (!shutdown && queueDepth.get() != 0) {
+        final long remaining = deadline - System.nanoTime();
+
+        if (remaining <= 0) return false;
+
+        TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+      }
+    }
+
+    return !shutdown;
+  }
+
+  /**
+   * Stops all worker threads. Pending tasks are discarded and tasks that are submitted afterwards
+   * are rejected. Threads that are waiting for the dispatcher to become {@linkplain #awaitIdle
+   * idle} are woken up.
+   */
+  public void shutdown() {
+    shutdown = true;
+
+    workers.shutdownNow();
+
+    /*
+     * the scheduled queues were dropped by the executor and will never run
+     * again, tasks that are currently processed decrement the depth on their own
+     */
+    for (final KeyQueue queue : queues.values()) discard(queue);
+
+    synchronized (idleLock) {
+      idleLock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns whether the dispatcher was shut down.
+   *
+   * @return <code>true</code> if the dispatcher is shut down, <code>false</code> otherwise
+   */
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public String toString() {
+    return "ReceiveDispatcher [queueDepth="
+        + getQueueDepth()
+        + ", maxQueueDepth="
+        + getMaxQueueDepth()
+        + ", delivered="
+        + getDeliveredCount()
+        + ", avgLatency="
+        + getAverageLatency()
+        + " ms, maxLatency="
+        + getMaxLatency()
+        + " ms]";
+  }
+
+  private void schedule(final KeyQueue queue) {
+    try {
+      workers.execute(queue);
+    } catch (RejectedExecutionException e) {
+      log.warn("dispatcher is shut down, discarding pending tasks of: " + queue.key);
+      discard(queue);
+    }
+  }
+
+  /** Discards the pending tasks of the given queue and removes it. */
+  private void discard(final KeyQueue queue) {
+    synchronized (queue) {
+      decrementQueueDepth(queue.tasks.size());
+      queue.tasks.clear();
+      queue.scheduled = false;
+      queues.remove(queue.key, queue);
+    }
+  }
+
+  private <T> void process(final Task<T> task) {
+    T result = null;
+
+    try {
+      result = task.processor.get();
+    } catch (RuntimeException e) {
+      log.error("internal error while processing task: " + e.getMessage(), e);
+    }
+
+    /*
+     * always hand over to the delivery executor, even if there is nothing to
+     * deliver, so the latency covers the whole backlog
+     */
+    final T finalResult = result;
+
+    try {
+      delivery.execute(() -> deliver(task, finalResult));
+    } catch (RejectedExecutionException e) {
+      log.warn("delivery executor is shut down, discarding result");
+      decrementQueueDepth(1);
+    }
+  }
+
+  private <T> void deliver(final Task<T> task, final T result) {
+    try {
+      if (result != null) task.consumer.accept(result);
+    } catch (RuntimeException e) {
+      log.error("internal error while delivering result: " + e.getMessage(), e);
+    } finally {
+      final long latency = System.nanoTime() - task.submitTime;
+
+      deliveredCount.incrementAndGet();
+      totalLatency.addAndGet(latency);
+      updateMax(maxLatency, latency);
+      decrementQueueDepth(1);
+    }
+  }
+
+  private void decrementQueueDepth(final int count) {
+    if (queueDepth.addAndGet(-count) != 0) return;
+
+    synchronized (idleLock) {
+      idleLock.notifyAll();
+    }
+  }
+
+  private static void updateMax(final AtomicInteger max, final int value) {
+    int current = max.get();
+
+    while (value > current && !max.compareAndSet(current, value)) current = max.get();
+  }
+
+  private static void updateMax(final AtomicLong max, final long value) {
+    long current = max.get();
+
+    while (value > current && !max.compareAndSet(current, value)) current = max.get();
+  }
+}
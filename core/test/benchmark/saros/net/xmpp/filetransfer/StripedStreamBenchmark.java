@@ -0,0 +1,206 @@
+package saros.net.xmpp.filetransfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a striped transfer over simulated network links. Should be executed
+ * manually when making changes to the striping.
+ */
+public class StripedStreamBenchmark {
+
+  /**
+   * Simulated network link with a fixed one-way latency and a limited number of bytes in flight,
+   * i.e the throughput of a single link is bounded by window / round trip time like a TCP
+   * connection.
+   */
+  private static class Link {
+
+    private static final byte[] EOF = new byte[0];
+
+    private final long latency;
+
+    private final Semaphore window;
+
+    private final LinkedBlockingQueue<Object[]> packets = new LinkedBlockingQueue<Object[]>();
+
+    private Link(final long latency, final int window) {
+      this.latency = latency;
+      this.window = new Semaphore(window);
+    }
+
+    private final OutputStream out =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            try {
+              window.acquire(len);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException(e);
+            }
+
+            final byte[] packet = new byte[len];
+            System.arraycopy(b, off, packet, 0, len);
+            packets.add(new Object[] {System.nanoTime() + latency * 1000000L, packet});
+          }
+
+          @Override
+          public void close() {
+            packets.add(new Object[] {System.nanoTime() + latency * 1000000L, EOF});
+          }
+        };
+
+    private final InputStream in =
+        new InputStream() {
+          private byte[] packet;
+          private int position;
+
+          @Override
+          public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+          }
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            if (packet == EOF) return -1;
+
+            if (packet == null || position == packet.length) {
+              try {
+                final Object[] entry = packets.take();
+                final long delay = (Long) entry[0] - System.nanoTime();
+
+                if (delay > 0) TimeUnit.NANOSECONDS.sleep(delay);
+
+                packet = (byte[]) entry[1];
+                position = 0;
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+              }
+
+              if (packet == EOF) return -1;
+
+              acknowledge(packet.length);
+            }
+
+            final int count = Math.min(len, packet.length - position);
+            System.arraycopy(packet, position, b, off, count);
+            position += count;
+            return count;
+          }
+        };
+
+    private void acknowledge(final int length) {
+      final Thread ack =
+          new Thread(
+              () -> {
+                try {
+                  Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                  return;
+                }
+                window.release(length);
+              });
+
+      ack.setDaemon(true);
+      ack.start();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    try {
+      final byte[] data = new byte[4 * 1024 * 1024];
+      new Random(data.length).nextBytes(data);
+
+      /* 40 ms round trip time, 64 KiB window -> ~1.6 MiB/s per stream */
+      final long latency = 20;
+      final int window = 64 * 1024;
+
+      for (int run = 0; run < 2; run++) {
+        for (final int stripeCount : new int[] {1, 2, 4, 8}) {
+          final long start = System.nanoTime();
+
+          final byte[] result = transferOverLinks(executor, data, stripeCount, latency, window);
+
+          final long duration = System.nanoTime() - start;
+
+          if (!Arrays.equals(data, result))
+            throw new IllegalStateException("received data does not match the sent data");
+
+          System.out.printf(
+              "%d stripe(s): %d ms, %.2f MiB/s%n",
+              stripeCount, duration / 1000000L, data.length / (1024D * 1024D) / (duration / 1e9D));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static byte[] transferOverLinks(
+      final ExecutorService executor,
+      final byte[] data,
+      final int stripeCount,
+      final long latency,
+      final int window)
+      throws IOException {
+
+    final StripeSplitter splitter =
+        new StripeSplitter(
+            new ByteArrayInputStream(data), stripeCount, StripeSplitter.DEFAULT_BLOCK_SIZE);
+
+    final List<InputStream> streams = new ArrayList<InputStream>();
+
+    for (int i = 0; i < stripeCount; i++) {
+      final Link link = new Link(latency, window);
+      final InputStream stripe = splitter.getStripe(i);
+
+      executor.submit(
+          () -> {
+            final byte[] buffer = new byte[8192];
+            int read;
+
+            try (OutputStream out = link.out;
+                InputStream in = stripe) {
+              while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            }
+
+            return null;
+          });
+
+      streams.add(link.in);
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+
+    try (InputStream in = new StripedInputStream(streams)) {
+      int read;
+
+      while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+}
@@ -9,7 +9,10 @@ import org.junit.runners.Suite;
   saros.activities.TestSuite.class,
   saros.communication.extensions.TestSuite.class,
   saros.concurrent.TestSuite.class,
+  saros.concurrent.jupiter.internal.TestSuite.class,
   saros.concurrent.jupiter.test.puzzles.TestSuite.class,
+  saros.concurrent.management.TestSuite.class,
+  saros.concurrent.watchdog.TestSuite.class,
   saros.editor.colorstorage.TestSuite.class,
   saros.editor.remote.TestSuite.class,
   saros.editor.text.TestSuite.class,
@@ -17,8 +20,11 @@ import org.junit.runners.Suite;
   saros.misc.xstream.TestSuite.class,
   saros.monitoring.TestSuite.class,
   saros.negotiation.TestSuite.class,
+  saros.negotiation.delta.TestSuite.class,
   saros.net.TestSuite.class,
   saros.net.internal.TestSuite.class,
+  saros.net.stream.TestSuite.class,
+  saros.net.xmpp.filetransfer.TestSuite.class,
   saros.preferences.TestSuite.class,
   saros.session.TestSuite.class,
   saros.session.internal.TestSuite.class,
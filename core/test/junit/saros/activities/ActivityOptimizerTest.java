@@ -2,13 +2,18 @@ package saros.activities;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 import saros.editor.text.TextPosition;
+import saros.editor.text.TextPositionUtils;
 import saros.editor.text.TextSelection;
 import saros.filesystem.IFile;
 import saros.net.xmpp.JID;
@@ -134,6 +139,224 @@ public class ActivityOptimizerTest {
     assertRange(23, 23, optimized, nop);
   }
 
+  @Test
+  public void testMergeTyping() {
+    final List<IActivity> activities = new ArrayList<>();
+
+    String text = "";
+
+    for (final char c : "hello\nworld".toCharArray()) {
+      activities.add(edit(alice, fooFooFile, text, text.length(), 0, String.valueOf(c)));
+      text += c;
+    }
+
+    final List<IActivity> optimized = ActivityOptimizer.optimize(activities);
+
+    assertEquals(1, optimized.size());
+    assertEquals("hello\nworld", ((TextEditActivity) optimized.get(0)).getNewText());
+  }
+
+  @Test
+  public void testMergeBackspaceAndDelete() {
+    final String text = "0123456789";
+
+    final List<IActivity> backspaces = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++)
+      backspaces.add(edit(alice, fooFooFile, text.substring(0, 6 - i), 5 - i, 1, ""));
+
+    final List<IActivity> optimized = ActivityOptimizer.optimize(backspaces);
+
+    assertEquals(1, optimized.size());
+    assertEquals("345", ((TextEditActivity) optimized.get(0)).getReplacedText());
+
+    final List<IActivity> deletes = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++)
+      deletes.add(edit(alice, fooFooFile, text.substring(0, 3) + text.substring(3 + i), 3, 1, ""));
+
+    final List<IActivity> optimizedDeletes = ActivityOptimizer.optimize(deletes);
+
+    assertEquals(1, optimizedDeletes.size());
+    assertEquals("345", ((TextEditActivity) optimizedDeletes.get(0)).getReplacedText());
+  }
+
+  @Test
+  public void testNoMergeOfDifferentUsersFilesOrPositions() {
+    final List<IActivity> activities = new ArrayList<>();
+
+    activities.add(edit(alice, fooFooFile, "", 0, 0, "a"));
+    activities.add(edit(bob, fooFooFile, "a", 1, 0, "b"));
+    activities.add(edit(bob, fooBarFile, "", 0, 0, "c"));
+    activities.add(nop);
+    activities.add(edit(bob, fooBarFile, "c", 1, 0, "e"));
+
+    assertEquals(5, ActivityOptimizer.optimize(activities).size());
+  }
+
+  /*
+   * Property: applying the optimized activities must result in the same
+   * documents as applying the original activities, for random sequences of
+   * typing, deleting, cursor jumps and replacements by multiple users in
+   * multiple files.
+   */
+  @Test
+  public void testMergedEditsProduceSameDocuments() {
+    final IFile[] files = {fooFooFile, fooBarFile};
+    final User[] users = {alice, bob};
+
+    final Random random = new Random(4711);
+
+    int originalCount = 0;
+    int optimizedCount = 0;
+
+    for (int run = 0; run < 500; run++) {
+      final Map<IFile, String> documents = new HashMap<>();
+      final Map<IFile, Integer> cursors = new HashMap<>();
+
+      for (final IFile file : files) {
+        documents.put(file, randomText(random, random.nextInt(20)));
+        cursors.put(file, 0);
+      }
+
+      final Map<IFile, String> initialDocuments = new HashMap<>(documents);
+
+      final List<IActivity> activities = new ArrayList<>();
+
+      final int steps = 1 + random.nextInt(60);
+
+      for (int step = 0; step < steps; step++) {
+        final IFile file = random.nextInt(10) == 0 ? files[random.nextInt(files.length)] : files[0];
+        final User user = random.nextInt(10) == 0 ? users[random.nextInt(users.length)] : alice;
+
+        final String document = documents.get(file);
+
+        int cursor = Math.min(cursors.get(file), document.length());
+
+        final IActivity activity;
+
+        switch (random.nextInt(8)) {
+          case 0:
+          case 1:
+          case 2: // type
+            final String typed = randomText(random, 1);
+            activity = edit(user, file, document, cursor, 0, typed);
+            cursor += typed.length();
+            break;
+
+          case 3: // backspace
+            if (cursor == 0) continue;
+            activity = edit(user, file, document, cursor - 1, 1, "");
+            cursor--;
+            break;
+
+          case 4: // delete
+            if (cursor == document.length()) continue;
+            activity = edit(user, file, document, cursor, 1, "");
+            break;
+
+          case 5: // replace
+            final int start = random.nextInt(document.length() + 1);
+            final int length = random.nextInt(document.length() - start + 1);
+            final String replacement = randomText(random, random.nextInt(4));
+            activity = edit(user, file, document, start, length, replacement);
+            cursor = start + replacement.length();
+            break;
+
+          case 6: // selection
+            activity =
+                new TextSelectionActivity(
+                    user, new TextSelection(new TextPosition(0, 0), new TextPosition(0, 0)), file);
+            break;
+
+          default: // cursor jump
+            cursors.put(file, random.nextInt(document.length() + 1));
+            continue;
+        }
+
+        cursors.put(file, cursor);
+
+        if (activity instanceof TextEditActivity)
+          documents.put(file, apply(document, (TextEditActivity) activity));
+
+        activities.add(activity);
+      }
+
+      final List<IActivity> optimized = ActivityOptimizer.optimize(activities);
+
+      final Map<IFile, String> optimizedDocuments = new HashMap<>(initialDocuments);
+
+      for (final IActivity activity : optimized) {
+        if (!(activity instanceof TextEditActivity)) continue;
+
+        final TextEditActivity edit = (TextEditActivity) activity;
+
+        optimizedDocuments.put(
+            edit.getResource(), apply(optimizedDocuments.get(edit.getResource()), edit));
+      }
+
+      assertEquals(
+          "optimized activities result in different documents", documents, optimizedDocuments);
+
+      originalCount += activities.size();
+      optimizedCount += optimized.size();
+    }
+
+    assertTrue(
+        "edits were not merged: " + originalCount + " -> " + optimizedCount,
+        optimizedCount < originalCount / 2);
+  }
+
+  private static final String ALPHABET = "ab\n";
+
+  private static String randomText(Random random, int length) {
+    final StringBuilder builder = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++)
+      builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+
+    return builder.toString();
+  }
+
+  private static TextPosition toPosition(String document, int offset) {
+    final String prefix = document.substring(0, offset);
+    final int lineStart = prefix.lastIndexOf('\n') + 1;
+
+    int line = 0;
+
+    for (int i = 0; i < lineStart; i++) if (prefix.charAt(i) == '\n') line++;
+
+    return new TextPosition(line, offset - lineStart);
+  }
+
+  /** Creates a text edit that replaces the given range of the given document. */
+  private static TextEditActivity edit(
+      User user, IFile file, String document, int offset, int length, String newText) {
+
+    return TextEditActivity.buildTextEditActivity(
+        user,
+        toPosition(document, offset),
+        newText,
+        document.substring(offset, offset + length),
+        file);
+  }
+
+  /** Applies the text edit and checks that the replaced text matches the document. */
+  private static String apply(String document, TextEditActivity edit) {
+    final int offset = TextPositionUtils.calculateOffset(document, edit.getStartPosition(), "\n");
+
+    final String replacedText = edit.getReplacedText();
+
+    assertEquals(
+        "replaced text does not match the document",
+        replacedText,
+        document.substring(offset, offset + replacedText.length()));
+
+    return document.substring(0, offset)
+        + edit.getNewText()
+        + document.substring(offset + replacedText.length());
+  }
+
   private void assertRange(int l, int h, List<IActivity> activities, IActivity activity) {
     for (int i = l; i <= h; i++)
       assertSame("optimization resulted in wrong activity order", activity, activities.get(i));
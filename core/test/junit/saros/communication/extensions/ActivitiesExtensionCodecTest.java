@@ -0,0 +1,396 @@
+package saros.communication.extensions;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.ChangeColorActivity;
+import saros.activities.ChecksumActivity;
+import saros.activities.ChecksumErrorActivity;
+import saros.activities.DeletionAcknowledgmentActivity;
+import saros.activities.EditorActivity;
+import saros.activities.FileActivity;
+import saros.activities.FolderCreatedActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.LineBlockChecksums;
+import saros.activities.NOPActivity;
+import saros.activities.PermissionActivity;
+import saros.activities.ProgressActivity;
+import saros.activities.RecoveryPatchActivity;
+import saros.activities.StartFollowingActivity;
+import saros.activities.StopActivity;
+import saros.activities.StopFollowingActivity;
+import saros.activities.TargetedFileActivity;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.TimestampOperation;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextSelection;
+import saros.filesystem.IFile;
+import saros.filesystem.IFolder;
+import saros.filesystem.IReferencePoint;
+import saros.filesystem.IResource.Type;
+import saros.net.PacketExtensionCodecManager;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+import saros.session.User.Permission;
+
+public class ActivitiesExtensionCodecTest {
+
+  private static final ActivitiesExtensionCodec CODEC = ActivitiesExtension.CODEC;
+
+  private final User alice = new User(new JID("alice@test"), true, true, null);
+  private final User bob = new User(new JID("bob@test"), false, false, null);
+
+  private IReferencePoint referencePoint;
+  private IFile file;
+  private IFile otherFile;
+  private IFolder folder;
+
+  private ISarosSession session;
+
+  @Before
+  public void setUp() {
+    final Path filePath = Paths.get("src/Main.java");
+    final Path otherFilePath = Paths.get("src/Other.java");
+    final Path folderPath = Paths.get("src");
+
+    referencePoint = EasyMock.createNiceMock(IReferencePoint.class);
+    file = EasyMock.createNiceMock(IFile.class);
+    otherFile = EasyMock.createNiceMock(IFile.class);
+    folder = EasyMock.createNiceMock(IFolder.class);
+
+    expect(referencePoint.getFile(filePath)).andStubReturn(file);
+    expect(referencePoint.getFile(otherFilePath)).andStubReturn(otherFile);
+    expect(referencePoint.getFolder(folderPath)).andStubReturn(folder);
+
+    expect(file.getReferencePoint()).andStubReturn(referencePoint);
+    expect(file.getReferencePointRelativePath()).andStubReturn(filePath);
+    expect(file.getType()).andStubReturn(Type.FILE);
+
+    expect(otherFile.getReferencePoint()).andStubReturn(referencePoint);
+    expect(otherFile.getReferencePointRelativePath()).andStubReturn(otherFilePath);
+    expect(otherFile.getType()).andStubReturn(Type.FILE);
+
+    expect(folder.getReferencePoint()).andStubReturn(referencePoint);
+    expect(folder.getReferencePointRelativePath()).andStubReturn(folderPath);
+    expect(folder.getType()).andStubReturn(Type.FOLDER);
+
+    EasyMock.replay(referencePoint, file, otherFile, folder);
+
+    session = createSession(alice, bob);
+
+    CODEC.bind(session);
+  }
+
+  @After
+  public void tearDown() {
+    CODEC.unbind(session);
+  }
+
+  private ISarosSession createSession(User... users) {
+    final ISarosSession session = EasyMock.createNiceMock(ISarosSession.class);
+
+    for (final User user : users) expect(session.getUser(user.getJID())).andStubReturn(user);
+
+    expect(session.getReferencePointId(referencePoint)).andStubReturn("ABC");
+    expect(session.getReferencePoint("ABC")).andStubReturn(referencePoint);
+
+    EasyMock.replay(session);
+    return session;
+  }
+
+  @Test
+  public void testCodecIsRegistered() {
+    assertSame(
+        CODEC,
+        PacketExtensionCodecManager.getInstance()
+            .getCodec(
+                ActivitiesExtension.PROVIDER.getElementName(),
+                ActivitiesExtension.PROVIDER.getNamespace()));
+
+    assertTrue(PacketExtensionCodecManager.getInstance().getFormats().contains(CODEC.getFormat()));
+  }
+
+  @Test
+  public void testRoundTripOfAllActivityTypes() throws Exception {
+    final byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+
+    final List<IActivity> activities = new ArrayList<>();
+
+    activities.add(new ChangeColorActivity(alice, bob, alice, 3));
+    activities.add(new ChecksumActivity(alice, file, 42, 1024, new JupiterVectorTime(4, 2)));
+    activities.add(new ChecksumActivity(alice, file, -1, -1, null));
+    activities.add(new ChecksumErrorActivity(bob, alice, Arrays.asList(file, otherFile), "r-1"));
+    activities.add(new ChecksumErrorActivity(bob, alice, null, "r-2"));
+    activities.add(new DeletionAcknowledgmentActivity(bob, file));
+    activities.add(new EditorActivity(alice, EditorActivity.Type.ACTIVATED, file));
+    activities.add(new EditorActivity(alice, EditorActivity.Type.ACTIVATED, null));
+    activities.add(
+        new FileActivity(
+            alice,
+            FileActivity.Type.CREATED,
+            FileActivity.Purpose.ACTIVITY,
+            file,
+            null,
+            content,
+            "UTF-8"));
+    activities.add(
+        new FileActivity(
+            alice,
+            FileActivity.Type.MOVED,
+            FileActivity.Purpose.ACTIVITY,
+            file,
+            otherFile,
+            null,
+            null));
+    activities.add(new FolderCreatedActivity(alice, folder));
+    activities.add(new FolderDeletedActivity(alice, folder));
+    activities.add(
+        new JupiterActivity(
+            new JupiterVectorTime(1, 0),
+            new InsertOperation(new TextPosition(0, 0), 0, 3, "foo"),
+            alice,
+            file));
+    activities.add(new NOPActivity(alice, bob, 7));
+    activities.add(new PermissionActivity(alice, bob, Permission.READONLY_ACCESS));
+    activities.add(
+        new ProgressActivity(
+            alice, bob, "p-1", 5, 10, "task", ProgressActivity.ProgressAction.UPDATE));
+    activities.add(new StartFollowingActivity(bob, alice));
+    activities.add(
+        new StopActivity(
+            alice, alice, bob, StopActivity.Type.LOCKREQUEST, StopActivity.State.INITIATED, "s-1"));
+    activities.add(new StopFollowingActivity(bob));
+    activities.add(
+        new TargetedFileActivity(
+            alice,
+            bob,
+            FileActivity.Type.CREATED,
+            file,
+            null,
+            content,
+            "UTF-8",
+            FileActivity.Purpose.RECOVERY));
+    activities.add(
+        new TextSelectionActivity(
+            alice, new TextSelection(new TextPosition(1, 2), new TextPosition(3, 4), true), file));
+    activities.add(new TextSelectionActivity(alice, TextSelection.EMPTY_SELECTION, file));
+    activities.add(new ViewportActivity(alice, 10, 40, file));
+    activities.add(
+        new ChecksumErrorActivity(
+            bob,
+            alice,
+            Arrays.asList(file, otherFile),
+            Arrays.asList(
+                new LineBlockChecksums(1024, 42, new int[] {3, 5}, new int[] {-7, 123456789}),
+                null),
+            "r-3"));
+    activities.add(
+        new RecoveryPatchActivity(
+            alice,
+            bob,
+            file,
+            1024,
+            42,
+            Arrays.asList(
+                new RecoveryPatchActivity.Replacement(3, 5, "foo\nbar\n"),
+                new RecoveryPatchActivity.Replacement(10, 0, ""))));
+
+    final ActivitiesExtension decoded = assertRoundTrip("session-1", activities, -5);
+
+    for (int i = 0; i < activities.size(); i++) {
+      final IActivity expected = activities.get(i);
+      final IActivity actual = decoded.getActivities().get(i);
+
+      assertEquals(expected.getClass(), actual.getClass());
+      assertEquals(expected.toString(), actual.toString());
+      assertTrue(actual.isValid());
+    }
+
+    assertEquals(activities.get(1), decoded.getActivities().get(1));
+    assertEquals(activities.get(12), decoded.getActivities().get(12));
+    assertEquals(activities.get(20), decoded.getActivities().get(20));
+
+    final FileActivity fileActivity = (FileActivity) decoded.getActivities().get(8);
+
+    assertArrayEquals(content, fileActivity.getContent());
+    assertEquals("UTF-8", fileActivity.getEncoding());
+    assertFalse(fileActivity.isRecovery());
+
+    assertTrue(((TargetedFileActivity) decoded.getActivities().get(19)).isRecovery());
+
+    assertEquals(activities.get(23), decoded.getActivities().get(23));
+    assertEquals(activities.get(24), decoded.getActivities().get(24));
+  }
+
+  @Test
+  public void testRoundTripOfAllOperationTypes() throws Exception {
+    final Operation operation =
+        new SplitOperation(
+            new SplitOperation(
+                new DeleteOperation(new TextPosition(2, 5), 1, 0, "ab\ncdä"),
+                new InsertOperation(new TextPosition(7, 1), 0, 4, "text", new TextPosition(3, 1))),
+            new SplitOperation(new NoOperation(), new TimestampOperation()));
+
+    final JupiterActivity activity =
+        new JupiterActivity(new JupiterVectorTime(Integer.MAX_VALUE, 0), operation, bob, file);
+
+    final ActivitiesExtension decoded =
+        assertRoundTrip("session-2", Collections.singletonList(activity), Integer.MAX_VALUE);
+
+    assertEquals(activity, decoded.getActivities().get(0));
+  }
+
+  @Test
+  public void testUnresolvableUserIsReplacedByInvalidActivity() throws Exception {
+    final List<IActivity> activities = new ArrayList<>();
+
+    activities.add(new ChangeColorActivity(alice, bob, bob, 1));
+    activities.add(new ViewportActivity(alice, 0, 10, file));
+
+    final PacketExtension extension =
+        ActivitiesExtension.PROVIDER.create(new ActivitiesExtension("session-3", activities, 0));
+
+    final byte[] data = CODEC.encode(extension);
+
+    assertNotNull(data);
+
+    final ISarosSession aliceOnlySession = createSession(alice);
+
+    CODEC.bind(aliceOnlySession);
+
+    final ActivitiesExtension decoded;
+
+    try {
+      decoded = ActivitiesExtension.PROVIDER.getPayload(CODEC.decode(data));
+    } finally {
+      CODEC.unbind(aliceOnlySession);
+    }
+
+    assertEquals(2, decoded.getActivities().size());
+    assertFalse(decoded.getActivities().get(0).isValid());
+    assertTrue(decoded.getActivities().get(1).isValid());
+  }
+
+  @Test
+  public void testUnsupportedActivityIsNotEncoded() {
+    final IActivity activity =
+        new TextEditActivity(alice, new TextPosition(0, 0), 0, 1, "a", 0, 0, "", file);
+
+    final PacketExtension extension =
+        ActivitiesExtension.PROVIDER.create(
+            new ActivitiesExtension("session-4", Collections.singletonList(activity), 0));
+
+    assertNull(CODEC.encode(extension));
+  }
+
+  @Test
+  public void testEncodeWithoutSession() {
+    CODEC.unbind(session);
+
+    final PacketExtension extension =
+        ActivitiesExtension.PROVIDER.create(
+            new ActivitiesExtension(
+                "session-5", Collections.singletonList(new StopFollowingActivity(alice)), 0));
+
+    assertNull(CODEC.encode(extension));
+  }
+
+  @Test
+  public void testEncodeHeaderAndContent() throws Exception {
+    final List<IActivity> activities =
+        Arrays.asList(
+            new NOPActivity(alice, bob, 1),
+            new StartFollowingActivity(alice, bob),
+            new NOPActivity(alice, bob, 2));
+
+    final byte[] content =
+        CODEC.encodeContent(
+            ActivitiesExtension.PROVIDER.create(
+                new ActivitiesExtension("session-7", activities, 0)));
+
+    assertNotNull(content);
+
+    for (final int sequenceNumber : new int[] {0, 1, 4711, Integer.MAX_VALUE}) {
+      final PacketExtension extension =
+          ActivitiesExtension.PROVIDER.create(
+              new ActivitiesExtension("session-7", activities, sequenceNumber));
+
+      final byte[] header = CODEC.encodeHeader(extension);
+
+      assertNotNull(header);
+
+      final byte[] data = Arrays.copyOf(header, header.length + content.length);
+      System.arraycopy(content, 0, data, header.length, content.length);
+
+      assertArrayEquals(CODEC.encode(extension), data);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeMalformedData() throws Exception {
+    final PacketExtension extension =
+        ActivitiesExtension.PROVIDER.create(
+            new ActivitiesExtension(
+                "session-6", Collections.singletonList(new NOPActivity(alice, bob, 1)), 0));
+
+    final byte[] data = CODEC.encode(extension);
+
+    CODEC.decode(Arrays.copyOf(data, data.length - 1));
+  }
+
+  private ActivitiesExtension assertRoundTrip(
+      String sessionID, List<IActivity> activities, int sequenceNumber) throws IOException {
+
+    final PacketExtension extension =
+        ActivitiesExtension.PROVIDER.create(
+            new ActivitiesExtension(sessionID, activities, sequenceNumber));
+
+    final byte[] data = CODEC.encode(extension);
+
+    assertNotNull("extension could not be encoded", data);
+
+    final ActivitiesExtension decoded = ActivitiesExtension.PROVIDER.getPayload(CODEC.decode(data));
+
+    assertNotNull(decoded);
+    assertEquals(sessionID, decoded.getSessionID());
+    assertEquals(sequenceNumber, decoded.getSequenceNumber());
+    assertEquals(activities.size(), decoded.getActivities().size());
+
+    assertArrayEquals(
+        "re-encoding the decoded extension must produce the same data",
+        data,
+        CODEC.encode(ActivitiesExtension.PROVIDER.create(decoded)));
+
+    return decoded;
+  }
+}
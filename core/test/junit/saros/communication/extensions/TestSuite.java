@@ -4,7 +4,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ActivitiesExtensionProviderTest.class})
+@Suite.SuiteClasses({ActivitiesExtensionProviderTest.class, ActivitiesExtensionCodecTest.class})
 public class TestSuite {
   // the class remains completely empty,
   // being used only as a holder for the above annotations
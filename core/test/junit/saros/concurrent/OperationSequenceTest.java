@@ -0,0 +1,163 @@
+package saros.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static saros.test.util.OperationHelper.D;
+import static saros.test.util.OperationHelper.I;
+import static saros.test.util.OperationHelper.NOP;
+import static saros.test.util.OperationHelper.S;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.StringUtils;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.concurrent.jupiter.InclusionTransformation;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import saros.concurrent.jupiter.internal.text.OperationSequence;
+import saros.concurrent.jupiter.test.util.Document;
+import saros.concurrent.jupiter.test.util.JupiterTestCase;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+public class OperationSequenceTest {
+
+  private final InclusionTransformation inclusion = new GOTOInclusionTransformation();
+
+  private IFile file;
+
+  private User source = JupiterTestCase.createUser("source");
+
+  @Before
+  public void setUp() {
+    file = EasyMock.createNiceMock(IFile.class);
+  }
+
+  @Test
+  public void testFlattening() {
+    Operation sequence =
+        OperationSequence.of(
+            S(I(0, "a"), S(NOP(), D(1, "b"))), NOP(), OperationSequence.of(I(2, "c"), I(3, "d")));
+
+    assertEquals(
+        Arrays.asList(I(0, "a"), D(1, "b"), I(2, "c"), I(3, "d")), sequence.getTextOperations());
+    assertEquals(4, ((OperationSequence) sequence).size());
+
+    assertEquals(NOP(), OperationSequence.of());
+    assertEquals(NOP(), OperationSequence.of(NOP(), S(NOP(), NOP())));
+    assertEquals(I(0, "a"), OperationSequence.of(NOP(), S(I(0, "a"), NOP())));
+  }
+
+  @Test
+  public void testAppendDoesNotChangeSharedSequence() {
+    Operation base = OperationSequence.of(I(0, "a"), I(1, "b"));
+
+    Operation first = OperationSequence.append(base, I(2, "c"));
+    Operation second = OperationSequence.append(base, I(2, "x"));
+    Operation third = OperationSequence.append(first, S(I(3, "d"), I(4, "e")));
+
+    assertEquals(OperationSequence.of(I(0, "a"), I(1, "b")), base);
+    assertEquals(OperationSequence.of(I(0, "a"), I(1, "b"), I(2, "c")), first);
+    assertEquals(OperationSequence.of(I(0, "a"), I(1, "b"), I(2, "x")), second);
+    assertEquals(
+        OperationSequence.of(I(0, "a"), I(1, "b"), I(2, "c"), I(3, "d"), I(4, "e")), third);
+
+    assertSame(base, OperationSequence.append(base, NOP()));
+    assertEquals(
+        OperationSequence.of(I(0, "a"), I(1, "b")), OperationSequence.append(I(0, "a"), I(1, "b")));
+  }
+
+  @Test
+  public void testInvert() {
+    Operation sequence = OperationSequence.of(I(0, "abc"), D(1, "b"), I(2, "x"));
+
+    assertEquals(OperationSequence.of(D(2, "x"), I(1, "b"), D(0, "abc")), sequence.invert());
+
+    Document document = new Document("0123", file);
+    document.execOperation(sequence);
+    document.execOperation(sequence.invert());
+
+    assertEquals("0123", document.getDocument());
+  }
+
+  @Test
+  public void testToTextEditEqualsSplitOperation() {
+    Operation split = S(S(D(8, "abc"), I(8, "gh")), S(I(10, "ij"), I(0, "x")));
+    Operation sequence = OperationSequence.of(split);
+
+    assertEquals(split.toTextEdit(file, source), sequence.toTextEdit(file, source));
+  }
+
+  @Test
+  public void testTransformEqualsSplitOperation() {
+    // 0123456 -> 0156 -> 015
+    Operation a = S(D(2, "234"), D(3, "6"));
+    // 0123456 -> 012abc3456 -> 012abc3ins456
+    Operation b = S(I(3, "abc"), I(7, "ins"));
+
+    for (Boolean privileged : Arrays.asList(Boolean.TRUE, Boolean.FALSE)) {
+      Operation sequenceA = OperationSequence.of(a);
+      Operation sequenceB = OperationSequence.of(b);
+
+      assertTransformEquals(
+          inclusion.transform(a, b, privileged), sequenceA, sequenceB, privileged);
+      assertTransformEquals(inclusion.transform(a, b, privileged), sequenceA, b, privileged);
+      assertTransformEquals(inclusion.transform(a, b, privileged), a, sequenceB, privileged);
+      assertTransformEquals(
+          inclusion.transform(b, a, privileged), sequenceB, sequenceA, privileged);
+    }
+
+    Document documentA = new Document("0123456", file);
+    documentA.execOperation(a);
+    documentA.execOperation(inclusion.transform(OperationSequence.of(b), a, Boolean.FALSE));
+
+    Document documentB = new Document("0123456", file);
+    documentB.execOperation(b);
+    documentB.execOperation(inclusion.transform(OperationSequence.of(a), b, Boolean.TRUE));
+
+    assertEquals("01abcins5", documentA.getDocument());
+    assertEquals("01abcins5", documentB.getDocument());
+  }
+
+  @Test
+  public void testTransformIndex() {
+    Operation sequence = OperationSequence.of(I(0, "ab"), D(4, "cd"), I(1, "x"));
+
+    assertEquals(
+        new TextPosition(0, 8),
+        inclusion.transformIndex(new TextPosition(0, 7), sequence, Boolean.TRUE));
+  }
+
+  @Test
+  public void testTransformLongSequence() {
+    final int count = 10000;
+
+    final String text = StringUtils.repeat('x', count);
+
+    Operation sequence = NOP();
+
+    for (int i = 0; i < count; i++) sequence = OperationSequence.append(sequence, I(i, "x"));
+
+    Operation remote = I(0, "abc");
+
+    Document document = new Document("", file);
+    document.execOperation(remote);
+    document.execOperation(inclusion.transform(sequence, remote, Boolean.FALSE));
+
+    assertEquals("abc" + text, document.getDocument());
+
+    document.execOperation(inclusion.transform(sequence.invert(), remote, Boolean.FALSE));
+
+    assertEquals("abc", document.getDocument());
+  }
+
+  private void assertTransformEquals(
+      Operation expected, Operation op1, Operation op2, Boolean privileged) {
+
+    Operation result = inclusion.transform(op1, op2, privileged);
+
+    assertEquals(expected.getTextOperations(), result.getTextOperations());
+  }
+}
@@ -0,0 +1,97 @@
+package saros.concurrent.jupiter.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static saros.test.util.OperationHelper.I;
+
+import org.junit.Test;
+import saros.concurrent.jupiter.Operation;
+
+public class OperationLogTest {
+
+  private static Operation[] createOperations(int count) {
+    final Operation[] operations = new Operation[count];
+
+    for (int i = 0; i < count; i++) operations[i] = I(i, "x");
+
+    return operations;
+  }
+
+  @Test
+  public void testAddAndDiscard() {
+    final OperationLog log = new OperationLog();
+    final Operation[] operations = createOperations(100);
+
+    for (int i = 0; i < operations.length; i++) log.add(operations[i], 10 + i);
+
+    assertEquals(100, log.size());
+    assertEquals(10, log.getFirstOperationCount());
+
+    log.discardBefore(5);
+    assertEquals(100, log.size());
+
+    log.discardBefore(40);
+    assertEquals(70, log.size());
+    assertEquals(40, log.getFirstOperationCount());
+
+    for (int i = 0; i < log.size(); i++) assertSame(operations[30 + i], log.get(i));
+
+    log.discardBefore(1000);
+    assertTrue(log.isEmpty());
+
+    log.add(operations[0], 2000);
+    assertEquals(2000, log.getFirstOperationCount());
+  }
+
+  @Test
+  public void testGrowWhileWrapped() {
+    final OperationLog log = new OperationLog();
+    final Operation[] operations = createOperations(1000);
+
+    int next = 0;
+    int discarded = 0;
+
+    // keep the head moving so the buffer wraps before it is grown
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < 7 && next < operations.length; i++, next++)
+        log.add(operations[next], next);
+
+      discarded += 3;
+      log.discardBefore(discarded);
+
+      assertEquals(next - discarded, log.size());
+
+      for (int i = 0; i < log.size(); i++) assertSame(operations[discarded + i], log.get(i));
+    }
+  }
+
+  @Test
+  public void testSet() {
+    final OperationLog log = new OperationLog();
+    final Operation[] operations = createOperations(3);
+
+    for (int i = 0; i < operations.length; i++) log.add(operations[i], i);
+
+    log.set(1, operations[0]);
+
+    assertSame(operations[0], log.get(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddNonConsecutive() {
+    final OperationLog log = new OperationLog();
+
+    log.add(I(0, "a"), 0);
+    log.add(I(0, "b"), 2);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetOutOfBounds() {
+    final OperationLog log = new OperationLog();
+
+    log.add(I(0, "a"), 0);
+    log.discardBefore(1);
+    log.get(0);
+  }
+}
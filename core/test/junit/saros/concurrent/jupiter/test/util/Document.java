@@ -6,6 +6,7 @@ import org.apache.log4j.Logger;
 import saros.activities.TextEditActivity;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.OperationSequence;
 import saros.concurrent.jupiter.internal.text.SplitOperation;
 import saros.editor.text.TextPositionUtils;
 import saros.filesystem.IFile;
@@ -107,6 +108,11 @@ public class Document {
       checkOperationDeltas(splitOperation.getFirst());
       checkOperationDeltas(splitOperation.getSecond());
 
+    } else if (op instanceof OperationSequence) {
+      OperationSequence sequence = (OperationSequence) op;
+
+      for (int i = 0; i < sequence.size(); i++) checkOperationDeltas(sequence.get(i));
+
     } else if (op instanceof ITextOperation) {
       ITextOperation textOperation = (ITextOperation) op;
 
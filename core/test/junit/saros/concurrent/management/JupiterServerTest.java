@@ -0,0 +1,163 @@
+package saros.concurrent.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.JupiterActivity;
+import saros.concurrent.jupiter.internal.Jupiter;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.filesystem.IReferencePoint;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+
+public class JupiterServerTest {
+
+  private static final int FILES = 4;
+
+  private static final int OPERATIONS = 500;
+
+  private User host;
+  private User alice;
+  private User bob;
+
+  private IReferencePoint referencePoint;
+  private IReferencePoint blockingReferencePoint;
+
+  private final CountDownLatch creationStarted = new CountDownLatch(1);
+  private final CountDownLatch creationReleased = new CountDownLatch(1);
+
+  private ExecutorService executor;
+
+  private JupiterServer server;
+
+  @Before
+  public void setUp() {
+    host = new User(new JID("host@jabber.org"), true, true, null);
+    alice = new User(new JID("alice@jabber.org"), false, false, null);
+    bob = new User(new JID("bob@jabber.org"), false, false, null);
+
+    referencePoint = EasyMock.createMock(IReferencePoint.class);
+    blockingReferencePoint = EasyMock.createMock(IReferencePoint.class);
+
+    final ISarosSession session = EasyMock.createMock(ISarosSession.class);
+
+    EasyMock.expect(session.getHost()).andStubReturn(host);
+
+    EasyMock.expect(
+            session.userHasReferencePoint(EasyMock.anyObject(), EasyMock.eq(referencePoint)))
+        .andStubReturn(true);
+
+    EasyMock.expect(
+            session.userHasReferencePoint(
+                EasyMock.anyObject(), EasyMock.eq(blockingReferencePoint)))
+        .andStubAnswer(
+            () -> {
+              creationStarted.countDown();
+              creationReleased.await();
+              return true;
+            });
+
+    EasyMock.replay(referencePoint, blockingReferencePoint, session);
+
+    executor = Executors.newFixedThreadPool(FILES);
+
+    server = new JupiterServer(session);
+    server.addUser(alice);
+    server.addUser(bob);
+  }
+
+  @After
+  public void tearDown() {
+    creationReleased.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 30000)
+  public void testFileIsTransformedWhileAnotherFileIsCreated() throws Exception {
+    final IFile file = createFile(referencePoint);
+    final IFile blockingFile = createFile(blockingReferencePoint);
+
+    final Jupiter client = new Jupiter(true);
+    final Jupiter blockingClient = new Jupiter(true);
+
+    server.transform(generate(client, file, 0));
+
+    final Future<Map<User, JupiterActivity>> blocked =
+        executor.submit(() -> server.transform(generate(blockingClient, blockingFile, 0)));
+
+    assertTrue(
+        "creation of the document server did not start",
+        creationStarted.await(10, TimeUnit.SECONDS));
+
+    final Map<User, JupiterActivity> result = server.transform(generate(client, file, 1));
+
+    assertEquals(1, result.get(bob).getTimestamp().getComponents()[0]);
+    assertEquals(1, result.get(host).getTimestamp().getComponents()[0]);
+
+    creationReleased.countDown();
+
+    assertEquals(0, blocked.get().get(bob).getTimestamp().getComponents()[0]);
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentTransformationKeepsOrderPerFile() throws Exception {
+    final List<Future<List<JupiterActivity>>> futures = new ArrayList<>();
+
+    for (int i = 0; i < FILES; i++) {
+      final IFile file = createFile(referencePoint);
+
+      final Callable<List<JupiterActivity>> task =
+          () -> {
+            final Jupiter client = new Jupiter(true);
+            final List<JupiterActivity> received = new ArrayList<>();
+
+            for (int j = 0; j < OPERATIONS; j++)
+              received.add(server.transform(generate(client, file, j)).get(bob));
+
+            return received;
+          };
+
+      futures.add(executor.submit(task));
+    }
+
+    for (final Future<List<JupiterActivity>> future : futures) {
+      final List<JupiterActivity> received = future.get();
+
+      assertEquals(OPERATIONS, received.size());
+
+      for (int j = 0; j < OPERATIONS; j++)
+        assertEquals(
+            "local operation count of the server proxy",
+            j,
+            received.get(j).getTimestamp().getComponents()[0]);
+    }
+  }
+
+  private JupiterActivity generate(final Jupiter client, final IFile file, final int offset) {
+    return client.generateJupiterActivity(
+        new InsertOperation(new TextPosition(0, offset), 0, 1, "x"), alice, file);
+  }
+
+  private static IFile createFile(final IReferencePoint referencePoint) {
+    final IFile file = EasyMock.createMock(IFile.class);
+    EasyMock.expect(file.getReferencePoint()).andStubReturn(referencePoint);
+    EasyMock.replay(file);
+    return file;
+  }
+}
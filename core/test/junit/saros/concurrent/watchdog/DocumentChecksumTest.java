@@ -0,0 +1,148 @@
+package saros.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class DocumentChecksumTest {
+
+  private static final User USER = new User(new JID("alice@jabber.org"), false, false, null);
+
+  private IFile file;
+
+  @Before
+  public void setUp() {
+    file = EasyMock.createNiceMock(IFile.class);
+    EasyMock.replay(file);
+  }
+
+  @Test
+  public void testUpdateUsesStringHashCode() {
+    final String content = createContent(3 * DocumentChecksum.SEGMENT_LENGTH + 17);
+
+    final DocumentChecksum checksum = createChecksum(content);
+
+    assertEquals(content.hashCode(), checksum.getHash());
+    assertEquals(content.length(), checksum.getLength());
+  }
+
+  @Test
+  public void testNotAvailable() {
+    final DocumentChecksum checksum = new DocumentChecksum(file);
+
+    checksum.update(null);
+
+    assertEquals(DocumentChecksum.NOT_AVAILABLE, checksum.getHash());
+    assertEquals(DocumentChecksum.NOT_AVAILABLE, checksum.getLength());
+
+    assertFalse(checksum.applyTextEdit(edit(0, 0, "x", "")));
+    assertTrue(checksum.isDirty());
+  }
+
+  @Test
+  public void testApplyTextEdits() {
+    final DocumentChecksum checksum = createChecksum("first\nsecond\nthird");
+
+    assertTrue(checksum.applyTextEdit(edit(1, 6, "\nnew", "")));
+    assertChecksum("first\nsecond\nnew\nthird", checksum);
+
+    assertTrue(checksum.applyTextEdit(edit(0, 5, "", "\nsecond\nnew")));
+    assertChecksum("first\nthird", checksum);
+
+    assertTrue(checksum.applyTextEdit(edit(1, 5, "!", "")));
+    assertChecksum("first\nthird!", checksum);
+
+    assertTrue(checksum.applyTextEdit(edit(0, 0, "", "first\nthird!")));
+    assertChecksum("", checksum);
+
+    assertTrue(checksum.applyTextEdit(edit(0, 0, "new", "")));
+    assertChecksum("new", checksum);
+
+    assertFalse(checksum.isDirty());
+  }
+
+  @Test
+  public void testMismatchingEditMarksDirty() {
+    final DocumentChecksum checksum = createChecksum("first\nsecond");
+
+    assertFalse(checksum.applyTextEdit(edit(1, 0, "", "third")));
+    assertTrue(checksum.isDirty());
+
+    checksum.update("first\nsecond");
+    assertFalse(checksum.applyTextEdit(edit(5, 0, "x", "")));
+    assertTrue(checksum.isDirty());
+
+    checksum.update("first\nsecond");
+    assertFalse(checksum.applyTextEdit(edit(1, 7, "x", "")));
+    assertTrue(checksum.isDirty());
+  }
+
+  @Test
+  public void testRandomEditsMatchStringHashCode() {
+    final Random random = new Random(4711);
+
+    String content = createContent(5 * DocumentChecksum.SEGMENT_LENGTH);
+
+    final DocumentChecksum checksum = createChecksum(content);
+
+    for (int i = 0; i < 5000; i++) {
+      final int start = random.nextInt(content.length() + 1);
+
+      // mostly small edits, sometimes large ones crossing segments
+      final int maxLength = random.nextInt(20) == 0 ? 3 * DocumentChecksum.SEGMENT_LENGTH : 8;
+
+      final int end = Math.min(content.length(), start + random.nextInt(maxLength));
+
+      final String replaced = content.substring(start, end);
+      final String inserted = createContent(random.nextInt(maxLength));
+
+      final String before = content.substring(0, start);
+      final int line = before.length() - before.replace("\n", "").length();
+      final int column = start - (before.lastIndexOf('\n') + 1);
+
+      assertTrue(checksum.applyTextEdit(edit(line, column, inserted, replaced)));
+
+      content = before + inserted + content.substring(end);
+
+      assertChecksum(content, checksum);
+    }
+  }
+
+  private void assertChecksum(final String content, final DocumentChecksum checksum) {
+    assertEquals(content.length(), checksum.getLength());
+    assertEquals(content.hashCode(), checksum.getHash());
+  }
+
+  private DocumentChecksum createChecksum(final String content) {
+    final DocumentChecksum checksum = new DocumentChecksum(file);
+
+    checksum.update(content);
+
+    return checksum;
+  }
+
+  private TextEditActivity edit(
+      final int line, final int column, final String newText, final String replacedText) {
+
+    return TextEditActivity.buildTextEditActivity(
+        USER, new TextPosition(line, column), newText, replacedText, file);
+  }
+
+  private static String createContent(final int length) {
+    final StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < length; i++) builder.append(i % 13 == 12 ? '\n' : (char) ('a' + i % 7));
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,119 @@
+package saros.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import saros.activities.LineBlockChecksums;
+import saros.activities.RecoveryPatchActivity.Replacement;
+
+public class LineBlocksTest {
+
+  @Test
+  public void testBlocksCoverAllLines() {
+    final String content = createContent(10000, new Random(1));
+
+    final LineBlockChecksums checksums = LineBlocks.calculate(content);
+
+    int lines = 0;
+
+    for (int i = 0; i < checksums.getBlockCount(); i++) {
+      assertTrue(checksums.getLineCount(i) <= LineBlocks.MAX_BLOCK_LINES);
+      lines += checksums.getLineCount(i);
+    }
+
+    assertEquals(10000, lines);
+    assertEquals(content.length(), checksums.getLength());
+    assertEquals(content.hashCode(), checksums.getHash());
+
+    assertEquals(0, LineBlocks.calculate("").getBlockCount());
+  }
+
+  @Test
+  public void testNoReplacementsForEqualContent() {
+    final String content = createContent(100, new Random(2));
+
+    final List<Replacement> replacements =
+        LineBlocks.createReplacements(LineBlocks.calculate(content), content);
+
+    assertNotNull(replacements);
+    assertTrue(replacements.isEmpty());
+  }
+
+  @Test
+  public void testSingleCharacterDivergenceInLargeDocument() {
+    final String host = createContent(50000, new Random(3));
+
+    assertTrue(host.length() > 1024 * 1024);
+
+    final int offset = host.length() / 3;
+    final String client = host.substring(0, offset) + "#" + host.substring(offset + 1);
+
+    final List<Replacement> replacements =
+        LineBlocks.createReplacements(LineBlocks.calculate(client), host);
+
+    assertNotNull(replacements);
+    assertEquals(1, replacements.size());
+    assertTrue(replacements.get(0).getText().length() < 16 * 1024);
+
+    assertEquals(host, LineBlocks.apply(client, replacements));
+  }
+
+  @Test
+  public void testRandomDivergences() {
+    final Random random = new Random(4711);
+
+    for (int run = 0; run < 200; run++) {
+      final String host = createContent(1 + random.nextInt(2000), random);
+
+      String client = host;
+
+      for (int i = random.nextInt(4); i >= 0; i--) client = diverge(client, random);
+
+      final List<Replacement> replacements =
+          LineBlocks.createReplacements(LineBlocks.calculate(client), host);
+
+      if (replacements != null) assertEquals(host, LineBlocks.apply(client, replacements));
+    }
+  }
+
+  @Test
+  public void testWholeContentIsSentIfMostLinesDiffer() {
+    final String host = createContent(100, new Random(5));
+    final String client = createContent(100, new Random(6));
+
+    assertNull(LineBlocks.createReplacements(LineBlocks.calculate(client), host));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReplacementExceedingTheContent() {
+    LineBlocks.apply("a\nb\n", Collections.singletonList(new Replacement(1, 2, "")));
+  }
+
+  /** Inserts, deletes or changes some characters, possibly line separators. */
+  private static String diverge(final String content, final Random random) {
+    final int start = random.nextInt(content.length() + 1);
+    final int end = Math.min(content.length(), start + random.nextInt(10));
+
+    final String inserted = random.nextBoolean() ? "x\n" : "y";
+
+    return content.substring(0, start) + inserted + content.substring(end);
+  }
+
+  private static String createContent(final int lines, final Random random) {
+    final StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < lines; i++) {
+      builder.append("line ").append(random.nextInt(1000)).append(" of the document");
+
+      if (i < lines - 1 || random.nextBoolean()) builder.append('\n');
+    }
+
+    return builder.toString();
+  }
+}
@@ -4,13 +4,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
 import org.easymock.EasyMock;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import saros.filesystem.IFile;
 
 public class FileSystemChecksumCacheTest {
 
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
   private IAbsolutePathResolver absolutePathResolver;
 
   private IFile collidingA0;
@@ -23,6 +31,8 @@ public class FileSystemChecksumCacheTest {
 
   private IFileContentChangedListener listener;
 
+  private final Map<IFile, String> paths = new HashMap<>();
+
   private IFileContentChangedNotifier notifier =
       new IFileContentChangedNotifier() {
 
@@ -153,4 +163,77 @@ public class FileSystemChecksumCacheTest {
     assertEquals(Long.valueOf(1), cache.getChecksum(collidingA0));
     assertEquals(Long.valueOf(1), cache.getChecksum(collidingA1));
   }
+
+  @Test
+  public void testStoredChecksumIsUsedAfterRestart() throws Exception {
+    final File storeFile = new File(folder.getRoot(), "checksums.dat");
+
+    final File stored = createFile("stored");
+    final File modified = createFile("modified");
+    final File changed = createFile("changed");
+
+    final IFile storedMock = createFileMock(stored);
+    final IFile modifiedMock = createFileMock(modified);
+    final IFile changedMock = createFileMock(changed);
+
+    PersistentChecksumStore store = new PersistentChecksumStore(storeFile);
+    FileSystemChecksumCache cache = new FileSystemChecksumCache(notifier, paths::get, store);
+
+    for (IFile file : new IFile[] {storedMock, modifiedMock, changedMock}) {
+      assertEquals(null, cache.getChecksum(file));
+      cache.addChecksum(file, 5L);
+    }
+
+    listener.fileContentChanged(changedMock);
+
+    cache.stop();
+    store.stop();
+
+    assertTrue(modified.setLastModified(modified.lastModified() - 1000));
+
+    store = new PersistentChecksumStore(storeFile);
+    cache = new FileSystemChecksumCache(notifier, paths::get, store);
+
+    assertEquals(Long.valueOf(5), cache.getChecksum(storedMock));
+    assertEquals(null, cache.getChecksum(modifiedMock));
+    assertEquals(null, cache.getChecksum(changedMock));
+  }
+
+  @Test
+  public void testChecksumOfRecentlyModifiedFileIsNotStored() throws Exception {
+    final File storeFile = new File(folder.getRoot(), "checksums.dat");
+
+    final File file = folder.newFile("recent");
+    final IFile fileMock = createFileMock(file);
+
+    PersistentChecksumStore store = new PersistentChecksumStore(storeFile);
+    FileSystemChecksumCache cache = new FileSystemChecksumCache(notifier, paths::get, store);
+
+    assertEquals(null, cache.getChecksum(fileMock));
+    cache.addChecksum(fileMock, 5L);
+    cache.stop();
+    store.stop();
+
+    store = new PersistentChecksumStore(storeFile);
+    cache = new FileSystemChecksumCache(notifier, paths::get, store);
+
+    assertEquals(null, cache.getChecksum(fileMock));
+  }
+
+  private File createFile(final String name) throws Exception {
+    final File file = folder.newFile(name);
+
+    Files.write(file.toPath(), name.getBytes("UTF-8"));
+    assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+
+    return file;
+  }
+
+  private IFile createFileMock(final File file) {
+    final IFile fileMock = EasyMock.createMock(IFile.class);
+
+    paths.put(fileMock, file.getAbsolutePath());
+
+    return fileMock;
+  }
 }
@@ -0,0 +1,131 @@
+package saros.filesystem.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentChecksumStoreTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    file = new File(folder.getRoot(), "checksums.dat");
+  }
+
+  @Test
+  public void testChecksumsSurviveRestart() {
+    PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    store.put(1, 2, 100, 1000, 42);
+    store.put(3, 4, 200, 2000, 43);
+    store.put(3, 4, 300, 3000, 44);
+    store.stop();
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(2, store.size());
+    assertEquals(Long.valueOf(42), store.get(1, 2, 100, 1000));
+    assertEquals(Long.valueOf(44), store.get(3, 4, 300, 3000));
+  }
+
+  @Test
+  public void testModifiedFileIsNotReturned() {
+    final PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    store.put(1, 2, 100, 1000, 42);
+
+    assertNull(store.get(1, 2, 101, 1000));
+    assertNull(store.get(1, 2, 100, 1001));
+    assertNull(store.get(2, 1, 100, 1000));
+  }
+
+  @Test
+  public void testRemoveSurvivesRestart() {
+    PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    store.put(1, 2, 100, 1000, 42);
+    store.remove(1, 2);
+    store.stop();
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(0, store.size());
+    assertNull(store.get(1, 2, 100, 1000));
+  }
+
+  @Test
+  public void testDamagedRecordsAreDiscarded() throws Exception {
+    PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    store.put(1, 2, 100, 1000, 42);
+    store.put(3, 4, 200, 2000, 43);
+    store.stop();
+
+    final long length = file.length();
+
+    // corrupt the checksum of the last record
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(length - 6);
+      raf.write(0xFF);
+    }
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(1, store.size());
+    assertEquals(Long.valueOf(42), store.get(1, 2, 100, 1000));
+
+    // the damaged record was removed, new records must be readable again
+    store.put(5, 6, 300, 3000, 44);
+    store.stop();
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(2, store.size());
+    assertEquals(Long.valueOf(44), store.get(5, 6, 300, 3000));
+  }
+
+  @Test
+  public void testIncompleteRecordIsDiscarded() throws Exception {
+    PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    store.put(1, 2, 100, 1000, 42);
+    store.put(3, 4, 200, 2000, 43);
+    store.stop();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 10);
+    }
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(1, store.size());
+    assertEquals(Long.valueOf(42), store.get(1, 2, 100, 1000));
+  }
+
+  @Test
+  public void testInvalidFileIsDiscarded() throws Exception {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.writeBytes("no checksum store");
+    }
+
+    PersistentChecksumStore store = new PersistentChecksumStore(file);
+
+    assertEquals(0, store.size());
+
+    store.put(1, 2, 100, 1000, 42);
+    store.stop();
+
+    store = new PersistentChecksumStore(file);
+
+    assertEquals(Long.valueOf(42), store.get(1, 2, 100, 1000));
+  }
+}
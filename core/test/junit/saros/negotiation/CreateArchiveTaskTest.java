@@ -0,0 +1,398 @@
+package saros.negotiation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import saros.exceptions.OperationCanceledException;
+import saros.filesystem.IFile;
+import saros.filesystem.IReferencePoint;
+import saros.filesystem.IResource;
+import saros.monitoring.NullProgressMonitor;
+import saros.negotiation.delta.FileDelta;
+import saros.negotiation.delta.FileSignature;
+
+public class CreateArchiveTaskTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Random random = new Random(42);
+
+  private final List<Pair<IFile, String>> files = new ArrayList<>();
+
+  private final List<byte[]> contents = new ArrayList<>();
+
+  @Test
+  public void testArchiveContainsAllFiles() throws Exception {
+    for (int i = 0; i < 300; i++)
+      addFile("1:src/File" + i + ".java", createText(random.nextInt(20000)));
+
+    addFile("1:empty.txt", new byte[0]);
+    addFile("1:image.png", createBinary(10000));
+    addFile("1:binary.dat", createBinary(10000));
+    addFile("2:large.txt", createText(5 * 1024 * 1024));
+    addFile("2:large.jar", createBinary(5 * 1024 * 1024));
+    addFile("2:\u00c4nderungen.txt", createText(100));
+
+    final File archive = createArchive();
+
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      assertEquals(files.size(), zipFile.size());
+
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+      for (int i = 0; i < files.size(); i++) {
+        final ZipEntry entry = entries.nextElement();
+
+        assertEquals("entries must keep their order", files.get(i).getRight(), entry.getName());
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          assertArrayEquals(entry.getName(), contents.get(i), IOUtils.toByteArray(in));
+        }
+      }
+
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("1:src/File0.java").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("2:large.txt").getMethod());
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("1:image.png").getMethod());
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("1:binary.dat").getMethod());
+
+      final ZipEntry largeJar = zipFile.getEntry("2:large.jar");
+
+      assertTrue(
+          "already compressed file must not be compressed again",
+          largeJar.getCompressedSize() >= largeJar.getSize());
+    }
+  }
+
+  @Test
+  public void testCanceledArchiveIsDeleted() throws Exception {
+    for (int i = 0; i < 10; i++) addFile("1:File" + i + ".java", createText(1000));
+
+    final File archive = folder.newFile("archive.zip");
+
+    final NullProgressMonitor monitor = new NullProgressMonitor();
+
+    monitor.setCanceled(true);
+
+    try {
+      new CreateArchiveTask(archive, files, Collections.emptyMap(), monitor).run(null);
+      fail("compressing must be canceled");
+    } catch (OperationCanceledException e) {
+      // expected
+    }
+
+    assertFalse(archive.exists());
+  }
+
+  @Test
+  public void testArchiveWithManyEntries() throws Exception {
+    final File archive = folder.newFile("archive.zip");
+
+    final int count = 70000;
+
+    final CRC32 crc = new CRC32();
+
+    try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(archive))) {
+      final ZipArchiveWriter writer = new ZipArchiveWriter(out, -1);
+
+      for (int i = 0; i < count; i++) {
+        final byte[] data = Integer.toString(i).getBytes("UTF-8");
+
+        crc.reset();
+        crc.update(data);
+
+        writer.writeEntry("e" + i, ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+      }
+
+      writer.finish();
+    }
+
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      assertEquals(count, zipFile.size());
+
+      try (InputStream in = zipFile.getInputStream(zipFile.getEntry("e" + (count - 1)))) {
+        assertEquals(Integer.toString(count - 1), IOUtils.toString(in, "UTF-8"));
+      }
+    }
+  }
+
+  @Test
+  public void testStreamedArchiveIsUnpackedWhileReceived() throws Exception {
+    for (int i = 0; i < 200; i++)
+      addFile("1:src/File" + i + ".java", createText(random.nextInt(20000)));
+
+    addFile("1:empty.txt", new byte[0]);
+    addFile("1:image.png", createBinary(10000));
+    addFile("1:large.txt", createText(5 * 1024 * 1024));
+    addFile("1:large.jar", createBinary(5 * 1024 * 1024));
+
+    final Map<String, byte[]> unpacked =
+        transferArchive(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+    assertEquals(files.size(), unpacked.size());
+
+    for (int i = 0; i < files.size(); i++) {
+      final String path = files.get(i).getRight().substring(2);
+      assertArrayEquals(path, contents.get(i), unpacked.get(path));
+    }
+  }
+
+  @Test
+  public void testAlteredFilesAreTransferredAsDelta() throws Exception {
+    final Map<String, byte[]> localFiles = new HashMap<>();
+    final Map<String, FileSignature> signatures = new HashMap<>();
+    final Set<String> deltaEntries = new HashSet<>();
+
+    long totalSize = 0;
+
+    for (int i = 0; i < 50; i++) {
+      final String path = "src/File" + i + ".java";
+      final byte[] local = createText(20000 + random.nextInt(20000));
+      final byte[] remote = insert(local, random.nextInt(local.length), createText(80));
+
+      addFile("1:" + path, remote);
+      addAlteredFile(path, local, localFiles, signatures, deltaEntries);
+      totalSize += remote.length;
+    }
+
+    final byte[] local = createBinary(5 * 1024 * 1024);
+    final byte[] remote = insert(local, local.length / 2, createBinary(100));
+
+    addFile("1:large.bin", remote);
+    addAlteredFile("large.bin", local, localFiles, signatures, deltaEntries);
+    totalSize += remote.length;
+
+    final CountingOutputStream archiveSize = new CountingOutputStream(new NullOutputStream());
+
+    final Map<String, byte[]> unpacked =
+        transferArchive(localFiles, signatures, deltaEntries, archiveSize);
+
+    for (int i = 0; i < files.size(); i++) {
+      final String path = files.get(i).getRight().substring(2);
+      assertArrayEquals(path, contents.get(i), unpacked.get(path));
+    }
+
+    assertTrue(
+        "archive must only contain the differences: " + archiveSize.getByteCount(),
+        archiveSize.getByteCount() < totalSize / 10);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDeltaForChangedLocalFileIsRejected() throws Exception {
+    final Map<String, byte[]> localFiles = new HashMap<>();
+    final Map<String, FileSignature> signatures = new HashMap<>();
+    final Set<String> deltaEntries = new HashSet<>();
+
+    final byte[] local = createText(20000);
+    final byte[] remote = insert(local, 10000, createText(80));
+
+    addFile("1:File.java", remote);
+    addAlteredFile("File.java", local, localFiles, signatures, deltaEntries);
+
+    // the local file changed after its signature was created
+    localFiles.put("File.java", insert(local, 5000, createText(10)));
+
+    transferArchive(localFiles, signatures, deltaEntries);
+  }
+
+  private Map<String, byte[]> transferArchive(
+      final Map<String, byte[]> localFiles,
+      final Map<String, FileSignature> signatures,
+      final Set<String> deltaEntries)
+      throws Exception {
+    return transferArchive(localFiles, signatures, deltaEntries, new NullOutputStream());
+  }
+
+  /**
+   * Creates an archive of the files and unpacks it while it is created.
+   *
+   * @return the unpacked files by their paths
+   */
+  private Map<String, byte[]> transferArchive(
+      final Map<String, byte[]> localFiles,
+      final Map<String, FileSignature> signatures,
+      final Set<String> deltaEntries,
+      final OutputStream copy)
+      throws Exception {
+
+    final Map<String, byte[]> unpacked = new ConcurrentHashMap<>();
+
+    final IReferencePoint referencePoint = EasyMock.createMock(IReferencePoint.class);
+
+    EasyMock.expect(referencePoint.getFile(EasyMock.anyString()))
+        .andStubAnswer(
+            () -> {
+              final String path = (String) EasyMock.getCurrentArguments()[0];
+              return createTargetFile(path, localFiles.get(path), unpacked);
+            });
+
+    EasyMock.replay(referencePoint);
+
+    final PipedInputStream in = new PipedInputStream(64 * 1024);
+    final OutputStream out = new TeeOutputStream(new PipedOutputStream(in), copy);
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    final Future<?> sender =
+        executor.submit(
+            () -> {
+              try {
+                new CreateArchiveTask(out, files, signatures, null).run(new NullProgressMonitor());
+              } finally {
+                out.close();
+              }
+              return null;
+            });
+
+    try {
+      new DecompressArchiveTask(
+              in,
+              files.size(),
+              Collections.singletonMap("1", referencePoint),
+              ":",
+              deltaEntries,
+              new NullProgressMonitor())
+          .run(null);
+
+      sender.get(60, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+      in.close();
+    }
+
+    return unpacked;
+  }
+
+  private File createArchive() throws IOException, OperationCanceledException {
+    final File archive = folder.newFile();
+
+    new CreateArchiveTask(archive, files, Collections.emptyMap(), null).run(null);
+
+    return archive;
+  }
+
+  private IFile createTargetFile(
+      final String path, final byte[] localContent, final Map<String, byte[]> unpacked)
+      throws IOException {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    EasyMock.expect(file.getType()).andStubReturn(IResource.Type.FILE);
+    EasyMock.expect(file.exists()).andStubReturn(localContent != null);
+
+    if (localContent != null)
+      EasyMock.expect(file.getContents())
+          .andStubAnswer(() -> new ByteArrayInputStream(localContent));
+
+    final IAnswer<Object> write =
+        () -> {
+          final InputStream in = (InputStream) EasyMock.getCurrentArguments()[0];
+          unpacked.put(path, IOUtils.toByteArray(in));
+          in.close();
+          return null;
+        };
+
+    file.create(EasyMock.anyObject(InputStream.class));
+    EasyMock.expectLastCall().andStubAnswer(write);
+
+    file.setContents(EasyMock.anyObject(InputStream.class));
+    EasyMock.expectLastCall().andStubAnswer(write);
+
+    EasyMock.replay(file);
+
+    return file;
+  }
+
+  private void addAlteredFile(
+      final String path,
+      final byte[] local,
+      final Map<String, byte[]> localFiles,
+      final Map<String, FileSignature> signatures,
+      final Set<String> deltaEntries) {
+
+    localFiles.put(path, local);
+    signatures.put("1:" + path, FileDelta.createSignature("1", path, local));
+    deltaEntries.add("1:" + path);
+  }
+
+  private static byte[] insert(final byte[] data, final int offset, final byte[] inserted) {
+    final byte[] result = new byte[data.length + inserted.length];
+
+    System.arraycopy(data, 0, result, 0, offset);
+    System.arraycopy(inserted, 0, result, offset, inserted.length);
+    System.arraycopy(data, offset, result, offset + inserted.length, data.length - offset);
+
+    return result;
+  }
+
+  private void addFile(final String qualifiedPath, final byte[] content) throws IOException {
+    final IFile file = EasyMock.createMock(IFile.class);
+
+    EasyMock.expect(file.getSize()).andStubReturn((long) content.length);
+    EasyMock.expect(file.getContents()).andStubAnswer(() -> new ByteArrayInputStream(content));
+
+    EasyMock.replay(file);
+
+    files.add(new ImmutablePair<>(file, qualifiedPath));
+    contents.add(content);
+  }
+
+  private byte[] createText(final int length) {
+    final String[] words = {"public", "class", "return", "final", "int", "void", "{", "}", ";\n"};
+
+    final StringBuilder builder = new StringBuilder(length + 16);
+
+    while (builder.length() < length)
+      builder.append(words[random.nextInt(words.length)]).append(' ');
+
+    builder.setLength(length);
+
+    return builder.toString().getBytes();
+  }
+
+  private byte[] createBinary(final int length) {
+    final byte[] data = new byte[length];
+
+    random.nextBytes(data);
+
+    return data;
+  }
+}
@@ -22,6 +22,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.zip.Adler32;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.Before;
@@ -31,6 +32,8 @@ import saros.filesystem.IFolder;
 import saros.filesystem.IReferencePoint;
 import saros.filesystem.IResource;
 import saros.misc.xstream.XStreamFactory;
+import saros.monitoring.IProgressMonitor;
+import saros.monitoring.NullProgressMonitor;
 
 /**
  * Reference point Layout for test
@@ -86,6 +89,38 @@ public class FileListTest {
     assertEquals("not all encodings were fetched", expectedEncodings, fileList.getEncodings());
   }
 
+  @Test
+  public void testChecksumsOfManyFiles() throws IOException {
+    final List<IResource> members = new ArrayList<>();
+
+    for (int i = 0; i < 500; i++)
+      members.add(createFileMock(referencePoint, "file" + i, "content of file " + i, "UTF-8"));
+
+    final IReferencePoint manyFilesReferencePoint = createReferencePointMock(members);
+
+    final FileList fileList = FileListFactory.createFileList(manyFilesReferencePoint, null, null);
+
+    for (int i = 0; i < 500; i++) {
+      final Adler32 adler = new Adler32();
+
+      adler.update(("content of file " + i).getBytes());
+
+      assertEquals(adler.getValue(), fileList.getMetaData("file" + i).checksum);
+    }
+  }
+
+  @Test
+  public void testCanceledChecksumCalculation() throws IOException {
+    final IProgressMonitor monitor = new NullProgressMonitor();
+
+    monitor.setCanceled(true);
+
+    final FileList fileList = FileListFactory.createFileList(referencePoint, null, monitor);
+
+    assertEquals(0, fileList.getMetaData("info.txt").checksum);
+    assertEquals(0, fileList.getMetaData("foobar/info.txt").checksum);
+  }
+
   @Test
   public void testToXmlAndBack() throws Exception {
     List<String> files = new ArrayList<String>();
@@ -130,15 +165,25 @@ public class FileListTest {
 
     final IFolder foobarFolder = createFolderMock(referencePoint, "foobar", fooBarFolderMembers);
 
-    EasyMock.expect(referencePoint.getName()).andStubReturn("foo");
-
     List<IResource> projectMembers = new ArrayList<>();
     projectMembers.add(barFolder);
     projectMembers.add(infoTxtFile);
     projectMembers.add(foobarFolder);
 
+    return setMembers(referencePoint, projectMembers);
+  }
+
+  private static IReferencePoint createReferencePointMock(final List<IResource> members) {
+    return setMembers(EasyMock.createMock(IReferencePoint.class), members);
+  }
+
+  private static IReferencePoint setMembers(
+      final IReferencePoint referencePoint, final List<IResource> members) {
+
+    EasyMock.expect(referencePoint.getName()).andStubReturn("foo");
+
     try {
-      EasyMock.expect(referencePoint.members()).andStubReturn(projectMembers);
+      EasyMock.expect(referencePoint.members()).andStubReturn(members);
     } catch (IOException e) {
       // cannot happen
     }
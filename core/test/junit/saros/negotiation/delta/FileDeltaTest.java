@@ -0,0 +1,177 @@
+package saros.negotiation.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class FileDeltaTest {
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void testEqualFiles() throws IOException {
+    final byte[] data = createData(100000);
+
+    final byte[] delta = roundtrip(data, data);
+
+    assertTrue("delta must only reference blocks: " + delta.length, delta.length < 64);
+  }
+
+  @Test
+  public void testInsertedData() throws IOException {
+    final byte[] base = createData(100000);
+    final byte[] data = concat(copy(base, 0, 40000), createData(17), copy(base, 40000, 100000));
+
+    final byte[] delta = roundtrip(base, data);
+
+    assertTrue("delta must be small: " + delta.length, delta.length < 2 * 1024);
+  }
+
+  @Test
+  public void testRemovedData() throws IOException {
+    final byte[] base = createData(100000);
+    final byte[] data = concat(copy(base, 0, 40000), copy(base, 40017, 100000));
+
+    final byte[] delta = roundtrip(base, data);
+
+    assertTrue("delta must be small: " + delta.length, delta.length < 2 * 1024);
+  }
+
+  @Test
+  public void testChangedTail() throws IOException {
+    final byte[] base = createData(10007);
+    final byte[] data = concat(copy(base, 0, 10000), createData(3));
+
+    roundtrip(base, data);
+  }
+
+  @Test
+  public void testMovedBlocks() throws IOException {
+    final byte[] base = createData(50000);
+    final byte[] data = concat(copy(base, 25000, 50000), copy(base, 0, 25000));
+
+    final byte[] delta = roundtrip(base, data);
+
+    assertTrue("delta must be small: " + delta.length, delta.length < 2 * 1024);
+  }
+
+  @Test
+  public void testRepeatedBlocks() throws IOException {
+    final byte[] base = new byte[20000];
+    final byte[] data = new byte[30000];
+
+    roundtrip(base, data);
+  }
+
+  @Test
+  public void testUnrelatedFiles() throws IOException {
+    roundtrip(createData(30000), createData(40000));
+  }
+
+  @Test
+  public void testEmptyFiles() throws IOException {
+    roundtrip(new byte[0], createData(1000));
+    roundtrip(createData(1000), new byte[0]);
+    roundtrip(new byte[0], new byte[0]);
+  }
+
+  @Test
+  public void testRandomChanges() throws IOException {
+    for (int run = 0; run < 50; run++) {
+      byte[] data = createData(random.nextInt(200000));
+      final byte[] base = data;
+
+      for (int i = random.nextInt(10); i >= 0; i--) {
+        final int offset = random.nextInt(data.length + 1);
+        final int length = Math.min(random.nextInt(3000), data.length - offset);
+
+        if (random.nextBoolean())
+          data = concat(copy(data, 0, offset), createData(length), copy(data, offset, data.length));
+        else data = concat(copy(data, 0, offset), copy(data, offset + length, data.length));
+      }
+
+      roundtrip(base, data);
+    }
+  }
+
+  @Test
+  public void testFullContent() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FileDelta.writeFull(out);
+    out.write(new byte[] {1, 2, 3});
+
+    final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    assertNull(FileDelta.apply(in, new byte[10]));
+    assertArrayEquals(
+        new byte[] {1, 2, 3}, new byte[] {(byte) in.read(), (byte) in.read(), (byte) in.read()});
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedDelta() throws IOException {
+    final byte[] base = createData(10000);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FileDelta.writeDelta(FileDelta.createSignature("1", "file", base), createData(5000), 5000, out);
+
+    final byte[] delta = out.toByteArray();
+
+    FileDelta.apply(new ByteArrayInputStream(Arrays.copyOf(delta, delta.length / 2)), base);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDeltaAppliedToDifferentBase() throws IOException {
+    final byte[] base = createData(10000);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FileDelta.writeDelta(FileDelta.createSignature("1", "file", base), base, base.length, out);
+
+    // the receiver's copy changed after the signature was created
+    base[5000]++;
+
+    FileDelta.apply(new ByteArrayInputStream(out.toByteArray()), base);
+  }
+
+  /** Creates and applies the delta, returns the delta. */
+  private byte[] roundtrip(final byte[] base, final byte[] data) throws IOException {
+    final FileSignature signature = FileDelta.createSignature("1", "file", base);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    FileDelta.writeDelta(signature, data, data.length, out);
+
+    final byte[] delta = out.toByteArray();
+
+    assertArrayEquals(data, FileDelta.apply(new ByteArrayInputStream(delta), base));
+
+    return delta;
+  }
+
+  private byte[] createData(final int length) {
+    final byte[] data = new byte[length];
+    random.nextBytes(data);
+    return data;
+  }
+
+  private static byte[] copy(final byte[] data, final int offset, final int end) {
+    return Arrays.copyOfRange(data, offset, end);
+  }
+
+  private static byte[] concat(final byte[]... parts) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (final byte[] part : parts) out.write(part, 0, part.length);
+
+    return out.toByteArray();
+  }
+}
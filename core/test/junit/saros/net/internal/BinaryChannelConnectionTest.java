@@ -2,20 +2,41 @@ package saros.net.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import saros.net.IPacketExtensionCodec;
+import saros.net.PacketExtensionCodecManager;
+import saros.net.internal.BinaryChannelConnection.FragmentScheduler;
 import saros.net.internal.BinaryChannelConnection.IDPool;
 import saros.net.stream.ByteStream;
 import saros.net.stream.StreamMode;
@@ -302,6 +323,609 @@ public class BinaryChannelConnectionTest {
     assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
   }
 
+  @Test
+  public void testFormatNegotiation() throws Exception {
+
+    final IPacketExtensionCodec codec =
+        new IPacketExtensionCodec() {
+
+          @Override
+          public String getElementName() {
+            return "bar";
+          }
+
+          @Override
+          public String getNamespace() {
+            return "foo-namespace";
+          }
+
+          @Override
+          public String getFormat() {
+            return "foo-bin-1";
+          }
+
+          @Override
+          public byte[] encode(PacketExtension extension) {
+            return null;
+          }
+
+          @Override
+          public PacketExtension decode(byte[] data) {
+            return null;
+          }
+        };
+
+    final List<BinaryXMPPExtension> extensions = new ArrayList<BinaryXMPPExtension>();
+
+    PacketExtensionCodecManager.getInstance().addCodec(codec);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(extensions::add);
+    alice.setBinaryXMPPExtensionReceiver(extensions::add);
+
+    try {
+      assertFalse(alice.isFormatSupported("foo-bin-1"));
+
+      alice.initialize();
+      bob.initialize();
+
+      final long deadline = System.currentTimeMillis() + 10000;
+
+      while (!(alice.isFormatSupported("foo-bin-1") && bob.isFormatSupported("foo-bin-1"))
+          && System.currentTimeMillis() < deadline) Thread.sleep(50);
+
+      assertTrue(alice.isFormatSupported("foo-bin-1"));
+      assertTrue(bob.isFormatSupported("foo-bin-1"));
+      assertFalse(bob.isFormatSupported("unknown-format"));
+    } finally {
+      PacketExtensionCodecManager.getInstance().removeCodec(codec);
+      alice.close();
+      bob.close();
+    }
+
+    assertTrue("control packets must not be forwarded", extensions.isEmpty());
+  }
+
+  @Test
+  public void testStreamingSendAndReceive() throws Exception {
+
+    final List<BinaryXMPPExtension> extensions = new ArrayList<BinaryXMPPExtension>();
+
+    final CountDownLatch received = new CountDownLatch(2);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          extensions.add(e);
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    TransferDescription description = TransferDescription.newDescription();
+
+    description.setNamespace("foo-namespace");
+    description.setElementName("bar");
+
+    byte[] bytesToSend = new byte[300 * 1024 + 17];
+
+    for (int i = 0; i < bytesToSend.length; i++) bytesToSend[i] = (byte) (i * 31);
+
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytesToSend.length);
+    directBuffer.put(bytesToSend).flip();
+
+    try {
+      alice.send(description, directBuffer);
+
+      alice.send(
+          description,
+          Channels.newChannel(new ByteArrayInputStream(bytesToSend)),
+          bytesToSend.length);
+
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals("buffer position must not be modified", 0, directBuffer.position());
+
+    assertEquals(2, extensions.size());
+
+    for (BinaryXMPPExtension extension : extensions) {
+      try (InputStream in = extension.getPayloadInputStream()) {
+        assertArrayEquals(bytesToSend, IOUtils.toByteArray(in));
+      }
+
+      assertArrayEquals(bytesToSend, extension.getPayload());
+    }
+  }
+
+  @Test
+  public void testRoundTripTimeAndTransferredBytes() throws Exception {
+
+    final CountDownLatch received = new CountDownLatch(1);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver((e) -> received.countDown());
+
+    alice.initialize();
+    bob.initialize();
+
+    try {
+      assertEquals(-1, alice.getRoundTripTime());
+
+      final long deadline = System.currentTimeMillis() + 10000;
+
+      while (!alice.isMigrationSupported() && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+
+      alice.measureRoundTripTime();
+
+      while (alice.getRoundTripTime() < 0 && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+
+      assertTrue("round trip time was not measured", alice.getRoundTripTime() >= 0);
+
+      final long sentBytes = alice.getSentBytes();
+      final long receivedBytes = bob.getReceivedBytes();
+
+      alice.send(createDescription(), new byte[1000]);
+
+      assertTrue(received.await(10000, TimeUnit.MILLISECONDS));
+
+      assertEquals(sentBytes + 1000, alice.getSentBytes());
+      assertEquals(receivedBytes + 1000, bob.getReceivedBytes());
+    } finally {
+      alice.close();
+      bob.close();
+    }
+  }
+
+  @Test
+  public void testReceiveAllocationsPerPacket() throws Exception {
+    final com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+    final int warmup = 1000;
+    final int packets = 5000;
+
+    final AtomicInteger count = new AtomicInteger();
+    final long[] allocated = new long[2];
+    final CountDownLatch received = new CountDownLatch(1);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    /*
+     * called by the receiver thread, so its allocations cover everything
+     * that is done to read a packet from the stream
+     */
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          e.release();
+
+          final int n = count.incrementAndGet();
+
+          if (n == warmup) {
+            allocated[0] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+          } else if (n == warmup + packets) {
+            allocated[1] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            received.countDown();
+          }
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    /* a typical batch of activities */
+    final byte[] payload = new byte[1024];
+
+    try {
+      final TransferDescription description = createDescription();
+
+      for (int i = 0; i < warmup + packets; i++) alice.send(description, payload);
+
+      assertTrue(received.await(30000, TimeUnit.MILLISECONDS));
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    final long perPacket = (allocated[1] - allocated[0]) / packets;
+
+    /*
+     * only the extension and its transfer description are allocated,
+     * the payload itself is read into recycled memory
+     */
+    assertTrue(
+        "too many bytes allocated per received packet: " + perPacket,
+        perPacket < payload.length / 4);
+  }
+
+  @Test(timeout = 60000)
+  public void testMigrationKeepsOrder() throws Exception {
+    final int packets = 2000;
+
+    final List<Integer> bobReceived = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> aliceReceived = Collections.synchronizedList(new ArrayList<Integer>());
+
+    final CountDownLatch bobDone = new CountDownLatch(packets);
+    final CountDownLatch aliceDone = new CountDownLatch(packets);
+
+    final IBinaryXMPPExtensionReceiver bobReceiver =
+        (e) -> {
+          bobReceived.add(ByteBuffer.wrap(e.getPayload()).getInt());
+          bobDone.countDown();
+        };
+
+    final IBinaryXMPPExtensionReceiver aliceReceiver =
+        (e) -> {
+          aliceReceived.add(ByteBuffer.wrap(e.getPayload()).getInt());
+          aliceDone.countDown();
+        };
+
+    final List<IByteStreamConnection> bobChanged =
+        Collections.synchronizedList(new ArrayList<IByteStreamConnection>());
+
+    final IByteStreamConnectionListener bobListener =
+        new StreamConnectionListener() {
+          @Override
+          public void connectionChanged(
+              String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
+            assertTrue(incomingRequest);
+            bobChanged.add(connection);
+            connection.setBinaryXMPPExtensionReceiver(bobReceiver);
+          }
+        };
+
+    final ByteStream[] oldStreams = createSocketStreams();
+    final ByteStream[] newStreams = createSocketStreams();
+
+    final BinaryChannelConnection aliceOld =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            oldStreams[0],
+            StreamMode.IBB,
+            new StreamConnectionListener());
+
+    final BinaryChannelConnection bobOld =
+        new BinaryChannelConnection(
+            bobJID, aliceJID, "junit", oldStreams[1], StreamMode.IBB, bobListener);
+
+    final BinaryChannelConnection aliceNew =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            newStreams[0],
+            StreamMode.TCP,
+            new StreamConnectionListener());
+
+    final BinaryChannelConnection bobNew =
+        new BinaryChannelConnection(
+            bobJID, aliceJID, "junit", newStreams[1], StreamMode.TCP, bobListener);
+
+    bobOld.setBinaryXMPPExtensionReceiver(bobReceiver);
+    aliceOld.setBinaryXMPPExtensionReceiver(aliceReceiver);
+    aliceNew.setBinaryXMPPExtensionReceiver(aliceReceiver);
+
+    aliceOld.initialize();
+    bobOld.initialize();
+
+    final Thread aliceSender =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < packets; i++) aliceOld.send(createDescription(), toBytes(i));
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    final Thread bobSender =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < packets; i++) {
+                  final IByteStreamConnection current =
+                      bobChanged.isEmpty() ? bobOld : bobChanged.get(0);
+
+                  current.send(createDescription(), toBytes(i));
+                }
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    try {
+      final long deadline = System.currentTimeMillis() + 10000;
+
+      while (!aliceOld.isMigrationSupported() && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+
+      aliceSender.start();
+      bobSender.start();
+
+      aliceOld.announceMigration();
+
+      // done by the data transfer manager of the remote side
+      assertTrue(bobOld.acceptSuccessor(bobNew));
+
+      aliceOld.migrateTo(aliceNew);
+
+      assertTrue(bobDone.await(30000, TimeUnit.MILLISECONDS));
+      assertTrue(aliceDone.await(30000, TimeUnit.MILLISECONDS));
+
+      aliceSender.join(10000);
+      bobSender.join(10000);
+
+      for (int i = 0; i < packets; i++) {
+        assertEquals("packet was lost or reordered", i, bobReceived.get(i).intValue());
+        assertEquals("packet was lost or reordered", i, aliceReceived.get(i).intValue());
+      }
+
+      assertSame(aliceNew, aliceOld.getSuccessor());
+
+      // all packets may have been sent before the migration, so the switch can still be pending
+      while (bobChanged.isEmpty() && System.currentTimeMillis() < deadline + 30000)
+        Thread.sleep(10);
+
+      assertEquals(Collections.singletonList(bobNew), bobChanged);
+
+      while ((aliceOld.isConnected() || bobOld.isConnected())
+          && System.currentTimeMillis() < deadline + 30000) Thread.sleep(10);
+
+      assertFalse("old connection was not closed", aliceOld.isConnected());
+      assertFalse("old connection was not closed", bobOld.isConnected());
+      assertTrue(aliceNew.isConnected());
+      assertTrue(bobNew.isConnected());
+    } finally {
+      aliceOld.close();
+      bobOld.close();
+      aliceNew.close();
+      bobNew.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testSuccessorArrivingAfterAbortIsDiscarded() throws Exception {
+    final BlockingQueue<Integer> bobReceived = new LinkedBlockingQueue<>();
+
+    final ByteStream[] oldStreams = createSocketStreams();
+    final ByteStream[] strayStreams = createSocketStreams();
+    final ByteStream[] newStreams = createSocketStreams();
+
+    final BinaryChannelConnection aliceOld =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            oldStreams[0],
+            StreamMode.IBB,
+            new StreamConnectionListener());
+
+    final BinaryChannelConnection bobOld =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            oldStreams[1],
+            StreamMode.IBB,
+            new StreamConnectionListener());
+
+    // the successor alice closed again as it was no better than the old connection
+    final BinaryChannelConnection bobStray =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            strayStreams[1],
+            StreamMode.SOCKS5_MEDIATED,
+            new StreamConnectionListener());
+
+    final BinaryChannelConnection bobNew =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            newStreams[1],
+            StreamMode.TCP,
+            new StreamConnectionListener());
+
+    bobOld.setBinaryXMPPExtensionReceiver(
+        (e) -> bobReceived.add(ByteBuffer.wrap(e.getPayload()).getInt()));
+
+    aliceOld.initialize();
+    bobOld.initialize();
+
+    try {
+      final long deadline = System.currentTimeMillis() + 10000;
+
+      while (!aliceOld.isMigrationSupported() && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+
+      aliceOld.announceMigration();
+      strayStreams[0].close();
+      aliceOld.abortMigration(true);
+
+      // the abort is received before the packet, i.e before the stray successor arrives
+      aliceOld.send(createDescription(), toBytes(1));
+      assertEquals(1, bobReceived.take().intValue());
+
+      assertTrue("stray successor was not discarded", bobOld.acceptSuccessor(bobStray));
+      assertTrue(bobOld.isConnected());
+      assertNull(bobOld.getSuccessor());
+
+      // the next migration is not affected
+      aliceOld.announceMigration();
+      assertTrue(bobOld.acceptSuccessor(bobNew));
+
+      aliceOld.abortMigration(true);
+      aliceOld.send(createDescription(), toBytes(2));
+      assertEquals(2, bobReceived.take().intValue());
+
+      assertTrue(bobOld.isConnected());
+      assertNull(bobOld.getSuccessor());
+    } finally {
+      aliceOld.close();
+      bobOld.close();
+      bobStray.close();
+      bobNew.close();
+      newStreams[0].close();
+    }
+  }
+
+  @Test
+  public void testFragmentSchedulerPrefersHighPriority() throws Exception {
+    final FragmentScheduler scheduler = new FragmentScheduler(60000);
+
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    scheduler.acquire(FragmentScheduler.PRIORITY_BULK);
+
+    final Thread bulk = startWriter(scheduler, FragmentScheduler.PRIORITY_BULK, "bulk", order);
+    awaitWaiting(scheduler, 1);
+
+    final Thread high = startWriter(scheduler, FragmentScheduler.PRIORITY_HIGH, "high", order);
+    awaitWaiting(scheduler, 2);
+
+    scheduler.release();
+
+    bulk.join(10000);
+    high.join(10000);
+
+    assertEquals(Arrays.asList("high", "bulk"), order);
+    assertEquals(0, scheduler.getWaitingCount());
+  }
+
+  @Test
+  public void testFragmentSchedulerBoundsBulkWait() throws Exception {
+    final FragmentScheduler scheduler = new FragmentScheduler(0);
+
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    scheduler.acquire(FragmentScheduler.PRIORITY_HIGH);
+
+    final Thread bulk = startWriter(scheduler, FragmentScheduler.PRIORITY_BULK, "bulk", order);
+    awaitWaiting(scheduler, 1);
+
+    final Thread high = startWriter(scheduler, FragmentScheduler.PRIORITY_HIGH, "high", order);
+    awaitWaiting(scheduler, 2);
+
+    scheduler.release();
+
+    bulk.join(10000);
+    high.join(10000);
+
+    assertEquals(Arrays.asList("bulk", "high"), order);
+  }
+
+  private static Thread startWriter(
+      final FragmentScheduler scheduler,
+      final int priority,
+      final String name,
+      final List<String> order) {
+
+    final Thread thread =
+        new Thread(
+            () -> {
+              try {
+                scheduler.acquire(priority);
+              } catch (IOException e) {
+                return;
+              }
+
+              order.add(name);
+              scheduler.release();
+            });
+
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitWaiting(final FragmentScheduler scheduler, final int count)
+      throws InterruptedException {
+
+    final long deadline = System.currentTimeMillis() + 10000;
+
+    while (scheduler.getWaitingCount() < count && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    assertEquals(count, scheduler.getWaitingCount());
+  }
+
   @Test
   public void testIDPool() {
 
@@ -318,4 +942,55 @@ public class BinaryChannelConnectionTest {
     assertEquals(31, pool.nextID());
     assertEquals(-1, pool.nextID());
   }
+
+  private static TransferDescription createDescription() {
+    return TransferDescription.newDescription().setNamespace("foo-namespace").setElementName("bar");
+  }
+
+  private static byte[] toBytes(int value) {
+    return ByteBuffer.allocate(4).putInt(value).array();
+  }
+
+  /** Returns the streams of both ends of a loopback socket connection. */
+  private static ByteStream[] createSocketStreams() throws IOException {
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      final Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+
+      return new ByteStream[] {new SocketByteStream(client), new SocketByteStream(server.accept())};
+    }
+  }
+
+  private static class SocketByteStream implements ByteStream {
+
+    private final Socket socket;
+
+    private SocketByteStream(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public int getReadTimeout() throws IOException {
+      return socket.getSoTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) throws IOException {
+      socket.setSoTimeout(timeout);
+    }
+  }
 }
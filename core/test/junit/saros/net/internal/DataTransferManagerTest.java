@@ -5,6 +5,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -40,6 +42,8 @@ public class DataTransferManagerTest {
 
     private String connectionID;
 
+    private volatile boolean available = true;
+
     public Transport(StreamMode mode) {
       this.mode = mode;
     }
@@ -48,6 +52,8 @@ public class DataTransferManagerTest {
     public synchronized IByteStreamConnection connect(String connectionIdentifier, JID peer)
         throws IOException, InterruptedException {
 
+      if (!available) throw new IOException("transport is not available");
+
       connectionID = connectionIdentifier;
 
       ChannelConnection connection = new ChannelConnection(peer, mode, listener);
@@ -76,6 +82,10 @@ public class DataTransferManagerTest {
     public synchronized List<ChannelConnection> getEstablishedConnections() {
       return establishedConnections;
     }
+
+    public void setAvailable(boolean available) {
+      this.available = available;
+    }
   }
 
   private static class BlockableTransport extends Transport {
@@ -126,6 +136,7 @@ public class DataTransferManagerTest {
     private IByteStreamConnectionListener listener;
     private volatile boolean closed;
     private volatile int sendPackets;
+    private volatile IByteStreamConnection successor;
 
     public ChannelConnection(JID to, StreamMode mode, IByteStreamConnectionListener listener) {
       this.to = to;
@@ -177,6 +188,26 @@ public class DataTransferManagerTest {
     public void setBinaryXMPPExtensionReceiver(IBinaryXMPPExtensionReceiver receiver) {
       // NOP
     }
+
+    @Override
+    public boolean isMigrationSupported() {
+      return true;
+    }
+
+    @Override
+    public void announceMigration() throws IOException {
+      // NOP
+    }
+
+    @Override
+    public void migrateTo(IByteStreamConnection successor) throws IOException {
+      this.successor = successor;
+    }
+
+    @Override
+    public IByteStreamConnection getSuccessor() {
+      return successor;
+    }
   }
 
   private XMPPConnectionService connectionServiceStub;
@@ -210,7 +241,7 @@ public class DataTransferManagerTest {
   @Test(expected = NullPointerException.class)
   public void testEstablishConnectionWithNullPeer() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -220,7 +251,7 @@ public class DataTransferManagerTest {
   @Test(expected = NullPointerException.class)
   public void testEstablishConnectionWithNullConnectionID() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -230,7 +261,7 @@ public class DataTransferManagerTest {
   @Test(expected = IOException.class)
   public void testEstablishConnectionWithNoTransports() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -244,7 +275,7 @@ public class DataTransferManagerTest {
     IStreamService fallbackTransport = new Transport(StreamMode.IBB);
 
     IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -272,7 +303,7 @@ public class DataTransferManagerTest {
     EasyMock.replay(mainTransport);
 
     IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -284,6 +315,23 @@ public class DataTransferManagerTest {
         "Wrong transport fallback", StreamMode.IBB, dtm.getTransferMode(new JID("foo@bar.com")));
   }
 
+  @Test
+  public void testEstablishConnectionPrefersDirectTransport() throws Exception {
+
+    IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
+    IStreamService fallbackTransport = new Transport(StreamMode.IBB);
+    IStreamService directTransport = new Transport(StreamMode.TCP);
+
+    IConnectionManager dtm =
+        new DataTransferManager(
+            connectionServiceStub, mainTransport, fallbackTransport, directTransport);
+
+    connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
+
+    dtm.connect(new JID("foo@bar.com"));
+    assertEquals(StreamMode.TCP, dtm.getTransferMode(new JID("foo@bar.com")));
+  }
+
   @Test
   public void testForceIBBOnly() throws Exception {
 
@@ -291,7 +339,7 @@ public class DataTransferManagerTest {
     IStreamService fallbackTransport = new Transport(StreamMode.IBB);
 
     DataTransferManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport, null);
 
     dtm.setServices(IConnectionManager.IBB_SERVICE);
 
@@ -310,7 +358,8 @@ public class DataTransferManagerTest {
 
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -330,7 +379,8 @@ public class DataTransferManagerTest {
   public void testGetTransferMode() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -350,7 +400,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnInvalidConnectionIdentifierWithNoConnection() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -360,7 +411,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnInvalidConnectionIdentifier() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -372,7 +424,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnValidConnectionIdentifier() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -398,7 +451,7 @@ public class DataTransferManagerTest {
     Transport fallbackTransport = new Transport(StreamMode.IBB);
 
     final IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -485,7 +538,8 @@ public class DataTransferManagerTest {
   public void connectWithRemoteSideConnectedFirst() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -511,7 +565,7 @@ public class DataTransferManagerTest {
     Transport fallbackTransport = new Transport(StreamMode.IBB);
 
     final DataTransferManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -558,7 +612,8 @@ public class DataTransferManagerTest {
   public void testConnectionClosureOnManualClose() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -582,7 +637,8 @@ public class DataTransferManagerTest {
   public void testConnectionClosureOnDisconnect() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -603,4 +659,51 @@ public class DataTransferManagerTest {
 
     assertEquals(StreamMode.NONE, dtm.getTransferMode(new JID("fallback@emergency")));
   }
+
+  @Test
+  public void testConnectionUpgradeToBetterTransport() throws Exception {
+    final JID peer = new JID("foo@bar.com");
+
+    Transport mainTransport = new Transport(StreamMode.SOCKS5_MEDIATED);
+    Transport directTransport = new Transport(StreamMode.TCP);
+
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, mainTransport, null, directTransport);
+
+    final List<ConnectionQuality> qualities = new ArrayList<ConnectionQuality>();
+
+    dtm.addConnectionListener(
+        new IByteStreamConnectionListener() {
+          @Override
+          public void connectionQualityChanged(
+              String connectionID, IByteStreamConnection connection, ConnectionQuality quality) {
+            qualities.add(quality);
+          }
+        });
+
+    connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
+
+    directTransport.setAvailable(false);
+
+    final IByteStreamConnection connection = dtm.connect(peer);
+
+    assertEquals(StreamMode.SOCKS5_MEDIATED, dtm.getTransferMode(peer));
+
+    directTransport.setAvailable(true);
+
+    final ConnectionQualityMonitor monitor = new ConnectionQualityMonitor(dtm, 0, 0);
+
+    // first run takes the initial sample, the second one reports and upgrades
+    monitor.run();
+    monitor.run();
+
+    assertEquals(1, qualities.size());
+    assertEquals(StreamMode.SOCKS5_MEDIATED, qualities.get(0).getMode());
+
+    assertEquals(StreamMode.TCP, dtm.getTransferMode(peer));
+
+    assertSame(directTransport.getEstablishedConnections().get(0), connection.getSuccessor());
+
+    assertTrue("migrated connection must not be closed", connection.isConnected());
+  }
 }
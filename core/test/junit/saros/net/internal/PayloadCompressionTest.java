@@ -0,0 +1,140 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class PayloadCompressionTest {
+
+  private static byte[] createActivitiesPayload(final int activities) {
+    final StringBuilder builder = new StringBuilder();
+
+    builder.append("<ADOS xmlns=\"saros\" sessionID=\"1234567890\" seq=\"42\">");
+
+    for (int i = 0; i < activities; i++) {
+      builder
+          .append("<jupiterActivity source=\"alice%40saros-con.imp.fu-berlin.de%2FSaros\">")
+          .append("<vectorTime local=\"")
+          .append(i)
+          .append("\" remote=\"")
+          .append(i / 2)
+          .append("\"/><operation class=\"insertOp\" position=\"")
+          .append(i * 3)
+          .append("\"><text>")
+          .append((char) ('a' + i % 26))
+          .append("</text></operation><resource i=\"0\" p=\"src/saros/Main.java\"/>")
+          .append("</jupiterActivity>");
+    }
+
+    builder.append("</ADOS>");
+
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] createRandomPayload(final int size) {
+    final byte[] data = new byte[size];
+    new Random(4711).nextBytes(data);
+    return data;
+  }
+
+  private static TransferDescription description(boolean binaryEncoded) {
+    return TransferDescription.newDescription().setBinaryEncodedContent(binaryEncoded);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (final int activities : new int[] {0, 1, 10, 1000, 10000}) {
+      final byte[] payload = createActivitiesPayload(activities);
+
+      assertArrayEquals(payload, PayloadCompression.inflate(PayloadCompression.deflate(payload)));
+    }
+  }
+
+  @Test
+  public void testRoundTripIncompressibleData() throws IOException {
+    final byte[] payload = createRandomPayload(2 * 1024 * 1024);
+
+    assertArrayEquals(payload, PayloadCompression.inflate(PayloadCompression.deflate(payload)));
+  }
+
+  @Test
+  public void testStreamingInflate() throws IOException {
+    final byte[] payload = createActivitiesPayload(10000);
+    final byte[] compressed = PayloadCompression.deflate(payload);
+
+    for (int i = 0; i < 16; i++) {
+      try (InputStream in = PayloadCompression.inflate(new ByteArrayInputStream(compressed))) {
+        assertArrayEquals(payload, IOUtils.toByteArray(in));
+      }
+    }
+  }
+
+  @Test
+  public void testDeflateSharedContent() throws IOException {
+    final byte[][] contents = {
+      new byte[0],
+      createActivitiesPayload(1),
+      createActivitiesPayload(1000),
+      createRandomPayload(4096)
+    };
+
+    final byte[][] headers = {
+      new byte[0], "seq=0".getBytes(StandardCharsets.UTF_8), createRandomPayload(70000)
+    };
+
+    for (final byte[] content : contents) {
+      final PayloadCompression.DeflatedContent deflatedContent =
+          PayloadCompression.deflateContent(content);
+
+      for (final byte[] header : headers) {
+        final byte[] expected = Arrays.copyOf(header, header.length + content.length);
+        System.arraycopy(content, 0, expected, header.length, content.length);
+
+        final byte[] compressed = PayloadCompression.deflate(header, deflatedContent);
+
+        assertArrayEquals(expected, PayloadCompression.inflate(compressed));
+
+        try (InputStream in = PayloadCompression.inflate(new ByteArrayInputStream(compressed))) {
+          assertArrayEquals(expected, IOUtils.toByteArray(in));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testInflateTruncatedData() throws IOException {
+    final byte[] compressed = PayloadCompression.deflate(createActivitiesPayload(100));
+
+    PayloadCompression.inflate(Arrays.copyOf(compressed, compressed.length / 2));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInflateMalformedData() throws IOException {
+    PayloadCompression.inflate(createRandomPayload(128));
+  }
+
+  @Test
+  public void testShouldCompress() {
+    assertFalse(PayloadCompression.shouldCompress(description(false), new byte[16]));
+
+    assertTrue(PayloadCompression.shouldCompress(description(false), createActivitiesPayload(1)));
+
+    assertTrue(PayloadCompression.shouldCompress(description(false), createActivitiesPayload(100)));
+
+    assertFalse(
+        PayloadCompression.shouldCompress(description(false), createRandomPayload(64 * 1024)));
+
+    assertFalse(PayloadCompression.shouldCompress(description(true), new byte[128]));
+
+    assertTrue(PayloadCompression.shouldCompress(description(true), new byte[64 * 1024]));
+  }
+}
@@ -0,0 +1,98 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.junit.Before;
+import org.junit.Test;
+import saros.net.internal.ReceiveBufferPool.Buffer;
+import saros.net.internal.ReceiveBufferPool.Slab;
+
+public class ReceiveBufferPoolTest {
+
+  private BlockingQueue<Slab> slabs;
+
+  private ReceiveBufferPool pool;
+
+  @Before
+  public void setUp() {
+    slabs = new ArrayBlockingQueue<>(2);
+    pool = new ReceiveBufferPool(slabs);
+  }
+
+  @Test
+  public void testSmallBuffersShareOneSlab() {
+    final Buffer a = pool.allocate(100);
+    final Buffer b = pool.allocate(200);
+
+    assertSame(a.array(), b.array());
+    assertEquals(0, a.offset());
+    assertEquals(100, b.offset());
+    assertEquals(200, b.length());
+  }
+
+  @Test
+  public void testNextSlabIfBufferDoesNotFit() {
+    final Buffer a = pool.allocate(ReceiveBufferPool.SLAB_SIZE - 10);
+    final Buffer b = pool.allocate(11);
+
+    assertNotSame(a.array(), b.array());
+    assertEquals(0, b.offset());
+  }
+
+  @Test
+  public void testSlabIsReusedOnceAllBuffersAreReleased() {
+    final Buffer a = pool.allocate(ReceiveBufferPool.SLAB_SIZE / 2);
+    final Buffer b = pool.allocate(ReceiveBufferPool.SLAB_SIZE / 2);
+
+    // switches to the next slab, the first slab is still referenced by a and b
+    final Buffer c = pool.allocate(1);
+
+    assertTrue(slabs.isEmpty());
+
+    a.release();
+    assertTrue(slabs.isEmpty());
+
+    b.release();
+    assertEquals(1, slabs.size());
+
+    // releasing twice must not add the slab again
+    b.release();
+    assertEquals(1, slabs.size());
+
+    pool.dispose();
+    assertEquals(1, slabs.size());
+
+    c.release();
+    assertEquals(2, slabs.size());
+
+    final Buffer d = new ReceiveBufferPool(slabs).allocate(10);
+
+    assertSame(a.array(), d.array());
+    assertEquals(0, d.offset());
+  }
+
+  @Test
+  public void testUnreleasedBufferIsNotOverwritten() {
+    final Buffer kept = pool.allocate(ReceiveBufferPool.SLAB_SIZE);
+
+    kept.array()[kept.offset()] = 42;
+
+    for (int i = 0; i < 10; i++) {
+      final Buffer buffer = pool.allocate(ReceiveBufferPool.SLAB_SIZE);
+      buffer.array()[buffer.offset()] = (byte) i;
+      buffer.release();
+    }
+
+    assertEquals(42, kept.array()[kept.offset()]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAllocateTooLargeBuffer() {
+    pool.allocate(ReceiveBufferPool.SLAB_SIZE + 1);
+  }
+}
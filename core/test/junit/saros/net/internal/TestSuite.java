@@ -7,7 +7,9 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
   BinaryChannelConnectionTest.class,
   ConnectionPoolTest.class,
-  DataTransferManagerTest.class
+  DataTransferManagerTest.class,
+  PayloadCompressionTest.class,
+  ReceiveBufferPoolTest.class
 })
 public class TestSuite {
   // the class remains completely empty,
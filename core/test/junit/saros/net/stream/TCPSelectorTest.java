@@ -0,0 +1,172 @@
+package saros.net.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TCPSelectorTest {
+
+  private static final long TIMEOUT = 10000;
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final BlockingQueue<TCPChannelStream> accepted =
+      new ArrayBlockingQueue<TCPChannelStream>(1);
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private TCPSelector selector;
+
+  private TCPChannelStream client;
+
+  private TCPChannelStream server;
+
+  @Before
+  public void setUp() throws Exception {
+    selector =
+        new TCPSelector(
+            0,
+            BUFFER_SIZE,
+            BUFFER_SIZE,
+            (channel, token) -> {
+              try {
+                if (token == 42) accepted.add(selector.register(channel));
+                else channel.close();
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    final SocketChannel channel =
+        SocketChannel.open(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), selector.getPort()));
+
+    selector.configure(channel);
+
+    final ByteBuffer handshake = ByteBuffer.allocate(TCPSelector.HANDSHAKE_LENGTH);
+    handshake.putInt(TCPSelector.MAGIC).putLong(42).flip();
+
+    while (handshake.hasRemaining()) channel.write(handshake);
+
+    client = selector.register(channel);
+    server = accepted.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull("connection was not accepted", server);
+  }
+
+  @After
+  public void tearDown() {
+    selector.close();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testTransferInBothDirections() throws Exception {
+    final byte[] request = createData(4 * 1024 * 1024);
+    final byte[] response = createData(1024 * 1024 + 17);
+
+    final Future<?> clientWriter = write(client, request);
+    final Future<?> serverWriter = write(server, response);
+
+    final Future<byte[]> serverReader = read(server, request.length);
+    final Future<byte[]> clientReader = read(client, response.length);
+
+    assertArrayEquals(request, serverReader.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertArrayEquals(response, clientReader.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+    clientWriter.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    serverWriter.get(TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testWriteBlocksUntilDataIsRead() throws Exception {
+    final byte[] data = createData(8 * 1024 * 1024);
+
+    final Future<?> writer = write(client, data);
+
+    Thread.sleep(500);
+
+    assertFalse("data was written although the receiver did not read", writer.isDone());
+
+    assertArrayEquals(data, read(server, data.length).get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+    writer.get(TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testCloseIsReceivedAsEndOfStream() throws Exception {
+    final byte[] data = createData(3 * BUFFER_SIZE);
+
+    client.getOutputStream().write(data);
+    client.close();
+
+    assertArrayEquals(data, read(server, data.length).get(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(-1, server.getInputStream().read());
+  }
+
+  @Test(expected = SocketTimeoutException.class)
+  public void testReadTimeout() throws Exception {
+    server.setReadTimeout(100);
+    server.getInputStream().read();
+  }
+
+  @Test
+  public void testStreamsFailWhenSelectorIsClosed() throws Exception {
+    selector.close();
+
+    try {
+      server.getInputStream().read();
+      fail("read on a closed selector succeeded");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private Future<?> write(final ByteStream stream, final byte[] data) {
+    return executor.submit(
+        () -> {
+          stream.getOutputStream().write(data);
+          stream.getOutputStream().flush();
+          return null;
+        });
+  }
+
+  private Future<byte[]> read(final ByteStream stream, final int length) {
+    return executor.submit(
+        () -> {
+          final InputStream in = stream.getInputStream();
+          final byte[] data = new byte[length];
+
+          new DataInputStream(in).readFully(data);
+          return data;
+        });
+  }
+
+  private static byte[] createData(final int length) {
+    final byte[] data = new byte[length];
+
+    for (int i = 0; i < length; i++) data[i] = (byte) (i * 31 + (i >>> 11));
+
+    return data;
+  }
+}
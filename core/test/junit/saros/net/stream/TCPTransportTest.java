@@ -0,0 +1,268 @@
+package saros.net.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.net.internal.IByteStreamConnection;
+import saros.net.internal.IByteStreamConnectionListener;
+import saros.net.xmpp.JID;
+
+public class TCPTransportTest {
+
+  private static final long TIMEOUT = 10000;
+
+  private static class IncomingConnectionListener implements IByteStreamConnectionListener {
+
+    private final BlockingQueue<IByteStreamConnection> connections =
+        new ArrayBlockingQueue<IByteStreamConnection>(4);
+
+    private final BlockingQueue<IByteStreamConnection> closedConnections =
+        new ArrayBlockingQueue<IByteStreamConnection>(4);
+
+    @Override
+    public void connectionClosed(String connectionID, IByteStreamConnection connection) {
+      closedConnections.add(connection);
+    }
+
+    @Override
+    public void connectionChanged(
+        String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
+      assertTrue("connection is not incoming", incomingRequest);
+      connections.add(connection);
+    }
+
+    private IByteStreamConnection await() throws InterruptedException {
+      return connections.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private final JID aliceJID = new JID("alice@baumeister.de/Saros");
+
+  private final JID bobJID = new JID("bob@baumeister.de/Saros");
+
+  /** packet listeners of the XMPP connections by JID */
+  private final Map<String, PacketListener> packetListeners =
+      new ConcurrentHashMap<String, PacketListener>();
+
+  private final ExecutorService packetDispatcher = Executors.newSingleThreadExecutor();
+
+  private Connection aliceConnection;
+  private Connection bobConnection;
+
+  private TCPTransport alice;
+  private TCPTransport bob;
+
+  private IncomingConnectionListener aliceListener;
+  private IncomingConnectionListener bobListener;
+
+  @Before
+  public void setUp() {
+    aliceConnection = createConnection(aliceJID);
+    bobConnection = createConnection(bobJID);
+
+    alice = new TCPTransport();
+    bob = new TCPTransport();
+
+    aliceListener = new IncomingConnectionListener();
+    bobListener = new IncomingConnectionListener();
+  }
+
+  @After
+  public void tearDown() {
+    alice.uninitialize();
+    bob.uninitialize();
+    packetDispatcher.shutdownNow();
+  }
+
+  @Test
+  public void testConnectAndClose() throws Exception {
+    alice.initialize(aliceConnection, aliceListener);
+    bob.initialize(bobConnection, bobListener);
+
+    final IByteStreamConnection aliceSide = alice.connect("junit", bobJID);
+    final IByteStreamConnection bobSide = bobListener.await();
+
+    assertNotNull("bob did not receive the connection", bobSide);
+
+    assertEquals(StreamMode.TCP, aliceSide.getMode());
+    assertEquals(StreamMode.TCP, bobSide.getMode());
+    assertEquals("junit", bobSide.getConnectionID());
+    assertEquals(aliceJID, bobSide.getRemoteAddress());
+
+    aliceSide.initialize();
+    bobSide.initialize();
+
+    assertTrue(aliceSide.isConnected());
+    assertTrue(bobSide.isConnected());
+
+    aliceSide.close();
+
+    assertNotNull(
+        "bob did not notice that the connection was closed",
+        bobListener.closedConnections.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testConnectFailsIfPeerDoesNotSupportTCP() throws Exception {
+    alice.initialize(aliceConnection, aliceListener);
+
+    // behave like a Smack client without a provider for the request
+    packetListeners.put(
+        bobJID.toString(),
+        packet ->
+            bobConnection.sendPacket(
+                IQ.createErrorResponse(
+                    (IQ) packet, new XMPPError(XMPPError.Condition.feature_not_implemented))));
+
+    final long start = System.currentTimeMillis();
+
+    try {
+      alice.connect("junit", bobJID);
+      fail("connection to peer without TCP support was established");
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertTrue(
+        "connect did not fail immediately", System.currentTimeMillis() - start < TIMEOUT / 2);
+  }
+
+  @Test
+  public void testHandshakeWithUnknownTokenIsRejected() throws Exception {
+    bob.initialize(bobConnection, bobListener);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), bob.getPort())) {
+      socket.setSoTimeout((int) TIMEOUT);
+
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+      out.writeInt(TCPSelector.MAGIC);
+      out.writeLong(42);
+      out.flush();
+
+      final InputStream in = socket.getInputStream();
+
+      assertEquals("connection was not closed", -1, in.read());
+    }
+
+    assertEquals(0, bobListener.connections.size());
+  }
+
+  @Test
+  public void testSelectReachableAddresses() throws Exception {
+    final List<TCPTransport.Subnet> subnets =
+        Arrays.asList(
+            new TCPTransport.Subnet(InetAddress.getByName("192.168.1.10"), 24),
+            new TCPTransport.Subnet(InetAddress.getByName("2001:db8:1::10"), 64));
+
+    final List<String> local = Arrays.asList("192.168.1.10", "2001:db8:1::10", "127.0.0.1");
+
+    assertEquals(
+        addresses("192.168.1.20", "2001:db8:1::20", "198.51.100.7"),
+        TCPTransport.selectReachableAddresses(
+            Arrays.asList(
+                "198.51.100.7", // public
+                "192.168.1.20", // same subnet
+                "10.0.0.5", // private address of another network
+                "fd00::1", // unique local address of another network
+                "2001:db8:1::20", // same subnet
+                "127.0.0.1"), // remote side runs on another host
+            local,
+            subnets));
+
+    assertEquals(
+        addresses("192.168.1.10", "2001:db8:1::10", "127.0.0.1"),
+        TCPTransport.selectReachableAddresses(local, local, subnets));
+  }
+
+  @Test
+  public void testNoAddressIsReachable() throws Exception {
+    final List<TCPTransport.Subnet> ipv4Only =
+        Collections.singletonList(
+            new TCPTransport.Subnet(InetAddress.getByName("192.168.1.10"), 24));
+
+    assertEquals(
+        Collections.emptyList(),
+        TCPTransport.selectReachableAddresses(
+            Arrays.asList("10.0.0.5", "2001:db8:2::1", "127.0.0.1"),
+            Arrays.asList("192.168.1.10", "127.0.0.1"),
+            ipv4Only));
+  }
+
+  @Test(expected = IOException.class)
+  public void testConnectWithoutInitialization() throws Exception {
+    alice.connect("junit", bobJID);
+  }
+
+  private static List<InetAddress> addresses(final String... addresses) throws IOException {
+    final List<InetAddress> result = new ArrayList<InetAddress>();
+
+    for (final String address : addresses) result.add(InetAddress.getByName(address));
+
+    return result;
+  }
+
+  private Connection createConnection(final JID jid) {
+    final Connection connection = EasyMock.createNiceMock(Connection.class);
+
+    EasyMock.expect(connection.getUser()).andStubReturn(jid.toString());
+
+    connection.addPacketListener(
+        EasyMock.anyObject(PacketListener.class), EasyMock.anyObject(PacketFilter.class));
+
+    EasyMock.expectLastCall()
+        .andStubAnswer(
+            () -> {
+              packetListeners.put(
+                  jid.toString(), (PacketListener) EasyMock.getCurrentArguments()[0]);
+              return null;
+            });
+
+    connection.sendPacket(EasyMock.anyObject(Packet.class));
+
+    EasyMock.expectLastCall()
+        .andStubAnswer(
+            () -> {
+              final Packet packet = (Packet) EasyMock.getCurrentArguments()[0];
+
+              packet.setFrom(jid.toString());
+
+              final PacketListener listener = packetListeners.get(packet.getTo());
+
+              if (listener != null) packetDispatcher.execute(() -> listener.processPacket(packet));
+
+              return null;
+            });
+
+    EasyMock.replay(connection);
+    return connection;
+  }
+}
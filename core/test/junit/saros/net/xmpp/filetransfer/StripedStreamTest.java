@@ -0,0 +1,156 @@
+package saros.net.xmpp.filetransfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedStreamTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final int[] sizes = {0, 1, 100, 1024, 1025, 10 * 1024 + 7, 100000};
+    final int[] stripes = {1, 2, 3, 8};
+
+    for (final int size : sizes) {
+      for (final int stripeCount : stripes) {
+        final byte[] data = createData(size);
+
+        assertArrayEquals(
+            "size=" + size + ", stripes=" + stripeCount, data, transfer(data, stripeCount, 1024));
+      }
+    }
+  }
+
+  @Test
+  public void testPayloadBytes() throws Exception {
+    final byte[] data = createData(10000);
+
+    final StripeSplitter splitter = new StripeSplitter(new ByteArrayInputStream(data), 3, 1000);
+
+    final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+
+    for (int i = 0; i < 3; i++) results.add(drain(splitter.getStripe(i)));
+
+    long wireBytes = 0;
+
+    for (final Future<byte[]> result : results)
+      wireBytes += result.get(10, TimeUnit.SECONDS).length;
+
+    assertEquals(data.length, splitter.getPayloadBytes());
+
+    /* 10 data blocks plus one terminator per stripe */
+    assertEquals(data.length + 13 * StripeSplitter.HEADER_LENGTH, wireBytes);
+  }
+
+  @Test
+  public void testStripeClosedEarly() throws Exception {
+    final byte[] data = createData(100 * 1024);
+
+    final StripeSplitter splitter = new StripeSplitter(new ByteArrayInputStream(data), 2, 1024);
+
+    splitter.getStripe(1).close();
+
+    try {
+      drain(splitter.getStripe(0)).get(10, TimeUnit.SECONDS);
+      fail("closing a stripe before it was read completely must fail the transfer");
+    } catch (ExecutionException e) {
+      assertEquals(IOException.class, e.getCause().getClass());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedStripe() throws Exception {
+    final byte[] data = createData(10 * 1024);
+
+    final byte[][] stripes = split(data, 2, 1024);
+
+    final List<InputStream> streams = new ArrayList<InputStream>();
+    streams.add(new ByteArrayInputStream(stripes[0]));
+    streams.add(new ByteArrayInputStream(stripes[1], 0, stripes[1].length / 2));
+
+    readFully(new StripedInputStream(streams));
+  }
+
+  private byte[] transfer(final byte[] data, final int stripeCount, final int blockSize)
+      throws Exception {
+
+    final byte[][] stripes = split(data, stripeCount, blockSize);
+
+    final List<InputStream> streams = new ArrayList<InputStream>();
+
+    for (final byte[] stripe : stripes) streams.add(new ByteArrayInputStream(stripe));
+
+    return readFully(new StripedInputStream(streams));
+  }
+
+  private byte[][] split(final byte[] data, final int stripeCount, final int blockSize)
+      throws Exception {
+
+    final StripeSplitter splitter =
+        new StripeSplitter(new ByteArrayInputStream(data), stripeCount, blockSize);
+
+    final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+
+    for (int i = 0; i < stripeCount; i++) results.add(drain(splitter.getStripe(i)));
+
+    final byte[][] stripes = new byte[stripeCount][];
+
+    for (int i = 0; i < stripeCount; i++) stripes[i] = results.get(i).get(10, TimeUnit.SECONDS);
+
+    return stripes;
+  }
+
+  private Future<byte[]> drain(final InputStream in) {
+    return executor.submit(
+        () -> {
+          try (InputStream stream = in) {
+            return readFully(stream);
+          }
+        });
+  }
+
+  private static byte[] readFully(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+
+    int read;
+
+    while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+
+    return out.toByteArray();
+  }
+
+  private static byte[] createData(final int size) {
+    final byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+}
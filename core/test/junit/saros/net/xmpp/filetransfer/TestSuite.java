@@ -0,0 +1,11 @@
+package saros.net.xmpp.filetransfer;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({StripedStreamTest.class, XMPPFileTransferManagerTest.class})
+public class TestSuite {
+  // the class remains completely empty,
+  // being used only as a holder for the above annotations
+}
@@ -0,0 +1,101 @@
+package saros.net.xmpp.filetransfer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
+import org.junit.Before;
+import org.junit.Test;
+import saros.net.xmpp.XMPPConnectionService;
+import saros.net.xmpp.contact.XMPPContact;
+import saros.net.xmpp.contact.XMPPContactsService;
+
+public class XMPPFileTransferManagerTest {
+
+  private static final String IDENTIFIER = "junit";
+
+  private XMPPContact contact;
+
+  @Before
+  public void setUp() {
+    contact = EasyMock.createNiceMock(XMPPContact.class);
+    EasyMock.replay(contact);
+  }
+
+  @Test(timeout = 10000)
+  public void testIncompleteStripesAreRejectedAfterTimeout() throws Exception {
+    final XMPPFileTransferManager manager = createManager(100);
+
+    final Future<XMPPFileTransferRequest> expected = manager.addExpectedTransferRequest(IDENTIFIER);
+
+    final FileTransferRequest first = createStripe(0, 3);
+    final FileTransferRequest second = createStripe(2, 3);
+
+    // the stripe with index 1 never arrives
+    manager.addStripe(contact, first, IDENTIFIER, "0", "3");
+    manager.addStripe(contact, second, IDENTIFIER, "2", "3");
+
+    try {
+      expected.get(5, TimeUnit.SECONDS);
+      fail("expected transfer completed although a stripe is missing");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    EasyMock.verify(first, second);
+  }
+
+  @Test(timeout = 10000)
+  public void testIncompleteStripesAreRejectedOnCancel() throws Exception {
+    final XMPPFileTransferManager manager = createManager(60000);
+
+    final Future<XMPPFileTransferRequest> expected = manager.addExpectedTransferRequest(IDENTIFIER);
+
+    final FileTransferRequest first = createStripe(0, 2);
+
+    manager.addStripe(contact, first, IDENTIFIER, "0", "2");
+
+    expected.cancel(false);
+
+    EasyMock.verify(first);
+
+    try {
+      expected.get();
+      fail("canceled transfer completed");
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+
+  private static XMPPFileTransferManager createManager(final long stripeTimeout) {
+    final XMPPConnectionService connectionService =
+        EasyMock.createNiceMock(XMPPConnectionService.class);
+
+    final XMPPContactsService contactsService = EasyMock.createNiceMock(XMPPContactsService.class);
+
+    EasyMock.replay(connectionService, contactsService);
+
+    return new XMPPFileTransferManager(connectionService, contactsService, stripeTimeout);
+  }
+
+  private static FileTransferRequest createStripe(final int index, final int count) {
+    final FileTransferRequest request = EasyMock.createMock(FileTransferRequest.class);
+
+    EasyMock.expect(request.getRequestor()).andStubReturn("alice@example.org/Saros");
+    EasyMock.expect(request.getDescription())
+        .andStubReturn(IDENTIFIER + XMPPFileTransferManager.STRIPE_DELIMITER + index + "/" + count);
+
+    request.reject();
+    EasyMock.expectLastCall().once();
+
+    EasyMock.replay(request);
+
+    return request;
+  }
+}
@@ -0,0 +1,71 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ActivityCoalescingPolicyTest {
+
+  private static final long MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(5);
+
+  @Test
+  public void testNoDelayWithoutSendTime() {
+    final ActivityCoalescingPolicy policy = new ActivityCoalescingPolicy(MAX_DELAY, 64);
+
+    assertEquals(0, policy.getDelay(1));
+  }
+
+  @Test
+  public void testDisabled() {
+    final ActivityCoalescingPolicy policy = new ActivityCoalescingPolicy(0, 64);
+
+    policy.sent(1, 1, 0, TimeUnit.MILLISECONDS.toNanos(100));
+
+    assertEquals(0, policy.getDelay(1));
+  }
+
+  @Test
+  public void testDelayFollowsSendTime() {
+    final ActivityCoalescingPolicy policy = new ActivityCoalescingPolicy(MAX_DELAY, 64);
+
+    policy.sent(1, 1, 0, TimeUnit.MILLISECONDS.toNanos(1));
+
+    final long fastLinkDelay = policy.getDelay(0);
+
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), fastLinkDelay);
+
+    for (int i = 0; i < 100; i++) policy.sent(1, 1, 0, TimeUnit.MILLISECONDS.toNanos(100));
+
+    assertEquals("delay exceeds the latency budget", MAX_DELAY, policy.getDelay(0));
+  }
+
+  @Test
+  public void testDelayShrinksWithPendingActivities() {
+    final ActivityCoalescingPolicy policy = new ActivityCoalescingPolicy(MAX_DELAY, 64);
+
+    policy.sent(1, 1, 0, MAX_DELAY);
+
+    assertTrue(policy.getDelay(1) > policy.getDelay(32));
+    assertTrue(policy.getDelay(32) > policy.getDelay(63));
+
+    assertEquals(0, policy.getDelay(64));
+    assertEquals(0, policy.getDelay(1000));
+  }
+
+  @Test
+  public void testStatistics() {
+    final ActivityCoalescingPolicy policy = new ActivityCoalescingPolicy(MAX_DELAY, 64);
+
+    policy.sent(2, 2, TimeUnit.MICROSECONDS.toNanos(1000), 0);
+    policy.sent(4, 3, TimeUnit.MICROSECONDS.toNanos(3000), 0);
+
+    assertEquals(2, policy.getBatchCount());
+    assertEquals(5, policy.getMessageCount());
+    assertEquals(3D, policy.getAverageBatchSize(), 0D);
+    assertEquals(4, policy.getMaxBatchSize());
+    assertEquals(2000, policy.getAverageBufferedTime());
+    assertEquals(3000, policy.getMaxBufferedTime());
+  }
+}
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -37,6 +38,7 @@ import saros.activities.TextSelectionActivity;
 import saros.activities.ViewportActivity;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.concurrent.management.ConcurrentDocumentServer;
+import saros.editor.text.TextPosition;
 import saros.filesystem.IFile;
 import saros.filesystem.IFolder;
 import saros.filesystem.IReferencePoint;
@@ -51,11 +53,15 @@ public class ActivityHandlerTest {
   private ActivityHandler handler;
   private NonUISynchronizer synchronizer;
 
+  private ISarosSession sessionMock;
+
   // Results from Callback
   private IActivity transformedActivity;
   private IActivity localActivity;
   private volatile boolean willBeSent;
   private List<User> targets = new ArrayList<User>();
+  private final List<IActivity> sentActivities =
+      Collections.synchronizedList(new ArrayList<IActivity>());
 
   // Input
   private List<IActivity> activities;
@@ -73,6 +79,11 @@ public class ActivityHandlerTest {
   // Needed to compare localActivities
   private volatile CountDownLatch gate;
 
+  // Needed to wait for activities sent by the host
+  private volatile CountDownLatch sendGate;
+
+  private IReferencePoint referencePoint;
+
   // Roles of the Users in this Test
   private User target;
   private User source;
@@ -88,6 +99,11 @@ public class ActivityHandlerTest {
           willBeSent = true;
           targets = recipients;
           transformedActivity = activity;
+          sentActivities.add(activity);
+
+          CountDownLatch gateToCountdown = sendGate;
+
+          if (gateToCountdown != null) gateToCountdown.countDown();
         }
 
         @Override
@@ -160,6 +176,55 @@ public class ActivityHandlerTest {
     }
   }
 
+  /** Tests that text edits generated during one event of the UI thread are sent merged. */
+  @Test
+  public void ClientMergesTextEditsOfOneUIEventTest() {
+
+    setParameters(bob, alice, false);
+
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+    EasyMock.replay(file);
+
+    final List<IActivity> transformed = Collections.synchronizedList(new ArrayList<IActivity>());
+
+    final ConcurrentDocumentClient client = EasyMock.createNiceMock(ConcurrentDocumentClient.class);
+
+    EasyMock.expect(client.transformToJupiter(EasyMock.anyObject(IActivity.class)))
+        .andAnswer(
+            () -> {
+              transformed.add((IActivity) EasyMock.getCurrentArguments()[0]);
+              return (IActivity) EasyMock.getCurrentArguments()[0];
+            })
+        .anyTimes();
+
+    EasyMock.replay(client);
+
+    handler.stop();
+    handler = new ActivityHandler(sessionMock, callback, client, synchronizer);
+    handler.start();
+
+    synchronizer.syncExec(
+        () -> {
+          handler.handleOutgoingActivities(
+              Collections.singletonList(
+                  TextEditActivity.buildTextEditActivity(
+                      bob, new TextPosition(0, 0), "a", "", file)));
+
+          handler.handleOutgoingActivities(
+              Collections.singletonList(
+                  TextEditActivity.buildTextEditActivity(
+                      bob, new TextPosition(0, 1), "b", "", file)));
+
+          assertTrue("activities were sent before the UI event completed", transformed.isEmpty());
+        });
+
+    // the flush is executed after the current event
+    synchronizer.syncExec(() -> {});
+
+    assertEquals(1, transformed.size());
+    assertEquals("ab", ((TextEditActivity) transformed.get(0)).getNewText());
+  }
+
   /**
    * This tests if the handleIncomingActivities-method at the host produces the right activities to
    * send to others.
@@ -172,10 +237,18 @@ public class ActivityHandlerTest {
     for (IActivity activity : activities) {
 
       willBeSent = false;
+      sendGate = new CountDownLatch(1);
 
       // SUT-CALL
       handler.handleIncomingActivities(Collections.singletonList(activity));
 
+      // activities of documents are sent by another Thread
+      try {
+        sendGate.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        fail("Interupted");
+      }
+
       if (!willBeSent) {
         fail("Activity: " + activity + " was not send.");
       } else if (activity instanceof ITargetedActivity) {
@@ -196,6 +269,139 @@ public class ActivityHandlerTest {
     }
   }
 
+  /**
+   * Tests that the host transforms the activities of different documents independently but sends
+   * activities that are not related to a single document only after all pending activities.
+   */
+  @Test
+  public void ServerTransformsDocumentsConcurrentlyTest() throws Exception {
+
+    setParameters(bob, alice, true);
+
+    final IFile fileA = createFile();
+    final IFile fileB = createFile();
+
+    final JupiterActivity editA = createActivity(JupiterActivity.class, fileA);
+    final JupiterActivity editB = createActivity(JupiterActivity.class, fileB);
+    final FileActivity deleteA = createActivity(FileActivity.class, fileA);
+
+    final CountDownLatch blocker = new CountDownLatch(1);
+
+    final ConcurrentDocumentServer server = EasyMock.createNiceMock(ConcurrentDocumentServer.class);
+
+    EasyMock.expect(server.transformIncoming(editA))
+        .andAnswer(
+            () -> {
+              blocker.await(10, TimeUnit.SECONDS);
+              return Collections.singletonList(new QueueItem(bob, editA));
+            });
+
+    EasyMock.expect(server.transformIncoming(editB))
+        .andReturn(Collections.singletonList(new QueueItem(bob, editB)));
+
+    // otherwise the blocked transformation of A would block all calls to the mock
+    EasyMock.makeThreadSafe(server, false);
+    EasyMock.replay(server);
+
+    handler.stop();
+    handler =
+        new ActivityHandler(
+            sessionMock,
+            callback,
+            server,
+            EasyMock.createNiceMock(ConcurrentDocumentClient.class),
+            synchronizer);
+    handler.start();
+
+    sentActivities.clear();
+    sendGate = new CountDownLatch(1);
+
+    handler.handleIncomingActivities(Collections.singletonList(editA));
+    handler.handleIncomingActivities(Collections.singletonList(editB));
+
+    assertTrue("document was blocked by another one", sendGate.await(10, TimeUnit.SECONDS));
+
+    final Thread deletion =
+        new Thread(() -> handler.handleIncomingActivities(Collections.singletonList(deleteA)));
+
+    deletion.start();
+
+    try {
+      deletion.join(200);
+      assertEquals(Collections.singletonList(editB), new ArrayList<>(sentActivities));
+    } finally {
+      blocker.countDown();
+    }
+
+    deletion.join(10000);
+    assertFalse(deletion.isAlive());
+
+    assertEquals(Arrays.asList(editB, editA, deleteA), new ArrayList<>(sentActivities));
+  }
+
+  @Test
+  public void ServerDoesNotWaitForDiscardedTransformationsTest() throws Exception {
+
+    setParameters(bob, alice, true);
+
+    final CountDownLatch blocker = new CountDownLatch(1);
+
+    final ConcurrentDocumentServer server = EasyMock.createNiceMock(ConcurrentDocumentServer.class);
+
+    final List<IActivity> edits = new ArrayList<>();
+
+    // more documents than transform threads, so some of them are still queued on stop
+    for (int i = 0; i < 8; i++) {
+      final JupiterActivity edit = createActivity(JupiterActivity.class, createFile());
+
+      EasyMock.expect(server.transformIncoming(edit))
+          .andStubAnswer(
+              () -> {
+                try {
+                  blocker.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                return Collections.singletonList(new QueueItem(bob, edit));
+              });
+
+      edits.add(edit);
+    }
+
+    final FileActivity deletion = createActivity(FileActivity.class, createFile());
+
+    EasyMock.makeThreadSafe(server, false);
+    EasyMock.replay(server);
+
+    handler.stop();
+    handler =
+        new ActivityHandler(
+            sessionMock,
+            callback,
+            server,
+            EasyMock.createNiceMock(ConcurrentDocumentClient.class),
+            synchronizer);
+    handler.start();
+
+    sentActivities.clear();
+
+    try {
+      handler.handleIncomingActivities(edits);
+      handler.stop();
+
+      final Thread directing =
+          new Thread(() -> handler.handleIncomingActivities(Collections.singletonList(deletion)));
+
+      directing.start();
+      directing.join(10000);
+
+      assertFalse("host still waits for discarded transformations", directing.isAlive());
+      assertFalse(sentActivities.contains(deletion));
+    } finally {
+      blocker.countDown();
+    }
+  }
+
   /**
    * This tests if the handleIncomingActivities-method at the host produces the right activities for
    * the localUser.
@@ -282,6 +488,21 @@ public class ActivityHandlerTest {
     this.host = host;
   }
 
+  private IFile createFile() {
+    IFile file = EasyMock.createNiceMock(IFile.class);
+    EasyMock.expect(file.getReferencePoint()).andStubReturn(referencePoint);
+    EasyMock.replay(file);
+    return file;
+  }
+
+  private <T extends IResourceActivity<IFile>> T createActivity(Class<T> clazz, IFile file) {
+    T activity = EasyMock.createNiceMock(clazz);
+    EasyMock.expect(activity.getSource()).andStubReturn(alice);
+    EasyMock.expect(activity.getResource()).andStubReturn(file);
+    EasyMock.replay(activity);
+    return activity;
+  }
+
   /** creates the Users used in this test */
   private void createUsers() {
     // local User
@@ -322,7 +543,7 @@ public class ActivityHandlerTest {
     synchronizer = new NonUISynchronizer();
 
     // Create SessionMock
-    ISarosSession sessionMock = EasyMock.createMock(ISarosSession.class);
+    sessionMock = EasyMock.createMock(ISarosSession.class);
     EasyMock.expect(sessionMock.getLocalUser()).andStubReturn(alice);
     EasyMock.expect(sessionMock.getHost()).andStubReturn(alice);
     // read host-Variable at runtime.
@@ -336,7 +557,7 @@ public class ActivityHandlerTest {
             })
         .anyTimes();
 
-    IReferencePoint referencePoint = EasyMock.createMock(IReferencePoint.class);
+    referencePoint = EasyMock.createMock(IReferencePoint.class);
 
     EasyMock.expect(sessionMock.userHasReferencePoint(dave, referencePoint)).andStubReturn(false);
     for (User user : remoteUsersWithReferencePoints) {
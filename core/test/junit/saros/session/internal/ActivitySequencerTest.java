@@ -2,6 +2,7 @@ package saros.session.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -10,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -19,6 +21,7 @@ import org.junit.Before;
 import org.junit.Test;
 import saros.activities.IActivity;
 import saros.activities.NOPActivity;
+import saros.communication.extensions.ActivitiesExtension;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -273,6 +276,69 @@ public class ActivitySequencerTest {
         bobReceivedActivitiesBuffer.size());
   }
 
+  @Test(timeout = 30000)
+  public void testBroadcastSharesActivities() throws Exception {
+
+    final JID carlJid = new JID("carl@test/Saros");
+    final User carlUserInAliceSession = new User(carlJid, false, false, null);
+
+    final List<Map<JID, PacketExtension>> sent =
+        Collections.synchronizedList(new ArrayList<Map<JID, PacketExtension>>());
+
+    final ITransmitter recordingTransmitter = EasyMock.createNiceMock(ITransmitter.class);
+
+    final Capture<Map<JID, PacketExtension>> batch = Capture.newInstance();
+
+    EasyMock.expect(
+            recordingTransmitter.send(
+                EasyMock.eq(ISarosSession.SESSION_CONNECTION_ID), EasyMock.capture(batch)))
+        .andAnswer(
+            () -> {
+              sent.add(batch.getValue());
+              return Collections.emptyMap();
+            })
+        .anyTimes();
+
+    EasyMock.replay(recordingTransmitter);
+
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, recordingTransmitter, aliceReceiver, null);
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(bobUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 0));
+
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    aliceSequencer.registerUser(carlUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Arrays.asList(bobUserInAliceSession, carlUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 1));
+
+    aliceSequencer.flush(bobUserInAliceSession);
+    aliceSequencer.flush(carlUserInAliceSession);
+
+    assertEquals("activities were not sent once for all recipients", 1, sent.size());
+
+    final ActivitiesExtension toBob =
+        ActivitiesExtension.PROVIDER.getPayload(sent.get(0).get(BOB_JID));
+
+    final ActivitiesExtension toCarl =
+        ActivitiesExtension.PROVIDER.getPayload(sent.get(0).get(carlJid));
+
+    assertEquals(1, toBob.getSequenceNumber());
+    assertEquals(0, toCarl.getSequenceNumber());
+    assertSame(
+        "recipients do not share the same activities",
+        toBob.getActivities(),
+        toCarl.getActivities());
+  }
+
   private static ISarosSession createSessionMock(
       final User host,
       final User client,
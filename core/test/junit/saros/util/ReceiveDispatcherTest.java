@@ -0,0 +1,228 @@
+package saros.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReceiveDispatcherTest {
+
+  private ExecutorService delivery;
+  private ReceiveDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    delivery = Executors.newSingleThreadExecutor();
+    dispatcher = new ReceiveDispatcher("junit", 4, delivery);
+  }
+
+  @After
+  public void tearDown() {
+    dispatcher.shutdown();
+    delivery.shutdownNow();
+  }
+
+  @Test
+  public void testOrderPerKey() throws Exception {
+    final int keys = 8;
+    final int tasksPerKey = 500;
+
+    final List<List<Integer>> results = new ArrayList<>();
+
+    for (int k = 0; k < keys; k++) results.add(Collections.synchronizedList(new ArrayList<>()));
+
+    final CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+
+    for (int i = 0; i < tasksPerKey; i++) {
+      for (int k = 0; k < keys; k++) {
+        final List<Integer> result = results.get(k);
+        final int value = i;
+
+        dispatcher.submit(
+            "key-" + k,
+            () -> value,
+            (v) -> {
+              result.add(v);
+              done.countDown();
+            });
+      }
+    }
+
+    assertTrue("not all tasks were delivered", done.await(10, TimeUnit.SECONDS));
+
+    for (final List<Integer> result : results) {
+      assertEquals(tasksPerKey, result.size());
+
+      for (int i = 0; i < tasksPerKey; i++) assertEquals(i, (int) result.get(i));
+    }
+
+    awaitQueueDepth(0);
+    assertEquals(keys * tasksPerKey, dispatcher.getDeliveredCount());
+    assertTrue(dispatcher.getMaxQueueDepth() > 0);
+  }
+
+  @Test
+  public void testSlowKeyDoesNotBlockOtherKeys() throws Exception {
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch fastDelivered = new CountDownLatch(1);
+
+    dispatcher.submit(
+        "slow",
+        () -> {
+          try {
+            blocker.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "slow";
+        },
+        (v) -> {
+          // NOP
+        });
+
+    dispatcher.submit("fast", () -> "fast", (v) -> fastDelivered.countDown());
+
+    try {
+      assertTrue("task of other key was blocked", fastDelivered.await(10, TimeUnit.SECONDS));
+      awaitQueueDepth(1);
+    } finally {
+      blocker.countDown();
+    }
+  }
+
+  @Test
+  public void testNullResultAndFailingTaskAreNotDelivered() throws Exception {
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(1);
+
+    dispatcher.<String>submit("key", () -> null, delivered::add);
+
+    dispatcher.<String>submit(
+        "key",
+        () -> {
+          throw new IllegalStateException("junit");
+        },
+        delivered::add);
+
+    dispatcher.submit(
+        "key",
+        () -> "value",
+        (v) -> {
+          delivered.add(v);
+          done.countDown();
+        });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("value"), delivered);
+  }
+
+  @Test
+  public void testAwaitIdle() throws Exception {
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+    dispatcher.submit(
+        "slow",
+        () -> {
+          try {
+            blocker.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "slow";
+        },
+        delivered::add);
+
+    dispatcher.submit("fast", () -> "fast", delivered::add);
+
+    try {
+      assertFalse(
+          "idle although a task is pending", dispatcher.awaitIdle(100, TimeUnit.MILLISECONDS));
+    } finally {
+      blocker.countDown();
+    }
+
+    assertTrue("not idle after all tasks finished", dispatcher.awaitIdle(10, TimeUnit.SECONDS));
+    assertEquals(2, delivered.size());
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test(timeout = 20000)
+  public void testShutdownDiscardsPendingTasks() throws Exception {
+    dispatcher.shutdown();
+    dispatcher = new ReceiveDispatcher("junit", 1, delivery);
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+    dispatcher.submit(
+        "slow",
+        () -> {
+          started.countDown();
+          try {
+            blocker.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "slow";
+        },
+        delivered::add);
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    // queued behind the slow task as there is only one worker
+    dispatcher.submit("other", () -> "other", delivered::add);
+    dispatcher.submit("slow", () -> "slow 2", delivered::add);
+
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final boolean[] idle = new boolean[] {true};
+
+    final Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                waiting.countDown();
+                idle[0] = dispatcher.awaitIdle(60, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+
+    waiter.start();
+    assertTrue(waiting.await(10, TimeUnit.SECONDS));
+
+    dispatcher.shutdown();
+
+    waiter.join(10000);
+    assertFalse("waiter was not woken up by the shutdown", waiter.isAlive());
+    assertFalse("idle although tasks were discarded", idle[0]);
+
+    assertFalse(
+        "task accepted after shutdown", dispatcher.submit("new", () -> "new", delivered::add));
+
+    // only the interrupted slow task is delivered, all queued tasks are discarded
+    awaitQueueDepth(0);
+    assertEquals(Collections.singletonList("slow"), delivered);
+  }
+
+  // the statistics are updated after the consumer returned
+  private void awaitQueueDepth(int depth) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+
+    while (dispatcher.getQueueDepth() != depth && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    assertEquals(depth, dispatcher.getQueueDepth());
+  }
+}
@@ -1,15 +1,21 @@
 package saros.concurrent.undo;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import saros.concurrent.jupiter.InclusionTransformation;
 import saros.concurrent.jupiter.Operation;
 import saros.filesystem.IFile;
 
 /**
  * The Operation History is the data structure for saving operations to calculate undo and redo
  * operations. It contains histories for each editor.
+ *
+ * <p>The undo (redo) operation of a local (redoable) entry is its inverse transformed in the
+ * context of all entries that were added afterwards. This transformation is cached per entry and
+ * continued from where it was left off, so the costs only depend on the number of entries that were
+ * added since the last calculation. The inverses of the latest local and redoable entry are kept up
+ * to date whenever an entry is added.
  */
 class OperationHistory {
 
@@ -17,7 +23,9 @@ class OperationHistory {
   // TODO: has to be dependent on the Eclipse properties
   private static final int MAX_SIZE = 1000;
 
-  private final HashMap<IFile, LinkedList<EditorHistoryEntry>> history = new HashMap<>();
+  private final HashMap<IFile, EditorHistory> history = new HashMap<>();
+
+  private final InclusionTransformation transformation;
 
   /**
    * An operation can have three types. A local operation can be undone. A remote operation is not
@@ -31,12 +39,20 @@ class OperationHistory {
   }
 
   class EditorHistoryEntry {
-    protected final Type type;
+    protected Type type;
     protected final Operation operation;
 
-    public EditorHistoryEntry(Type type, Operation operation) {
+    /* consecutive number of the entry in the history of its editor */
+    private final long sequenceNumber;
+
+    /* the inverse of the operation transformed up to the entry with the given sequence number */
+    private Operation transformedInverse;
+    private long transformedUntil;
+
+    private EditorHistoryEntry(Type type, Operation operation, long sequenceNumber) {
       this.type = type;
       this.operation = operation;
+      this.sequenceNumber = sequenceNumber;
     }
 
     public Type getType() {
@@ -48,31 +64,68 @@ class OperationHistory {
     }
 
     @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + OperationHistory.this.hashCode();
-      result = prime * result + ((operation == null) ? 0 : operation.hashCode());
-      result = prime * result + ((type == null) ? 0 : type.hashCode());
-      return result;
+    public String toString() {
+      return "EditorHistoryEntry [type=" + type + ", operation=" + operation + "]";
     }
+  }
 
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) return true;
-      if (obj == null) return false;
-      if (getClass() != obj.getClass()) return false;
-      EditorHistoryEntry other = (EditorHistoryEntry) obj;
-      if (operation == null) {
-        if (other.operation != null) return false;
-      } else if (!operation.equals(other.operation)) return false;
-      if (type == null) {
-        if (other.type != null) return false;
-      } else if (!type.equals(other.type)) return false;
-      return true;
+  /**
+   * The entries of one editor, kept in a ring buffer that grows up to {@link #MAX_SIZE} entries.
+   */
+  private static class EditorHistory {
+    private EditorHistoryEntry[] entries = new EditorHistoryEntry[16];
+
+    /* index of the oldest entry */
+    private int head;
+    private int size;
+
+    private long nextSequenceNumber;
+
+    private void add(EditorHistoryEntry entry) {
+      if (size == entries.length && size < MAX_SIZE) {
+        EditorHistoryEntry[] grown = new EditorHistoryEntry[Math.min(size * 2, MAX_SIZE)];
+
+        for (int i = 0; i < size; i++) grown[i] = get(i);
+
+        entries = grown;
+        head = 0;
+      }
+
+      // history shouldn't overflow, replace the oldest element
+      if (size == entries.length) {
+        entries[head] = entry;
+        head = (head + 1) % entries.length;
+      } else {
+        entries[(head + size) % entries.length] = entry;
+        size++;
+      }
+    }
+
+    /** @return the entry at the given index, 0 is the oldest one */
+    private EditorHistoryEntry get(int index) {
+      return entries[(head + index) % entries.length];
+    }
+
+    /** @return the index of the entry, -1 if it is no longer in the history */
+    private int indexOf(EditorHistoryEntry entry) {
+      if (size == 0) return -1;
+
+      long index = entry.sequenceNumber - get(0).sequenceNumber;
+
+      if (index < 0 || index >= size || get((int) index) != entry) return -1;
+
+      return (int) index;
     }
   }
 
+  /**
+   * @param transformation the transformation to calculate the undo and redo operations with, it is
+   *     applied with <code>privileged == true</code>
+   */
+  OperationHistory(InclusionTransformation transformation) {
+    this.transformation = transformation;
+  }
+
   /**
    * Adds an Operation to the history. Too old elements are removed if the list is full.
    *
@@ -80,105 +133,78 @@ class OperationHistory {
    */
   void add(IFile editor, Type type, Operation operation) {
 
-    LinkedList<EditorHistoryEntry> editorHistory = history.get(editor);
+    EditorHistory editorHistory = history.get(editor);
 
     if (editorHistory == null) {
-      editorHistory = new LinkedList<EditorHistoryEntry>();
+      editorHistory = new EditorHistory();
       history.put(editor, editorHistory);
     }
 
-    // history shouldn't overflow, remove too old elements
-    for (int i = editorHistory.size(); i >= MAX_SIZE; i--) {
-      editorHistory.removeLast();
-    }
+    editorHistory.add(new EditorHistoryEntry(type, operation, editorHistory.nextSequenceNumber++));
 
-    EditorHistoryEntry entry = new EditorHistoryEntry(type, operation);
-    editorHistory.add(0, entry);
-  }
-
-  /** @return the latest local Operation in the editor's history, null if there is none */
-  Operation getLatestLocal(IFile editor) {
+    EditorHistoryEntry latestLocal = getLatestEntry(editor, Type.LOCAL);
+    if (latestLocal != null) transformInverse(editor, latestLocal);
 
-    return getLatestOfType(Type.LOCAL, editor);
+    EditorHistoryEntry latestRedoable = getLatestEntry(editor, Type.REDOABLE);
+    if (latestRedoable != null) transformInverse(editor, latestRedoable);
   }
 
-  /**
-   * @return the latest Operation in the editor's history that can be redone, null if there is none
-   */
-  Operation getLatestRedoable(IFile editor) {
-
-    return getLatestOfType(Type.REDOABLE, editor);
-  }
-
-  private Operation getLatestOfType(Type type, IFile editor) {
+  /** @return the latest entry of the given type in the editor's history, null if there is none */
+  EditorHistoryEntry getLatestEntry(IFile editor, Type type) {
 
-    List<EditorHistoryEntry> editorHistory = history.get(editor);
+    EditorHistory editorHistory = history.get(editor);
     if (editorHistory == null) return null;
 
-    for (EditorHistoryEntry entry : editorHistory) {
-      if (entry.getType() == type) return entry.getOperation();
+    for (int i = editorHistory.size - 1; i >= 0; i--) {
+      EditorHistoryEntry entry = editorHistory.get(i);
+      if (entry.getType() == type) return entry;
     }
     return null;
   }
 
   /**
-   * @return all entries up to the latest local Operation (exclusive) in reverse order (oldest
-   *     first)
-   */
-  List<EditorHistoryEntry> entriesToLatestLocal(IFile editor) {
-    return entriesToLatestOfType(Type.LOCAL, editor);
-  }
-
-  /**
-   * @return all entries up to the latest redoable Operation (exclusive) in reverse order (oldest
-   *     first)
-   */
-  List<EditorHistoryEntry> entriesToLatestRedoable(IFile editor) {
-    return entriesToLatestOfType(Type.REDOABLE, editor);
-  }
-
-  /**
-   * @return all entries up to the latest operation of the given type (exclusive) in reverse order
-   *     (oldest first)
+   * Returns the inverse of the given entry's operation transformed in the context of all entries
+   * that were added to the editor's history afterwards, i.e. the operation that reverts the effect
+   * of the entry on the current state of the editor.
+   *
+   * @param editor the editor the entry belongs to
+   * @param entry the entry to calculate the transformed inverse for
+   * @return the transformed inverse of the entry's operation
    */
-  private List<EditorHistoryEntry> entriesToLatestOfType(Type type, IFile editor) {
+  Operation transformInverse(IFile editor, EditorHistoryEntry entry) {
 
-    List<EditorHistoryEntry> result = new LinkedList<EditorHistoryEntry>();
+    EditorHistory editorHistory = history.get(editor);
+    int index = editorHistory == null ? -1 : editorHistory.indexOf(entry);
 
-    List<EditorHistoryEntry> editorHistory = history.get(editor);
-    if (editorHistory == null) return result;
+    if (index == -1)
+      throw new IllegalArgumentException(
+          "Cannot transform " + entry + ", not in history of editor " + editor);
 
-    for (EditorHistoryEntry entry : editorHistory) {
-      if (entry.getType() != type) {
-        result.add(0, entry);
-      } else {
-        return result;
-      }
+    if (entry.transformedInverse == null) {
+      entry.transformedInverse = entry.getOperation().invert();
+      entry.transformedUntil = entry.sequenceNumber;
     }
-    return result;
-  }
 
-  void replaceType(IFile editor, Operation operation, Type oldType, Type newType) {
+    long latest = editorHistory.get(editorHistory.size - 1).sequenceNumber;
 
-    EditorHistoryEntry oldEntry = new EditorHistoryEntry(oldType, operation);
-    EditorHistoryEntry newEntry = new EditorHistoryEntry(newType, operation);
+    for (long number = entry.transformedUntil + 1; number <= latest; number++) {
+      Operation operation =
+          editorHistory.get(index + (int) (number - entry.sequenceNumber)).operation;
 
-    LinkedList<EditorHistoryEntry> editorHistory = history.get(editor);
+      entry.transformedInverse =
+          transformation.transform(entry.transformedInverse, operation, Boolean.TRUE);
+      entry.transformedUntil = number;
+    }
 
-    if (editorHistory == null)
-      throw new IllegalArgumentException(
-          "Cannot replace type of " + operation + ", history empty for editor " + editor);
+    return entry.transformedInverse;
+  }
 
-    ListIterator<EditorHistoryEntry> it = editorHistory.listIterator(0);
+  /** Changes the type of the given entry. */
+  void replaceType(EditorHistoryEntry entry, Type newType) {
+    entry.type = newType;
 
-    while (it.hasNext()) {
-      if (it.next().equals(oldEntry)) {
-        it.set(newEntry);
-        return;
-      }
-    }
-
-    throw new IllegalArgumentException("Cannot replace type of " + operation + ", not in history");
+    // the inverse of a remote entry is never needed
+    if (newType == Type.REMOTE) entry.transformedInverse = null;
   }
 
   void clearEditorHistory(IFile editor) {
@@ -189,18 +215,24 @@ class OperationHistory {
     history.clear();
   }
 
+  /** @return all entries of the editor's history, the latest first */
   List<EditorHistoryEntry> getAllEntries(IFile editor) {
-    return (history.get(editor) != null)
-        ? history.get(editor)
-        : new LinkedList<EditorHistoryEntry>();
+    List<EditorHistoryEntry> result = new ArrayList<EditorHistoryEntry>();
+
+    EditorHistory editorHistory = history.get(editor);
+    if (editorHistory == null) return result;
+
+    for (int i = editorHistory.size - 1; i >= 0; i--) result.add(editorHistory.get(i));
+
+    return result;
   }
 
   boolean canUndo(IFile editor) {
-    return getLatestLocal(editor) != null;
+    return getLatestEntry(editor, Type.LOCAL) != null;
   }
 
   /** Redo should only be possible if there was executed an undo. */
   boolean canRedo(IFile editor) {
-    return getLatestRedoable(editor) != null;
+    return getLatestEntry(editor, Type.REDOABLE) != null;
   }
 }
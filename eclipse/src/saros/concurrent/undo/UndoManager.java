@@ -32,7 +32,7 @@ import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
 import saros.concurrent.jupiter.internal.text.ITextOperation;
 import saros.concurrent.jupiter.internal.text.InsertOperation;
 import saros.concurrent.jupiter.internal.text.NoOperation;
-import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.OperationSequence;
 import saros.concurrent.undo.OperationHistory.EditorHistoryEntry;
 import saros.concurrent.undo.OperationHistory.Type;
 import saros.editor.EditorManager;
@@ -85,7 +85,7 @@ public class UndoManager extends AbstractActivityConsumer implements Disposable
   protected InclusionTransformation transformation = new GOTOInclusionTransformation();
 
   /** The concurrent OperationHistory */
-  protected OperationHistory undoHistory = new OperationHistory();
+  protected OperationHistory undoHistory = new OperationHistory(transformation);
 
   protected IOperationHistory eclipseHistory = OperationHistoryFactory.getOperationHistory();
 
@@ -391,24 +391,15 @@ public class UndoManager extends AbstractActivityConsumer implements Disposable
   /** @return operation that reverts the effect of the latest local operation in the given editor */
   Operation calcUndoOperation(IFile editor) {
 
-    if (!undoHistory.canUndo(editor)) return new NoOperation(); // nothing to undo
+    EditorHistoryEntry lastLocal = undoHistory.getLatestEntry(editor, Type.LOCAL);
 
-    Operation lastLocal = undoHistory.getLatestLocal(editor);
+    if (lastLocal == null) return new NoOperation(); // nothing to undo
 
-    assert lastLocal != null;
+    Operation undoOperation = undoHistory.transformInverse(editor, lastLocal);
 
-    Operation undoOperation = lastLocal.invert();
+    log.debug("transformed undo: " + undoOperation);
 
-    for (EditorHistoryEntry entry : undoHistory.entriesToLatestLocal(editor)) {
-
-      Operation operation = entry.getOperation();
-
-      undoOperation = transformation.transform(undoOperation, operation, Boolean.TRUE);
-
-      log.debug("transformed undo: " + undoOperation);
-    }
-
-    undoHistory.replaceType(editor, lastLocal, Type.LOCAL, Type.REMOTE);
+    undoHistory.replaceType(lastLocal, Type.REMOTE);
     // it is not relevant any more, so it is set remote
 
     undoHistory.add(editor, Type.REDOABLE, undoOperation); // save for redo
@@ -419,23 +410,17 @@ public class UndoManager extends AbstractActivityConsumer implements Disposable
   /** @return operation that reverts the effect of the latest undo in the given editor */
   Operation calcRedoOperation(IFile editor) {
 
-    if (!undoHistory.canRedo(editor)) return new NoOperation(); // nothing to redo
-
-    Operation lastUndo = undoHistory.getLatestRedoable(editor);
+    EditorHistoryEntry lastUndo = undoHistory.getLatestEntry(editor, Type.REDOABLE);
 
-    assert lastUndo != null;
+    if (lastUndo == null) return new NoOperation(); // nothing to redo
 
-    Operation redoOperation = lastUndo.invert();
+    Operation redoOperation = undoHistory.transformInverse(editor, lastUndo);
 
-    for (EditorHistoryEntry entry : undoHistory.entriesToLatestRedoable(editor)) {
-
-      redoOperation = transformation.transform(redoOperation, entry.getOperation(), Boolean.TRUE);
-    }
-    undoHistory.replaceType(editor, lastUndo, Type.REDOABLE, Type.REMOTE);
+    undoHistory.replaceType(lastUndo, Type.REMOTE);
     // it is not relevant any more, so it is set remote
 
     undoHistory.add(editor, Type.LOCAL, redoOperation);
-    log.debug("adding " + lastUndo + " (cause: redo internal)");
+    log.debug("adding " + lastUndo.getOperation() + " (cause: redo internal)");
 
     return redoOperation;
   }
@@ -560,7 +545,7 @@ public class UndoManager extends AbstractActivityConsumer implements Disposable
       currentLocalCompositeOperation = currentLocalAtomicOperation;
     } else if (currentLocalAtomicOperation != null)
       currentLocalCompositeOperation =
-          new SplitOperation(currentLocalCompositeOperation, currentLocalAtomicOperation);
+          OperationSequence.append(currentLocalCompositeOperation, currentLocalAtomicOperation);
     currentLocalAtomicOperation = newMRO;
   }
 }
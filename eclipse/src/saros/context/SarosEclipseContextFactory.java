@@ -1,5 +1,6 @@
 package saros.context;
 
+import java.io.File;
 import java.util.Arrays;
 import org.eclipse.core.runtime.Platform;
 import org.osgi.framework.Bundle;
@@ -10,6 +11,7 @@ import saros.communication.SkypeManager;
 import saros.communication.chat.muc.negotiation.MUCNegotiationManager;
 import saros.editor.EditorManager;
 import saros.editor.IEditorManager;
+import saros.filesystem.checksum.PersistentChecksumStore;
 import saros.monitoring.remote.EclipseRemoteProgressIndicatorFactoryImpl;
 import saros.monitoring.remote.IRemoteProgressIndicatorFactory;
 import saros.negotiation.additional_resource_data.EclipsePossibleRepresentationProvider;
@@ -33,6 +35,11 @@ import saros.ui.util.XMPPConnectionSupport;
 /** Factory used for creating the Saros context when running as Eclipse plugin. */
 public class SarosEclipseContextFactory extends AbstractContextFactory {
 
+  private static final boolean PERSISTENT_CHECKSUM_CACHE =
+      Boolean.parseBoolean(System.getProperty("saros.checksum.PERSISTENT_CACHE", "true"));
+
+  private static final String CHECKSUM_STORE_FILENAME = "checksums.dat";
+
   private final Saros saros;
 
   /**
@@ -121,5 +128,12 @@ public class SarosEclipseContextFactory extends AbstractContextFactory {
      * The STF also has the ability to return this instance however it is not used anywhere in the framework.
      */
     container.addComponent(Preferences.class, saros.getGlobalPreferences());
+
+    // keeps the checksums of shared files across restarts, see FileSystemChecksumCache
+    if (PERSISTENT_CHECKSUM_CACHE)
+      container.addComponent(
+          PersistentChecksumStore.class,
+          new PersistentChecksumStore(
+              new File(saros.getStateLocation().toFile(), CHECKSUM_STORE_FILENAME)));
   }
 }
@@ -203,6 +203,22 @@ public class UndoTest {
     assertEquals(expected, undo(file1));
   }
 
+  @Test
+  public void testLongHistory() {
+    history.add(file1, Type.LOCAL, I(0, "a")); // a
+
+    for (int i = 0; i < 999; i++) history.add(file1, Type.REMOTE, I(1, "x")); // axx...x
+
+    // the history is full, the first local operation is removed
+    history.add(file1, Type.LOCAL, S(I(1, "b"), I(2, "c"))); // abcxx...x
+
+    assertEquals(S(D(2, "c"), D(1, "b")), undo(file1)); // axx...x
+    assertEquals(S(I(1, "b"), I(2, "c")), redo(file1)); // abcxx...x
+    assertEquals(S(D(2, "c"), D(1, "b")), undo(file1)); // axx...x
+
+    assertEquals(nop(), undo(file1));
+  }
+
   /**
    * This test currently fails, because the UndoManager is using GOTOTransform which swallows a
    * delete during undo.
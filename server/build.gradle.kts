@@ -9,7 +9,6 @@ configurations {
 
 dependencies {
     compile(project(":saros.core"))
-    compile("org.apache.commons:commons-collections4:4.2")
 }
 
 sourceSets {
@@ -2,18 +2,48 @@ package saros.server.editor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import org.apache.commons.io.IOUtils;
 import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
 import saros.editor.text.TextPositionUtils;
 import saros.filesystem.IFile;
 import saros.util.LineSeparatorNormalizationUtil;
 
-/** Representation of an open file on the server. Used by {@link ServerEditorManager}. */
+/**
+ * Representation of an open file on the server. Used by {@link ServerEditorManager}.
+ *
+ * <p>The editor keeps a {@link LineIndex} of its content, so applying a text edit costs time
+ * proportional to the edit and not to the document. The content as string and its normalized form
+ * are only created when requested and cached until the next edit.
+ *
+ * <p>The editor keeps track of the edits not yet saved to disk. All methods are synchronized, so
+ * the editor may be saved by another thread than the one applying the edits.
+ */
 public class Editor {
 
   private IFile file;
   private GapBuffer content;
 
+  private final LineIndex lineIndex = new LineIndex();
+
+  /** line separator used in the content, empty if the content has none */
+  private String lineSeparator;
+
+  /** buffer for the starts of inserted lines */
+  private int[] insertedLineStarts = new int[16];
+
+  private String cachedContent;
+  private String cachedNormalizedContent;
+
+  /** {@link System#nanoTime()} of the first unsaved edit */
+  private long dirtySince;
+
+  /** {@link System#nanoTime()} of the last unsaved edit */
+  private long lastEdit;
+
+  private int unsavedEdits;
+
   public Editor(IFile file) throws IOException {
     String charset = file.getCharset();
 
@@ -24,9 +54,17 @@ public class Editor {
 
     this.file = file;
 
+    final String text;
+
     try (InputStream input = file.getContents()) {
-      content = new GapBuffer(IOUtils.toString(input, charset));
+      text = IOUtils.toString(input, charset);
     }
+
+    content = new GapBuffer(text);
+    lineSeparator = TextPositionUtils.guessLineSeparator(text);
+    cachedContent = text;
+
+    if (!lineSeparator.isEmpty()) indexLines(1, 0, 0, 0, text.length(), lineSeparator);
   }
 
   /**
@@ -34,18 +72,56 @@ public class Editor {
    *
    * @return associated file
    */
-  public IFile getFile() {
+  public synchronized IFile getFile() {
     return file;
   }
 
+  /**
+   * Associates the editor with another file, e.g after the file was moved. Unsaved edits will be
+   * saved to the new file.
+   *
+   * @param file the new file
+   */
+  synchronized void setFile(IFile file) {
+    this.file = file;
+  }
+
   /**
    * Returns the editor's text content. Depending on whether any text edits have been applied, the
    * content may differ from that of the associated file on disk.
    *
    * @return editor's content
    */
-  public String getContent() {
-    return content.toString();
+  public synchronized String getContent() {
+    if (cachedContent == null) cachedContent = content.toString();
+
+    return cachedContent;
+  }
+
+  /**
+   * Returns the number of characters of the editor's content.
+   *
+   * @return the length of the content
+   */
+  public synchronized int length() {
+    return content.length();
+  }
+
+  /**
+   * Returns the editor's text content with normalized line separators.
+   *
+   * @return editor's normalized content
+   * @see LineSeparatorNormalizationUtil#normalize(String, String)
+   */
+  public synchronized String getNormalizedContent() {
+    if (cachedNormalizedContent == null) {
+      cachedNormalizedContent =
+          lineSeparator.isEmpty()
+              ? getContent()
+              : LineSeparatorNormalizationUtil.normalize(getContent(), lineSeparator);
+    }
+
+    return cachedNormalizedContent;
   }
 
   /**
@@ -55,45 +131,167 @@ public class Editor {
    *
    * @param edit the text edit operation to apply
    */
-  public void applyTextEdit(TextEditActivity edit) {
-    String contentString = content.toString();
+  public synchronized void applyTextEdit(TextEditActivity edit) {
+    // Use system default line separator if text does not contain any line separator yet.
+    final String separator = lineSeparator.isEmpty() ? System.lineSeparator() : lineSeparator;
 
-    String lineSeparator = TextPositionUtils.guessLineSeparator(contentString);
+    final int startOffset = calculateOffset(edit.getStartPosition());
 
-    // Use system default line separator if text does not contain any line separator yet.
-    if (lineSeparator.isEmpty()) {
-      lineSeparator = System.lineSeparator();
+    final String replacedText =
+        LineSeparatorNormalizationUtil.revertNormalization(edit.getReplacedText(), separator);
+
+    final String newText =
+        LineSeparatorNormalizationUtil.revertNormalization(edit.getNewText(), separator);
+
+    if (replacedText.length() > 0) content.delete(startOffset, replacedText.length());
+
+    if (newText.length() > 0) content.insert(startOffset, newText);
+
+    /*
+     * A separator is affected by the edit if it overlaps the replaced text
+     * or, with the replaced text empty, encloses the start offset. These are
+     * exactly the lines starting behind the start offset and before the end
+     * of the replaced text plus the separator length.
+     */
+    final int firstLine = lineIndex.getFirstLineAfter(startOffset);
+    final int end = startOffset + replacedText.length() + separator.length();
+
+    int removedLines = 0;
+
+    while (firstLine + removedLines < lineIndex.getLineCount()
+        && lineIndex.getLineStart(firstLine + removedLines) < end) removedLines++;
+
+    indexLines(
+        firstLine,
+        removedLines,
+        newText.length() - replacedText.length(),
+        startOffset,
+        newText.length(),
+        separator);
+
+    // like a rescan of the content, use the system default again once all separators are deleted
+    lineSeparator = lineIndex.getLineCount() > 1 ? separator : "";
+
+    cachedContent = null;
+    cachedNormalizedContent = null;
+
+    lastEdit = System.nanoTime();
+
+    if (unsavedEdits++ == 0) dirtySince = lastEdit;
+  }
+
+  /**
+   * Calculates the offset of the given position in the content.
+   *
+   * @see TextPositionUtils#calculateOffset(String, TextPosition, String)
+   */
+  private int calculateOffset(final TextPosition position) {
+    if (!position.isValid()) {
+      throw new IllegalArgumentException("The given position must not be invalid");
+    }
+
+    final int lineNumber = position.getLineNumber();
+
+    if (lineNumber >= lineIndex.getLineCount()) {
+      throw new IllegalStateException(
+          "The given text contains fewer lines than specified by the text position");
     }
 
-    int startOffset =
-        TextPositionUtils.calculateOffset(contentString, edit.getStartPosition(), lineSeparator);
+    return lineIndex.getLineStart(lineNumber) + position.getInLineOffset();
+  }
+
+  /**
+   * Replaces the given lines of the line index by the lines starting in the changed region of the
+   * content, i.e the lines whose separator overlaps the inserted text or, with the inserted text
+   * empty, encloses the start offset.
+   */
+  private void indexLines(
+      final int firstLine,
+      final int removedLines,
+      final int delta,
+      final int startOffset,
+      final int length,
+      final String separator) {
+
+    final int separatorLength = separator.length();
+    final int from = Math.max(0, startOffset - separatorLength + 1);
+    final int to = Math.min(content.length(), startOffset + length + separatorLength - 1);
+
+    int insertedLines = 0;
+
+    for (int i = from; i + separatorLength <= to; ) {
+      if (!isSeparatorAt(i, separator)) {
+        i++;
+        continue;
+      }
 
-    if (edit.getReplacedText().length() > 0) {
-      String replacedText = edit.getReplacedText();
+      i += separatorLength;
 
-      String denormalizedReplacedText =
-          LineSeparatorNormalizationUtil.revertNormalization(replacedText, lineSeparator);
+      if (insertedLines == insertedLineStarts.length)
+        insertedLineStarts = Arrays.copyOf(insertedLineStarts, insertedLines * 2);
 
-      content.delete(startOffset, denormalizedReplacedText.length());
+      insertedLineStarts[insertedLines++] = i;
     }
-    if (edit.getNewText().length() > 0) {
-      String newText = edit.getNewText();
 
-      String denormalizedNewText =
-          LineSeparatorNormalizationUtil.revertNormalization(newText, lineSeparator);
+    lineIndex.update(firstLine, removedLines, delta, insertedLineStarts, insertedLines);
+  }
 
-      content.insert(startOffset, denormalizedNewText);
+  private boolean isSeparatorAt(final int offset, final String separator) {
+    for (int i = 0; i < separator.length(); i++) {
+      if (content.charAt(offset + i) != separator.charAt(i)) return false;
     }
+
+    return true;
+  }
+
+  /**
+   * Returns whether the editor contains edits that are not saved to disk yet.
+   *
+   * @return <code>true</code> if there are unsaved edits
+   */
+  public synchronized boolean isDirty() {
+    return unsavedEdits > 0;
+  }
+
+  /**
+   * Returns the number of edits that are not saved to disk yet.
+   *
+   * @return the number of unsaved edits
+   */
+  public synchronized int getUnsavedEdits() {
+    return unsavedEdits;
+  }
+
+  /**
+   * Returns the time of the first unsaved edit as returned by {@link System#nanoTime()}. The value
+   * is only meaningful if the editor {@linkplain #isDirty() is dirty}.
+   *
+   * @return the time of the first unsaved edit
+   */
+  public synchronized long getDirtySince() {
+    return dirtySince;
+  }
+
+  /**
+   * Returns the time of the last unsaved edit as returned by {@link System#nanoTime()}. The value
+   * is only meaningful if the editor {@linkplain #isDirty() is dirty}.
+   *
+   * @return the time of the last unsaved edit
+   */
+  public synchronized long getLastEdit() {
+    return lastEdit;
   }
 
   /**
    * Writes the editor's current content to the associated file on disk. This operation is
    * guaranteed to be atomic - it either succeeds completely or doesn't change the workspace at all
-   * (in case an exception is thrown).
+   * (in case an exception is thrown). Afterwards the editor is no longer {@linkplain #isDirty()
+   * dirty}.
    *
    * @throws IOException if writing the file fails
    */
-  public void save() throws IOException {
-    getFile().setContents(IOUtils.toInputStream(content.toString(), file.getCharset()));
+  public synchronized void save() throws IOException {
+    getFile().setContents(IOUtils.toInputStream(getContent(), file.getCharset()));
+    unsavedEdits = 0;
   }
 }
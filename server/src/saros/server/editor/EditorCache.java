@@ -0,0 +1,247 @@
+package saros.server.editor;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.apache.log4j.Logger;
+import saros.filesystem.IFile;
+
+/**
+ * Cache of the open {@link Editor}s of the {@link ServerEditorManager}, bounded by the total number
+ * of characters of the cached editors instead of the number of editors.
+ *
+ * <p>If the bound is exceeded, the least recently used editors are evicted. Editors of files that
+ * remote users have open are pinned and never evicted. Editors with unsaved edits are saved before
+ * they are evicted and are kept if saving fails. The most recently used editor is never evicted, so
+ * a single file larger than the bound can still be edited.
+ *
+ * <p>The cache also records hit, miss and eviction counts to allow tuning the bound.
+ *
+ * <p>This class is thread safe.
+ */
+public final class EditorCache {
+
+  private static final Logger log = Logger.getLogger(EditorCache.class);
+
+  /** Maximum total number of characters of the cached editors. */
+  static final long MAX_WEIGHT =
+      Long.getLong("saros.server.editor.CACHE_MAX_CHARACTERS", 32L * 1024 * 1024).longValue();
+
+  private static final class Entry {
+    private final Editor editor;
+    private long weight;
+
+    /** whether the entry was removed from the cache */
+    private boolean removed;
+
+    private Entry(final Editor editor) {
+      this.editor = editor;
+      this.weight = editor.length();
+    }
+  }
+
+  private final long maxWeight;
+
+  private final Supplier<Set<IFile>> pinnedFiles;
+
+  private final WriteBehindSaver saver;
+
+  /** in access order, the least recently used editor first */
+  private final LinkedHashMap<IFile, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+  private long weight;
+
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  /**
+   * @param maxWeight the maximum total number of characters of the cached editors
+   * @param pinnedFiles supplies the files whose editors must not be evicted
+   * @param saver the saver used to save dirty editors before they are evicted
+   */
+  EditorCache(long maxWeight, Supplier<Set<IFile>> pinnedFiles, WriteBehindSaver saver) {
+    this.maxWeight = maxWeight;
+    this.pinnedFiles = pinnedFiles;
+    this.saver = saver;
+  }
+
+  /**
+   * Returns the cached editor of the given file.
+   *
+   * @param file the file
+   * @return the editor or <code>null</code> if the editor is not cached
+   */
+  synchronized Editor get(final IFile file) {
+    final Entry entry = entries.get(file);
+
+    if (entry == null) {
+      missCount++;
+      return null;
+    }
+
+    hitCount++;
+    return entry.editor;
+  }
+
+  /**
+   * Adds the editor of the given file unless an editor for the file was added in the meantime.
+   * Evicts editors if the cache exceeds its bound afterwards.
+   *
+   * @param file the file
+   * @param editor the editor
+   * @return the cached editor of the file, which is either the given or the already cached editor
+   */
+  Editor putIfAbsent(final IFile file, final Editor editor) {
+    synchronized (this) {
+      final Entry current = entries.get(file);
+
+      if (current != null) return current.editor;
+
+      final Entry entry = new Entry(editor);
+
+      entries.put(file, entry);
+      weight += entry.weight;
+    }
+
+    evict();
+
+    return editor;
+  }
+
+  /**
+   * Updates the weight of the given file's editor, e.g after it was edited. Evicts editors if the
+   * cache exceeds its bound afterwards.
+   *
+   * @param file the file
+   */
+  void updateWeight(final IFile file) {
+    synchronized (this) {
+      final Entry entry = entries.get(file);
+
+      if (entry == null) return;
+
+      final long newWeight = entry.editor.length();
+
+      weight += newWeight - entry.weight;
+      entry.weight = newWeight;
+    }
+
+    evict();
+  }
+
+  /**
+   * Removes the editor of the given file without saving it.
+   *
+   * @param file the file
+   * @return the removed editor or <code>null</code> if there was none
+   */
+  synchronized Editor remove(final IFile file) {
+    final Entry entry = entries.remove(file);
+
+    if (entry == null) return null;
+
+    entry.removed = true;
+    weight -= entry.weight;
+    return entry.editor;
+  }
+
+  /** Returns the files of all cached editors. */
+  synchronized Set<IFile> getFiles() {
+    return new HashSet<>(entries.keySet());
+  }
+
+  /**
+   * Evicts the least recently used editors if the cache exceeds its bound. The candidates are
+   * chosen while holding the lock of the cache, but the pinned files are queried and dirty editors
+   * are saved without it.
+   */
+  private void evict() {
+    synchronized (this) {
+      if (weight <= maxWeight) return;
+    }
+
+    final Set<IFile> pinned = pinnedFiles.get();
+
+    final Map<IFile, Entry> candidates = new LinkedHashMap<>();
+
+    synchronized (this) {
+      long remainingWeight = weight;
+
+      final Iterator<Map.Entry<IFile, Entry>> iterator = entries.entrySet().iterator();
+
+      // the most recently used editor is the last one and never evicted
+      for (int remaining = entries.size();
+          remainingWeight > maxWeight && remaining > 1;
+          remaining--) {
+        final Map.Entry<IFile, Entry> candidate = iterator.next();
+
+        if (pinned.contains(candidate.getKey())) continue;
+
+        candidates.put(candidate.getKey(), candidate.getValue());
+        remainingWeight -= candidate.getValue().weight;
+      }
+    }
+
+    for (final Map.Entry<IFile, Entry> candidate : candidates.entrySet()) {
+      final IFile file = candidate.getKey();
+      final Entry entry = candidate.getValue();
+
+      if (entry.editor.isDirty()) saver.save(entry.editor);
+
+      final boolean exists = file.exists();
+
+      synchronized (this) {
+        if (weight <= maxWeight) return;
+
+        if (entry.removed) continue;
+
+        // unsaved edits of deleted files are discarded by the saver
+        if (entry.editor.isDirty() && exists) {
+          log.warn("could not evict editor of " + file + " as it could not be saved");
+          continue;
+        }
+
+        entries.remove(file);
+        entry.removed = true;
+        weight -= entry.weight;
+        evictionCount++;
+      }
+    }
+  }
+
+  /** Returns the number of lookups which found a cached editor. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of lookups which did not find a cached editor. */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of evicted editors. */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the total number of characters of the cached editors. */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /** Returns the number of cached editors. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "EditorCache [editors=%d, weight=%d, maxWeight=%d, hits=%d, misses=%d, evictions=%d]",
+        entries.size(), weight, maxWeight, hitCount, missCount, evictionCount);
+  }
+}
@@ -34,6 +34,10 @@ public class GapBuffer {
     gapLength += len;
   }
 
+  public char charAt(int pos) {
+    return content[pos < gapStart ? pos : pos + gapLength];
+  }
+
   public int length() {
     return content.length - gapLength;
   }
@@ -0,0 +1,184 @@
+package saros.server.editor;
+
+import java.util.Arrays;
+
+/**
+ * Index of the line start offsets of a text, updated incrementally on every edit. Used by {@link
+ * Editor} to translate text positions to offsets without scanning the content.
+ *
+ * <p>The line starts are kept in a gap array, so lines are inserted and removed cheaply near the
+ * previous edit. An edit shifts the starts of all following lines by the same amount, this shift is
+ * applied lazily: only the lines up to the <i>step line</i> are stored with their actual start, the
+ * lines behind it still have to be corrected by the <i>step length</i>. As consecutive edits are
+ * usually close to each other, updating the index costs O(distance to the previous edit) instead of
+ * O(lines). The start of a line is returned in O(1), the line of an offset is found in O(log
+ * lines).
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+final class LineIndex {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] starts = new int[INITIAL_CAPACITY];
+
+  private int gapStart = 1;
+
+  private int gapLength = INITIAL_CAPACITY - 1;
+
+  private int lineCount = 1;
+
+  /** Lines up to and including this line are stored with their actual start. */
+  private int stepLine;
+
+  /** Correction for the stored starts of all lines behind the step line. */
+  private int stepLength;
+
+  /**
+   * Returns the number of lines, which is always at least one.
+   *
+   * @return the number of lines
+   */
+  int getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Returns the offset at which the given line starts.
+   *
+   * @param line the line, must be lower than the {@linkplain #getLineCount() number of lines}
+   * @return the start offset of the line
+   */
+  int getLineStart(final int line) {
+    if (line < 0 || line >= lineCount)
+      throw new IndexOutOfBoundsException("line: " + line + ", lines: " + lineCount);
+
+    final int start = get(line);
+
+    return line > stepLine ? start + stepLength : start;
+  }
+
+  /**
+   * Returns the first line starting behind the given offset.
+   *
+   * @param offset the offset
+   * @return the first line whose start is greater than the offset, or the {@linkplain
+   *     #getLineCount() number of lines} if there is none
+   */
+  int getFirstLineAfter(final int offset) {
+    int low = 1;
+    int high = lineCount;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+
+      if (getLineStart(middle) > offset) high = middle;
+      else low = middle + 1;
+    }
+
+    return low;
+  }
+
+  /**
+   * Updates the index after an edit. The given number of lines starting at the given line are
+   * removed, the starts of all following lines are shifted by the given delta and the new line
+   * starts are inserted in their place.
+   *
+   * @param line the first line affected by the edit, must be greater than <code>0</code>
+   * @param removedLines the number of lines to remove
+   * @param delta the difference of the text length caused by the edit
+   * @param insertedStarts the start offsets of the inserted lines in ascending order, in the
+   *     coordinates after the edit
+   * @param insertedLines the number of inserted lines
+   */
+  void update(
+      final int line,
+      final int removedLines,
+      final int delta,
+      final int[] insertedStarts,
+      final int insertedLines) {
+
+    if (line < 1 || removedLines < 0 || line + removedLines > lineCount)
+      throw new IndexOutOfBoundsException(
+          "line: " + line + ", removed lines: " + removedLines + ", lines: " + lineCount);
+
+    moveStep(line - 1);
+
+    moveGap(line, insertedLines - removedLines);
+
+    gapLength += removedLines;
+    lineCount -= removedLines;
+
+    stepLength += delta;
+
+    // stored relative to the step as the inserted lines are behind the step line
+    for (int i = 0; i < insertedLines; i++) starts[gapStart + i] = insertedStarts[i] - stepLength;
+
+    gapStart += insertedLines;
+    gapLength -= insertedLines;
+    lineCount += insertedLines;
+
+    if (stepLine == lineCount - 1) stepLength = 0;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("LineIndex[");
+
+    for (int i = 0; i < lineCount; i++) {
+      if (i > 0) builder.append(", ");
+
+      builder.append(getLineStart(i));
+    }
+
+    return builder.append(']').toString();
+  }
+
+  private int get(final int line) {
+    return starts[line < gapStart ? line : line + gapLength];
+  }
+
+  private void add(final int line, final int value) {
+    starts[line < gapStart ? line : line + gapLength] += value;
+  }
+
+  /** Moves the step line, applying or reverting the step on the lines in between. */
+  private void moveStep(final int line) {
+    if (stepLength != 0) {
+      if (line > stepLine) {
+        for (int i = stepLine + 1; i <= line; i++) add(i, stepLength);
+      } else {
+        for (int i = line + 1; i <= stepLine; i++) add(i, -stepLength);
+      }
+    }
+
+    stepLine = line;
+  }
+
+  /** Moves the gap to the given line and makes sure it can hold the given number of lines. */
+  private void moveGap(final int line, final int minGapLength) {
+    if (gapLength < minGapLength) {
+      final int length = starts.length - gapLength;
+      final int[] grown = Arrays.copyOf(starts, Math.max(length * 2, length + minGapLength));
+      final int grownGapLength = grown.length - length;
+
+      System.arraycopy(
+          starts,
+          gapStart + gapLength,
+          grown,
+          gapStart + grownGapLength,
+          starts.length - gapStart - gapLength);
+
+      starts = grown;
+      gapLength = grownGapLength;
+    }
+
+    if (line < gapStart) {
+      System.arraycopy(starts, line, starts, line + gapLength, gapStart - line);
+    } else if (line > gapStart) {
+      System.arraycopy(starts, gapStart + gapLength, starts, gapStart, line - gapStart);
+    }
+
+    gapStart = line;
+  }
+}
@@ -2,36 +2,73 @@ package saros.server.editor;
 
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
-import org.apache.commons.collections4.map.LRUMap;
+import java.util.function.Supplier;
 import org.apache.log4j.Logger;
 import saros.activities.TextEditActivity;
 import saros.editor.IEditorManager;
 import saros.editor.ISharedEditorListener;
+import saros.editor.remote.UserEditorStateManager;
 import saros.editor.text.LineRange;
-import saros.editor.text.TextPositionUtils;
 import saros.editor.text.TextSelection;
 import saros.filesystem.IFile;
 import saros.filesystem.IFolder;
 import saros.filesystem.IReferencePoint;
+import saros.repackaged.picocontainer.Startable;
 import saros.server.filesystem.ServerFileImpl;
 import saros.server.filesystem.ServerFolderImpl;
 import saros.session.User;
-import saros.util.LineSeparatorNormalizationUtil;
 
-/** Server implementation of the {@link IEditorManager} interface */
-public class ServerEditorManager implements IEditorManager {
+/**
+ * Server implementation of the {@link IEditorManager} interface
+ *
+ * <p>Text edits are not saved to disk immediately but by a {@link WriteBehindSaver}, which writes
+ * each modified file at most once per idle or maximum delay. Unsaved editors are saved before their
+ * files are read by other components (see {@link #saveEditors(IReferencePoint)}) and when the
+ * session ends.
+ *
+ * <p>Open editors are kept in an {@link EditorCache} bounded by the total number of characters.
+ * Editors of files that remote users have open are never evicted from it.
+ */
+public class ServerEditorManager implements IEditorManager, Startable {
 
   private static final Logger log = Logger.getLogger(ServerEditorManager.class);
 
-  private Map<IFile, Editor> openEditors = Collections.synchronizedMap(new LRUMap<>(10));
   private List<ISharedEditorListener> listeners = new CopyOnWriteArrayList<>();
 
+  private final WriteBehindSaver saver;
+
+  private final EditorCache openEditors;
+
+  /**
+   * Creates a ServerEditorManager using the configured write-behind delays and cache bound.
+   *
+   * @param userEditorStateManager the manager providing the editors open by remote users
+   */
+  public ServerEditorManager(UserEditorStateManager userEditorStateManager) {
+    this(new WriteBehindSaver(), EditorCache.MAX_WEIGHT, userEditorStateManager::getOpenEditors);
+  }
+
+  ServerEditorManager(
+      WriteBehindSaver saver, long maxCachedCharacters, Supplier<Set<IFile>> pinnedFiles) {
+    this.saver = saver;
+    this.openEditors = new EditorCache(maxCachedCharacters, pinnedFiles, saver);
+  }
+
+  @Override
+  public void start() {
+    saver.start();
+  }
+
+  @Override
+  public void stop() {
+    saver.stop();
+
+    log.debug(openEditors);
+  }
+
   @Override
   public void openEditor(IFile file, boolean activate) {
     try {
@@ -43,7 +80,7 @@ public class ServerEditorManager implements IEditorManager {
 
   @Override
   public Set<IFile> getOpenEditors() {
-    return openEditors.keySet();
+    return openEditors.getFiles();
   }
 
   @Override
@@ -57,22 +94,43 @@ public class ServerEditorManager implements IEditorManager {
 
   @Override
   public String getNormalizedContent(IFile file) {
-    String content = getContent(file);
-
-    if (content == null) {
+    try {
+      return getOrCreateEditor(file).getNormalizedContent();
+    } catch (IOException e) {
       return null;
     }
-
-    String lineSeparator = TextPositionUtils.guessLineSeparator(content);
-
-    return LineSeparatorNormalizationUtil.normalize(content, lineSeparator);
   }
 
   @Override
   public void saveEditors(IReferencePoint referencePoint) {
-    // do nothing?
-    // we do not keep dirty editors,
-    // because the LRUMap might close Editors at any time
+    saver.flush(referencePoint);
+  }
+
+  /**
+   * Saves the editor of the given file if it contains unsaved edits.
+   *
+   * @param file the file whose editor should be saved
+   */
+  public void saveEditor(IFile file) {
+    saver.flushEditor(file);
+  }
+
+  /**
+   * Returns the cache of the open editors, e.g to query its statistics.
+   *
+   * @return the editor cache
+   */
+  public EditorCache getEditorCache() {
+    return openEditors;
+  }
+
+  /**
+   * Returns the write-behind saver, e.g to query its statistics.
+   *
+   * @return the write-behind saver
+   */
+  public WriteBehindSaver getWriteBehindSaver() {
+    return saver;
   }
 
   @Override
@@ -96,8 +154,9 @@ public class ServerEditorManager implements IEditorManager {
   }
 
   /**
-   * Get an existing or create a new Editor for a given file. May remove the least recently used
-   * Editor to free memory.
+   * Get an existing or create a new Editor for a given file. May evict least recently used Editors
+   * to free memory. An evicted Editor which received edits in the meantime is kept by the saver
+   * until it is saved and is reused if the file is opened again.
    *
    * @param file of the file to open
    * @return Editor of the file
@@ -105,15 +164,20 @@ public class ServerEditorManager implements IEditorManager {
    */
   private Editor getOrCreateEditor(IFile file) throws IOException {
     Editor editor = openEditors.get(file);
+
+    if (editor != null) return editor;
+
+    editor = saver.getDirtyEditor(file);
+
     if (editor == null) {
       if (!file.exists()) {
         throw new NoSuchFileException(file.toString());
       }
 
       editor = new Editor(file);
-      openEditors.put(file, editor);
     }
-    return editor;
+
+    return openEditors.putIfAbsent(file, editor);
   }
 
   /**
@@ -126,7 +190,8 @@ public class ServerEditorManager implements IEditorManager {
     try {
       Editor editor = getOrCreateEditor(file);
       editor.applyTextEdit(activity);
-      editor.save();
+      saver.modified(editor);
+      openEditors.updateWeight(file);
       for (ISharedEditorListener listener : listeners) {
         listener.textEdited(activity);
       }
@@ -136,41 +201,75 @@ public class ServerEditorManager implements IEditorManager {
   }
 
   /**
-   * Updates the mapping of an open editor to a new file.
+   * Updates the mapping of an open editor to a new file. Unsaved edits are not written to the old
+   * file, the new file is expected to already contain the current content. An editor that is
+   * already open for the new file is discarded as it refers to the replaced content. Must be called
+   * before the old file is deleted, so the old file is not written in the meantime.
    *
    * @param oldFile the old file
    * @param newFile the new file
    */
   public void updateMapping(IFile oldFile, IFile newFile) {
+    // otherwise both editors would write to the new file
+    discardEditor(newFile);
+
+    saver.discard(oldFile);
+
     Editor oldEditor = openEditors.remove(oldFile);
-    openEditors.put(newFile, oldEditor);
+
+    if (oldEditor == null) return;
+
+    oldEditor.setFile(newFile);
+    openEditors.putIfAbsent(newFile, oldEditor);
+
+    if (!oldEditor.isDirty()) return;
+
+    try {
+      saver.modified(oldEditor);
+    } catch (IOException e) {
+      log.error("Could not save editor of moved file " + newFile, e);
+    }
+  }
+
+  /**
+   * Closes the editor of the given file and discards its unsaved edits. Must be called before the
+   * file is deleted, otherwise the unsaved edits may be written to the deleted file in the
+   * meantime.
+   *
+   * @param file the file that is about to be deleted
+   */
+  public void discardEditor(IFile file) {
+    saver.discard(file);
+    openEditors.remove(file);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Unsaved edits are saved if the file still exists and discarded otherwise.
+   */
   @Override
   public void closeEditor(IFile file) {
+    if (file.exists()) saver.flushEditor(file);
+    else saver.discard(file);
+
     openEditors.remove(file);
   }
 
   /**
-   * Close all editors of files in a specific folder. Helpful if a folder gets deleted.
+   * Closes all editors of files in a specific folder and discards their unsaved edits. Must be
+   * called before the folder is deleted, see {@link #discardEditor(IFile)}.
    *
-   * @param folder the folder
+   * @param folder the folder that is about to be deleted
    */
-  public void closeEditorsInFolder(IFolder folder) {
-    synchronized (openEditors) {
-      ServerFolderImpl serverFolder = (ServerFolderImpl) folder;
-
-      Set<IFile> keys = openEditors.keySet();
-      Set<IFile> invalidKeys = new HashSet<>();
-      for (IFile file : keys) {
-        ServerFileImpl serverFile = (ServerFileImpl) file;
-
-        if (serverFile.getFullPath().startsWith(serverFolder.getFullPath())) {
-          invalidKeys.add(file);
-        }
-      }
-      for (IFile file : invalidKeys) {
-        closeEditor(file);
+  public void discardEditorsInFolder(IFolder folder) {
+    ServerFolderImpl serverFolder = (ServerFolderImpl) folder;
+
+    for (IFile file : openEditors.getFiles()) {
+      ServerFileImpl serverFile = (ServerFileImpl) file;
+
+      if (serverFile.getFullPath().startsWith(serverFolder.getFullPath())) {
+        discardEditor(file);
       }
     }
   }
@@ -0,0 +1,311 @@
+package saros.server.editor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import saros.filesystem.IFile;
+import saros.filesystem.IReferencePoint;
+import saros.util.NamedThreadFactory;
+import saros.util.ThreadUtils;
+
+/**
+ * Saves modified {@link Editor}s to disk in the background instead of after every single text edit.
+ *
+ * <p>A dirty editor is saved once no edit was applied to it for the {@linkplain #IDLE_DELAY idle
+ * delay}, but at the latest after the {@linkplain #MAX_DELAY maximum delay} since its first unsaved
+ * edit. The maximum delay therefore bounds the amount of changes lost if the server crashes. A
+ * maximum delay of <code>0</code> disables the write-behind, i.e every edit is saved immediately.
+ *
+ * <p>The saver also records statistics about the writes to allow tuning the delays.
+ *
+ * <p>This class is thread safe.
+ */
+public final class WriteBehindSaver {
+
+  private static final Logger log = Logger.getLogger(WriteBehindSaver.class);
+
+  /** Time in milliseconds without edits after which a dirty editor is saved. */
+  static final long IDLE_DELAY =
+      Long.getLong("saros.server.editor.WRITE_BEHIND_IDLE_DELAY", 1000L).longValue();
+
+  /**
+   * Maximum time in milliseconds an edit stays unsaved, <code>0</code> disables the write-behind.
+   */
+  static final long MAX_DELAY =
+      Long.getLong("saros.server.editor.WRITE_BEHIND_MAX_DELAY", 5000L).longValue();
+
+  private static final long MIN_CHECK_INTERVAL = 50;
+
+  private final long idleDelay;
+
+  private final long maxDelay;
+
+  private final Map<IFile, Editor> dirtyEditors = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService scheduler;
+
+  private long flushCount;
+  private long failedFlushCount;
+  private long savedEdits;
+
+  private long totalLag;
+  private long maxLag;
+
+  /**
+   * Creates a saver using the configured {@linkplain #IDLE_DELAY idle} and {@linkplain #MAX_DELAY
+   * maximum} delays.
+   */
+  WriteBehindSaver() {
+    this(IDLE_DELAY, MAX_DELAY);
+  }
+
+  /**
+   * @param idleDelay the idle delay in milliseconds
+   * @param maxDelay the maximum delay in milliseconds
+   */
+  WriteBehindSaver(long idleDelay, long maxDelay) {
+    this.maxDelay = Math.max(0, maxDelay);
+    this.idleDelay = Math.max(0, Math.min(idleDelay, this.maxDelay));
+  }
+
+  /** Starts saving dirty editors in the background. */
+  synchronized void start() {
+    if (maxDelay == 0 || scheduler != null) return;
+
+    final long interval = Math.max(MIN_CHECK_INTERVAL, Math.min(idleDelay, maxDelay) / 4);
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("EditorWriteBehind", false));
+
+    scheduler.scheduleWithFixedDelay(
+        ThreadUtils.wrapSafe(log, this::flushDue), interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the background saving and saves all dirty editors. */
+  void stop() {
+    final ScheduledExecutorService current;
+
+    synchronized (this) {
+      current = scheduler;
+      scheduler = null;
+    }
+
+    if (current != null) {
+      current.shutdown();
+
+      try {
+        if (!current.awaitTermination(10, TimeUnit.SECONDS))
+          log.warn("timed out waiting for the write-behind to finish");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    flush(null);
+
+    log.debug(this);
+  }
+
+  /**
+   * Notifies the saver that the given editor was modified. Saves the editor immediately if the
+   * write-behind is disabled.
+   *
+   * @param editor the modified editor
+   * @throws IOException if the write-behind is disabled and saving the editor fails
+   */
+  void modified(Editor editor) throws IOException {
+    if (maxDelay == 0) {
+      final long dirtySince = editor.getDirtySince();
+      final int edits = editor.getUnsavedEdits();
+
+      editor.save();
+      recordFlush(dirtySince, edits);
+      return;
+    }
+
+    dirtyEditors.put(editor.getFile(), editor);
+  }
+
+  /**
+   * Returns the dirty editor of the given file, e.g an editor that was already closed but not saved
+   * yet.
+   *
+   * @param file the file
+   * @return the dirty editor of the file or <code>null</code>
+   */
+  Editor getDirtyEditor(IFile file) {
+    return dirtyEditors.get(file);
+  }
+
+  /**
+   * Forgets the unsaved edits of the given file, e.g because the file is deleted. Waits until a
+   * save of the file in progress is finished, afterwards the discarded edits are never written.
+   *
+   * @param file the file
+   */
+  void discard(IFile file) {
+    final Editor editor = dirtyEditors.get(file);
+
+    if (editor == null) return;
+
+    synchronized (editor) {
+      dirtyEditors.remove(file, editor);
+    }
+  }
+
+  /**
+   * Saves the editor of the given file if it is dirty.
+   *
+   * @param file the file
+   */
+  void flushEditor(IFile file) {
+    final Editor editor = dirtyEditors.get(file);
+
+    if (editor != null) save(editor);
+  }
+
+  /**
+   * Saves all dirty editors of files belonging to the given reference point.
+   *
+   * @param referencePoint the reference point or <code>null</code> to save all dirty editors
+   */
+  void flush(IReferencePoint referencePoint) {
+    for (final Editor editor : dirtyEditors.values()) {
+      if (referencePoint == null || referencePoint.equals(editor.getFile().getReferencePoint()))
+        save(editor);
+    }
+  }
+
+  /** Saves all dirty editors which are idle or reached the maximum delay. */
+  private void flushDue() {
+    final long now = System.nanoTime();
+
+    final long idle = TimeUnit.MILLISECONDS.toNanos(idleDelay);
+    final long max = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+
+    for (final Editor editor : dirtyEditors.values()) {
+      final boolean due;
+
+      synchronized (editor) {
+        due =
+            !editor.isDirty()
+                || now - editor.getLastEdit() >= idle
+                || now - editor.getDirtySince() >= max;
+      }
+
+      if (due) save(editor);
+    }
+  }
+
+  /**
+   * Saves the given editor if it is dirty, or discards its unsaved edits if the file was deleted.
+   *
+   * @param editor the editor
+   */
+  void save(final Editor editor) {
+    /*
+     * The editor is removed from the dirty editors only after it is saved,
+     * so it can still be found by the editor manager while it is written.
+     * An edit applied afterwards adds it again.
+     */
+    synchronized (editor) {
+      final IFile file = editor.getFile();
+
+      // the unsaved edits were discarded in the meantime, e.g because the file was deleted
+      if (dirtyEditors.get(file) != editor) return;
+
+      if (editor.isDirty() && !file.exists()) {
+        log.warn("discarding unsaved edits of deleted file " + file);
+      } else if (editor.isDirty()) {
+        final long dirtySince = editor.getDirtySince();
+        final int edits = editor.getUnsavedEdits();
+
+        try {
+          editor.save();
+          recordFlush(dirtySince, edits);
+        } catch (IOException e) {
+          synchronized (this) {
+            failedFlushCount++;
+          }
+
+          log.error("could not save editor of " + file, e);
+          return;
+        }
+      }
+
+      dirtyEditors.remove(file, editor);
+    }
+  }
+
+  private synchronized void recordFlush(final long dirtySince, final int edits) {
+    final long lag = System.nanoTime() - dirtySince;
+
+    flushCount++;
+    savedEdits += edits;
+    totalLag += lag;
+    maxLag = Math.max(maxLag, lag);
+  }
+
+  /** Returns the number of writes of editors to disk. */
+  public synchronized long getFlushCount() {
+    return flushCount;
+  }
+
+  /** Returns the number of failed writes of editors to disk. */
+  public synchronized long getFailedFlushCount() {
+    return failedFlushCount;
+  }
+
+  /** Returns the average number of edits saved per write. */
+  public synchronized double getAverageEditsPerFlush() {
+    return flushCount == 0 ? 0D : (double) savedEdits / flushCount;
+  }
+
+  /** Returns the average time in milliseconds between the first unsaved edit and the write. */
+  public synchronized long getAverageLag() {
+    return flushCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLag / flushCount);
+  }
+
+  /** Returns the highest time in milliseconds between the first unsaved edit and the write. */
+  public synchronized long getMaxLag() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLag);
+  }
+
+  /** Returns the number of editors with unsaved edits. */
+  public int getDirtyEditorCount() {
+    return dirtyEditors.size();
+  }
+
+  /** Returns the time in milliseconds the oldest unsaved edit is waiting to be written. */
+  public long getCurrentLag() {
+    final long now = System.nanoTime();
+
+    long lag = 0;
+
+    for (final Editor editor : dirtyEditors.values()) {
+      synchronized (editor) {
+        if (editor.isDirty()) lag = Math.max(lag, now - editor.getDirtySince());
+      }
+    }
+
+    return TimeUnit.NANOSECONDS.toMillis(lag);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "WriteBehindSaver [flushes=%d, failedFlushes=%d, avgEditsPerFlush=%.1f, avgLag=%d ms,"
+            + " maxLag=%d ms, dirtyEditors=%d]",
+        flushCount,
+        failedFlushCount,
+        getAverageEditsPerFlush(),
+        getAverageLag(),
+        getMaxLag(),
+        getDirtyEditorCount());
+  }
+}
@@ -105,22 +105,32 @@ public class FileActivityExecutor extends AbstractActivityConsumer implements St
       charset = activity.getEncoding();
 
     } else {
+      editorManager.saveEditor(oldFile);
       contents = oldFile.getContents();
       charset = oldFile.getCharset();
     }
 
+    // before the creation so a stale editor of the new file does not overwrite it in the meantime
+    editorManager.discardEditor(newFile);
+
     newFile.create(contents);
     newFile.setCharset(charset);
 
-    oldFile.delete();
-
-    // only update if all previous operations are successful
+    /*
+     * only update if all previous operations are successful, but before the
+     * deletion so the old file is not written by the editor in the meantime
+     */
     editorManager.updateMapping(oldFile, newFile);
+
+    oldFile.delete();
   }
 
   private void executeFileRemoval(FileActivity activity) throws IOException {
     IFile file = activity.getResource();
-    editorManager.closeEditor(file);
+
+    // before the deletion so the file is not written by the editor in the meantime
+    editorManager.discardEditor(file);
+
     file.delete();
   }
 }
@@ -67,7 +67,10 @@ public class FolderActivityExecutor extends AbstractActivityConsumer implements
   private void executeFolderRemoval(FolderDeletedActivity activity) throws IOException {
 
     IFolder folder = activity.getResource();
+
+    // before the deletion so the files are not written by their editors in the meantime
+    editorManager.discardEditorsInFolder(folder);
+
     folder.delete();
-    editorManager.closeEditorsInFolder(folder);
   }
 }
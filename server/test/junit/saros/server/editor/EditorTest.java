@@ -0,0 +1,200 @@
+package saros.server.editor;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextPositionUtils;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+import saros.util.LineSeparatorNormalizationUtil;
+
+public class EditorTest {
+
+  private static final User USER = new User(new JID("alice@jabber.org"), false, false, null);
+
+  @Test
+  public void testInsertAndDeleteLines() throws Exception {
+    final Editor editor = createEditor("first\nsecond\nthird");
+
+    editor.applyTextEdit(edit(editor, 1, 6, "\nnew", ""));
+    assertEquals("first\nsecond\nnew\nthird", editor.getContent());
+
+    editor.applyTextEdit(edit(editor, 3, 0, "x", ""));
+    assertEquals("first\nsecond\nnew\nxthird", editor.getContent());
+
+    editor.applyTextEdit(edit(editor, 0, 5, "", "\nsecond\nnew"));
+    assertEquals("first\nxthird", editor.getContent());
+
+    editor.applyTextEdit(edit(editor, 1, 1, "y", ""));
+    assertEquals("first\nxythird", editor.getContent());
+  }
+
+  @Test
+  public void testWindowsLineSeparators() throws Exception {
+    final Editor editor = createEditor("first\r\nsecond");
+
+    editor.applyTextEdit(edit(editor, 1, 6, "\nthird", ""));
+    assertEquals("first\r\nsecond\r\nthird", editor.getContent());
+    assertEquals("first\nsecond\nthird", editor.getNormalizedContent());
+
+    editor.applyTextEdit(edit(editor, 2, 0, "x", ""));
+    assertEquals("first\r\nsecond\r\nxthird", editor.getContent());
+  }
+
+  @Test
+  public void testFirstLineSeparatorUsesSystemDefault() throws Exception {
+    final Editor editor = createEditor("text");
+
+    assertEquals("text", editor.getNormalizedContent());
+
+    editor.applyTextEdit(edit(editor, 0, 4, "\nmore", ""));
+    editor.applyTextEdit(edit(editor, 1, 4, "\nend", ""));
+
+    final String separator = System.lineSeparator();
+
+    assertEquals("text" + separator + "more" + separator + "end", editor.getContent());
+    assertEquals("text\nmore\nend", editor.getNormalizedContent());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPositionBehindLastLine() throws Exception {
+    final Editor editor = createEditor("first\nsecond");
+
+    editor.applyTextEdit(
+        TextEditActivity.buildTextEditActivity(
+            USER, new TextPosition(2, 0), "x", "", editor.getFile()));
+  }
+
+  @Test
+  public void testRandomEditsMatchRescanningTheContent() throws Exception {
+    final Random random = new Random(4711);
+
+    for (final String initial : new String[] {"", "abc", "a\nb\n\nc", "a\r\nb\r\n\r\nc"}) {
+      final Editor editor = createEditor(initial);
+      final LegacyEditor legacy = new LegacyEditor(initial);
+
+      for (int i = 0; i < 2000; i++) {
+        final TextEditActivity edit = randomEdit(random, legacy.getContent(), editor.getFile());
+
+        editor.applyTextEdit(edit);
+        legacy.applyTextEdit(edit);
+
+        assertEquals("edit " + i + ": " + edit, legacy.getContent(), editor.getContent());
+      }
+    }
+  }
+
+  private static TextEditActivity randomEdit(
+      final Random random, final String content, final IFile file) {
+
+    final String separator = TextPositionUtils.guessLineSeparator(content);
+
+    int start = random.nextInt(content.length() + 1);
+    int end = Math.min(content.length(), start + random.nextInt(5));
+
+    // never split a windows line separator
+    if (start > 0 && start < content.length() && content.startsWith("\r\n", start - 1)) start--;
+
+    if (end > 0 && end < content.length() && content.startsWith("\r\n", end - 1)) end++;
+
+    end = Math.max(start, end);
+
+    final String before = content.substring(0, start);
+
+    final int line = separator.isEmpty() ? 0 : countMatches(before, separator);
+    final int lineStart = line == 0 ? 0 : before.lastIndexOf(separator) + separator.length();
+
+    String replaced = content.substring(start, end);
+
+    if (!separator.isEmpty())
+      replaced = LineSeparatorNormalizationUtil.normalize(replaced, separator);
+
+    final StringBuilder inserted = new StringBuilder();
+
+    for (int i = random.nextInt(4); i > 0; i--) inserted.append("ab\n".charAt(random.nextInt(3)));
+
+    return TextEditActivity.buildTextEditActivity(
+        USER, new TextPosition(line, start - lineStart), inserted.toString(), replaced, file);
+  }
+
+  private static int countMatches(final String text, final String separator) {
+    int count = 0;
+
+    for (int i = text.indexOf(separator); i != -1; i = text.indexOf(separator, i + 1)) count++;
+
+    return count;
+  }
+
+  private static TextEditActivity edit(
+      final Editor editor,
+      final int line,
+      final int offset,
+      final String newText,
+      final String replacedText) {
+
+    return TextEditActivity.buildTextEditActivity(
+        USER, new TextPosition(line, offset), newText, replacedText, editor.getFile());
+  }
+
+  private static Editor createEditor(final String content) throws Exception {
+    final IFile file = EasyMock.createMock(IFile.class);
+
+    expect(file.getCharset()).andStubReturn("UTF-8");
+    expect(file.getContents())
+        .andStubAnswer(() -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+
+    replay(file);
+
+    return new Editor(file);
+  }
+
+  /** The former implementation, rescanning the whole content on every edit. */
+  private static class LegacyEditor {
+
+    private final GapBuffer content;
+
+    LegacyEditor(final String content) {
+      this.content = new GapBuffer(content);
+    }
+
+    String getContent() {
+      return content.toString();
+    }
+
+    void applyTextEdit(final TextEditActivity edit) {
+      String contentString = content.toString();
+
+      String lineSeparator = TextPositionUtils.guessLineSeparator(contentString);
+
+      if (lineSeparator.isEmpty()) {
+        lineSeparator = System.lineSeparator();
+      }
+
+      int startOffset =
+          TextPositionUtils.calculateOffset(contentString, edit.getStartPosition(), lineSeparator);
+
+      if (edit.getReplacedText().length() > 0) {
+        content.delete(
+            startOffset,
+            LineSeparatorNormalizationUtil.revertNormalization(
+                    edit.getReplacedText(), lineSeparator)
+                .length());
+      }
+
+      if (edit.getNewText().length() > 0) {
+        content.insert(
+            startOffset,
+            LineSeparatorNormalizationUtil.revertNormalization(edit.getNewText(), lineSeparator));
+      }
+    }
+  }
+}
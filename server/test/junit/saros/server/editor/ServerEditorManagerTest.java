@@ -0,0 +1,415 @@
+package saros.server.editor;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.IOUtils;
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.filesystem.IReferencePoint;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class ServerEditorManagerTest extends EasyMockSupport {
+
+  private static final int EDITS = 100;
+
+  private final User user = new User(new JID("alice@jabber.org"), false, false, null);
+
+  private IReferencePoint referencePoint;
+
+  private ServerEditorManager manager;
+
+  /** contents written to the files, in the order of the writes */
+  private final List<String> writes = new CopyOnWriteArrayList<>();
+
+  private final Set<IFile> pinnedFiles = Collections.synchronizedSet(new HashSet<>());
+
+  private volatile boolean deleted;
+
+  /** whether the pinned files were queried or a file was written while holding the cache lock */
+  private volatile boolean calledWithCacheLock;
+
+  /** if set, writes wait for it and count down {@link #writeStarted} before */
+  private volatile CountDownLatch writeBlocker;
+
+  private final CountDownLatch writeStarted = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    referencePoint = createMock(IReferencePoint.class);
+  }
+
+  @After
+  public void tearDown() {
+    if (manager != null) manager.stop();
+  }
+
+  @Test
+  public void testEditsAreSavedOnSaveEditors() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(10000, 60000);
+
+    type(file, EDITS);
+
+    assertEquals("edits must not be saved immediately", 0, writes.size());
+
+    manager.saveEditors(referencePoint);
+
+    assertEquals(1, writes.size());
+    assertEquals(repeat(EDITS), writes.get(0));
+
+    final WriteBehindSaver saver = manager.getWriteBehindSaver();
+
+    assertEquals(1, saver.getFlushCount());
+    assertEquals(EDITS, saver.getAverageEditsPerFlush(), 0D);
+    assertEquals(0, saver.getDirtyEditorCount());
+  }
+
+  @Test
+  public void testEditsAreSavedOnStop() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(10000, 60000);
+
+    type(file, EDITS);
+
+    manager.stop();
+    manager = null;
+
+    assertEquals(1, writes.size());
+    assertEquals(repeat(EDITS), writes.get(0));
+  }
+
+  @Test(timeout = 10000)
+  public void testIdleEditorIsSaved() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(100, 60000);
+
+    type(file, EDITS);
+
+    while (manager.getWriteBehindSaver().getFlushCount() == 0) Thread.sleep(10);
+
+    assertEquals(1, writes.size());
+    assertEquals(repeat(EDITS), writes.get(0));
+  }
+
+  @Test(timeout = 10000)
+  public void testMaxDelayBoundsUnsavedEdits() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(60000, 200);
+
+    final long start = System.currentTimeMillis();
+
+    int edits = 0;
+
+    // keep typing, the editor never becomes idle
+    while (manager.getWriteBehindSaver().getFlushCount() == 0) {
+      type(file, 1);
+      edits++;
+      Thread.sleep(5);
+    }
+
+    assertTrue("edits were not saved in time", System.currentTimeMillis() - start < 200 + 2000);
+
+    assertEquals(1, writes.size());
+    assertTrue(writes.get(0).length() <= edits);
+  }
+
+  @Test
+  public void testWriteThroughIfDisabled() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(0, 0);
+
+    type(file, 3);
+
+    assertEquals(3, writes.size());
+    assertEquals(repeat(3), writes.get(2));
+    assertEquals(3, manager.getWriteBehindSaver().getFlushCount());
+  }
+
+  @Test
+  public void testCacheIsBoundedByCharacters() throws Exception {
+    createManager(10000, 60000, 250);
+
+    final IFile[] files = new IFile[5];
+
+    for (int i = 0; i < files.length; i++) {
+      files[i] = createFile(repeat(100));
+      manager.openEditor(files[i], false);
+    }
+
+    final EditorCache cache = manager.getEditorCache();
+
+    assertEquals(2, cache.size());
+    assertEquals(200, cache.getWeight());
+    assertEquals(5, cache.getMissCount());
+    assertEquals(3, cache.getEvictionCount());
+
+    assertEquals(repeat(100), manager.getContent(files[4]));
+    assertEquals(1, cache.getHitCount());
+
+    assertEquals(repeat(100), manager.getContent(files[0]));
+    assertEquals(6, cache.getMissCount());
+  }
+
+  @Test
+  public void testEditorOfLargeFileIsKept() throws Exception {
+    createManager(10000, 60000, 50);
+
+    final IFile file = createFile(repeat(100));
+
+    type(file, EDITS);
+
+    assertEquals(1, manager.getEditorCache().size());
+    assertEquals(1, manager.getEditorCache().getMissCount());
+    assertEquals(0, writes.size());
+  }
+
+  @Test
+  public void testPinnedEditorIsNotEvicted() throws Exception {
+    createManager(10000, 60000, 250);
+
+    final IFile pinned = createFile(repeat(100));
+
+    pinnedFiles.add(pinned);
+
+    manager.openEditor(pinned, false);
+
+    for (int i = 0; i < 5; i++) manager.openEditor(createFile(repeat(100)), false);
+
+    assertTrue(manager.getOpenEditors().contains(pinned));
+    assertEquals(2, manager.getEditorCache().size());
+  }
+
+  @Test
+  public void testDirtyEditorIsSavedBeforeEviction() throws Exception {
+    createManager(10000, 60000, 250);
+
+    final IFile file = createFile("");
+
+    type(file, EDITS);
+
+    assertEquals(0, writes.size());
+
+    for (int i = 0; i < 2; i++) manager.openEditor(createFile(repeat(100)), false);
+
+    assertEquals(1, manager.getEditorCache().getEvictionCount());
+    assertEquals(1, writes.size());
+    assertEquals(repeat(EDITS), writes.get(0));
+
+    assertEquals(repeat(EDITS), manager.getContent(file));
+  }
+
+  @Test
+  public void testEvictionDoesNotHoldCacheLock() throws Exception {
+    createManager(10000, 60000, 250);
+
+    final IFile file = createFile("");
+
+    type(file, EDITS);
+
+    for (int i = 0; i < 2; i++) manager.openEditor(createFile(repeat(100)), false);
+
+    assertEquals(1, manager.getEditorCache().getEvictionCount());
+    assertEquals(1, writes.size());
+    assertFalse(
+        "pinned files were queried or editor was saved while holding the cache lock",
+        calledWithCacheLock);
+  }
+
+  @Test
+  public void testClosingDeletedFileDiscardsEdits() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(10000, 60000);
+
+    type(file, EDITS);
+
+    deleted = true;
+
+    manager.closeEditor(file);
+    manager.saveEditors(null);
+
+    assertEquals(0, writes.size());
+    assertEquals(0, manager.getWriteBehindSaver().getDirtyEditorCount());
+  }
+
+  @Test(timeout = 10000)
+  public void testDiscardWaitsForFlushInProgress() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(10000, 60000);
+
+    type(file, EDITS);
+
+    writeBlocker = new CountDownLatch(1);
+
+    final Thread flush = new Thread(() -> manager.saveEditors(null));
+    flush.start();
+
+    writeStarted.await();
+
+    final Thread removal =
+        new Thread(
+            () -> {
+              manager.discardEditor(file);
+              deleted = true;
+            });
+
+    removal.start();
+
+    try {
+      removal.join(200);
+      assertTrue("editor was discarded while it was written", removal.isAlive());
+      assertFalse(deleted);
+    } finally {
+      writeBlocker.countDown();
+    }
+
+    flush.join();
+    removal.join();
+
+    // the file is created again, the discarded editor must not overwrite it
+    deleted = false;
+
+    manager.saveEditors(null);
+
+    assertEquals(1, writes.size());
+    assertEquals(0, manager.getWriteBehindSaver().getDirtyEditorCount());
+    assertFalse(manager.getOpenEditors().contains(file));
+  }
+
+  @Test
+  public void testDiscardedEditorIsNotSavedByPendingFlush() throws Exception {
+    final IFile file = createFile("");
+
+    createManager(10000, 60000);
+
+    type(file, EDITS);
+
+    // e.g the write-behind thread looked up the editor before it was discarded
+    final Editor editor = manager.getEditorCache().get(file);
+
+    manager.discardEditor(file);
+
+    manager.getWriteBehindSaver().save(editor);
+
+    assertEquals(0, writes.size());
+    assertEquals(0, manager.getWriteBehindSaver().getDirtyEditorCount());
+  }
+
+  @Test
+  public void testMovingOntoOpenEditorDiscardsIt() throws Exception {
+    final IFile oldFile = createFile("");
+    final IFile newFile = createFile("");
+
+    createManager(10000, 60000);
+
+    type(newFile, EDITS);
+    type(oldFile, 2 * EDITS);
+
+    manager.updateMapping(oldFile, newFile);
+    manager.saveEditors(null);
+
+    assertEquals(Collections.singletonList(repeat(2 * EDITS)), writes);
+    assertEquals(0, manager.getWriteBehindSaver().getDirtyEditorCount());
+    assertEquals(Collections.singleton(newFile), manager.getOpenEditors());
+  }
+
+  private void createManager(long idleDelay, long maxDelay) {
+    createManager(idleDelay, maxDelay, Long.MAX_VALUE);
+  }
+
+  private void createManager(long idleDelay, long maxDelay, long maxCachedCharacters) {
+    manager =
+        new ServerEditorManager(
+            new WriteBehindSaver(idleDelay, maxDelay),
+            maxCachedCharacters,
+            () -> {
+              checkCacheLock();
+              return new HashSet<>(pinnedFiles);
+            });
+    manager.start();
+  }
+
+  private void type(final IFile file, final int count) {
+    for (int i = 0; i < count; i++) {
+      final int offset = manager.getContent(file).length();
+
+      manager.applyTextEdit(
+          TextEditActivity.buildTextEditActivity(user, new TextPosition(0, offset), "x", "", file));
+    }
+  }
+
+  private void checkCacheLock() {
+    if (manager != null && Thread.holdsLock(manager.getEditorCache())) calledWithCacheLock = true;
+  }
+
+  private static String repeat(final int count) {
+    final StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < count; i++) builder.append('x');
+
+    return builder.toString();
+  }
+
+  private IFile createFile(final String initialContent) throws Exception {
+    final IFile file = createMock(IFile.class);
+
+    final AtomicReference<String> content = new AtomicReference<>(initialContent);
+
+    expect(file.exists()).andStubAnswer(() -> !deleted);
+    expect(file.getCharset()).andStubReturn("UTF-8");
+    expect(file.getReferencePoint()).andStubReturn(referencePoint);
+    expect(file.getContents())
+        .andStubAnswer(
+            () -> new ByteArrayInputStream(content.get().getBytes(StandardCharsets.UTF_8)));
+
+    file.setContents(anyObject(InputStream.class));
+    expectLastCall()
+        .andStubAnswer(
+            () -> {
+              final CountDownLatch blocker = writeBlocker;
+
+              if (blocker != null) {
+                writeStarted.countDown();
+                blocker.await();
+              }
+
+              checkCacheLock();
+              content.set(IOUtils.toString((InputStream) getCurrentArguments()[0], "UTF-8"));
+              writes.add(content.get());
+              return null;
+            });
+
+    replay(file);
+
+    return file;
+  }
+}